@@ -1,43 +1,424 @@
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * 
- * 
+ * Pool of worker threads that runs code asynchronously. Workers are reused
+ * between tasks, so the cost of creating a thread is only paid when the pool
+ * grows. Tasks wait inside of a bounded queue while every worker is busy, and
+ * the {@link Saturation} policy decides what happens once that queue is full.
+ *
+ * <p>
+ * The pool keeps at least its minimum number of workers. Extra workers, up to
+ * the maximum, are only started once the queue is full and retire after being
+ * idle for {@link #KEEP_ALIVE} seconds. A pool with an equal minimum and maximum
+ * has a fixed size.
+ *
+ * <p>
+ * Workers are platform threads unless another {@link ThreadFactory} is given.
+ * On JDK 21 and newer, {@link #virtual(String)} creates an executor without a
+ * pool, which starts a new virtual thread for every task and never reuses it.
+ *
  * @author Ryan Mayobre
  *
  */
 public class AsyncExecutor
 {
 	/**
-	 * 
+	 * Decides what happens to a task when every worker is busy and the queue is full.
+	 */
+	public enum Saturation
+	{
+		/**
+		 * Throw a {@link RejectedExecutionException} back to the caller.
+		 */
+		REJECT,
+
+		/**
+		 * Run the task on the caller's thread, slowing the caller down.
+		 */
+		CALLER_RUNS,
+
+		/**
+		 * Drop the oldest queued task to make room. Dropped tasks that are
+		 * {@link Closeable} are closed so their resources are released.
+		 */
+		SHED;
+	}
+
+	/**
+	 * Seconds an extra worker waits for a task before it retires.
+	 */
+	private static final long KEEP_ALIVE = 60L;
+
+	/**
+	 * Default size of the task queue.
 	 */
-	private long COUNTER;
-	
+	private static final int DEFAULT_QUEUE = 1024;
+
 	/**
-	 * 
+	 * Name of the executor, workers are named after it.
 	 */
 	private final String NAME;
-	
+
+	/**
+	 * Pool of workers, null if every task gets a thread of its own.
+	 */
+	private final ThreadPoolExecutor POOL;
+
+	/**
+	 * Factory starting a thread for every task, null if tasks run on the {@link #POOL}.
+	 */
+	private final ThreadFactory PER_TASK;
+
+	/**
+	 * Whether an executor without a pool was shut down.
+	 */
+	private volatile boolean SHUTDOWN;
+
+	/**
+	 * Number of threads of an executor without a pool that are running a task.
+	 */
+	private final AtomicInteger ACTIVE = new AtomicInteger();
+
+	/**
+	 * Policy for tasks that do not fit in the queue.
+	 */
+	private final Saturation SATURATION;
+
+	/**
+	 * Number of tasks handed to the executor.
+	 */
+	private final AtomicLong SUBMITTED = new AtomicLong();
+
+	/**
+	 * Number of tasks that finished running.
+	 */
+	private final AtomicLong COMPLETED = new AtomicLong();
+
+	/**
+	 * Number of tasks rejected or shed by the {@link Saturation} policy.
+	 */
+	private final AtomicLong REJECTED = new AtomicLong();
+
 	/**
-	 * 
+	 * Number of workers started, used to name them.
+	 */
+	private final AtomicInteger WORKERS = new AtomicInteger();
+
+	/**
+	 * Creates a fixed pool of one worker per available processor.
+	 *
 	 * @param name
 	 */
 	AsyncExecutor(String name)
+	{
+		this(name, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a fixed pool that rejects tasks once its queue is full.
+	 *
+	 * @param name - Name of the executor.
+	 * @param workers - Number of workers.
+	 */
+	AsyncExecutor(String name, int workers)
+	{
+		this(name, workers, workers, DEFAULT_QUEUE, Saturation.REJECT);
+	}
+
+	/**
+	 *
+	 * @param name - Name of the executor.
+	 * @param minWorkers - Number of workers that are always kept.
+	 * @param maxWorkers - Number of workers the pool may grow to.
+	 * @param queueSize - Number of tasks that may wait for a worker. Zero hands tasks
+	 * straight to a worker, growing the pool instead of queueing.
+	 * @param saturation - {@link Saturation} policy.
+	 */
+	AsyncExecutor(String name, int minWorkers, int maxWorkers, int queueSize, Saturation saturation)
+	{
+		this(name, minWorkers, maxWorkers, queueSize, saturation, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 *
+	 * @param name - Name of the executor.
+	 * @param minWorkers - Number of workers that are always kept.
+	 * @param maxWorkers - Number of workers the pool may grow to.
+	 * @param queueSize - Number of tasks that may wait for a worker. Zero hands tasks
+	 * straight to a worker, growing the pool instead of queueing.
+	 * @param saturation - {@link Saturation} policy.
+	 * @param factory - {@link ThreadFactory} creating the workers, which are renamed after the executor.
+	 */
+	AsyncExecutor(String name, int minWorkers, int maxWorkers, int queueSize, Saturation saturation, final ThreadFactory factory)
 	{
 		this.NAME = name;
+		this.SATURATION = saturation;
+		this.PER_TASK = null;
+
+		BlockingQueue<Runnable> queue;
+		if(queueSize == 0)
+			queue = new SynchronousQueue<Runnable>();
+		else
+			queue = new ArrayBlockingQueue<Runnable>(queueSize);
+
+		this.POOL = new ThreadPoolExecutor(minWorkers, maxWorkers, KEEP_ALIVE, TimeUnit.SECONDS, queue,
+				new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable worker)
+					{
+						Thread thread = factory.newThread(worker);
+						thread.setName(NAME + "-" + WORKERS.incrementAndGet());
+						return thread;
+					}
+				},
+				new RejectedExecutionHandler()
+				{
+					@Override
+					public void rejectedExecution(Runnable code, ThreadPoolExecutor pool)
+					{
+						saturated(code, pool);
+					}
+				})
+		{
+			@Override
+			protected void afterExecute(Runnable code, Throwable t)
+			{
+				COMPLETED.incrementAndGet();
+			}
+		};
+	}
+
+	/**
+	 * Creates an executor without a pool, which starts a new thread for every
+	 * task. Its threads are never reused and nothing bounds their number.
+	 *
+	 * @param name - Name of the executor.
+	 * @param factory - {@link ThreadFactory} creating a thread per task, which is renamed after the executor.
+	 */
+	AsyncExecutor(String name, ThreadFactory factory)
+	{
+		this.NAME = name;
+		this.SATURATION = Saturation.REJECT;
+		this.POOL = null;
+		this.PER_TASK = factory;
+	}
+
+	/**
+	 * Creates an executor that runs every task on a new virtual thread, which
+	 * suits blocking sessions: a session parked on a read releases its carrier
+	 * thread instead of holding a platform thread. Virtual threads are cheap
+	 * to create and are not meant to be pooled, so none is kept once its task
+	 * ends.
+	 *
+	 * @param name - Name of the executor.
+	 * @return {@link AsyncExecutor} backed by virtual threads.
+	 * @throws UnsupportedOperationException Thrown if the runtime is older than JDK 21.
+	 */
+	static AsyncExecutor virtual(String name)
+	{
+		return new AsyncExecutor(name, virtualThreads());
+	}
+
+	/**
+	 * Looks up the virtual thread factory of the runtime. Reflection keeps
+	 * the library compatible with Java 8.
+	 *
+	 * @return {@link ThreadFactory} creating virtual threads.
+	 * @throws UnsupportedOperationException Thrown if the runtime is older than JDK 21.
+	 */
+	private static ThreadFactory virtualThreads()
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer.", e);
+		}
 	}
 
 	/**
 	 * Runs provided code.
-	 * 
+	 *
 	 * @param code - Runnable class or code that will be executed.
+	 * @throws RejectedExecutionException Thrown if the executor is saturated
+	 * and uses {@link Saturation#REJECT}, or if it was shut down.
 	 * @see {@link Runnable}
 	 */
-	public void execute(Runnable code) 
+	public void execute(Runnable code)
+	{
+		SUBMITTED.incrementAndGet();
+		if(POOL != null)
+		{
+			POOL.execute(code);
+			return;
+		}
+
+		if(SHUTDOWN)
+		{
+			REJECTED.incrementAndGet();
+			throw new RejectedExecutionException(NAME + " is shut down.");
+		}
+		Thread thread = PER_TASK.newThread(new Task(code));
+		thread.setName(NAME + "-" + WORKERS.incrementAndGet());
+		thread.start();
+	}
+
+	/**
+	 * Task running on a thread of its own, counted while it runs.
+	 */
+	private final class Task implements Runnable
+	{
+		private final Runnable CODE;
+
+		Task(Runnable code)
+		{
+			this.CODE = code;
+		}
+
+		@Override
+		public void run()
+		{
+			ACTIVE.incrementAndGet();
+			try
+			{
+				CODE.run();
+			}
+			finally
+			{
+				ACTIVE.decrementAndGet();
+				COMPLETED.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Applies the {@link Saturation} policy to a task the pool could not take.
+	 *
+	 * @param code - Task that did not fit.
+	 * @param pool - Pool that refused it.
+	 */
+	private void saturated(Runnable code, ThreadPoolExecutor pool)
+	{
+		if(pool.isShutdown())
+		{
+			REJECTED.incrementAndGet();
+			throw new RejectedExecutionException(NAME + " is shut down.");
+		}
+
+		switch(SATURATION)
+		{
+			case CALLER_RUNS:
+				code.run();
+				COMPLETED.incrementAndGet();
+				break;
+
+			case SHED:
+				Runnable oldest = pool.getQueue().poll();
+				if(oldest != null)
+				{
+					REJECTED.incrementAndGet();
+					release(oldest);
+					pool.execute(code);
+				}
+				else
+				{
+					REJECTED.incrementAndGet();
+					release(code);
+				}
+				break;
+
+			default:
+				REJECTED.incrementAndGet();
+				throw new RejectedExecutionException(NAME + " is saturated.");
+		}
+	}
+
+	/**
+	 * Releases the resources of a task that will never run.
+	 *
+	 * @param code - Task that was shed.
+	 */
+	private void release(Runnable code)
+	{
+		if(code instanceof Closeable)
+		{
+			try
+			{
+				((Closeable) code).close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting tasks. Tasks that were already submitted still run.
+	 */
+	public void shutdown()
+	{
+		if(POOL != null)
+			POOL.shutdown();
+		else
+			SHUTDOWN = true;
+	}
+
+	/**
+	 * @return {@link #NAME}
+	 */
+	public String getName()
+	{
+		return NAME;
+	}
+
+	/**
+	 * @return number of tasks handed to the executor.
+	 */
+	public long getSubmitted()
+	{
+		return SUBMITTED.get();
+	}
+
+	/**
+	 * @return number of tasks that finished running.
+	 */
+	public long getCompleted()
+	{
+		return COMPLETED.get();
+	}
+
+	/**
+	 * @return number of tasks rejected or shed.
+	 */
+	public long getRejected()
+	{
+		return REJECTED.get();
+	}
+
+	/**
+	 * @return number of workers currently running a task.
+	 */
+	public int getActive()
 	{
-		++COUNTER;
-		Thread asyncExecution = new Thread(code);
-		asyncExecution.setName(NAME);
-		asyncExecution.start();
+		return POOL != null ? POOL.getActiveCount() : ACTIVE.get();
 	}
 
 }
@@ -1,16 +1,30 @@
 
 
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.RejectedExecutionException;
 
 import http.BadRequestException;
 import http.Request;
+import http.RequestHandler;
+import http.RequestParser;
+import http.Response;
+import http.Router;
+import websocket.Broadcast;
+import websocket.CloseFrame;
+import websocket.EventLoop;
+import websocket.SessionRegistry;
+import websocket.SessionTimeouts;
 import websocket.WebSocketListener;
 import websocket.WebSocketSession;
+import websocket.WheelTimer;
 
 /**
  * TODO javadoc WebSocketServer
@@ -22,26 +36,105 @@ public abstract class WebSocketServer implements Runnable, WebSocketListener
 	/**
 	 * 
 	 */
-	private final ServerSocket SERVER;
+	private final ServerSocketChannel SERVER;
 	
 	/**
-	 * 
+	 * Event loops serving the sessions, empty if sessions run on {@link #SESSIONS}.
 	 */
-	private InputStream IN;
-
+	private final EventLoop[] LOOPS;
+	
 	/**
-	 * 
+	 * Index of the event loop that receives the next client.
+	 */
+	private int NEXT_LOOP;
+	
+	/**
+	 * Executor running blocking sessions, null if sessions are served by event loops.
+	 */
+	private final AsyncExecutor SESSIONS;
+	
+	/**
+	 * Every open session of the server, in either model.
+	 */
+	private final SessionRegistry REGISTRY;
+	
+	/**
+	 * Keep-alive, idle and handshake deadlines of every session, in either model.
+	 */
+	private final SessionTimeouts TIMEOUTS;
+	
+	/**
+	 * Handler answering requests that are not upgrades, null to answer them with 404.
+	 */
+	private volatile RequestHandler HANDLER;
+	
+	/**
+	 * Listeners of the paths upgraded to WebSocket, null if the server listens to every path itself.
+	 */
+	private volatile Router<WebSocketListener> ROUTES;
+	
+	/**
+	 * Name of the default session executor.
+	 */
+	private static final String SESSION_NAME = "WebSocketSession";
+	
+	/**
+	 * Maximum number of concurrent sessions of the default session executor.
 	 */
-//	private OutputStream OUT;
+	private static final int MAX_SESSIONS = 1024;
 	
 	/**
 	 * Determines if the server is listening to the network.
 	 */
-	private boolean LISTENING;
+	private volatile boolean LISTENING;
 	
+	/**
+	 * Creates a server with one {@link EventLoop} per available processor.
+	 * 
+	 * @param port
+	 * @throws IOException
+	 */
 	public WebSocketServer(int port) throws IOException 
 	{
-		SERVER = new ServerSocket(port);
+		this(port, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * 
+	 * @param port
+	 * @param eventLoops - Number of {@link EventLoop} threads serving sessions.
+	 * Zero keeps the blocking model of running every session on its own worker.
+	 * @throws IOException
+	 */
+	public WebSocketServer(int port, int eventLoops) throws IOException 
+	{
+		this(port, eventLoops, eventLoops == 0 ? new AsyncExecutor(SESSION_NAME, 0, MAX_SESSIONS, 0, AsyncExecutor.Saturation.REJECT) : null);
+	}
+	
+	/**
+	 * Creates a server that runs every session on a worker of the executor,
+	 * blocking that worker for the lifetime of the session. On JDK 21 and newer,
+	 * {@link AsyncExecutor#virtual(String)} runs each session on a virtual thread.
+	 * 
+	 * @param port
+	 * @param sessions - {@link AsyncExecutor} running the sessions.
+	 * @throws IOException
+	 */
+	public WebSocketServer(int port, AsyncExecutor sessions) throws IOException 
+	{
+		this(port, 0, sessions);
+	}
+	
+	private WebSocketServer(int port, int eventLoops, AsyncExecutor sessions) throws IOException 
+	{
+		SESSIONS = sessions;
+		REGISTRY = new SessionRegistry();
+		TIMEOUTS = new SessionTimeouts();
+		SERVER = ServerSocketChannel.open();
+		SERVER.bind(new InetSocketAddress(port));
+		LOOPS = new EventLoop[eventLoops];
+		for(int i = 0; i < LOOPS.length; i++)
+			LOOPS[i] = new EventLoop(this, REGISTRY, TIMEOUTS);
 	}
 
 	/**
@@ -52,46 +145,216 @@ public abstract class WebSocketServer implements Runnable, WebSocketListener
 	{
 		LISTENING = true;
 		
+		for(int i = 0; i < LOOPS.length; i++)
+		{
+			Thread loopThread = new Thread(LOOPS[i]);
+			loopThread.setName("EventLoop-" + i);
+			loopThread.start();
+		}
+		
 		while(LISTENING)
 		{
 			try 
 			{
-				Socket client = SERVER.accept();
-				IN = client.getInputStream();
-//				OUT = client.getOutputStream();
-				/*
-				 * Determine if connection is an upgrade
-				 * to WebSocket.
-				 */
-				Request client_request = new Request(IN);
+				SocketChannel client = SERVER.accept();
 				
-				if(client_request.isWebSocketUpgrade())
+				if(LOOPS.length > 0)
 				{
-					/*
-					 * TODO properly name threads based on sessions.
-					 */
-					WebSocketSession session = new WebSocketSession(client, client_request.getKey(), this);
-					Thread WebSocketThread = new Thread(session);
-//					WebSocketThread.setName(name);
-					WebSocketThread.start();
+					LOOPS[NEXT_LOOP].register(client);
+					NEXT_LOOP = (NEXT_LOOP + 1) % LOOPS.length;
 				}
-				/*
-				 * TODO implement basic http request.
-				 */
 				else
+					accept(client);
+			} 
+			catch (IOException | RejectedExecutionException e) 
+			{
+				if(LISTENING)
+					e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Hands a client to a worker of {@link #SESSIONS}, which reads its
+	 * requests, so a client that is slow to send its request only holds up
+	 * its own worker rather than the accepting thread.
+	 * 
+	 * @param channel - Blocking channel to client.
+	 * @throws IOException
+	 * @throws RejectedExecutionException Thrown if {@link #SESSIONS} is saturated.
+	 */
+	private void accept(SocketChannel channel) throws IOException
+	{
+		try 
+		{
+			SESSIONS.execute(new Exchange(channel));
+		} 
+		catch (RejectedExecutionException e) 
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Task serving a client from its first request on. It is {@link Closeable},
+	 * so an executor shedding it closes the connection instead of leaking it.
+	 */
+	private final class Exchange implements Runnable, Closeable
+	{
+		private final SocketChannel CHANNEL;
+		
+		Exchange(SocketChannel channel)
+		{
+			this.CHANNEL = channel;
+		}
+		
+		@Override
+		public void run()
+		{
+			serve(CHANNEL);
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			CHANNEL.close();
+		}
+	}
+	
+	/**
+	 * Answers client's requests on a worker of {@link #SESSIONS} until client
+	 * closes the connection or either side stops keeping it alive. A request
+	 * that upgrades the connection runs its session on the same worker.
+	 * 
+	 * @param channel - Blocking channel to client.
+	 */
+	private void serve(SocketChannel channel)
+	{
+		Socket client = channel.socket();
+		RequestParser parser = new RequestParser();
+		ByteBuffer received = ByteBuffer.allocate(RequestParser.DEFAULT_MAX_HEAD_SIZE);
+		received.flip();
+		try
+		{
+			InputStream in = client.getInputStream();
+			Request request = read(parser, client, in, received);
+			if(!request.isWebSocketUpgrade())
+				client.setTcpNoDelay(true);
+			while(!request.isWebSocketUpgrade())
+			{
+				Response response = Response.respond(HANDLER, request);
+				try
+				{
+					while(!response.write(channel));
+				}
+				finally
+				{
+					response.close();
+				}
+				if(!response.isKeepAlive())
 				{
-					// TODO setup a proper status response to errors.
 					client.close();
-					throw new BadRequestException("404 - Bad Request");
+					return;
 				}
+				request = read(parser, client, in, received);
+			}
+			new WebSocketSession(client, request, received, listener(request), REGISTRY, TIMEOUTS).run();
+		}
+		catch (BadRequestException e)
+		{
+			reject(channel, e);
+		}
+		catch (IOException e)
+		{
+			try 
+			{
+				client.close();
 			} 
-			catch (IOException | BadRequestException e) 
+			catch (IOException ignored) 
 			{
-				e.printStackTrace();
+				// Socket is gone either way.
 			}
 		}
 	}
 	
+	/**
+	 * Reads client's next request. A client that does not send it in time
+	 * has its socket closed, which fails the read.
+	 * 
+	 * @param parser - {@link RequestParser} of the client's connection.
+	 * @param client - Socket connection from client.
+	 * @param in - Stream of the socket.
+	 * @param received - Bytes read past the previous request, receiving the bytes read past this one.
+	 * @return {@link Request} of client.
+	 * @throws IOException Thrown if the socket is broken, closed or timed out.
+	 * @throws BadRequestException Thrown if the request is malformed.
+	 */
+	private Request read(RequestParser parser, Socket client, InputStream in, ByteBuffer received) throws IOException, BadRequestException
+	{
+		WheelTimer.Timeout deadline = TIMEOUTS.handshake(closer(client));
+		try
+		{
+			return parser.read(in, received);
+		}
+		finally
+		{
+			if(deadline != null)
+				deadline.cancel();
+		}
+	}
+	
+	/**
+	 * Answers a malformed request with the status of its exception and closes the connection.
+	 * 
+	 * @param channel - Blocking channel to client.
+	 * @param e - {@link BadRequestException} of the request.
+	 */
+	private static void reject(SocketChannel channel, BadRequestException e)
+	{
+		Response response = Response.error(e.getStatus());
+		response.setKeepAlive(false);
+		try
+		{
+			while(!response.write(channel));
+		}
+		catch (IOException ignored)
+		{
+			// Client is closed either way.
+		}
+		try 
+		{
+			channel.close();
+		} 
+		catch (IOException ignored) 
+		{
+			// Socket is gone either way.
+		}
+	}
+	
+	/**
+	 * @param client - Socket connection from client.
+	 * @return task closing the socket, failing a read that waits for client's request.
+	 */
+	private static Runnable closer(Socket client)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try 
+				{
+					client.close();
+				} 
+				catch (IOException e) 
+				{
+					// Socket is gone either way.
+				}
+			}
+		};
+	}
+	
 //	@Override
 //	public void WebSocketOpen(WebSocketSession session)
 //	{
@@ -122,9 +385,191 @@ public abstract class WebSocketServer implements Runnable, WebSocketListener
 //		
 //	}
 	
+	/**
+	 * Finds an open session by its id.
+	 * 
+	 * @param id - {@link WebSocketSession#getId()}
+	 * @return {@link WebSocketSession}, or null if no open session has the id.
+	 */
+	public WebSocketSession getSession(long id)
+	{
+		return REGISTRY.get(id);
+	}
+	
+	/**
+	 * @return number of open sessions.
+	 */
+	public int getSessionCount()
+	{
+		return REGISTRY.size();
+	}
+	
+	/**
+	 * @return {@link #REGISTRY}
+	 */
+	public SessionRegistry getSessions()
+	{
+		return REGISTRY;
+	}
+	
+	/**
+	 * Sets the handler answering requests that are not WebSocket upgrades,
+	 * such as {@link http.StaticFiles} serving a site's assets on the same port.
+	 * 
+	 * @param handler - {@link RequestHandler}, null to answer such requests with 404.
+	 */
+	public void setRequestHandler(RequestHandler handler)
+	{
+		HANDLER = handler;
+		for(EventLoop loop : LOOPS)
+			loop.setRequestHandler(handler);
+	}
+	
+	/**
+	 * @return {@link #HANDLER}
+	 */
+	public RequestHandler getRequestHandler()
+	{
+		return HANDLER;
+	}
+	
+	/**
+	 * Sets the listeners of the paths clients upgrade to WebSocket, such as
+	 * {@code /chat/{room}}. A session whose path matches no route is given
+	 * to the server itself.
+	 * 
+	 * @param routes - {@link Router} of the listeners, null to listen to every path with the server.
+	 */
+	public void setRoutes(Router<WebSocketListener> routes)
+	{
+		ROUTES = routes;
+		for(EventLoop loop : LOOPS)
+			loop.setRoutes(routes);
+	}
+	
+	/**
+	 * @return {@link #ROUTES}
+	 */
+	public Router<WebSocketListener> getRoutes()
+	{
+		return ROUTES;
+	}
+	
+	/**
+	 * @param request - Client's upgrade {@link Request}.
+	 * @return listener of the route the request's path matches, the server if it matches none.
+	 */
+	private WebSocketListener listener(Request request)
+	{
+		Router<WebSocketListener> routes = ROUTES;
+		WebSocketListener listener = routes == null ? null : routes.find(request);
+		return listener == null ? this : listener;
+	}
+	
+	/**
+	 * @return {@link #TIMEOUTS}
+	 */
+	public SessionTimeouts getTimeouts()
+	{
+		return TIMEOUTS;
+	}
+	
+	/**
+	 * Sends a message to every open session.
+	 * 
+	 * @param message - message to be sent.
+	 */
+	public void broadcast(String message)
+	{
+		broadcast(new Broadcast(message), REGISTRY);
+	}
+	
+	/**
+	 * Sends data to every open session.
+	 * 
+	 * @param data - data to be sent.
+	 */
+	public void broadcast(byte[] data)
+	{
+		broadcast(new Broadcast(data), REGISTRY);
+	}
+	
+	/**
+	 * Sends a message to every session. The message is encoded into a
+	 * frame once and the same frame is written to each session.
+	 * 
+	 * @param message - message to be sent.
+	 * @param sessions - sessions receiving the message.
+	 */
+	public void broadcast(String message, Iterable<WebSocketSession> sessions)
+	{
+		broadcast(new Broadcast(message), sessions);
+	}
+	
+	/**
+	 * Sends data to every session. The data is encoded into a
+	 * frame once and the same frame is written to each session.
+	 * 
+	 * @param data - data to be sent.
+	 * @param sessions - sessions receiving the data.
+	 */
+	public void broadcast(byte[] data, Iterable<WebSocketSession> sessions)
+	{
+		broadcast(new Broadcast(data), sessions);
+	}
+	
+	/**
+	 * Sends an encoded {@link Broadcast} to every session.
+	 * 
+	 * @param broadcast - {@link Broadcast} to be sent.
+	 * @param sessions - sessions receiving the broadcast.
+	 */
+	public void broadcast(Broadcast broadcast, Iterable<WebSocketSession> sessions)
+	{
+		for(WebSocketSession session : sessions)
+			session.send(broadcast);
+	}
+	
 	public void shutdown()
 	{
 		LISTENING = false;
+		
+		/*
+		 * A session of an event loop is only ever touched by its event loop,
+		 * which closes its sessions as it stops. Blocking sessions may be
+		 * closed by any thread.
+		 */
+		for(EventLoop loop : LOOPS)
+			loop.close();
+		
+		if(LOOPS.length == 0)
+		{
+			for(WebSocketSession session : REGISTRY)
+			{
+				try 
+				{
+					session.close(CloseFrame.GOING_AWAY);
+				} 
+				catch (IOException e) 
+				{
+					WebSocketError(session, e);
+				}
+			}
+		}
+		
+		if(SESSIONS != null)
+			SESSIONS.shutdown();
+		
+		TIMEOUTS.shutdown();
+		
+		try 
+		{
+			SERVER.close();
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+		}
 	}
 
 }
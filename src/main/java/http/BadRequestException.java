@@ -1,12 +1,46 @@
 package http;
 
+/**
+ * Thrown if a client's request can not be served, carrying the
+ * {@link Status} the client is answered with before its connection is closed.
+ * 
+ * @author Ryan Mayobre
+ *
+ */
 public class BadRequestException extends Exception
 {
 	private static final long serialVersionUID = 297852563315154837L;
 
+	/**
+	 * Status answering the request.
+	 */
+	private final Status STATUS;
+
+	/**
+	 * Creates an exception answered with {@link Status#BAD_REQUEST}.
+	 * 
+	 * @param message - Reason the request is refused.
+	 */
 	public BadRequestException(String message) 
 	{
-		super(message);
+		this(Status.BAD_REQUEST, message);
+	}
+
+	/**
+	 * @param status - {@link Status} answering the request.
+	 * @param message - Reason the request is refused.
+	 */
+	public BadRequestException(Status status, String message) 
+	{
+		super(status + " - " + message);
+		this.STATUS = status;
 	}
 
+	/**
+	 * @return {@link Status} the client is answered with.
+	 */
+	public Status getStatus()
+	{
+		return STATUS;
+	}
 }
@@ -0,0 +1,160 @@
+package http;
+
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Validators of a file and the conditional requests that use them. A file's
+ * entity tag is built from its identity, modification time and size, which
+ * costs nothing beyond the attributes already read to serve it, or from a
+ * hash of its contents, which {@link FileCache} computes once when it loads
+ * the file. A client whose copy is still valid is answered with
+ * {@link Status#NOT_MODIFIED} and no body, so a repeated visit costs one
+ * small write per asset.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7232">RFC 7232 (Conditional Requests)</a>
+ */
+final class Conditions
+{
+	/**
+	 * Length of the hash kept in a content tag, in bytes.
+	 */
+	private static final int HASH_LENGTH = 16;
+
+	private Conditions()
+	{
+	}
+
+	/**
+	 * @param attributes - Attributes of a file.
+	 * @return strong entity tag of the file, built from its identity, modification time and size.
+	 */
+	static String tag(BasicFileAttributes attributes)
+	{
+		StringBuilder tag = new StringBuilder(40).append('"');
+		if(attributes.fileKey() != null)
+			tag.append(Integer.toHexString(attributes.fileKey().hashCode())).append('-');
+		tag.append(Long.toHexString(attributes.lastModifiedTime().toMillis())).append('-');
+		tag.append(Long.toHexString(attributes.size())).append('"');
+		return tag.toString();
+	}
+
+	/**
+	 * @param contents - Contents of a file, which are not consumed.
+	 * @return strong entity tag of the file, built from a hash of its contents.
+	 */
+	static String tag(ByteBuffer contents)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			/*
+			 * Every Java platform is required to support SHA-256.
+			 */
+			throw new IllegalStateException(e);
+		}
+		digest.update(contents.duplicate());
+		byte[] hash = digest.digest();
+		return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, HASH_LENGTH)) + '"';
+	}
+
+	/**
+	 * @param tag - Strong entity tag of a file.
+	 * @param encoding - Coding the file is compressed with.
+	 * @return strong entity tag of the compressed file, which differs from the file's.
+	 */
+	static String tag(String tag, Encoding encoding)
+	{
+		return tag.substring(0, tag.length() - 1) + '-' + encoding.getName() + '"';
+	}
+
+	/**
+	 * Determines if client's copy of a file is still valid. {@code If-None-Match}
+	 * is evaluated if client sent it, otherwise {@code If-Modified-Since}.
+	 *
+	 * @param request - Client's {@link Request}.
+	 * @param full - {@link Response} sending the whole file.
+	 * @return TRUE if client is to be answered with {@link Status#NOT_MODIFIED}.
+	 */
+	static boolean notModified(Request request, Response full)
+	{
+		Method method = request.getMethod();
+		if((method != Method.GET && method != Method.HEAD) || full.getStatus() != Status.OK || full.getModified() == null)
+			return false;
+
+		Headers headers = request.getHeaders();
+		String tags = headers.get(Header.IF_NONE_MATCH);
+		if(tags != null)
+			return full.getTag() != null && matches(tags, full.getTag());
+
+		String date = headers.get(Header.IF_MODIFIED_SINCE);
+		if(date == null)
+			return false;
+		long since = HttpDate.parse(date);
+		return since >= 0 && since <= System.currentTimeMillis() / 1000
+				&& full.getModified().toMillis() / 1000 <= since;
+	}
+
+	/**
+	 * Determines if {@code If-Range} names the file as it is now. An entity
+	 * tag must match strongly, a date must be the file's modification time.
+	 *
+	 * @param condition - Value of {@code If-Range}.
+	 * @param full - {@link Response} sending the whole file.
+	 * @return TRUE if the ranges may be sent.
+	 */
+	static boolean unchanged(String condition, Response full)
+	{
+		if(condition.startsWith("W/"))
+			return false;
+		if(condition.startsWith("\""))
+			return condition.equals(full.getTag());
+		long date = HttpDate.parse(condition);
+		return date >= 0 && date == full.getModified().toMillis() / 1000;
+	}
+
+	/**
+	 * Compares the tags of {@code If-None-Match} with a tag, ignoring whether
+	 * either is weak, without splitting the list into strings.
+	 *
+	 * @param tags - {@code *} or a list of entity tags.
+	 * @param tag - Strong entity tag of the file.
+	 * @return TRUE if a tag of the list matches.
+	 */
+	private static boolean matches(String tags, String tag)
+	{
+		if(tags.trim().equals("*"))
+			return true;
+
+		int i = 0;
+		while(i < tags.length())
+		{
+			char c = tags.charAt(i);
+			if(c == ' ' || c == '\t' || c == ',')
+			{
+				++i;
+				continue;
+			}
+			if(tags.startsWith("W/", i))
+				i += 2;
+			if(i >= tags.length() || tags.charAt(i) != '"')
+				return false;
+			int end = tags.indexOf('"', i + 1);
+			if(end == -1)
+				return false;
+			if(end + 1 - i == tag.length() && tags.regionMatches(i, tag, 0, tag.length()))
+				return true;
+			i = end + 1;
+		}
+		return false;
+	}
+}
@@ -1,7 +1,12 @@
 package http;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
- * Not sure if i will need this still...
+ * Types of content served to clients, found by the extension of a file.
+ * Text types are served as UTF-8.
  * 
  * @author Ryan Mayobre
  *
@@ -11,56 +16,119 @@ public enum Content
 	/*
 	 * Text files
 	 */
-	HTML("html"),
-	CSS("css"),
-	JS("js"),
-	JSON("json"),
+	HTML("text/html; charset=utf-8", "html", "htm"),
+	CSS("text/css; charset=utf-8", "css"),
+	JS("application/javascript; charset=utf-8", "js", "mjs"),
+	JSON("application/json", "json"),
+	TXT("text/plain; charset=utf-8", "txt"),
+	XML("application/xml", "xml"),
+	SVG("image/svg+xml", "svg"),
 	/*
 	 * Image files
 	 */
-	ICO("ico"),
-	JPEG("jpeg"),
-	PNG("png");
+	ICO("image/x-icon", "ico"),
+	JPEG("image/jpeg", "jpeg", "jpg"),
+	PNG("image/png", "png"),
+	GIF("image/gif", "gif"),
+	WEBP("image/webp", "webp"),
+	/*
+	 * Other files
+	 */
+	WOFF("font/woff", "woff"),
+	WOFF2("font/woff2", "woff2"),
+	WASM("application/wasm", "wasm"),
+	PDF("application/pdf", "pdf"),
+	MP4("video/mp4", "mp4"),
+	BINARY("application/octet-stream", "bin");
+	
+	/**
+	 * Content of each known extension.
+	 */
+	private static final Map<String, Content> EXTENSIONS = new HashMap<String, Content>();
+	static
+	{
+		for(Content content : values())
+			for(String extension : content.extensions)
+				EXTENSIONS.put(extension, content);
+	}
+	
+	private final String mime;
+	
+	private final String[] extensions;
+	
+	/**
+	 * Content-Type header field of the content, ending with CRLF, encoded once rather than for each response.
+	 */
+	private final byte[] field;
 	
-	private final String extension;
+	Content(String mime, String... extensions)
+	{
+		this.mime = mime;
+		this.extensions = extensions;
+		this.field = ("Content-Type: " + mime + "\r\n").getBytes(StandardCharsets.US_ASCII);
+	}
 	
-	Content(String extension)
+	/**
+	 * Finds the content of a file by its extension, regardless of case.
+	 * 
+	 * @param name - Name or path of the file.
+	 * @return {@link Content} of the file, {@link #BINARY} if its extension is unknown.
+	 */
+	public static Content find(String name)
 	{
-		this.extension = extension;
+		int dot = name.lastIndexOf('.');
+		if(dot == -1 || dot < name.lastIndexOf('/'))
+			return BINARY;
+		Content content = EXTENSIONS.get(name.substring(dot + 1).toLowerCase());
+		return content == null ? BINARY : content;
 	}
 	
+	/**
+	 * @return usual extension of the content.
+	 */
 	public String getExtension()
 	{
-		return extension;
+		return extensions[0];
 	}
 	
+	/**
+	 * @return value of the Content-Type header of the content.
+	 */
 	public String getMime()
+	{
+		return mime;
+	}
+	
+	/**
+	 * @return {@link #field}, which the caller must not modify.
+	 */
+	byte[] getField()
+	{
+		return field;
+	}
+	
+	/**
+	 * Determines if the content is worth compressing. Images other than icons,
+	 * fonts, media and archives are compressed already.
+	 * 
+	 * @return TRUE if the content may be sent with a {@link Encoding}.
+	 */
+	public boolean isCompressible()
 	{
 		switch(this)
 		{
 			case HTML:
-				return "text/html";
-				
 			case CSS:
-				return "text/css";
-				
 			case JS:
-				return "application/javascript";
-				
 			case JSON:
-				return "application/json";
-				
+			case TXT:
+			case XML:
+			case SVG:
 			case ICO:
-				return "image/x-icon";
-				
-			case JPEG:
-				return "image/jpeg";
-				
-			case PNG:
-				return "image/png";
-				
+			case WASM:
+				return true;
 			default:
-				return null;
+				return false;
 		}
 	}
 }
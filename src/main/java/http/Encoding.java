@@ -0,0 +1,196 @@
+package http;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Content codings a static file may be sent with. A coded file is either a
+ * sidecar next to it, named like the file followed by the coding's suffix,
+ * or compressed once by {@link FileCache} as it loads the file.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-5.3.4">RFC 7231, Section 5.3.4 (Accept-Encoding)</a>
+ */
+public enum Encoding
+{
+	BROTLI("br", ".br"),
+	GZIP("gzip", ".gz");
+
+	/*
+	 * Codings in order of preference, shared rather than built for each request.
+	 */
+	private static final Encoding[] NONE = {};
+	private static final Encoding[] BROTLI_ONLY = {BROTLI};
+	private static final Encoding[] GZIP_ONLY = {GZIP};
+	private static final Encoding[] BROTLI_FIRST = {BROTLI, GZIP};
+	private static final Encoding[] GZIP_FIRST = {GZIP, BROTLI};
+
+	/**
+	 * Name of the coding in Accept-Encoding and Content-Encoding.
+	 */
+	private final String NAME;
+
+	/**
+	 * Suffix of a sidecar file holding a file in this coding.
+	 */
+	private final String SUFFIX;
+
+	private Encoding(String name, String suffix)
+	{
+		this.NAME = name;
+		this.SUFFIX = suffix;
+	}
+
+	/**
+	 * @return {@link #NAME}
+	 */
+	public String getName()
+	{
+		return NAME;
+	}
+
+	/**
+	 * @return {@link #SUFFIX}
+	 */
+	public String getSuffix()
+	{
+		return SUFFIX;
+	}
+
+	/**
+	 * @param file - Path of a file.
+	 * @return path of the file's sidecar in this coding.
+	 */
+	Path sidecar(Path file)
+	{
+		return file.resolveSibling(file.getFileName() + SUFFIX);
+	}
+
+	/**
+	 * Determines if a sidecar may stand in for its file. A sidecar older than
+	 * its file was left behind by an earlier version of the file.
+	 *
+	 * @param sidecar - Path of the sidecar.
+	 * @param file - Attributes of its file.
+	 * @return attributes of the sidecar, or null if there is no usable sidecar.
+	 * @throws IOException Thrown if the sidecar's attributes could not be read.
+	 */
+	static BasicFileAttributes usable(Path sidecar, BasicFileAttributes file) throws IOException
+	{
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes(sidecar, BasicFileAttributes.class);
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+		if(!attributes.isRegularFile() || attributes.lastModifiedTime().compareTo(file.lastModifiedTime()) < 0)
+			return null;
+		return attributes;
+	}
+
+	/**
+	 * Finds the codings client accepts, from its most to its least preferred.
+	 * Brotli is preferred over gzip when client weighs them the same, and a
+	 * coding weighed {@code q=0} is refused.
+	 *
+	 * @param request - Client's {@link Request}.
+	 * @param type - {@link Content} of the file client asked for.
+	 * @return accepted codings, none if the content is not compressible, which the caller must not modify.
+	 */
+	static Encoding[] accepted(Request request, Content type)
+	{
+		String value = request.getHeaders().get(Header.ACCEPT_ENCODING);
+		if(value == null || !type.isCompressible())
+			return NONE;
+
+		int brotli = -1, gzip = -1, any = -1;
+		int from = 0;
+		while(from < value.length())
+		{
+			int comma = value.indexOf(',', from);
+			if(comma == -1)
+				comma = value.length();
+			int semicolon = value.indexOf(';', from);
+			int end = semicolon == -1 || semicolon > comma ? comma : semicolon;
+
+			int start = skip(value, from, end);
+			int stop = end;
+			while(stop > start && (value.charAt(stop - 1) == ' ' || value.charAt(stop - 1) == '\t'))
+				--stop;
+			int weight = end == comma ? 1000 : weight(value, end + 1, comma);
+			if(weight >= 0)
+			{
+				if(matches(value, start, stop, "br"))
+					brotli = weight;
+				else if(matches(value, start, stop, "gzip") || matches(value, start, stop, "x-gzip"))
+					gzip = weight;
+				else if(matches(value, start, stop, "*"))
+					any = weight;
+			}
+			from = comma + 1;
+		}
+
+		if(brotli == -1)
+			brotli = Math.max(any, 0);
+		if(gzip == -1)
+			gzip = Math.max(any, 0);
+		if(brotli > 0 && gzip > 0)
+			return brotli >= gzip ? BROTLI_FIRST : GZIP_FIRST;
+		return brotli > 0 ? BROTLI_ONLY : gzip > 0 ? GZIP_ONLY : NONE;
+	}
+
+	/**
+	 * @param value - Value of Accept-Encoding.
+	 * @param from - Index of the parameters of a coding, after its {@code ;}.
+	 * @param to - Index after the parameters.
+	 * @return weight of the coding in thousandths, or -1 if it is malformed.
+	 */
+	private static int weight(String value, int from, int to)
+	{
+		int start = skip(value, from, to);
+		if(!value.regionMatches(true, start, "q=", 0, 2))
+			return 1000;
+		int weight = 0, digits = 0;
+		for(int i = start + 2; i < to; i++)
+		{
+			char c = value.charAt(i);
+			if(c == ' ' || c == '\t')
+				break;
+			if(c == '.' && digits == 1)
+				continue;
+			if(c < '0' || c > '9' || digits == 4)
+				return -1;
+			weight = weight * 10 + (c - '0');
+			++digits;
+		}
+		if(digits == 0)
+			return -1;
+		while(digits++ < 4)
+			weight *= 10;
+		return weight > 1000 ? -1 : weight;
+	}
+
+	/**
+	 * @return index of the first byte from index from that is not whitespace, at most to.
+	 */
+	private static int skip(String value, int from, int to)
+	{
+		while(from < to && (value.charAt(from) == ' ' || value.charAt(from) == '\t'))
+			++from;
+		return from;
+	}
+
+	/**
+	 * @return TRUE if the text from index from to index to is name, regardless of case.
+	 */
+	private static boolean matches(String value, int from, int to, String name)
+	{
+		return to - from == name.length() && value.regionMatches(true, from, name, 0, name.length());
+	}
+}
@@ -0,0 +1,809 @@
+package http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of hot static files, held outside of the Java heap together with the
+ * serialized fields of their response. A hit neither opens nor reads the
+ * file; its response is the cached fields and body, sent in a single
+ * gathering write. Files are copied into direct buffers rather than
+ * memory-mapped, so a file truncated on disk before its next check is still
+ * sent as it was loaded, instead of faulting the thread that reads its pages.
+ *
+ * <p>
+ * A miss never waits for the file to be loaded. The file is read, hashed and
+ * compressed by a loader thread, while the request that missed is answered
+ * from disk; requests arriving meanwhile are answered from disk as well, and
+ * every miss of a file being loaded shares that single load. Loads that do
+ * not fit the loaders' queue are dropped, and the next miss tries again.
+ *
+ * <p>
+ * The cache holds at most its byte budget, counting both bodies and fields,
+ * and evicts the least recently used files to make room. Files larger than
+ * the file size limit are never cached and are sent from disk instead. A
+ * cached file is checked against the disk at most once per check interval;
+ * if its size, modification time or identity changed, it is dropped and
+ * loaded again. Evicted buffers are released once they are collected.
+ *
+ * <p>
+ * Each entry also keeps the serialized fields of its
+ * {@link Status#NOT_MODIFIED} answer, so a revalidation is a single small
+ * write. Entity tags are built from the file's attributes unless content
+ * hashes are enabled, in which case the hash is computed once as the file is
+ * loaded and stays the same for identical contents, even across servers.
+ * A file too large to cache is tagged by its attributes either way.
+ *
+ * <p>
+ * A compressible file is cached together with its variants in each
+ * {@link Encoding}: a sidecar such as {@code app.js.br} or {@code app.js.gz}
+ * next to it, or, lacking a gzip sidecar, the file compressed once as it is
+ * loaded. Variants count against the same budget and are evicted with their
+ * file, and a hit picks the variant client prefers without compressing
+ * anything. A sidecar that is created later is noticed once its file is
+ * loaded again.
+ *
+ * @author Ryan Mayobre
+ * @see {@link StaticFiles}
+ */
+public class FileCache
+{
+	/**
+	 * Default byte budget, 64 MiB.
+	 */
+	public static final long DEFAULT_BUDGET = 0x4000000L;
+
+	/**
+	 * Default size limit of a cached file, 8 MiB.
+	 */
+	public static final long DEFAULT_MAX_FILE_SIZE = 0x800000L;
+
+	/**
+	 * Default time between checks of a cached file against the disk, in milliseconds.
+	 */
+	public static final long DEFAULT_CHECK_INTERVAL = 1000L;
+
+	/**
+	 * Number of threads loading files, shared by every cache.
+	 */
+	private static final int MAX_LOADERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Number of loads that may wait for a loader.
+	 */
+	private static final int MAX_PENDING_LOADS = 0x400;
+
+	private static final AtomicInteger LOADER_THREADS = new AtomicInteger();
+
+	/**
+	 * Loaders reading files into the caches. Threads are only kept while files
+	 * are being loaded, and never keep the server alive.
+	 */
+	private static final ThreadPoolExecutor LOADERS = new ThreadPoolExecutor(MAX_LOADERS, MAX_LOADERS, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(MAX_PENDING_LOADS), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable loader)
+		{
+			Thread thread = new Thread(loader, "file-cache-loader-" + LOADER_THREADS.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static
+	{
+		LOADERS.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Files smaller than this are not compressed, since a gzip header and
+	 * trailer would outweigh what compression saves.
+	 */
+	private static final long MIN_COMPRESS_SIZE = 0x100L;
+
+	/**
+	 * Every coding, kept since {@link Encoding#values()} copies its array on each call.
+	 */
+	private static final Encoding[] ENCODINGS = Encoding.values();
+
+	/**
+	 * A cached file in one coding.
+	 */
+	private static final class Variant
+	{
+		/**
+		 * Coding of the variant, null for the file as it is.
+		 */
+		final Encoding ENCODING;
+
+		/**
+		 * Serialized fields of the variant's response, see {@link Response#fields()}.
+		 */
+		final ByteBuffer FIELDS;
+
+		/**
+		 * Serialized fields of the variant's {@link Status#NOT_MODIFIED} answer.
+		 */
+		final ByteBuffer NOT_MODIFIED;
+
+		/**
+		 * Entity tag of the variant.
+		 */
+		final String TAG;
+
+		/**
+		 * Modification time announced by the variant.
+		 */
+		final FileTime MODIFIED;
+
+		/**
+		 * Read-only contents of the variant.
+		 */
+		final ByteBuffer BODY;
+
+		/**
+		 * Sidecar the variant was read from, null if it was not.
+		 */
+		final Path SIDECAR;
+
+		Variant(Content type, Encoding encoding, ByteBuffer body, FileTime modified, String tag, Path sidecar)
+		{
+			Response response = Response.file(type, encoding, body.remaining(), modified, tag);
+			this.ENCODING = encoding;
+			this.FIELDS = response.fields();
+			this.NOT_MODIFIED = response.notModified().fields();
+			this.TAG = tag;
+			this.MODIFIED = modified;
+			this.BODY = body;
+			this.SIDECAR = sidecar;
+		}
+
+		/**
+		 * @return bytes the variant counts against the budget.
+		 */
+		long weight()
+		{
+			return BODY.remaining() + FIELDS.remaining() + NOT_MODIFIED.remaining();
+		}
+
+		/**
+		 * @param type - {@link Content} of the file.
+		 * @return {@link Response} sending the cached fields and body.
+		 */
+		Response response(Content type)
+		{
+			Response response = new Response(Status.OK, type, BODY.remaining(), FIELDS.duplicate());
+			response.cached(ENCODING, MODIFIED, TAG, NOT_MODIFIED);
+			response.body(BODY.duplicate());
+			return response;
+		}
+	}
+
+	/**
+	 * A cached file.
+	 */
+	private static final class Entry
+	{
+		final Path FILE;
+
+		final Content TYPE;
+
+		/**
+		 * The file as it is, followed by the file in each {@link Encoding}, null where it has none.
+		 */
+		final Variant[] VARIANTS;
+
+		/*
+		 * Attributes of the file when it was loaded.
+		 */
+		final long SIZE;
+		final FileTime MODIFIED;
+		final Object KEY;
+
+		/**
+		 * Bytes the entry counts against the budget.
+		 */
+		final long WEIGHT;
+
+		/**
+		 * {@link System#nanoTime()} of the last check against the disk.
+		 */
+		volatile long CHECKED;
+
+		Entry(Path file, Content type, Variant[] variants, BasicFileAttributes attributes)
+		{
+			this.FILE = file;
+			this.TYPE = type;
+			this.VARIANTS = variants;
+			this.SIZE = attributes.size();
+			this.MODIFIED = attributes.lastModifiedTime();
+			this.KEY = attributes.fileKey();
+			long weight = 0;
+			for(Variant variant : variants)
+				if(variant != null)
+					weight += variant.weight();
+			this.WEIGHT = weight;
+			this.CHECKED = System.nanoTime();
+		}
+
+		/**
+		 * @param attributes - Current attributes of the file.
+		 * @return TRUE if the file is still the one that was loaded.
+		 */
+		boolean matches(BasicFileAttributes attributes)
+		{
+			return attributes.isRegularFile() && attributes.size() == SIZE
+					&& attributes.lastModifiedTime().equals(MODIFIED) && Objects.equals(attributes.fileKey(), KEY);
+		}
+
+		/**
+		 * @param accepted - Codings client accepts, from the most preferred.
+		 * @return the most preferred variant client accepts.
+		 */
+		Variant variant(Encoding[] accepted)
+		{
+			for(Encoding encoding : accepted)
+				if(VARIANTS[1 + encoding.ordinal()] != null)
+					return VARIANTS[1 + encoding.ordinal()];
+			return VARIANTS[0];
+		}
+	}
+
+	/**
+	 * Byte budget of the cache.
+	 */
+	private final long BUDGET;
+
+	/**
+	 * Size limit of a cached file.
+	 */
+	private final long MAX_FILE_SIZE;
+
+	/**
+	 * Time between checks of a cached file against the disk, in nanoseconds.
+	 */
+	private volatile long CHECK_INTERVAL;
+
+	/**
+	 * Determines if entity tags are hashes of the files' contents.
+	 */
+	private volatile boolean CONTENT_HASH;
+
+	/**
+	 * Determines if compressible files without a gzip sidecar are compressed as they are loaded.
+	 */
+	private volatile boolean COMPRESSION = true;
+
+	/**
+	 * Cached files, from least to most recently used.
+	 */
+	private final LinkedHashMap<Path, Entry> ENTRIES;
+
+	/**
+	 * Files being loaded, so concurrent misses of a file load it once.
+	 */
+	private final ConcurrentHashMap<Path, Boolean> LOADING;
+
+	/**
+	 * Guards {@link #ENTRIES} and {@link #BYTES}. A lock instead of a monitor
+	 * keeps virtual threads from pinning their carrier thread.
+	 */
+	private final ReentrantLock LOCK;
+
+	/**
+	 * Bytes held by the cache.
+	 */
+	private long BYTES;
+
+	private final AtomicLong HITS = new AtomicLong();
+
+	private final AtomicLong MISSES = new AtomicLong();
+
+	private final AtomicLong EVICTIONS = new AtomicLong();
+
+	private final AtomicLong LOADS = new AtomicLong();
+
+	/**
+	 * Bytes not sent thanks to coded variants.
+	 */
+	private final AtomicLong SAVED = new AtomicLong();
+
+	/**
+	 * Creates a cache with the default limits.
+	 */
+	public FileCache()
+	{
+		this(DEFAULT_BUDGET, DEFAULT_MAX_FILE_SIZE);
+	}
+
+	/**
+	 * @param budget - Byte budget of the cache.
+	 * @param maxFileSize - Size limit of a cached file.
+	 */
+	public FileCache(long budget, long maxFileSize)
+	{
+		if(budget <= 0 || maxFileSize < 0)
+			throw new IllegalArgumentException("Limits must be positive.");
+		this.BUDGET = budget;
+		this.MAX_FILE_SIZE = maxFileSize;
+		this.CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CHECK_INTERVAL);
+		this.ENTRIES = new LinkedHashMap<Path, Entry>(0x40, 0.75f, true);
+		this.LOADING = new ConcurrentHashMap<Path, Boolean>();
+		this.LOCK = new ReentrantLock();
+	}
+
+	/**
+	 * Finds the response of a cached file that did not change.
+	 *
+	 * @param file - Path of the file.
+	 * @param accepted - Codings client accepts, from the most preferred.
+	 * @return {@link Response} of the file in the most preferred coding it
+	 * has, or null if it is not cached.
+	 */
+	Response get(Path file, Encoding[] accepted)
+	{
+		Entry entry;
+		LOCK.lock();
+		try
+		{
+			entry = ENTRIES.get(file);
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		if(entry != null && fresh(entry))
+		{
+			HITS.incrementAndGet();
+			return response(entry, accepted);
+		}
+		MISSES.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Has a loader thread load a file into the cache, unless the file is
+	 * already being loaded or cannot be cached. Returns right away; the file
+	 * is served from the cache once it was loaded.
+	 *
+	 * @param file - Path of the file.
+	 * @param attributes - Attributes of the file.
+	 * @param type - {@link Content} of the file.
+	 */
+	void put(final Path file, final BasicFileAttributes attributes, final Content type)
+	{
+		if(!attributes.isRegularFile() || attributes.size() > MAX_FILE_SIZE || attributes.size() >= BUDGET)
+			return;
+		if(LOADING.putIfAbsent(file, Boolean.TRUE) != null)
+			return;
+
+		try
+		{
+			LOADERS.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Entry entry = load(file, attributes, type);
+						if(entry != null && entry.WEIGHT <= BUDGET)
+							store(entry);
+					}
+					catch (IOException e)
+					{
+						// The file is sent from disk, and loaded on its next miss.
+					}
+					finally
+					{
+						LOADING.remove(file);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			LOADING.remove(file);
+		}
+	}
+
+	/**
+	 * Adds a loaded file to the cache, evicting the least recently used files to make room.
+	 *
+	 * @param entry - Loaded file.
+	 */
+	private void store(Entry entry)
+	{
+		LOADS.incrementAndGet();
+		LOCK.lock();
+		try
+		{
+			Entry old = ENTRIES.put(entry.FILE, entry);
+			if(old != null)
+				BYTES -= old.WEIGHT;
+			BYTES += entry.WEIGHT;
+
+			Iterator<Entry> eldest = ENTRIES.values().iterator();
+			while(BYTES > BUDGET)
+			{
+				BYTES -= eldest.next().WEIGHT;
+				eldest.remove();
+				EVICTIONS.incrementAndGet();
+			}
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Drops every cached file.
+	 */
+	public void clear()
+	{
+		LOCK.lock();
+		try
+		{
+			ENTRIES.clear();
+			BYTES = 0;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @return time between checks of a cached file against the disk, in milliseconds.
+	 */
+	public long getCheckInterval()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(CHECK_INTERVAL);
+	}
+
+	/**
+	 * @param millis - Time between checks of a cached file against the disk, zero to check on every hit.
+	 */
+	public void setCheckInterval(long millis)
+	{
+		if(millis < 0)
+			throw new IllegalArgumentException("Interval cannot be negative.");
+		this.CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * @return {@link #CONTENT_HASH}
+	 */
+	public boolean isContentHash()
+	{
+		return CONTENT_HASH;
+	}
+
+	/**
+	 * Files loaded after this call are tagged by a hash of their contents
+	 * rather than by their attributes.
+	 *
+	 * @param contentHash - TRUE to hash the contents of files as they are loaded.
+	 */
+	public void setContentHash(boolean contentHash)
+	{
+		this.CONTENT_HASH = contentHash;
+	}
+
+	/**
+	 * @return {@link #COMPRESSION}
+	 */
+	public boolean isCompression()
+	{
+		return COMPRESSION;
+	}
+
+	/**
+	 * Files loaded after this call are compressed with gzip, unless they have
+	 * a gzip sidecar. Sidecars are used either way, and brotli is only ever
+	 * read from sidecars.
+	 *
+	 * @param compression - TRUE to compress compressible files once as they are loaded.
+	 */
+	public void setCompression(boolean compression)
+	{
+		this.COMPRESSION = compression;
+	}
+
+	/**
+	 * @return {@link #BUDGET}
+	 */
+	public long getBudget()
+	{
+		return BUDGET;
+	}
+
+	/**
+	 * @return bytes held by the cache.
+	 */
+	public long getBytes()
+	{
+		LOCK.lock();
+		try
+		{
+			return BYTES;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @return number of cached files.
+	 */
+	public int getCount()
+	{
+		LOCK.lock();
+		try
+		{
+			return ENTRIES.size();
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @return number of requests answered from the cache.
+	 */
+	public long getHits()
+	{
+		return HITS.get();
+	}
+
+	/**
+	 * @return number of requests for files that were not cached, or had changed.
+	 */
+	public long getMisses()
+	{
+		return MISSES.get();
+	}
+
+	/**
+	 * @return number of files loaded into the cache.
+	 */
+	public long getLoads()
+	{
+		return LOADS.get();
+	}
+
+	/**
+	 * @return number of files evicted to stay within the budget.
+	 */
+	public long getEvictions()
+	{
+		return EVICTIONS.get();
+	}
+
+	/**
+	 * @return bytes of files not sent since coded variants were sent instead.
+	 */
+	public long getSavedBytes()
+	{
+		return SAVED.get();
+	}
+
+	/**
+	 * @param entry - Cached file.
+	 * @param accepted - Codings client accepts, from the most preferred.
+	 * @return {@link Response} of the most preferred variant.
+	 */
+	private Response response(Entry entry, Encoding[] accepted)
+	{
+		Variant variant = entry.variant(accepted);
+		if(variant.ENCODING != null)
+			SAVED.addAndGet(entry.SIZE - variant.BODY.remaining());
+		return variant.response(entry.TYPE);
+	}
+
+	/**
+	 * Checks a cached file against the disk once its check interval passed,
+	 * dropping it if it changed.
+	 *
+	 * @param entry - Cached file.
+	 * @return TRUE if the cached file may be served.
+	 */
+	private boolean fresh(Entry entry)
+	{
+		long now = System.nanoTime();
+		if(now - entry.CHECKED < CHECK_INTERVAL)
+			return true;
+
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes(entry.FILE, BasicFileAttributes.class);
+		}
+		catch (IOException e)
+		{
+			attributes = null;
+		}
+		if(attributes != null && entry.matches(attributes) && sidecars(entry))
+		{
+			entry.CHECKED = now;
+			return true;
+		}
+
+		LOCK.lock();
+		try
+		{
+			if(ENTRIES.remove(entry.FILE, entry))
+				BYTES -= entry.WEIGHT;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+		return false;
+	}
+
+	/**
+	 * @param entry - Cached file whose own attributes did not change.
+	 * @return TRUE if no sidecar of the file changed either.
+	 */
+	private static boolean sidecars(Entry entry)
+	{
+		for(Variant variant : entry.VARIANTS)
+		{
+			if(variant == null || variant.SIDECAR == null)
+				continue;
+			try
+			{
+				if(!Files.getLastModifiedTime(variant.SIDECAR).equals(variant.MODIFIED))
+					return false;
+			}
+			catch (IOException e)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Loads a file together with its sidecars, compressing it if it has no
+	 * gzip sidecar and compression is enabled.
+	 *
+	 * @param file - Path of the file.
+	 * @param attributes - Attributes of the file.
+	 * @param type - {@link Content} of the file.
+	 * @return cache entry of the file, or null if the file changed while it was read.
+	 * @throws IOException Thrown if the file could not be read.
+	 */
+	private Entry load(Path file, BasicFileAttributes attributes, Content type) throws IOException
+	{
+		ByteBuffer body = read(file, attributes.size());
+		if(body == null)
+			return null;
+
+		String tag = CONTENT_HASH ? Conditions.tag(body) : Conditions.tag(attributes);
+		Variant[] variants = new Variant[ENCODINGS.length + 1];
+		variants[0] = new Variant(type, null, body, attributes.lastModifiedTime(), tag, null);
+		if(type.isCompressible())
+			for(Encoding encoding : ENCODINGS)
+				variants[1 + encoding.ordinal()] = encode(file, attributes, type, encoding, variants[0]);
+		return new Entry(file, type, variants, attributes);
+	}
+
+	/**
+	 * @param file - Path of the file.
+	 * @param attributes - Attributes of the file.
+	 * @param type - {@link Content} of the file.
+	 * @param encoding - Coding of the variant.
+	 * @param identity - The file as it is.
+	 * @return the file in the coding, or null if it has no such variant.
+	 * @throws IOException Thrown if a sidecar could not be read.
+	 */
+	private Variant encode(Path file, BasicFileAttributes attributes, Content type, Encoding encoding, Variant identity) throws IOException
+	{
+		Path sidecar = encoding.sidecar(file);
+		BasicFileAttributes sidecarAttributes = Encoding.usable(sidecar, attributes);
+		if(sidecarAttributes != null)
+		{
+			if(sidecarAttributes.size() > MAX_FILE_SIZE)
+				return null;
+			ByteBuffer body = read(sidecar, sidecarAttributes.size());
+			if(body == null)
+				return null;
+			String tag = CONTENT_HASH ? Conditions.tag(body) : Conditions.tag(sidecarAttributes);
+			return new Variant(type, encoding, body, sidecarAttributes.lastModifiedTime(), tag, sidecar);
+		}
+
+		if(encoding != Encoding.GZIP || !COMPRESSION || attributes.size() < MIN_COMPRESS_SIZE)
+			return null;
+		ByteBuffer body = gzip(identity.BODY);
+		if(body.remaining() >= identity.BODY.remaining())
+			return null;
+		return new Variant(type, encoding, body, identity.MODIFIED, Conditions.tag(identity.TAG, encoding), null);
+	}
+
+	/**
+	 * Compresses contents with gzip at the best compression level, which is
+	 * affordable since it happens once per file on a loader thread rather than
+	 * once per request.
+	 *
+	 * @param contents - Contents of a file, which are not consumed.
+	 * @return read-only direct buffer holding the compressed contents.
+	 * @throws IOException Thrown if the contents could not be compressed.
+	 */
+	private static ByteBuffer gzip(ByteBuffer contents) throws IOException
+	{
+		ByteBuffer source = contents.duplicate();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(source.remaining() >> 2);
+		byte[] chunk = new byte[Math.min(source.remaining(), 0x10000)];
+		try(GZIPOutputStream out = new GZIPOutputStream(bytes, chunk.length)
+		{
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		})
+		{
+			while(source.hasRemaining())
+			{
+				int length = Math.min(chunk.length, source.remaining());
+				source.get(chunk, 0, length);
+				out.write(chunk, 0, length);
+			}
+		}
+		ByteBuffer body = ByteBuffer.allocateDirect(bytes.size());
+		body.put(bytes.toByteArray());
+		body.flip();
+		return body.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies a file into a direct buffer. Unlike a mapping, the copy stays
+	 * readable if the file is truncated later on.
+	 *
+	 * @param file - Path of the file.
+	 * @param size - Size of the file.
+	 * @return read-only contents of the file, or null if the file changed while it was read.
+	 * @throws IOException Thrown if the file could not be read.
+	 */
+	private static ByteBuffer read(Path file, long size) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(channel.size() != size)
+				return null;
+
+			ByteBuffer body = ByteBuffer.allocateDirect((int) size);
+			while(body.hasRemaining())
+				if(channel.read(body) == -1)
+					return null;
+			body.flip();
+			return body.asReadOnlyBuffer();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Well-known request headers. Their names are hashed ahead of time without
+ * regard to case, so {@link Headers} recognizes them while a request is parsed
+ * and finds them without comparing strings.
+ *
+ * @author Ryan Mayobre
+ * @see {@link Headers}
+ */
+public enum Header
+{
+	HOST("Host"),
+	UPGRADE("Upgrade"),
+	CONNECTION("Connection"),
+	SEC_WEBSOCKET_KEY("Sec-WebSocket-Key"),
+	SEC_WEBSOCKET_VERSION("Sec-WebSocket-Version"),
+	SEC_WEBSOCKET_EXTENSIONS("Sec-WebSocket-Extensions"),
+	SEC_WEBSOCKET_PROTOCOL("Sec-WebSocket-Protocol"),
+	CONTENT_LENGTH("Content-Length"),
+	TRANSFER_ENCODING("Transfer-Encoding"),
+	ACCEPT_ENCODING("Accept-Encoding"),
+	RANGE("Range"),
+	IF_RANGE("If-Range"),
+	IF_NONE_MATCH("If-None-Match"),
+	IF_MODIFIED_SINCE("If-Modified-Since");
+
+	/**
+	 * Every header, kept since {@link #values()} copies its array on each call.
+	 */
+	private static final Header[] HEADERS = values();
+
+	/**
+	 * Name of the header as it is usually written.
+	 */
+	private final String NAME;
+
+	/**
+	 * Lower case bytes of the name.
+	 */
+	private final byte[] LOWER;
+
+	/**
+	 * Case-insensitive hash of the name, see {@link #hash(int, int)}.
+	 */
+	private final int HASH;
+
+	private Header(String name)
+	{
+		this.NAME = name;
+		this.LOWER = name.toLowerCase().getBytes(StandardCharsets.ISO_8859_1);
+		int hash = 0;
+		for(byte b : LOWER)
+			hash = hash(hash, b);
+		this.HASH = hash;
+	}
+
+	/**
+	 * @return {@link #NAME}
+	 */
+	public String getName()
+	{
+		return NAME;
+	}
+
+	/**
+	 * @return number of well-known headers.
+	 */
+	static int count()
+	{
+		return HEADERS.length;
+	}
+
+	/**
+	 * Adds a byte of a name to its case-insensitive hash.
+	 *
+	 * @param hash - Hash of the bytes before b, zero for the first byte.
+	 * @param b - Byte of the name.
+	 * @return hash including b.
+	 */
+	static int hash(int hash, int b)
+	{
+		return 31 * hash + lower(b);
+	}
+
+	/**
+	 * @param b - Byte of a name.
+	 * @return b in lower case if it is an ASCII letter, otherwise b.
+	 */
+	static int lower(int b)
+	{
+		return b >= 'A' && b <= 'Z' ? b + 0x20 : b;
+	}
+
+	/**
+	 * Finds the well-known header with a name.
+	 *
+	 * @param hash - Case-insensitive hash of the name.
+	 * @param data - Bytes holding the name.
+	 * @param from - Index of the first byte of the name.
+	 * @param to - Index after the last byte of the name.
+	 * @return {@link Header}, or null if the name is not well-known.
+	 */
+	static Header find(int hash, byte[] data, int from, int to)
+	{
+		for(Header header : HEADERS)
+			if(header.HASH == hash && header.matches(data, from, to))
+				return header;
+		return null;
+	}
+
+	/**
+	 * @param data - Bytes holding a name.
+	 * @param from - Index of the first byte of the name.
+	 * @param to - Index after the last byte of the name.
+	 * @return TRUE if the name is this header's name, regardless of case.
+	 */
+	private boolean matches(byte[] data, int from, int to)
+	{
+		if(to - from != LOWER.length)
+			return false;
+		for(int i = 0; i < LOWER.length; i++)
+			if(lower(data[from + i]) != LOWER[i])
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,267 @@
+package http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Headers of a request, stored as offsets into the bytes of the request's
+ * head. Names are matched without regard to case. {@link Header}(s) are
+ * recognized once, when the request is parsed, and are found without a
+ * search; other names are found by their hash. Strings are only created when
+ * a name or value is asked for, and {@link #containsToken(Header, String)}
+ * and {@link #valueEquals(Header, String)} check values without creating any.
+ *
+ * <p>
+ * A header that appears several times has its values combined, in order,
+ * into a comma-separated list.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7230#section-3.2">RFC 7230, Section 3.2 (Header Fields)</a>
+ */
+public final class Headers
+{
+	/**
+	 * Bytes of the request's head.
+	 */
+	private final byte[] HEAD;
+
+	/**
+	 * Start and end of each header's name and value inside of {@link #HEAD}.
+	 */
+	private final int[] OFFSETS;
+
+	/**
+	 * Case-insensitive hash of each header's name.
+	 */
+	private final int[] HASHES;
+
+	/**
+	 * Index of the next header with the same well-known name, or -1.
+	 */
+	private final int[] NEXT;
+
+	/**
+	 * Index of the first header of each {@link Header}, or -1 if it is missing.
+	 */
+	private final int[] KNOWN;
+
+	/**
+	 * Number of headers.
+	 */
+	private final int COUNT;
+
+	/**
+	 * @param head - Bytes of the request's head.
+	 * @param offsets - Start and end of each header's name and value, kept by the table.
+	 * @param hashes - Case-insensitive hash of each header's name, kept by the table.
+	 * @param count - Number of headers.
+	 */
+	Headers(byte[] head, int[] offsets, int[] hashes, int count)
+	{
+		this.HEAD = head;
+		this.OFFSETS = offsets;
+		this.HASHES = hashes;
+		this.NEXT = new int[count];
+		this.KNOWN = new int[Header.count()];
+		this.COUNT = count;
+
+		Arrays.fill(KNOWN, -1);
+		int[] last = new int[KNOWN.length];
+		for(int i = 0; i < count; i++)
+		{
+			NEXT[i] = -1;
+			Header header = Header.find(hashes[i], head, offsets[i << 2], offsets[(i << 2) + 1]);
+			if(header == null)
+				continue;
+			int known = header.ordinal();
+			if(KNOWN[known] == -1)
+				KNOWN[known] = i;
+			else
+				NEXT[last[known]] = i;
+			last[known] = i;
+		}
+	}
+
+	/**
+	 * @return number of headers, counting each repeated header.
+	 */
+	public int size()
+	{
+		return COUNT;
+	}
+
+	/**
+	 * @param index - Index of a header, from 0 to {@link #size()}.
+	 * @return name of the header, as client wrote it.
+	 */
+	public String getName(int index)
+	{
+		return string(OFFSETS[index << 2], OFFSETS[(index << 2) + 1]);
+	}
+
+	/**
+	 * @param index - Index of a header, from 0 to {@link #size()}.
+	 * @return value of the header.
+	 */
+	public String getValue(int index)
+	{
+		return string(OFFSETS[(index << 2) + 2], OFFSETS[(index << 2) + 3]);
+	}
+
+	/**
+	 * @param header - {@link Header} to be found.
+	 * @return TRUE if client sent the header.
+	 */
+	public boolean contains(Header header)
+	{
+		return KNOWN[header.ordinal()] != -1;
+	}
+
+	/**
+	 * @param header - {@link Header} to be found.
+	 * @return value of the header, or null if client did not send it.
+	 */
+	public String get(Header header)
+	{
+		int first = KNOWN[header.ordinal()];
+		if(first == -1)
+			return null;
+		if(NEXT[first] == -1)
+			return getValue(first);
+
+		StringBuilder values = new StringBuilder(getValue(first));
+		for(int i = NEXT[first]; i != -1; i = NEXT[i])
+			values.append(", ").append(getValue(i));
+		return values.toString();
+	}
+
+	/**
+	 * Finds a header by its name, regardless of case.
+	 *
+	 * @param name - Name of the header.
+	 * @return value of the header, or null if client did not send it.
+	 */
+	public String get(String name)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+		int hash = 0;
+		for(byte b : bytes)
+			hash = Header.hash(hash, b);
+
+		Header header = Header.find(hash, bytes, 0, bytes.length);
+		if(header != null)
+			return get(header);
+
+		StringBuilder values = null;
+		for(int i = 0; i < COUNT; i++)
+		{
+			if(HASHES[i] != hash || !nameEquals(i, bytes))
+				continue;
+			if(values == null)
+				values = new StringBuilder(getValue(i));
+			else
+				values.append(", ").append(getValue(i));
+		}
+		return values == null ? null : values.toString();
+	}
+
+	/**
+	 * Determines if a header's comma-separated list holds a token, regardless
+	 * of case, such as {@code Upgrade} inside of {@code Connection: keep-alive, Upgrade}.
+	 *
+	 * @param header - {@link Header} holding a list.
+	 * @param token - Token to be found.
+	 * @return TRUE if any element of the list is the token.
+	 */
+	public boolean containsToken(Header header, String token)
+	{
+		for(int i = KNOWN[header.ordinal()]; i != -1; i = NEXT[i])
+		{
+			int end = OFFSETS[(i << 2) + 3];
+			int from = OFFSETS[(i << 2) + 2];
+			while(from <= end)
+			{
+				int to = from;
+				while(to < end && HEAD[to] != ',')
+					++to;
+				if(equalsIgnoreCase(trimStart(from, to), trimEnd(from, to), token))
+					return true;
+				from = to + 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param header - {@link Header} to be compared.
+	 * @param value - Expected value.
+	 * @return TRUE if client sent the header once, with the value, regardless of case.
+	 */
+	public boolean valueEquals(Header header, String value)
+	{
+		int i = KNOWN[header.ordinal()];
+		return i != -1 && NEXT[i] == -1 && equalsIgnoreCase(OFFSETS[(i << 2) + 2], OFFSETS[(i << 2) + 3], value);
+	}
+
+	/**
+	 * @param index - Index of a header.
+	 * @param name - Lower or mixed case bytes of a name.
+	 * @return TRUE if the header has the name, regardless of case.
+	 */
+	private boolean nameEquals(int index, byte[] name)
+	{
+		int from = OFFSETS[index << 2];
+		if(OFFSETS[(index << 2) + 1] - from != name.length)
+			return false;
+		for(int i = 0; i < name.length; i++)
+			if(Header.lower(HEAD[from + i]) != Header.lower(name[i]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param from - Index of the first byte.
+	 * @param to - Index after the last byte.
+	 * @param value - Value to be compared.
+	 * @return TRUE if the bytes are the value, regardless of case.
+	 */
+	private boolean equalsIgnoreCase(int from, int to, String value)
+	{
+		if(to - from != value.length())
+			return false;
+		for(int i = 0; i < value.length(); i++)
+			if(Header.lower(HEAD[from + i] & 0xFF) != Header.lower(value.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return first index from from that is not whitespace, at most to.
+	 */
+	private int trimStart(int from, int to)
+	{
+		while(from < to && (HEAD[from] == ' ' || HEAD[from] == '\t'))
+			++from;
+		return from;
+	}
+
+	/**
+	 * @return index after the last byte before to that is not whitespace, at least from.
+	 */
+	private int trimEnd(int from, int to)
+	{
+		while(to > from && (HEAD[to - 1] == ' ' || HEAD[to - 1] == '\t'))
+			--to;
+		return to;
+	}
+
+	/**
+	 * @param from - Index of the first byte.
+	 * @param to - Index after the last byte.
+	 * @return bytes decoded as ISO-8859-1, which maps each byte to one char.
+	 */
+	private String string(int from, int to)
+	{
+		return new String(HEAD, from, to - from, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,100 @@
+package http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Dates as they are written in headers such as {@code Last-Modified} and
+ * {@code If-Modified-Since}, which are precise to the second. The
+ * {@code Date} header every response carries is kept by a clock shared by
+ * all threads, which formats it again only once the second changed.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-7.1.1.1">RFC 7231, Section 7.1.1.1 (Date/Time Formats)</a>
+ */
+final class HttpDate
+{
+	/**
+	 * IMF-fixdate, such as {@code Sun, 06 Nov 1994 08:49:37 GMT}. Unlike
+	 * {@link DateTimeFormatter#RFC_1123_DATE_TIME}, the day always has two digits.
+	 */
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	/**
+	 * Date header field of a second.
+	 */
+	private static final class Field
+	{
+		/**
+		 * Seconds since the epoch the field was formatted for.
+		 */
+		final long SECOND;
+
+		/**
+		 * Read-only field, ending with CRLF.
+		 */
+		final ByteBuffer BYTES;
+
+		Field(long second)
+		{
+			this.SECOND = second;
+			this.BYTES = ByteBuffer.wrap(("Date: " + format(second * 1000) + "\r\n").getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * Date header field of the latest second a response was made in. Threads
+	 * racing into a new second may each format it, and any of them wins.
+	 */
+	private static volatile Field NOW = new Field(System.currentTimeMillis() / 1000);
+
+	private HttpDate()
+	{
+	}
+
+	/**
+	 * @param millis - Milliseconds since the epoch.
+	 * @return the date as an IMF-fixdate.
+	 */
+	static String format(long millis)
+	{
+		return FORMAT.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * @return Date header field of the current second, ending with CRLF, ready to be written.
+	 */
+	static ByteBuffer now()
+	{
+		long second = System.currentTimeMillis() / 1000;
+		Field now = NOW;
+		if(now.SECOND != second)
+		{
+			now = new Field(second);
+			NOW = now;
+		}
+		return now.BYTES.duplicate();
+	}
+
+	/**
+	 * @param date - Date sent by client.
+	 * @return seconds since the epoch, or -1 if the date is malformed.
+	 */
+	static long parse(String date)
+	{
+		try
+		{
+			return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+		}
+		catch (DateTimeParseException e)
+		{
+			return -1;
+		}
+	}
+}
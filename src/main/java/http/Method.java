@@ -16,6 +16,11 @@ public enum Method
     TRACE,
     CONNECT;
     
+    /**
+     * Every method, kept since {@link #values()} copies its array on each call.
+     */
+    private static final Method[] METHODS = values();
+    
 	/**
 	 * TODO finish javadocs for find.
 	 * 
@@ -33,4 +38,28 @@ public enum Method
 			return null;
 		}
     }
+    
+    /**
+     * Finds a method by its name without creating a string.
+     * 
+     * @param data - Bytes holding the name.
+     * @param offset - Index of the name.
+     * @param length - Length of the name.
+     * @return {@link Method}, or null if no method has the name.
+     */
+    static Method find(byte[] data, int offset, int length)
+    {
+    	search:
+    	for(Method method : METHODS)
+    	{
+    		String name = method.name();
+    		if(name.length() != length)
+    			continue;
+    		for(int i = 0; i < length; i++)
+    			if(data[offset + i] != name.charAt(i))
+    				continue search;
+    		return method;
+    	}
+    	return null;
+    }
 }
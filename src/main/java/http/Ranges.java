@@ -0,0 +1,229 @@
+package http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Byte ranges of a file, asked for with {@code Range} to resume a download
+ * or seek through media. Each range becomes a part of the response's body
+ * that covers exactly that region of the file, sent with
+ * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * or a slice of the cached body, so no byte outside of the ranges is read or copied.
+ *
+ * <p>
+ * A single range is answered with its bytes, several ranges with a
+ * {@code multipart/byteranges} body whose part headers are the only bytes
+ * the server builds. A malformed header, a unit other than bytes or too many
+ * ranges are ignored and the whole file is sent, as is a file that changed
+ * since the entity tag or date given by {@code If-Range}.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7233">RFC 7233 (Range Requests)</a>
+ */
+final class Ranges
+{
+	/**
+	 * Most ranges answered in one response. More are ignored rather than
+	 * letting a client split a file into many tiny parts.
+	 */
+	private static final int MAX_RANGES = 16;
+
+	/**
+	 * Boundary between the parts of a multipart body.
+	 */
+	private static final String BOUNDARY = Long.toHexString(new Random().nextLong() | Long.MIN_VALUE);
+
+	/**
+	 * Ranges are never created.
+	 */
+	private Ranges()
+	{
+	}
+
+	/**
+	 * Answers the ranges client asked for, if any.
+	 *
+	 * @param request - Client's {@link Request}.
+	 * @param full - {@link Response} sending the whole file.
+	 * @return {@link Response} sending the ranges, or full if it is to be sent as it is.
+	 */
+	static Response apply(Request request, Response full)
+	{
+		Headers headers = request.getHeaders();
+		String range = headers.get(Header.RANGE);
+		if(range == null || request.getMethod() != Method.GET || full.getStatus() != Status.OK || full.getModified() == null)
+			return full;
+
+		String condition = headers.get(Header.IF_RANGE);
+		if(condition != null && !Conditions.unchanged(condition, full))
+			return full;
+
+		long length = full.getLength();
+		long[] ranges = parse(range, length);
+		/*
+		 * Content-Encoding of a multipart body would apply to the whole
+		 * multipart body, not to each part, so a coded file is sent whole.
+		 */
+		if(ranges == null || (ranges.length > 2 && full.getEncoding() != null))
+			return full;
+
+		if(ranges.length == 0)
+		{
+			full.close();
+			Response response = new Response(Status.RANGE_NOT_SATISFIABLE);
+			response.addHeader("Content-Range", "bytes */" + length);
+			return response;
+		}
+
+		Response response;
+		if(ranges.length == 2)
+		{
+			response = new Response(Status.PARTIAL_CONTENT, full.getType(), ranges[1] - ranges[0]);
+			response.addHeader("Content-Range", contentRange(ranges[0], ranges[1], length));
+			response.add(full, ranges[0], ranges[1]);
+		}
+		else
+		{
+			ByteBuffer[] heads = new ByteBuffer[(ranges.length >> 1) + 1];
+			long size = 0;
+			for(int i = 0; i < ranges.length; i += 2)
+			{
+				StringBuilder head = new StringBuilder(96);
+				if(i > 0)
+					head.append("\r\n");
+				head.append("--").append(BOUNDARY).append("\r\n");
+				if(full.getType() != null)
+					head.append("Content-Type: ").append(full.getType().getMime()).append("\r\n");
+				head.append("Content-Range: ").append(contentRange(ranges[i], ranges[i + 1], length)).append("\r\n\r\n");
+				heads[i >> 1] = ascii(head);
+				size += heads[i >> 1].remaining() + ranges[i + 1] - ranges[i];
+			}
+			heads[heads.length - 1] = ascii(new StringBuilder("\r\n--").append(BOUNDARY).append("--\r\n"));
+			size += heads[heads.length - 1].remaining();
+
+			response = new Response(Status.PARTIAL_CONTENT, null, size);
+			response.addHeader("Content-Type", "multipart/byteranges; boundary=" + BOUNDARY);
+			for(int i = 0; i < ranges.length; i += 2)
+			{
+				response.add(heads[i >> 1]);
+				response.add(full, ranges[i], ranges[i + 1]);
+			}
+			response.add(heads[heads.length - 1]);
+		}
+		response.addHeader("Accept-Ranges", "bytes");
+		response.encode(full.getType(), full.getEncoding());
+		response.validate(full.getModified(), full.getTag());
+		return response;
+	}
+
+	/**
+	 * Parses the value of a {@code Range} header.
+	 *
+	 * @param value - Value of the header.
+	 * @param length - Length of the file.
+	 * @return start and end of each satisfiable range, two per range, an empty
+	 * array if no range is satisfiable, or null if the header is to be ignored.
+	 */
+	private static long[] parse(String value, long length)
+	{
+		int equals = value.indexOf('=');
+		if(equals == -1 || !value.substring(0, equals).trim().equalsIgnoreCase("bytes"))
+			return null;
+
+		long[] ranges = new long[MAX_RANGES << 1];
+		int count = 0;
+		boolean any = false;
+		int from = equals + 1;
+		while(from <= value.length())
+		{
+			int comma = value.indexOf(',', from);
+			if(comma == -1)
+				comma = value.length();
+			String spec = value.substring(from, comma).trim();
+			from = comma + 1;
+			if(spec.isEmpty())
+				continue;
+			any = true;
+
+			int dash = spec.indexOf('-');
+			if(dash == -1)
+				return null;
+			long first = number(spec, 0, dash);
+			long last = number(spec, dash + 1, spec.length());
+
+			long start, end;
+			if(dash == 0)
+			{
+				/*
+				 * Suffix range, the last bytes of the file.
+				 */
+				if(last < 0)
+					return null;
+				start = Math.max(0, length - last);
+				end = length;
+			}
+			else
+			{
+				if(first < 0 || (dash + 1 < spec.length() && (last < 0 || last < first)))
+					return null;
+				start = first;
+				end = dash + 1 < spec.length() ? Math.min(last + 1, length) : length;
+			}
+			if(start >= end)
+				continue;
+
+			if(count == ranges.length)
+				return null;
+			ranges[count++] = start;
+			ranges[count++] = end;
+		}
+
+		if(!any)
+			return null;
+		long[] satisfiable = new long[count];
+		System.arraycopy(ranges, 0, satisfiable, 0, count);
+		return satisfiable;
+	}
+
+	/**
+	 * @param text - Text holding a number.
+	 * @param from - Index of the first digit.
+	 * @param to - Index after the last digit.
+	 * @return the number, or -1 if the text is not a number or overflows.
+	 */
+	private static long number(String text, int from, int to)
+	{
+		if(from == to || to - from > 18)
+			return -1;
+		long number = 0;
+		for(int i = from; i < to; i++)
+		{
+			char c = text.charAt(i);
+			if(c < '0' || c > '9')
+				return -1;
+			number = number * 10 + (c - '0');
+		}
+		return number;
+	}
+
+	/**
+	 * @param start - Index of the first byte of a range.
+	 * @param end - Index after the last byte.
+	 * @param length - Length of the file.
+	 * @return value of the range's {@code Content-Range} header.
+	 */
+	private static String contentRange(long start, long end, long length)
+	{
+		return "bytes " + start + '-' + (end - 1) + '/' + length;
+	}
+
+	/**
+	 * @param text - ASCII text.
+	 * @return read-only buffer holding the text.
+	 */
+	private static ByteBuffer ascii(CharSequence text)
+	{
+		return ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+	}
+}
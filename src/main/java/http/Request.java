@@ -1,11 +1,9 @@
 package http;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
 
 /**
  * TODO Remove terminal printouts.
@@ -44,35 +42,84 @@ public class Request
 	private final String REQUEST_PATH;
 	
 	/**
-	 * TODO finish HEADER javadoc.
+	 * Minor version of HTTP/1.x the request was made with.
 	 */
-	private final Map<String, String> REQUEST_HEADER = new HashMap<String, String>();
+	private final int MINOR_VERSION;
 	
 	/**
-	 * TODO finish javadoc
+	 * Headers of the request, see {@link Headers}.
+	 */
+	private final Headers REQUEST_HEADER;
+	
+	/**
+	 * Names of the parameters captured by the route the request matched,
+	 * null if it matched none, see {@link Router}.
+	 */
+	private String[] PARAMETER_NAMES;
+	
+	/**
+	 * Start and end of each captured parameter inside of {@link #REQUEST_URI},
+	 * null if the route captured none.
+	 */
+	private int[] PARAMETERS;
+	
+	/**
+	 * Reads a request from a stream one byte at a time, so no byte after the
+	 * request's head is taken from the stream. {@link RequestParser#read(InputStream, ByteBuffer)}
+	 * reads faster, handing back the bytes it read past the head.
+	 * 
 	 * @param input
 	 * @throws IOException
+	 * @throws BadRequestException Thrown if the request is malformed or too large.
 	 */
-	public Request(InputStream input) throws IOException
+	public Request(InputStream input) throws IOException, BadRequestException
 	{
-		BufferedReader in = new BufferedReader(new InputStreamReader(input));
-		String[] requestLine = in.readLine().split("\\s+");
-		/*
-		 * Gather requests from request-line.
-		 */
-		REQUEST_METHOD = Method.find(requestLine[0]);
-		REQUEST_URI = requestLine[1];
+		this(read(input));
+	}
+	
+	/**
+	 * Constructor for a request parsed by {@link RequestParser}.
+	 * 
+	 * @param method - {@link Method} of the request, null if it is unknown.
+	 * @param uri - URI of the request.
+	 * @param minorVersion - Minor version of HTTP/1.x.
+	 * @param headers - {@link Headers} of the request.
+	 */
+	Request(Method method, String uri, int minorVersion, Headers headers)
+	{
+		REQUEST_METHOD = method;
+		REQUEST_URI = uri;
 		REQUEST_PATH = REQUEST_URI.substring(0, REQUEST_URI.lastIndexOf("/")+1);
-		/*
-		 * Place request headers inside of HashMap.
-		 */
-		String header = in.readLine();
-		while(!header.isEmpty())
+		MINOR_VERSION = minorVersion;
+		REQUEST_HEADER = headers;
+	}
+	
+	private Request(Request request)
+	{
+		this(request.REQUEST_METHOD, request.REQUEST_URI, request.MINOR_VERSION, request.REQUEST_HEADER);
+	}
+	
+	/**
+	 * @param input
+	 * @return {@link Request} read from input.
+	 * @throws IOException
+	 * @throws BadRequestException
+	 */
+	private static Request read(InputStream input) throws IOException, BadRequestException
+	{
+		RequestParser parser = new RequestParser();
+		ByteBuffer head = ByteBuffer.allocate(RequestParser.DEFAULT_MAX_HEAD_SIZE);
+		head.limit(0);
+		Request request;
+		while((request = parser.parse(head)) == null)
 		{
-			String[] h = header.split(":\\s+", 2);
-			REQUEST_HEADER.put(h[0], h[1]);
-			header = in.readLine();
+			int b = input.read();
+			if(b == -1)
+				throw new EOFException("Client closed the connection before its request was complete.");
+			head.limit(head.limit() + 1);
+			head.put(head.limit() - 1, (byte) b);
 		}
+		return request;
 	}
 	
 	/**
@@ -103,35 +150,155 @@ public class Request
 	}
 	
 	/**
-	 * TODO finish getheader javadocs
-	 * @param header
-	 * @return
+	 * @return {@link Request#REQUEST_HEADER}
 	 */
-	private String getHeader(String header)
+	public Headers getHeaders()
+	{
+		return REQUEST_HEADER;
+	}
+	
+	/**
+	 * Finds a header by its name, regardless of case.
+	 * 
+	 * @param header - Name of the header.
+	 * @return value of the header, or null if client did not send it.
+	 */
+	public String getHeader(String header)
 	{
 		return REQUEST_HEADER.get(header);
 	}
 	
 	/**
-	 * TODO finish javadoc
-	 * @return
+	 * Finds a parameter captured by the route the request matched. The value
+	 * is cut out of the URI only when it is asked for, as client sent it,
+	 * still percent-encoded.
+	 * 
+	 * @param name - Name of the parameter in the route's pattern, {@link Router#WILDCARD} for an anonymous wildcard.
+	 * @return value of the parameter, or null if the route has no such parameter.
+	 */
+	public String getParameter(String name)
+	{
+		if(PARAMETERS == null)
+			return null;
+		for(int i = 0; i < PARAMETER_NAMES.length; i++)
+			if(PARAMETER_NAMES[i].equals(name))
+				return REQUEST_URI.substring(PARAMETERS[i << 1], PARAMETERS[(i << 1) + 1]);
+		return null;
+	}
+	
+	/**
+	 * Records the parameters captured by the route the request matched.
+	 * 
+	 * @param names - Names of the route's parameters.
+	 * @param parameters - Start and end of each parameter inside of the URI, null if there are none.
+	 */
+	void route(String[] names, int[] parameters)
+	{
+		PARAMETER_NAMES = names;
+		PARAMETERS = parameters;
+	}
+	
+	/**
+	 * Determines if client asked to upgrade to a WebSocket. Header names and
+	 * tokens are matched regardless of case, and {@code Connection} may list
+	 * other tokens besides {@code Upgrade}, as some proxies send. Requests
+	 * handed out by {@link RequestParser} were checked by {@link #validateUpgrade()},
+	 * so an upgrade always carries a valid key.
+	 * 
+	 * @return TRUE if the request is a WebSocket upgrade.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-4.2.1">RFC 6455, Section 4.2.1 (Reading the Client's Opening Handshake)</a>
 	 */
 	public boolean isWebSocketUpgrade()
 	{
-		if(getHeader("Upgrade").equals("websocket")
-				&& getHeader("Connection").equals("Upgrade")
-				&& getHeader("Sec-WebSocket-Version").equals("13"))
-			return true;
-		else
+		return REQUEST_HEADER.containsToken(Header.UPGRADE, "websocket")
+				&& REQUEST_HEADER.containsToken(Header.CONNECTION, "Upgrade");
+	}
+	
+	/**
+	 * Refuses an upgrade the server could not answer with a handshake. Requests
+	 * that are not upgrades are never refused.
+	 * 
+	 * @throws BadRequestException Thrown with {@link Status#BAD_REQUEST} if the upgrade
+	 * is not a GET or its key is not 16 bytes in Base64, or with {@link Status#UPGRADE_REQUIRED}
+	 * if it does not ask for version 13.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-4.2.2">RFC 6455, Section 4.2.2 (Sending the Server's Opening Handshake)</a>
+	 */
+	void validateUpgrade() throws BadRequestException
+	{
+		if(!isWebSocketUpgrade())
+			return;
+		if(REQUEST_METHOD != Method.GET)
+			throw new BadRequestException("WebSocket upgrade must be a GET request.");
+		if(!REQUEST_HEADER.valueEquals(Header.SEC_WEBSOCKET_VERSION, "13"))
+			throw new BadRequestException(Status.UPGRADE_REQUIRED, "Only WebSocket version 13 is supported.");
+		if(!isKey(getKey()))
+			throw new BadRequestException("Sec-WebSocket-Key must be 16 bytes in Base64.");
+	}
+	
+	/**
+	 * @param key - Sec-WebSocket-Key of client, null if it sent none.
+	 * @return TRUE if the key is 16 bytes in Base64, 22 chars of the alphabet followed by two pads.
+	 */
+	private static boolean isKey(String key)
+	{
+		if(key == null || key.length() != 24 || !key.endsWith("=="))
 			return false;
+		for(int i = 0; i < 22; i++)
+		{
+			char c = key.charAt(i);
+			if(!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '+' || c == '/'))
+				return false;
+		}
+		return true;
 	}
 	
 	/**
-	 * TODO finish javadoc
-	 * @return
+	 * @return minor version of HTTP/1.x the request was made with.
+	 */
+	public int getMinorVersion()
+	{
+		return MINOR_VERSION;
+	}
+	
+	/**
+	 * Determines if client keeps the connection open for further requests,
+	 * which HTTP/1.1 does unless it sends {@code Connection: close} and
+	 * HTTP/1.0 only does if it sends {@code Connection: keep-alive}.
+	 * 
+	 * @return TRUE if the connection may be kept open after the response.
+	 * @see <a href="https://tools.ietf.org/html/rfc7230#section-6.3">RFC 7230, Section 6.3 (Persistence)</a>
+	 */
+	public boolean isKeepAlive()
+	{
+		if(REQUEST_HEADER.containsToken(Header.CONNECTION, "close"))
+			return false;
+		return MINOR_VERSION > 0 || REQUEST_HEADER.containsToken(Header.CONNECTION, "keep-alive");
+	}
+	
+	/**
+	 * Determines if client sent a body, which the server does not read.
+	 * 
+	 * @return TRUE if the request has a body.
+	 */
+	public boolean hasBody()
+	{
+		return REQUEST_HEADER.contains(Header.TRANSFER_ENCODING)
+				|| (REQUEST_HEADER.contains(Header.CONTENT_LENGTH) && !REQUEST_HEADER.valueEquals(Header.CONTENT_LENGTH, "0"));
+	}
+	
+	/**
+	 * @return Sec-WebSocket-Key of client, or null if it sent none.
 	 */
 	public String getKey()
 	{
-		return getHeader("Sec-WebSocket-Key");
+		return REQUEST_HEADER.get(Header.SEC_WEBSOCKET_KEY);
+	}
+	
+	/**
+	 * @return extensions offered by client, or null if none were offered.
+	 */
+	public String getExtensions()
+	{
+		return REQUEST_HEADER.get(Header.SEC_WEBSOCKET_EXTENSIONS);
 	}
 }
@@ -0,0 +1,21 @@
+package http;
+
+import java.io.IOException;
+
+/**
+ * Answers the requests of clients that did not ask for a WebSocket upgrade.
+ * Event loops call the handler on their own thread, so it should only do
+ * quick work, such as opening a file that is then sent by the event loop.
+ *
+ * @author Ryan Mayobre
+ * @see {@link StaticFiles}
+ */
+public interface RequestHandler
+{
+	/**
+	 * @param request - {@link Request} of client.
+	 * @return {@link Response} to the request, or null to answer with {@link Status#NOT_FOUND}.
+	 * @throws IOException Thrown if the response could not be made, answered with {@link Status#INTERNAL_ERROR}.
+	 */
+	Response handle(Request request) throws IOException;
+}
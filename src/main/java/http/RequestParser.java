@@ -0,0 +1,375 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser of a client's request head. Bytes are scanned once as
+ * they arrive; a partial head is kept where it is in the caller's buffer and
+ * scanning resumes where it stopped, so nothing is copied until the head is
+ * complete. The parser stops right after the empty line ending the head, so
+ * bytes that follow it, such as the first frame of a WebSocket, are left to
+ * the caller.
+ *
+ * <p>
+ * Heads larger than the size limit, or with more headers than the header
+ * limit, are rejected with a {@link BadRequestException} before they are
+ * buffered in full. A parser may be reused once it returned a request or threw.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7230#section-3">RFC 7230, Section 3 (Message Format)</a>
+ */
+public class RequestParser
+{
+	/**
+	 * Default size limit of a request head, in bytes.
+	 */
+	public static final int DEFAULT_MAX_HEAD_SIZE = 0x2000;
+
+	/**
+	 * Default limit of the number of headers.
+	 */
+	public static final int DEFAULT_MAX_HEADERS = 0x40;
+
+	/*
+	 * States of the parser.
+	 */
+	private static final int METHOD = 0;
+	private static final int URI = 1;
+	private static final int VERSION = 2;
+	private static final int REQUEST_LINE_END = 3;
+	private static final int NAME = 4;
+	private static final int VALUE_START = 5;
+	private static final int VALUE = 6;
+	private static final int HEADER_END = 7;
+	private static final int HEAD_END = 8;
+
+	/**
+	 * Version prefix every request line must end with.
+	 */
+	private static final byte[] HTTP_1 = {'H', 'T', 'T', 'P', '/', '1', '.'};
+
+	/**
+	 * Characters allowed inside of a token, such as a method or a header name.
+	 */
+	private static final boolean[] TOKEN = new boolean[0x80];
+	static
+	{
+		for(char c = '0'; c <= '9'; c++)
+			TOKEN[c] = true;
+		for(char c = 'a'; c <= 'z'; c++)
+			TOKEN[c] = TOKEN[c - 0x20] = true;
+		for(char c : "!#$%&'*+-.^_`|~".toCharArray())
+			TOKEN[c] = true;
+	}
+
+	/**
+	 * Size limit of a request head, in bytes.
+	 */
+	private final int MAX_HEAD_SIZE;
+
+	/**
+	 * Limit of the number of headers.
+	 */
+	private final int MAX_HEADERS;
+
+	/**
+	 * Start and end of each header's name and value, relative to the start of the head.
+	 */
+	private final int[] HEADERS;
+
+	/**
+	 * Case-insensitive hash of each header's name.
+	 */
+	private final int[] HASHES;
+
+	/**
+	 * Current state of the parser.
+	 */
+	private int STATE;
+
+	/**
+	 * Number of bytes of the head that were already scanned.
+	 */
+	private int SCANNED;
+
+	/**
+	 * Number of headers found.
+	 */
+	private int COUNT;
+
+	/**
+	 * Start of the token being scanned.
+	 */
+	private int MARK;
+
+	/**
+	 * Case-insensitive hash of the header name being scanned.
+	 */
+	private int HASH;
+
+	/**
+	 * End of the header value being scanned, not counting trailing whitespace.
+	 */
+	private int VALUE_END;
+
+	/**
+	 * End of the method, and start and end of the URI.
+	 */
+	private int METHOD_END, URI_START, URI_END;
+
+	/**
+	 * Minor version of HTTP/1.x.
+	 */
+	private int MINOR_VERSION;
+
+	/**
+	 * Creates a parser with the default limits.
+	 */
+	public RequestParser()
+	{
+		this(DEFAULT_MAX_HEAD_SIZE, DEFAULT_MAX_HEADERS);
+	}
+
+	/**
+	 * @param maxHeadSize - Size limit of a request head, in bytes.
+	 * @param maxHeaders - Limit of the number of headers.
+	 */
+	public RequestParser(int maxHeadSize, int maxHeaders)
+	{
+		if(maxHeadSize <= 0 || maxHeaders < 0)
+			throw new IllegalArgumentException("Limits must be positive.");
+		this.MAX_HEAD_SIZE = maxHeadSize;
+		this.MAX_HEADERS = maxHeaders;
+		this.HEADERS = new int[maxHeaders << 2];
+		this.HASHES = new int[maxHeaders];
+		reset();
+	}
+
+	/**
+	 * Forgets the head being parsed.
+	 */
+	public void reset()
+	{
+		STATE = METHOD;
+		SCANNED = 0;
+		COUNT = 0;
+		MARK = 0;
+	}
+
+	/**
+	 * Scans the bytes that arrived since the last call. The head starts at the
+	 * buffer's position, which is only moved once the head is complete; until
+	 * then the caller must keep the bytes of the head in the buffer, though it
+	 * may move them together, as {@link ByteBuffer#compact()} does.
+	 *
+	 * @param data - Buffer in read mode holding the head from its position.
+	 * @return {@link Request} once the head is complete, with the buffer's position
+	 * right after it, or null if more bytes are needed.
+	 * @throws BadRequestException Thrown if the head is malformed or too large, or is an upgrade that can not be answered.
+	 */
+	public Request parse(ByteBuffer data) throws BadRequestException
+	{
+		try
+		{
+			int start = data.position();
+			int end = Math.min(data.limit(), start + MAX_HEAD_SIZE);
+			for(int i = start + SCANNED; i < end; i++)
+			{
+				if(next(data.get(i) & 0xFF, i - start))
+				{
+					Request request = request(data, start, i + 1 - start);
+					request.validateUpgrade();
+					data.position(i + 1);
+					reset();
+					return request;
+				}
+			}
+
+			SCANNED = end - start;
+			if(SCANNED == MAX_HEAD_SIZE)
+				throw new BadRequestException(Status.HEADER_FIELDS_TOO_LARGE, "Head is larger than " + MAX_HEAD_SIZE + " bytes.");
+			return null;
+		}
+		catch (BadRequestException e)
+		{
+			reset();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a head from a stream. Bytes are read in chunks, so bytes following
+	 * the head may be read as well; they are left in the buffer.
+	 *
+	 * @param in - Stream of client's connection.
+	 * @param buffer - Heap buffer in read mode receiving the bytes, with room for a whole head.
+	 * @return {@link Request}, with the buffer holding the bytes that followed the head.
+	 * @throws IOException Thrown if the stream could not be read or ended before the head did.
+	 * @throws BadRequestException Thrown if the head is malformed or too large, or is an upgrade that can not be answered.
+	 */
+	public Request read(InputStream in, ByteBuffer buffer) throws IOException, BadRequestException
+	{
+		Request request = null;
+		try
+		{
+			while((request = parse(buffer)) == null)
+			{
+				buffer.compact();
+				int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				if(read == -1)
+					throw new EOFException("Client closed the connection before its request was complete.");
+				buffer.position(buffer.position() + read);
+				buffer.flip();
+			}
+			return request;
+		}
+		finally
+		{
+			if(request == null)
+				reset();
+		}
+	}
+
+	/**
+	 * Advances the state machine by a single byte.
+	 *
+	 * @param b - Byte of the head.
+	 * @param at - Index of the byte inside of the head.
+	 * @return TRUE if the byte ended the head.
+	 * @throws BadRequestException Thrown if the byte is not allowed where it was found.
+	 */
+	@SuppressWarnings("fallthrough")
+	private boolean next(int b, int at) throws BadRequestException
+	{
+		switch(STATE)
+		{
+			case METHOD:
+				if(b == ' ' && at > 0)
+				{
+					METHOD_END = at;
+					URI_START = at + 1;
+					STATE = URI;
+				}
+				else if(!token(b))
+					throw new BadRequestException("Malformed request method.");
+				break;
+			case URI:
+				if(b == ' ' && at > URI_START)
+				{
+					URI_END = at;
+					MARK = at + 1;
+					STATE = VERSION;
+				}
+				else if(b <= ' ' || b >= 0x7F)
+					throw new BadRequestException("Malformed request URI.");
+				break;
+			case VERSION:
+				int index = at - MARK;
+				if(index > HTTP_1.length)
+				{
+					if(b != '\r')
+						throw new BadRequestException("Line must end with CRLF.");
+					STATE = REQUEST_LINE_END;
+				}
+				else if(index < HTTP_1.length ? b != HTTP_1[index] : b < '0' || b > '9')
+					throw new BadRequestException(Status.VERSION_NOT_SUPPORTED, "Only HTTP/1.x is supported.");
+				else if(index == HTTP_1.length)
+					MINOR_VERSION = b - '0';
+				break;
+			case REQUEST_LINE_END:
+			case HEADER_END:
+				if(b != '\n')
+					throw new BadRequestException("Line must end with CRLF.");
+				MARK = at + 1;
+				HASH = 0;
+				STATE = NAME;
+				break;
+			case NAME:
+				if(b == ':' && at > MARK)
+				{
+					if(COUNT == MAX_HEADERS)
+						throw new BadRequestException(Status.HEADER_FIELDS_TOO_LARGE, "More than " + MAX_HEADERS + " header fields.");
+					HEADERS[COUNT << 2] = MARK;
+					HEADERS[(COUNT << 2) + 1] = at;
+					HASHES[COUNT] = HASH;
+					STATE = VALUE_START;
+				}
+				else if(b == '\r' && at == MARK)
+					STATE = HEAD_END;
+				else if(token(b))
+					HASH = Header.hash(HASH, b);
+				else
+					throw new BadRequestException("Malformed header name.");
+				break;
+			case VALUE_START:
+				if(b == ' ' || b == '\t')
+					break;
+				MARK = VALUE_END = at;
+				STATE = VALUE;
+				// Fall through, the byte starts the value.
+			case VALUE:
+				if(b == '\r')
+				{
+					HEADERS[(COUNT << 2) + 2] = MARK;
+					HEADERS[(COUNT << 2) + 3] = VALUE_END;
+					++COUNT;
+					STATE = HEADER_END;
+				}
+				else if((b < ' ' && b != '\t') || b == 0x7F)
+					throw new BadRequestException("Malformed header value.");
+				else if(b != ' ' && b != '\t')
+					VALUE_END = at + 1;
+				break;
+			case HEAD_END:
+				if(b != '\n')
+					throw new BadRequestException("Line must end with CRLF.");
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param b - Byte of the head.
+	 * @return TRUE if the byte may be part of a token.
+	 */
+	private static boolean token(int b)
+	{
+		return b < 0x80 && TOKEN[b];
+	}
+
+	/**
+	 * Creates the request once its head is complete. This is the only time
+	 * bytes of the head are copied; headers stay offsets into the copy.
+	 *
+	 * @param data - Buffer holding the head.
+	 * @param start - Index of the head inside of data.
+	 * @param length - Length of the head.
+	 * @return {@link Request}
+	 */
+	private Request request(ByteBuffer data, int start, int length)
+	{
+		byte[] head = new byte[length];
+		ByteBuffer source = data.duplicate();
+		source.position(start);
+		source.get(head);
+
+		Headers headers = new Headers(head, Arrays.copyOf(HEADERS, COUNT << 2), Arrays.copyOf(HASHES, COUNT), COUNT);
+		return new Request(Method.find(head, 0, METHOD_END), string(head, URI_START, URI_END), MINOR_VERSION, headers);
+	}
+
+	/**
+	 * @param head - Bytes of the head.
+	 * @param from - Index of the first byte.
+	 * @param to - Index after the last byte.
+	 * @return bytes decoded as ISO-8859-1, which maps each byte to one char.
+	 */
+	private static String string(byte[] head, int from, int to)
+	{
+		return new String(head, from, to - from, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -1,60 +1,662 @@
 package http;
 
-import java.io.DataOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
+ * Response to a client's request. The body is made of parts, each either held
+ * in a buffer or sent straight from a region of a file with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * so the contents of a file never enter the Java heap.
+ * 
+ * <p>
+ * {@link #write(WritableByteChannel)} sends as much as the channel takes and
+ * may be called again until the whole response was sent, so the same
+ * response serves blocking and non-blocking channels alike. The head and the
+ * parts held in memory that follow it go out in a single gathering write.
+ * The status line and header fields may be serialized ahead of time, as
+ * {@link FileCache} does, since the only parts of the head that depend on
+ * the request or the time are the Date and Connection headers ending it.
+ * Fields are assembled as bytes: the status line, Content-Type and Server
+ * were encoded once, and the Date is formatted once a second by {@link HttpDate}.
  * 
  * @author Ryan Mayobre
  *
  */
-public class Response
+public class Response implements Closeable
 {	
 	/**
 	 * TODO change this
 	 */
-	private final String server = "Server: HTTPDroid_0.1";
+	private static final byte[] SERVER = "Server: HTTPDroid_0.1\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
 	
-	private final Map<String, String> header = new HashMap<String, String>();
+	/**
+	 * Parts of the head written before the body: fields, Date and the end of the head.
+	 */
+	private static final int HEAD = 3;
+	
+	/**
+	 * Space each thread assembles fields in, before they are copied out at their exact length.
+	 */
+	private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(512);
+		}
+	};
+	
+	/*
+	 * Ends of a head, following its other header fields.
+	 */
+	private static final ByteBuffer END = ascii("\r\n");
+	private static final ByteBuffer CLOSE = ascii("Connection: close\r\n\r\n");
+	private static final ByteBuffer KEEP_ALIVE = ascii("Connection: keep-alive\r\n\r\n");
+	
+	private final Map<String, String> header = new LinkedHashMap<String, String>();
 	
 	private final Status status;
 	
+	/**
+	 * Type of the body, null if the response has no body.
+	 */
 	private final Content type;
 	
-	private final int dataSize;
+	/**
+	 * Length of the body, sent as Content-Length even when the body itself is omitted.
+	 */
+	private final long dataSize;
+	
+	/**
+	 * Modification time of the file of the body, null if the body is not a file.
+	 */
+	private FileTime modified;
+	
+	/**
+	 * Entity tag of the body, null if it has none.
+	 */
+	private String tag;
+	
+	/**
+	 * Coding of the body, null if it is sent as it is.
+	 */
+	private Encoding encoding;
+	
+	/**
+	 * Serialized fields of the {@link Status#NOT_MODIFIED} answer to this
+	 * response, null if they are built when needed.
+	 */
+	private ByteBuffer notModified;
+	
+	/**
+	 * File holding the regions of the body, null if there is none.
+	 */
+	private FileChannel file;
+	
+	/**
+	 * Parts of the body in order. A null part is a region of {@link #file}.
+	 */
+	private ByteBuffer[] body = new ByteBuffer[1];
+	
+	/**
+	 * Start and end of each region of {@link #file}, two per part of {@link #body}.
+	 * The start moves as the region is sent.
+	 */
+	private long[] regions;
+	
+	/**
+	 * Number of parts of the body.
+	 */
+	private int count;
+	
+	/**
+	 * Status line and header fields, serialized when the response is first written unless they were given.
+	 */
+	private ByteBuffer fields;
+	
+	/**
+	 * Fields, Date, end of the head and parts of the body, as they are written.
+	 */
+	private ByteBuffer[] parts;
+	
+	/**
+	 * Index of the first part of {@link #parts} that was not completely written.
+	 */
+	private int next;
+	
+	/**
+	 * Determines if the connection stays open for the next request.
+	 */
+	private boolean keepAlive = true;
 	
-	Response(Status status, Content type, int dataSize)
+	/**
+	 * Determines if the head says the connection stays open, which HTTP/1.0 clients need to hear.
+	 */
+	private boolean announceKeepAlive;
+	
+	/**
+	 * Creates a response without a body.
+	 * 
+	 * @param status - {@link Status} of the response.
+	 */
+	public Response(Status status)
+	{
+		this(status, null, 0);
+	}
+	
+	/**
+	 * @param status - {@link Status} of the response.
+	 * @param type - {@link Content} of the body, null if there is no body.
+	 * @param dataSize - Length of the body.
+	 */
+	public Response(Status status, Content type, long dataSize)
 	{
 		this.status = status;
 		this.type = type;
 		this.dataSize = dataSize;
 	}
 	
+	/**
+	 * Creates a response whose status line and header fields were serialized ahead of time.
+	 * 
+	 * @param status - {@link Status} of the response.
+	 * @param type - {@link Content} of the body, null if there is no body.
+	 * @param dataSize - Length of the body.
+	 * @param fields - Serialized fields, see {@link #fields()}, owned by the response.
+	 */
+	Response(Status status, Content type, long dataSize, ByteBuffer fields)
+	{
+		this(status, type, dataSize);
+		this.fields = fields;
+	}
+	
+	/**
+	 * Creates the head of a response sending a whole file, which accepts byte
+	 * ranges and carries the file's validators.
+	 * 
+	 * @param type - {@link Content} of the file.
+	 * @param encoding - Coding of the file, null if it is sent as it is.
+	 * @param size - Length of the file in its coding.
+	 * @param modified - Modification time of the file.
+	 * @param tag - Entity tag of the file, null if it has none.
+	 * @return {@link Response} without a body.
+	 */
+	static Response file(Content type, Encoding encoding, long size, FileTime modified, String tag)
+	{
+		Response response = new Response(Status.OK, type, size);
+		response.addHeader("Accept-Ranges", "bytes");
+		response.encode(type, encoding);
+		response.validate(modified, tag);
+		return response;
+	}
+	
+	/**
+	 * Creates a response holding its status as plain text. A response of
+	 * {@link Status#UPGRADE_REQUIRED} names the only protocol the server
+	 * upgrades to, WebSocket version 13.
+	 * 
+	 * @param status - {@link Status} of the response.
+	 * @return {@link Response}
+	 */
+	public static Response error(Status status)
+	{
+		byte[] message = status.toString().getBytes(StandardCharsets.US_ASCII);
+		Response response = new Response(status, Content.TXT, message.length);
+		if(status == Status.UPGRADE_REQUIRED)
+		{
+			response.addHeader("Upgrade", "websocket");
+			response.addHeader("Sec-WebSocket-Version", "13");
+		}
+		response.body(ByteBuffer.wrap(message));
+		return response;
+	}
+	
+	/**
+	 * Asks a handler for the response to a request. A missing response is
+	 * answered with {@link Status#NOT_FOUND}, and a handler that failed with
+	 * {@link Status#INTERNAL_ERROR}. Responses to {@link Method#HEAD} lose
+	 * their body, and the connection is only kept open if client wants it to be
+	 * and did not send a body the server would have to skip.
+	 * 
+	 * @param handler - {@link RequestHandler} answering the request, null if there is none.
+	 * @param request - {@link Request} of client.
+	 * @return {@link Response} to be sent.
+	 */
+	public static Response respond(RequestHandler handler, Request request)
+	{
+		Response response;
+		try
+		{
+			response = handler == null ? null : handler.handle(request);
+			if(response == null)
+				response = error(Status.NOT_FOUND);
+		}
+		catch (IOException e)
+		{
+			response = error(Status.INTERNAL_ERROR);
+		}
+		
+		if(request.getMethod() == Method.HEAD)
+			response.omitBody();
+		if(!request.isKeepAlive() || request.hasBody())
+			response.setKeepAlive(false);
+		else if(request.getMinorVersion() == 0)
+			response.announceKeepAlive = true;
+		return response;
+	}
+	
 	public void addHeader(String name, String value)
 	{
+		if(fields != null)
+			throw new IllegalStateException("Head was already serialized.");
 		header.put(name, value);
-    }
-
-	public void content(Request request)
+	}
+	
+	/**
+	 * @param data - Body of the response, holding exactly the length given to the constructor.
+	 */
+	public void body(ByteBuffer data)
 	{
-		
+		if(data.remaining() != dataSize)
+			throw new IllegalArgumentException("Body must hold " + dataSize + " bytes.");
+		add(data);
+	}
+	
+	/**
+	 * Sends the body from a file, which the response closes once it is sent.
+	 * 
+	 * @param file - File holding the body.
+	 * @param position - Position of the body inside of the file.
+	 */
+	public void body(FileChannel file, long position)
+	{
+		this.file = file;
+		add(position, position + dataSize);
+	}
+	
+	/**
+	 * Adds a part held in memory to the body.
+	 * 
+	 * @param data - Part of the body.
+	 */
+	void add(ByteBuffer data)
+	{
+		if(count == body.length)
+			body = Arrays.copyOf(body, count << 1);
+		body[count++] = data;
+	}
+	
+	/**
+	 * Adds a region of {@link #file} to the body.
+	 * 
+	 * @param position - Position of the region inside of the file.
+	 * @param end - Position after the region.
+	 */
+	void add(long position, long end)
+	{
+		add((ByteBuffer) null);
+		if(regions == null || regions.length < body.length << 1)
+			regions = regions == null ? new long[body.length << 1] : Arrays.copyOf(regions, body.length << 1);
+		regions[(count - 1) << 1] = position;
+		regions[((count - 1) << 1) + 1] = end;
+	}
+	
+	/**
+	 * Adds bytes of another response's body, which must be a single part, to
+	 * this body. A region of a file hands the file over to this response.
+	 * 
+	 * @param source - Response holding the bytes.
+	 * @param from - Index of the first byte inside of source's body.
+	 * @param to - Index after the last byte.
+	 */
+	void add(Response source, long from, long to)
+	{
+		ByteBuffer data = source.body[0];
+		if(data != null)
+		{
+			ByteBuffer slice = data.duplicate();
+			slice.limit(data.position() + (int) to);
+			slice.position(data.position() + (int) from);
+			add(slice);
+		}
+		else
+		{
+			file = source.file;
+			add(source.regions[0] + from, source.regions[0] + to);
+		}
+	}
+	
+	/**
+	 * Drops the body while still announcing its length, as a response to HEAD does.
+	 */
+	void omitBody()
+	{
+		close();
+		file = null;
+		count = 0;
+	}
+	
+	/**
+	 * @return {@link #status}
+	 */
+	public Status getStatus()
+	{
+		return status;
 	}
 	
-	private void responseHeader(DataOutputStream out) throws IOException
+	/**
+	 * @return {@link #type}
+	 */
+	public Content getType()
 	{
-		out.writeBytes("HTTP/1.1 " + status.getCode() + " OK\r\n");
-		out.writeBytes("Content-Type: " + type.getMime() + "\r\n");
-		out.writeBytes("Content-Length: " + dataSize + "\r\n"); 
-		out.writeBytes(server);
-		out.writeBytes("\r\n\r\n");
+		return type;
 	}
 	
-	public void send(DataOutputStream out) throws IOException
+	/**
+	 * @return length of the body.
+	 */
+	public long getLength()
+	{
+		return dataSize;
+	}
+	
+	/**
+	 * @return {@link #modified}
+	 */
+	FileTime getModified()
+	{
+		return modified;
+	}
+	
+	/**
+	 * @return {@link #tag}
+	 */
+	String getTag()
+	{
+		return tag;
+	}
+	
+	/**
+	 * @return {@link #encoding}
+	 */
+	Encoding getEncoding()
+	{
+		return encoding;
+	}
+	
+	/**
+	 * Announces the coding of the body, and that a compressible body's coding
+	 * depends on Accept-Encoding, so caches keep one copy per coding.
+	 * 
+	 * @param type - {@link Content} of the body.
+	 * @param encoding - Coding of the body, null if it is sent as it is.
+	 */
+	void encode(Content type, Encoding encoding)
+	{
+		if(encoding != null)
+			addHeader("Content-Encoding", encoding.getName());
+		if(type != null && type.isCompressible())
+			addHeader("Vary", "Accept-Encoding");
+		this.encoding = encoding;
+	}
+	
+	/**
+	 * Sets the validators of the body and announces them as Last-Modified and ETag.
+	 * 
+	 * @param modified - Modification time of the file of the body.
+	 * @param tag - Entity tag of the body, null if it has none.
+	 */
+	void validate(FileTime modified, String tag)
+	{
+		addHeader("Last-Modified", HttpDate.format(modified.toMillis()));
+		if(tag != null)
+			addHeader("ETag", tag);
+		this.modified = modified;
+		this.tag = tag;
+	}
+	
+	/**
+	 * Sets what a body whose fields were serialized ahead of time announces.
+	 * 
+	 * @param encoding - Coding of the body, null if it is sent as it is.
+	 * @param modified - Modification time of the file of the body.
+	 * @param tag - Entity tag of the body, null if it has none.
+	 * @param notModified - Serialized fields of the {@link Status#NOT_MODIFIED} answer.
+	 */
+	void cached(Encoding encoding, FileTime modified, String tag, ByteBuffer notModified)
 	{
+		this.encoding = encoding;
+		this.modified = modified;
+		this.tag = tag;
+		this.notModified = notModified;
+	}
+	
+	/**
+	 * Answers a client whose copy of the body is still valid, closing this response.
+	 * 
+	 * @return {@link Response} of {@link Status#NOT_MODIFIED} carrying the validators but no body.
+	 */
+	Response notModified()
+	{
+		close();
+		if(notModified != null)
+		{
+			Response response = new Response(Status.NOT_MODIFIED, null, 0, notModified.duplicate());
+			response.cached(null, modified, tag, notModified);
+			return response;
+		}
+		Response response = new Response(Status.NOT_MODIFIED);
+		response.encode(type, null);
+		response.validate(modified, tag);
+		return response;
+	}
+	
+	/**
+	 * @return TRUE if the connection stays open for the next request.
+	 */
+	public boolean isKeepAlive()
+	{
+		return keepAlive;
+	}
+	
+	/**
+	 * @param keepAlive - FALSE to close the connection once the response was sent.
+	 */
+	public void setKeepAlive(boolean keepAlive)
+	{
+		this.keepAlive = keepAlive;
+	}
+	
+	/**
+	 * Writes as much of the response as the channel takes.
+	 * 
+	 * @param out - Channel to client, blocking or not.
+	 * @return TRUE once the whole response was written, FALSE if the channel is full.
+	 * @throws IOException Thrown if the channel is broken or the file got shorter.
+	 */
+	public boolean write(WritableByteChannel out) throws IOException
+	{
+		if(parts == null)
+		{
+			parts = new ByteBuffer[count + HEAD];
+			parts[0] = fields();
+			parts[1] = HttpDate.now();
+			parts[2] = (!keepAlive ? CLOSE : announceKeepAlive ? KEEP_ALIVE : END).duplicate();
+			System.arraycopy(body, 0, parts, HEAD, count);
+		}
 		
+		while(next < parts.length)
+		{
+			if(parts[next] == null)
+			{
+				int region = (next - HEAD) << 1;
+				long end = regions[region + 1];
+				while(regions[region] < end)
+				{
+					long sent = file.transferTo(regions[region], end - regions[region], out);
+					if(sent == 0)
+					{
+						if(file.size() < end)
+							throw new EOFException("File got shorter while it was sent.");
+						return false;
+					}
+					regions[region] += sent;
+				}
+				++next;
+				continue;
+			}
+			
+			/*
+			 * Parts held in memory up to the next region go out in one write.
+			 */
+			int last = next;
+			while(last < parts.length && parts[last] != null)
+				++last;
+			if(out instanceof GatheringByteChannel)
+				((GatheringByteChannel) out).write(parts, next, last - next);
+			else
+			{
+				for(int i = next; i < last; i++)
+				{
+					out.write(parts[i]);
+					if(parts[i].hasRemaining())
+						break;
+				}
+			}
+			while(next < last && !parts[next].hasRemaining())
+				++next;
+			if(next < last)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Closes the file of the body, if any.
+	 */
+	@Override
+	public void close()
+	{
+		if(file == null)
+			return;
+		try
+		{
+			file.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing was written to the file.
+		}
+	}
+	
+	/**
+	 * Serializes the status line and header fields, each ending with CRLF.
+	 * The Date and Connection headers and the empty line ending the head are
+	 * not part of the fields, since they depend on the time and the request.
+	 * 
+	 * @return fields of the response, ready to be written.
+	 */
+	ByteBuffer fields()
+	{
+		if(fields != null)
+			return fields;
 		
-		out.writeBytes("\r\n\r\n");
+		ByteBuffer out = SCRATCH.get();
+		while(true)
+		{
+			out.clear();
+			try
+			{
+				fields(out);
+				break;
+			}
+			catch (BufferOverflowException e)
+			{
+				out = ByteBuffer.allocate(out.capacity() << 1);
+				SCRATCH.set(out);
+			}
+		}
+		fields = ByteBuffer.wrap(Arrays.copyOf(out.array(), out.position()));
+		return fields;
+	}
+	
+	/**
+	 * @param out - Buffer receiving the fields.
+	 * @throws BufferOverflowException Thrown if the fields do not fit into the buffer.
+	 */
+	private void fields(ByteBuffer out)
+	{
+		out.put(status.getStatusLine());
+		if(type != null)
+			out.put(type.getField());
+		if(status != Status.NO_CONTENT && status != Status.NOT_MODIFIED)
+		{
+			out.put(CONTENT_LENGTH);
+			decimal(out, dataSize);
+			out.put((byte) '\r').put((byte) '\n');
+		}
+		for(Map.Entry<String, String> entry : header.entrySet())
+		{
+			text(out, entry.getKey());
+			out.put((byte) ':').put((byte) ' ');
+			text(out, entry.getValue());
+			out.put((byte) '\r').put((byte) '\n');
+		}
+		out.put(SERVER);
+	}
+	
+	/**
+	 * @param out - Buffer receiving the text, one byte per char as ISO-8859-1.
+	 * @param text - Text of a header.
+	 */
+	private static void text(ByteBuffer out, String text)
+	{
+		if(out.remaining() < text.length())
+			throw new BufferOverflowException();
+		for(int i = 0; i < text.length(); i++)
+			out.put((byte) text.charAt(i));
+	}
+	
+	/**
+	 * @param out - Buffer receiving the digits.
+	 * @param value - Value that is not negative.
+	 */
+	private static void decimal(ByteBuffer out, long value)
+	{
+		int digits = 1;
+		for(long rest = value / 10; rest > 0; rest /= 10)
+			++digits;
+		if(out.remaining() < digits)
+			throw new BufferOverflowException();
+		int position = out.position() + digits;
+		out.position(position);
+		do
+		{
+			out.put(--position, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		while(value > 0);
+	}
+	
+	/**
+	 * @param text - ASCII text.
+	 * @return read-only buffer holding the text.
+	 */
+	private static ByteBuffer ascii(String text)
+	{
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
 	}
 }
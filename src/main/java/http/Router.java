@@ -0,0 +1,391 @@
+package http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Radix trie mapping path patterns to values, such as a {@link RequestHandler}
+ * or a WebSocket listener per endpoint. Patterns are compiled into the trie
+ * as they are added, before the router serves requests; a lookup then walks
+ * the trie over the bytes of the request's path without allocating and
+ * records captured parameters as offsets into the URI.
+ *
+ * <p>
+ * A pattern starts with {@code /} and may hold:
+ * <ul>
+ * <li>static text, matched exactly,</li>
+ * <li>{@code {name}} as a whole segment, matching one non-empty segment,</li>
+ * <li>{@code *} or {@code {name*}} as its last segment, matching the rest of the path, even if it is empty.</li>
+ * </ul>
+ * Where patterns overlap, static text is preferred over a parameter, and a
+ * parameter over a wildcard; a lookup backs up to try the next choice when
+ * the preferred one leads nowhere. The query of a URI is not matched, and
+ * parameters are captured as they were sent, still percent-encoded.
+ *
+ * <p>
+ * Routes are added before the router is handed to a server, and the router
+ * is not changed afterwards; lookups may then run on any number of threads.
+ *
+ * @author Ryan Mayobre
+ * @param <T> Type of the values.
+ * @see {@link Routes}
+ */
+public class Router<T>
+{
+	/**
+	 * Name of the parameter captured by an anonymous wildcard.
+	 */
+	public static final String WILDCARD = "*";
+
+	/**
+	 * Node of the trie.
+	 */
+	private static final class Node<T>
+	{
+		/**
+		 * Static bytes matched by the node, empty for a parameter or wildcard node.
+		 */
+		byte[] LABEL;
+
+		/**
+		 * Children starting with static bytes, sorted by their first byte.
+		 */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<T>[] CHILDREN = new Node[0];
+
+		/**
+		 * First byte of each child's label, for finding a child without touching it.
+		 */
+		byte[] FIRST = new byte[0];
+
+		/**
+		 * Child matching a segment, null if there is none.
+		 */
+		Node<T> PARAMETER;
+
+		/**
+		 * Child matching the rest of the path, null if there is none.
+		 */
+		Node<T> WILDCARD;
+
+		/**
+		 * Value of the route ending at this node, null if no route ends here.
+		 */
+		T VALUE;
+
+		/**
+		 * Names of the parameters of the route ending at this node.
+		 */
+		String[] NAMES;
+
+		Node(byte[] label)
+		{
+			this.LABEL = label;
+		}
+
+		/**
+		 * @param b - First byte of a label.
+		 * @return index of the child whose label starts with b, or a negative index if there is none.
+		 */
+		int child(byte b)
+		{
+			return Arrays.binarySearch(FIRST, b);
+		}
+
+		/**
+		 * @param child - Node to become a child of this node.
+		 */
+		void add(Node<T> child)
+		{
+			int index = -(child(child.LABEL[0]) + 1);
+			CHILDREN = Arrays.copyOf(CHILDREN, CHILDREN.length + 1);
+			FIRST = Arrays.copyOf(FIRST, FIRST.length + 1);
+			System.arraycopy(CHILDREN, index, CHILDREN, index + 1, CHILDREN.length - index - 1);
+			System.arraycopy(FIRST, index, FIRST, index + 1, FIRST.length - index - 1);
+			CHILDREN[index] = child;
+			FIRST[index] = child.LABEL[0];
+		}
+	}
+
+	/**
+	 * Root of the trie, matching the empty path.
+	 */
+	private final Node<T> ROOT = new Node<T>(new byte[0]);
+
+	/**
+	 * Offsets of the parameters captured by each thread's lookups.
+	 */
+	private final ThreadLocal<int[]> OFFSETS = new ThreadLocal<int[]>();
+
+	/**
+	 * Most parameters of a route.
+	 */
+	private int MAX_PARAMETERS;
+
+	/**
+	 * Number of routes.
+	 */
+	private int SIZE;
+
+	/**
+	 * Adds a route.
+	 *
+	 * @param pattern - Path pattern of the route.
+	 * @param value - Value of the route.
+	 * @throws IllegalArgumentException Thrown if the pattern is malformed, or
+	 * the same pattern, regardless of parameter names, was added before.
+	 */
+	public void add(String pattern, T value)
+	{
+		if(value == null)
+			throw new NullPointerException("Value of a route cannot be null.");
+		if(!pattern.startsWith("/"))
+			throw new IllegalArgumentException("Pattern must start with /: " + pattern);
+
+		List<String> names = new ArrayList<String>();
+		Node<T> node = ROOT;
+		int from = 0;
+		while(from < pattern.length())
+		{
+			int open = pattern.indexOf('{', from);
+			int star = pattern.indexOf('*', from);
+			int next = open == -1 ? star : star == -1 ? open : Math.min(open, star);
+			if(next == -1)
+				next = pattern.length();
+			if(next > from)
+				node = insert(node, pattern.substring(from, next).getBytes(StandardCharsets.ISO_8859_1));
+			if(next == pattern.length())
+				break;
+			if(pattern.charAt(next - 1) != '/')
+				throw new IllegalArgumentException("Parameter must be a whole segment: " + pattern);
+
+			String name;
+			boolean wildcard;
+			if(pattern.charAt(next) == '*')
+			{
+				name = WILDCARD;
+				wildcard = true;
+				from = next + 1;
+			}
+			else
+			{
+				int close = pattern.indexOf('}', next);
+				if(close == -1)
+					throw new IllegalArgumentException("Parameter is not closed: " + pattern);
+				wildcard = pattern.charAt(close - 1) == '*';
+				name = pattern.substring(next + 1, wildcard ? close - 1 : close);
+				if(name.isEmpty() || name.indexOf('{') != -1 || name.indexOf('*') != -1)
+					throw new IllegalArgumentException("Malformed parameter name: " + pattern);
+				from = close + 1;
+			}
+			if(from < pattern.length() && (wildcard || pattern.charAt(from) != '/'))
+				throw new IllegalArgumentException((wildcard ? "Wildcard must end the pattern: " : "Parameter must be a whole segment: ") + pattern);
+
+			names.add(name);
+			if(wildcard)
+			{
+				if(node.WILDCARD == null)
+					node.WILDCARD = new Node<T>(new byte[0]);
+				node = node.WILDCARD;
+			}
+			else
+			{
+				if(node.PARAMETER == null)
+					node.PARAMETER = new Node<T>(new byte[0]);
+				node = node.PARAMETER;
+			}
+		}
+
+		if(node.VALUE != null)
+			throw new IllegalArgumentException("Route was added before: " + pattern);
+		node.VALUE = value;
+		node.NAMES = names.toArray(new String[names.size()]);
+		MAX_PARAMETERS = Math.max(MAX_PARAMETERS, names.size());
+		++SIZE;
+	}
+
+	/**
+	 * @return number of routes.
+	 */
+	public int size()
+	{
+		return SIZE;
+	}
+
+	/**
+	 * Finds the route of a request and records the parameters it captured in
+	 * the request, see {@link Request#getParameter(String)}.
+	 *
+	 * @param request - Client's {@link Request}.
+	 * @return value of the route, or null if no route matches.
+	 */
+	public T find(Request request)
+	{
+		String uri = request.getURI();
+		int[] offsets = offsets();
+		Node<T> node = match(ROOT, uri, 0, end(uri), offsets, 0);
+		if(node == null)
+			return null;
+		request.route(node.NAMES, node.NAMES.length == 0 ? null : Arrays.copyOf(offsets, node.NAMES.length << 1));
+		return node.VALUE;
+	}
+
+	/**
+	 * Finds the route of a path without allocating.
+	 *
+	 * @param path - Chars holding the path, each a single byte as sent by client.
+	 * @param from - Index of the path's leading {@code /}.
+	 * @param to - Index after the path, before its query.
+	 * @param offsets - Receives the start and end of each captured parameter,
+	 * two per parameter of the most parameters of a route.
+	 * @return value of the route, or null if no route matches.
+	 */
+	public T find(CharSequence path, int from, int to, int[] offsets)
+	{
+		Node<T> node = match(ROOT, path, from, to, offsets, 0);
+		return node == null ? null : node.VALUE;
+	}
+
+	/**
+	 * @return most parameters of a route.
+	 */
+	public int getMaxParameters()
+	{
+		return MAX_PARAMETERS;
+	}
+
+	/**
+	 * @param uri - URI of a request.
+	 * @return index after the path of the URI.
+	 */
+	private static int end(String uri)
+	{
+		for(int i = 0; i < uri.length(); i++)
+		{
+			char c = uri.charAt(i);
+			if(c == '?' || c == '#')
+				return i;
+		}
+		return uri.length();
+	}
+
+	/**
+	 * @return offsets of the calling thread, large enough for every route.
+	 */
+	private int[] offsets()
+	{
+		int[] offsets = OFFSETS.get();
+		if(offsets == null || offsets.length < MAX_PARAMETERS << 1)
+		{
+			offsets = new int[MAX_PARAMETERS << 1];
+			OFFSETS.set(offsets);
+		}
+		return offsets;
+	}
+
+	/**
+	 * Walks static bytes into the trie, splitting a node whose label only
+	 * shares a prefix with them.
+	 *
+	 * @param node - Node the bytes follow.
+	 * @param bytes - Static bytes of a pattern.
+	 * @return node ending with the last byte.
+	 */
+	private static <T> Node<T> insert(Node<T> node, byte[] bytes)
+	{
+		int at = 0;
+		while(at < bytes.length)
+		{
+			int index = node.child(bytes[at]);
+			if(index < 0)
+			{
+				Node<T> child = new Node<T>(Arrays.copyOfRange(bytes, at, bytes.length));
+				node.add(child);
+				return child;
+			}
+
+			Node<T> child = node.CHILDREN[index];
+			int shared = 0;
+			while(shared < child.LABEL.length && at + shared < bytes.length && child.LABEL[shared] == bytes[at + shared])
+				++shared;
+			if(shared < child.LABEL.length)
+			{
+				/*
+				 * Split the child: the shared prefix becomes a new node
+				 * holding the rest of the child's label as its only child.
+				 */
+				Node<T> prefix = new Node<T>(Arrays.copyOf(child.LABEL, shared));
+				child.LABEL = Arrays.copyOfRange(child.LABEL, shared, child.LABEL.length);
+				prefix.add(child);
+				node.CHILDREN[index] = prefix;
+				child = prefix;
+			}
+			node = child;
+			at += shared;
+		}
+		return node;
+	}
+
+	/**
+	 * Matches the rest of a path against a node and its descendants.
+	 *
+	 * @param node - Node to match.
+	 * @param path - Chars holding the path.
+	 * @param at - Index of the first char the node has to match.
+	 * @param end - Index after the path.
+	 * @param offsets - Receives the start and end of each captured parameter.
+	 * @param captured - Number of parameters captured before the node.
+	 * @return node of the matching route, or null if none matches.
+	 */
+	private static <T> Node<T> match(Node<T> node, CharSequence path, int at, int end, int[] offsets, int captured)
+	{
+		byte[] label = node.LABEL;
+		if(end - at < label.length)
+			return null;
+		for(int i = 0; i < label.length; i++)
+			if(path.charAt(at + i) != (label[i] & 0xFF))
+				return null;
+		at += label.length;
+
+		if(at < end)
+		{
+			char c = path.charAt(at);
+			int index = c < 0x80 ? node.child((byte) c) : -1;
+			if(index >= 0)
+			{
+				Node<T> found = match(node.CHILDREN[index], path, at, end, offsets, captured);
+				if(found != null)
+					return found;
+			}
+
+			if(node.PARAMETER != null)
+			{
+				int stop = at;
+				while(stop < end && path.charAt(stop) != '/')
+					++stop;
+				if(stop > at)
+				{
+					Node<T> found = match(node.PARAMETER, path, stop, end, offsets, captured + 1);
+					if(found != null)
+					{
+						offsets[captured << 1] = at;
+						offsets[(captured << 1) + 1] = stop;
+						return found;
+					}
+				}
+			}
+		}
+		else if(node.VALUE != null)
+			return node;
+
+		if(node.WILDCARD != null && node.WILDCARD.VALUE != null)
+		{
+			offsets[captured << 1] = at;
+			offsets[(captured << 1) + 1] = end;
+			return node.WILDCARD;
+		}
+		return null;
+	}
+}
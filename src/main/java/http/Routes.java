@@ -0,0 +1,21 @@
+package http;
+
+import java.io.IOException;
+
+/**
+ * Hands each request to the {@link RequestHandler} of the route its path
+ * matches, such as {@code /users/{id}} or {@code /static/*}. A request
+ * matching no route is answered with {@link Status#NOT_FOUND}.
+ *
+ * @author Ryan Mayobre
+ * @see {@link Router}
+ */
+public class Routes extends Router<RequestHandler> implements RequestHandler
+{
+	@Override
+	public Response handle(Request request) throws IOException
+	{
+		RequestHandler handler = find(request);
+		return handler == null ? null : handler.handle(request);
+	}
+}
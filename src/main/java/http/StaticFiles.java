@@ -0,0 +1,229 @@
+package http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Serves the files below a root directory to GET and HEAD requests. A file's
+ * {@link Content} is found by its extension, a path ending with {@code /}
+ * serves the directory's {@code index.html}, and a directory asked for
+ * without the {@code /} is redirected to it. Paths that lead outside of the
+ * root are not found.
+ *
+ * <p>
+ * Files are only opened here; their contents are sent by {@link Response#write(java.nio.channels.WritableByteChannel)}
+ * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which the operating system copies from its page cache to the socket.
+ * With a {@link FileCache}, hot files are answered from memory without
+ * touching the disk at all; a file that missed the cache is sent from disk
+ * while the cache loads it in the background.
+ * A GET request may ask for byte ranges of a file, which {@link Ranges}
+ * answers by sending exactly those regions. Every file carries an ETag and
+ * Last-Modified, and a client whose copy is still valid is answered with
+ * 304 before the file is even opened, see {@link Conditions}.
+ *
+ * <p>
+ * A compressible file is sent in the {@link Encoding} client prefers when
+ * there is a sidecar such as {@code app.js.gz} next to it that is not older
+ * than the file, or when {@link FileCache} compressed it as it was loaded.
+ * Compressing happens on the cache's loader threads only, never while a
+ * request is answered; until a file was loaded, it is sent from its sidecar
+ * or as it is.
+ *
+ * @author Ryan Mayobre
+ * @see {@link RequestHandler}
+ */
+public class StaticFiles implements RequestHandler
+{
+	/**
+	 * File served for a path naming a directory.
+	 */
+	private static final String INDEX = "index.html";
+
+	/**
+	 * Directory holding the files, without symbolic links.
+	 */
+	private final Path ROOT;
+
+	/**
+	 * Cache of hot files, null if every file is sent from disk.
+	 */
+	private final FileCache CACHE;
+
+	/**
+	 * @param root - Directory holding the files.
+	 * @throws IOException Thrown if the directory does not exist.
+	 */
+	public StaticFiles(String root) throws IOException
+	{
+		this(Paths.get(root), null);
+	}
+
+	/**
+	 * @param root - Directory holding the files.
+	 * @throws IOException Thrown if the directory does not exist.
+	 */
+	public StaticFiles(Path root) throws IOException
+	{
+		this(root, null);
+	}
+
+	/**
+	 * @param root - Directory holding the files.
+	 * @param cache - {@link FileCache} of hot files, null to send every file from disk.
+	 * @throws IOException Thrown if the directory does not exist.
+	 */
+	public StaticFiles(Path root, FileCache cache) throws IOException
+	{
+		this.CACHE = cache;
+		this.ROOT = root.toRealPath();
+		if(!Files.isDirectory(ROOT))
+			throw new NoSuchFileException(root.toString(), null, "Root is not a directory.");
+	}
+
+	/**
+	 * @return {@link #ROOT}
+	 */
+	public Path getRoot()
+	{
+		return ROOT;
+	}
+
+	/**
+	 * @return {@link #CACHE}
+	 */
+	public FileCache getCache()
+	{
+		return CACHE;
+	}
+
+	@Override
+	public Response handle(Request request) throws IOException
+	{
+		Method method = request.getMethod();
+		if(method != Method.GET && method != Method.HEAD)
+		{
+			Response response = Response.error(Status.METHOD_NOT_ALLOWED);
+			response.addHeader("Allow", "GET, HEAD");
+			return response;
+		}
+
+		URI uri;
+		try
+		{
+			uri = new URI(request.getURI());
+		}
+		catch (URISyntaxException e)
+		{
+			return Response.error(Status.BAD_REQUEST);
+		}
+		String path = uri.getPath();
+		if(path == null || !path.startsWith("/"))
+			return Response.error(Status.BAD_REQUEST);
+
+		Path file = resolve(path.endsWith("/") ? path + INDEX : path);
+		if(file == null)
+			return null;
+		Content type = Content.find(file.getFileName().toString());
+		Encoding[] accepted = Encoding.accepted(request, type);
+		if(CACHE != null)
+		{
+			Response cached = CACHE.get(file, accepted);
+			if(cached != null)
+				return answer(request, cached);
+		}
+
+		BasicFileAttributes attributes;
+		try
+		{
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		}
+		catch (NoSuchFileException e)
+		{
+			return null;
+		}
+
+		if(attributes.isDirectory())
+		{
+			Response response = new Response(Status.REDIRECT);
+			response.addHeader("Location", uri.getRawPath() + "/");
+			return response;
+		}
+		if(!attributes.isRegularFile())
+			return null;
+
+		/*
+		 * The file is loaded into the cache without this request waiting for it.
+		 */
+		if(CACHE != null)
+			CACHE.put(file, attributes, type);
+
+		for(Encoding encoding : accepted)
+		{
+			Path sidecar = encoding.sidecar(file);
+			BasicFileAttributes sidecarAttributes = Encoding.usable(sidecar, attributes);
+			if(sidecarAttributes != null)
+				return send(request, sidecar, type, encoding, sidecarAttributes);
+		}
+		return send(request, file, type, null, attributes);
+	}
+
+	/**
+	 * Sends a file from disk, unless client's copy is still valid.
+	 *
+	 * @param request - Client's {@link Request}.
+	 * @param file - Path of the file, or of its sidecar.
+	 * @param type - {@link Content} of the file.
+	 * @param encoding - Coding of the sidecar, null if the file is sent as it is.
+	 * @param attributes - Attributes of the file or sidecar.
+	 * @return {@link Response} answering the conditions and ranges client sent.
+	 * @throws IOException Thrown if the file could not be opened.
+	 */
+	private static Response send(Request request, Path file, Content type, Encoding encoding, BasicFileAttributes attributes) throws IOException
+	{
+		Response response = Response.file(type, encoding, attributes.size(), attributes.lastModifiedTime(), Conditions.tag(attributes));
+		if(Conditions.notModified(request, response))
+			return response.notModified();
+		if(request.getMethod() == Method.GET)
+			response.body(FileChannel.open(file, StandardOpenOption.READ), 0);
+		return Ranges.apply(request, response);
+	}
+
+	/**
+	 * @param request - Client's {@link Request}.
+	 * @param response - {@link Response} sending a whole cached file.
+	 * @return {@link Response} answering the conditions and ranges client sent.
+	 */
+	private static Response answer(Request request, Response response)
+	{
+		if(Conditions.notModified(request, response))
+			return response.notModified();
+		return Ranges.apply(request, response);
+	}
+
+	/**
+	 * @param path - Decoded path of a request, starting with {@code /}.
+	 * @return file of the path, or null if the path leads outside of {@link #ROOT}.
+	 */
+	private Path resolve(String path)
+	{
+		try
+		{
+			Path file = ROOT.resolve(path.substring(1)).normalize();
+			return file.startsWith(ROOT) ? file : null;
+		}
+		catch (InvalidPathException e)
+		{
+			return null;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package http;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 
  * TODO finish javadocs for Status enum
@@ -69,8 +71,12 @@ public enum Status
 	UNAUTHORIZED(401, "Unauthorized"), 
 	FORBIDDEN(403, "Forbidden"), 
 	NOT_FOUND(404, "Not Found"),
+	METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
 	RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
-	INTERNAL_ERROR(500, "Internal Server Error");
+	UPGRADE_REQUIRED(426, "Upgrade Required"),
+	HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
+	INTERNAL_ERROR(500, "Internal Server Error"),
+	VERSION_NOT_SUPPORTED(505, "HTTP Version Not Supported");
 	
 	/**
 	 * 
@@ -82,6 +88,11 @@ public enum Status
 	 */
 	private final String statusMessage;
 	
+	/**
+	 * Status line of a response, ending with CRLF, encoded once rather than for each response.
+	 */
+	private final byte[] statusLine;
+	
 	/**
 	 * 
 	 * @param statusCode
@@ -91,6 +102,7 @@ public enum Status
 	{
 		this.statusCode = statusCode;
 		this.statusMessage = statusMessage;
+		this.statusLine = ("HTTP/1.1 " + statusCode + " " + statusMessage + "\r\n").getBytes(StandardCharsets.US_ASCII);
 	}
 	
 	/**
@@ -132,4 +144,12 @@ public enum Status
 	{
 		return statusMessage;
 	}
+	
+	/**
+	 * @return {@link #statusLine}, which the caller must not modify.
+	 */
+	byte[] getStatusLine()
+	{
+		return statusLine;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Message that is encoded into a frame once and sent to many sessions.
+ * Every session writes the same read-only buffer, so sending a broadcast
+ * neither encodes the text nor builds the frame header again.
+ *
+ * @author Ryan Mayobre
+ * @see {@link WebSocketSession#send(Broadcast)}
+ */
+public class Broadcast
+{
+	/**
+	 * Encoded frame shared by every session.
+	 */
+	private final ByteBuffer FRAME;
+
+	/**
+	 * Constructor for a text broadcast.
+	 * @param message - message to be sent to every session.
+	 */
+	public Broadcast(String message)
+	{
+		this.FRAME = FrameEncoder.encode(OpCode.TEXT, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Constructor for a binary broadcast.
+	 * @param data - data to be sent to every session.
+	 */
+	public Broadcast(byte[] data)
+	{
+		this.FRAME = FrameEncoder.encode(OpCode.BINARY, data);
+	}
+
+	/**
+	 * @return a view of the encoded frame with its own position, so sessions
+	 * may write it at the same time.
+	 */
+	ByteBuffer frame()
+	{
+		return FRAME.duplicate();
+	}
+
+	/**
+	 * @return size of the encoded frame in bytes.
+	 */
+	public int size()
+	{
+		return FRAME.remaining();
+	}
+}
@@ -0,0 +1,441 @@
+package websocket;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of {@link ByteBuffer}(s) used for frame payloads and outgoing data, so
+ * buffers are reused instead of being allocated for every frame.
+ *
+ * <p>
+ * Buffers come in size classes, each a power of two from {@link #MIN_SIZE}
+ * to {@link #MAX_SIZE}. Each platform thread keeps a small cache of the classes
+ * up to {@link #THREAD_MAX_SIZE} and only touches the lock-guarded shared cache
+ * when its own is empty or full. A thread's cache holds at most
+ * {@link #THREAD_CACHE_BYTES} across all of its classes, so a server with a
+ * thread per session does not pin memory in every idle thread; larger classes
+ * are only cached once, inside of the shared cache. Virtual threads are
+ * short-lived and many, so a cache of their own would be dropped with them;
+ * they only use the shared cache. Larger requests are allocated and left to
+ * the garbage collector.
+ *
+ * <p>
+ * A buffer must be released exactly once, after its last use. Setting the
+ * system property {@code websocket.buffer.debug} to {@code true} tracks every
+ * buffer that was handed out: releasing a buffer twice throws, and the
+ * stack trace of a buffer that was collected without being released is printed.
+ *
+ * @author Ryan Mayobre
+ */
+final class BufferPool
+{
+	/**
+	 * Determines if buffers are tracked to find leaks. Declared before the
+	 * pools, which read it while they are created.
+	 */
+	private static final boolean DEBUG = Boolean.getBoolean("websocket.buffer.debug");
+
+	/**
+	 * Pool of heap buffers, which always have a backing array.
+	 */
+	static final BufferPool HEAP = new BufferPool(false);
+
+	/**
+	 * Pool of direct buffers, which a channel writes without copying.
+	 */
+	static final BufferPool DIRECT = new BufferPool(true);
+
+	/**
+	 * Log2 of the smallest size class.
+	 */
+	private static final int MIN_SHIFT = 0x6;
+
+	/**
+	 * Log2 of the largest size class.
+	 */
+	private static final int MAX_SHIFT = 0x14;
+
+	/**
+	 * Smallest size class.
+	 */
+	static final int MIN_SIZE = 1 << MIN_SHIFT;
+
+	/**
+	 * Largest size class, larger buffers are not pooled.
+	 */
+	static final int MAX_SIZE = 1 << MAX_SHIFT;
+
+	/**
+	 * Number of size classes.
+	 */
+	private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+	/**
+	 * Log2 of the largest size class a thread caches.
+	 */
+	private static final int THREAD_MAX_SHIFT = 0x10;
+
+	/**
+	 * Largest size class a thread caches, which holds the initial payload of a frame.
+	 */
+	static final int THREAD_MAX_SIZE = 1 << THREAD_MAX_SHIFT;
+
+	/**
+	 * Number of size classes a thread caches.
+	 */
+	private static final int THREAD_CLASSES = THREAD_MAX_SHIFT - MIN_SHIFT + 1;
+
+	/**
+	 * Bytes a thread caches across all size classes.
+	 */
+	static final int THREAD_CACHE_BYTES = 0x20000;
+
+	/**
+	 * Bytes the shared cache holds of each size class.
+	 */
+	private static final int SHARED_CACHE_BYTES = 0x400000;
+
+	/**
+	 * Most buffers a cache holds of a single size class.
+	 */
+	private static final int MAX_CACHED = 0x40;
+
+	/**
+	 * Thread#isVirtual() on runtimes that have virtual threads, otherwise null.
+	 */
+	private static final Method IS_VIRTUAL = isVirtualMethod();
+
+	/**
+	 * Stack of idle buffers of a single size class.
+	 */
+	private static final class Stack
+	{
+		final ByteBuffer[] BUFFERS;
+		int COUNT;
+
+		Stack(int capacity)
+		{
+			BUFFERS = new ByteBuffer[capacity];
+		}
+
+		ByteBuffer pop()
+		{
+			if(COUNT == 0)
+				return null;
+			ByteBuffer buffer = BUFFERS[--COUNT];
+			BUFFERS[COUNT] = null;
+			return buffer;
+		}
+
+		boolean push(ByteBuffer buffer)
+		{
+			if(COUNT == BUFFERS.length)
+				return false;
+			BUFFERS[COUNT++] = buffer;
+			return true;
+		}
+	}
+
+	/**
+	 * Idle buffers cached by a single platform thread, which holds at most
+	 * {@link #THREAD_CACHE_BYTES} across all of its size classes.
+	 */
+	private static final class ThreadCache
+	{
+		final Stack[] STACKS = stacks(THREAD_CLASSES, THREAD_CACHE_BYTES);
+		int BYTES;
+
+		ByteBuffer pop(int index)
+		{
+			ByteBuffer buffer = STACKS[index].pop();
+			if(buffer != null)
+				BYTES -= buffer.capacity();
+			return buffer;
+		}
+
+		boolean push(int index, ByteBuffer buffer)
+		{
+			if(BYTES + buffer.capacity() > THREAD_CACHE_BYTES || !STACKS[index].push(buffer))
+				return false;
+			BYTES += buffer.capacity();
+			return true;
+		}
+	}
+
+	/**
+	 * Record of a buffer handed out while debugging. It is enqueued once
+	 * its buffer was collected, which means the buffer leaked.
+	 */
+	private static final class Lease extends WeakReference<ByteBuffer>
+	{
+		final int IDENTITY;
+		final Throwable TRACE;
+
+		Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue)
+		{
+			super(buffer, queue);
+			IDENTITY = System.identityHashCode(buffer);
+			TRACE = new Throwable("Pooled buffer of " + buffer.capacity() + " bytes was never released, it was acquired here.");
+		}
+	}
+
+	/**
+	 * Determines if the pool hands out direct buffers.
+	 */
+	private final boolean DIRECT_BUFFERS;
+
+	/**
+	 * Idle buffers of the size classes cached by the current thread,
+	 * null for a virtual thread.
+	 */
+	private final ThreadLocal<ThreadCache> LOCAL;
+
+	/**
+	 * Idle buffers of each size class shared by all threads.
+	 */
+	private final Stack[] SHARED;
+
+	/**
+	 * Guards {@link #SHARED}.
+	 */
+	private final ReentrantLock SHARED_LOCK;
+
+	/**
+	 * Buffers handed out, by identity hash. Only used while debugging.
+	 */
+	private final HashMap<Integer, ArrayList<Lease>> LEASES;
+
+	/**
+	 * Leases whose buffer was collected. Only used while debugging.
+	 */
+	private final ReferenceQueue<ByteBuffer> COLLECTED;
+
+	/**
+	 * Guards {@link #LEASES}.
+	 */
+	private final ReentrantLock LEASE_LOCK;
+
+	/**
+	 * @param direct - TRUE if the pool hands out direct buffers.
+	 */
+	private BufferPool(boolean direct)
+	{
+		this.DIRECT_BUFFERS = direct;
+		this.LOCAL = new ThreadLocal<ThreadCache>()
+		{
+			@Override
+			protected ThreadCache initialValue()
+			{
+				return isVirtual(Thread.currentThread()) ? null : new ThreadCache();
+			}
+		};
+		this.SHARED = stacks(CLASSES, SHARED_CACHE_BYTES);
+		this.SHARED_LOCK = new ReentrantLock();
+		this.LEASES = DEBUG ? new HashMap<Integer, ArrayList<Lease>>() : null;
+		this.COLLECTED = DEBUG ? new ReferenceQueue<ByteBuffer>() : null;
+		this.LEASE_LOCK = new ReentrantLock();
+	}
+
+	/**
+	 * @return Thread#isVirtual(), or null if the runtime has no virtual threads.
+	 */
+	private static Method isVirtualMethod()
+	{
+		try
+		{
+			return Thread.class.getMethod("isVirtual");
+		}
+		catch (NoSuchMethodException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @param thread - Thread to look at.
+	 * @return TRUE if the thread is a virtual thread, otherwise FALSE.
+	 */
+	static boolean isVirtual(Thread thread)
+	{
+		if(IS_VIRTUAL == null)
+			return false;
+		try
+		{
+			return (Boolean) IS_VIRTUAL.invoke(thread);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @param classes - Number of size classes, starting at the smallest.
+	 * @param bytes - Bytes a cache holds of each size class.
+	 * @return empty stacks for each of the size classes.
+	 */
+	private static Stack[] stacks(int classes, int bytes)
+	{
+		Stack[] stacks = new Stack[classes];
+		for(int i = 0; i < classes; i++)
+			stacks[i] = new Stack(Math.max(1, Math.min(MAX_CACHED, bytes >>> (MIN_SHIFT + i))));
+		return stacks;
+	}
+
+	/**
+	 * @param size - Number of bytes needed.
+	 * @return index of the smallest size class holding size bytes.
+	 */
+	private static int sizeClass(int size)
+	{
+		if(size <= MIN_SIZE)
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * Hands out a cleared buffer whose limit is the requested size. Its capacity
+	 * may be larger. Requests larger than {@link #MAX_SIZE} get a fresh heap
+	 * buffer, even from {@link #DIRECT}, so large direct memory is never held
+	 * waiting for the garbage collector.
+	 *
+	 * @param size - Number of bytes needed.
+	 * @return buffer with position 0 and limit size.
+	 */
+	ByteBuffer acquire(int size)
+	{
+		if(size > MAX_SIZE)
+			return ByteBuffer.allocate(size);
+
+		int index = sizeClass(size);
+		ThreadCache local = index < THREAD_CLASSES ? LOCAL.get() : null;
+		ByteBuffer buffer = local != null ? local.pop(index) : null;
+		if(buffer == null)
+		{
+			SHARED_LOCK.lock();
+			try
+			{
+				buffer = SHARED[index].pop();
+			}
+			finally
+			{
+				SHARED_LOCK.unlock();
+			}
+		}
+		if(buffer == null)
+		{
+			int capacity = 1 << (MIN_SHIFT + index);
+			buffer = DIRECT_BUFFERS ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+
+		if(DEBUG)
+			lease(buffer);
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Hands a buffer back to the pool. The buffer must not be used afterwards.
+	 * Buffers that were not pooled are ignored.
+	 *
+	 * @param buffer - Buffer from {@link #acquire(int)}.
+	 */
+	void release(ByteBuffer buffer)
+	{
+		int capacity = buffer.capacity();
+		if(buffer.isDirect() != DIRECT_BUFFERS || capacity < MIN_SIZE || capacity > MAX_SIZE || Integer.bitCount(capacity) != 1)
+			return;
+		if(DEBUG)
+			unlease(buffer);
+
+		int index = sizeClass(capacity);
+		ThreadCache local = index < THREAD_CLASSES ? LOCAL.get() : null;
+		if(local != null && local.push(index, buffer))
+			return;
+
+		SHARED_LOCK.lock();
+		try
+		{
+			SHARED[index].push(buffer);
+		}
+		finally
+		{
+			SHARED_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Records a buffer that is handed out, reporting leaked buffers first.
+	 *
+	 * @param buffer - Buffer being handed out.
+	 */
+	private void lease(ByteBuffer buffer)
+	{
+		LEASE_LOCK.lock();
+		try
+		{
+			for(Lease lease; (lease = (Lease) COLLECTED.poll()) != null; )
+			{
+				ArrayList<Lease> leases = LEASES.get(lease.IDENTITY);
+				if(leases != null && leases.remove(lease))
+				{
+					if(leases.isEmpty())
+						LEASES.remove(lease.IDENTITY);
+					lease.TRACE.printStackTrace();
+				}
+			}
+
+			Lease lease = new Lease(buffer, COLLECTED);
+			ArrayList<Lease> leases = LEASES.get(lease.IDENTITY);
+			if(leases == null)
+				LEASES.put(lease.IDENTITY, leases = new ArrayList<Lease>(1));
+			leases.add(lease);
+		}
+		finally
+		{
+			LEASE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Forgets a buffer that is handed back.
+	 *
+	 * @param buffer - Buffer being released.
+	 * @throws IllegalStateException Thrown if the buffer is not handed out, such as when it is released twice.
+	 */
+	private void unlease(ByteBuffer buffer)
+	{
+		LEASE_LOCK.lock();
+		try
+		{
+			int identity = System.identityHashCode(buffer);
+			ArrayList<Lease> leases = LEASES.get(identity);
+			if(leases != null)
+			{
+				for(int i = 0; i < leases.size(); i++)
+				{
+					Lease lease = leases.get(i);
+					if(lease.get() == buffer)
+					{
+						lease.clear();
+						leases.remove(i);
+						if(leases.isEmpty())
+							LEASES.remove(identity);
+						return;
+					}
+				}
+			}
+			throw new IllegalStateException("Buffer was released twice or does not belong to the pool.");
+		}
+		finally
+		{
+			LEASE_LOCK.unlock();
+		}
+	}
+}
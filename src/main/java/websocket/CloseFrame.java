@@ -1,7 +1,5 @@
 package websocket;
 
-import java.nio.ByteBuffer;
-
 /**
  * Class structor for a Close frame.
  * @author Ryan Mayobre
@@ -153,7 +151,7 @@ public class CloseFrame extends ControlFrame
 	 */
 	CloseFrame() 
 	{
-		super(OpCode.CLOSE, ByteBuffer.allocate(4).putInt(NORMAL).array());
+		super(OpCode.CLOSE, status(NORMAL));
 		this.status = NORMAL;
 	}
 	
@@ -163,10 +161,19 @@ public class CloseFrame extends ControlFrame
 	 */
 	CloseFrame(int status)
 	{
-		super(OpCode.CLOSE, ByteBuffer.allocate(4).putInt(status).array());
+		super(OpCode.CLOSE, status(status));
 		this.status = status;
 	}
 	
+	/**
+	 * @param status - code for status.
+	 * @return payload holding the status in network byte order.
+	 */
+	private static byte[] status(int status)
+	{
+		return new byte[] {(byte) (status >>> 8), (byte) status};
+	}
+	
 	/**
 	 * @return {@link #status}
 	 */
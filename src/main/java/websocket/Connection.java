@@ -0,0 +1,549 @@
+package websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import http.BadRequestException;
+import http.Request;
+import http.RequestParser;
+import http.Response;
+
+/**
+ * State of a single client channel registered with an {@link EventLoop}.
+ * A connection starts by collecting the client's upgrade {@link Request},
+ * performs the handshake, and then decodes frames for its {@link WebSocketSession}.
+ * Requests that are not upgrades are answered with the event loop's
+ * {@link http.RequestHandler} one at a time, keeping the connection open for
+ * the next request unless either side asked to close it; bytes of pipelined
+ * requests wait until the response before them was sent.
+ *
+ * <p>
+ * Reads are only ever performed by the event loop. Writes may come from any
+ * thread and are attempted right away; whatever the channel could not take is
+ * queued and flushed by the event loop once the channel is writable again.
+ *
+ * @author Ryan Mayobre
+ */
+class Connection implements Outbound
+{
+	/**
+	 * Size of the read buffer, which must hold the largest request head a {@link RequestParser} accepts.
+	 */
+	private static final int BUFFER_SIZE = 0x4000;
+
+	/**
+	 * Event loop that owns this connection.
+	 */
+	private final EventLoop LOOP;
+
+	/**
+	 * Channel to client.
+	 */
+	private final SocketChannel CHANNEL;
+
+	/**
+	 * Key of {@link #CHANNEL} inside of the event loop's selector.
+	 */
+	private final SelectionKey KEY;
+
+	/**
+	 * Bytes read from client that have not been handled yet.
+	 */
+	private final ByteBuffer INBOUND;
+
+	/**
+	 * Data waiting for the channel to become writable.
+	 */
+	private final OutboundQueue OUTBOUND;
+
+	/**
+	 * Reusable array of queued buffers handed to a gathering write.
+	 */
+	private final ByteBuffer[] BATCH;
+
+	/**
+	 * Guards {@link #OUTBOUND}, {@link #BATCH} and {@link #CLOSING}. A lock instead of a monitor
+	 * keeps virtual threads that send from pinning their carrier thread.
+	 */
+	private final ReentrantLock LOCK;
+
+	/**
+	 * Deadline of the client's next request, null if requests never time out.
+	 */
+	private WheelTimer.Timeout DEADLINE;
+
+	/**
+	 * Number of requests received, which tells a deadline whether it is still current.
+	 */
+	private int REQUESTS;
+
+	/**
+	 * Response being sent to client, null if none is.
+	 */
+	private Response RESPONSE;
+
+	/**
+	 * Parser of the client's requests, null after the handshake.
+	 */
+	private RequestParser PARSER;
+
+	/**
+	 * WebSocket of the client, null until the handshake.
+	 */
+	private WebSocket SOCKET;
+
+	/**
+	 * Session of the client, null until the handshake.
+	 */
+	private WebSocketSession SESSION;
+
+	/**
+	 * Determines if the connection closes once {@link #OUTBOUND} is flushed.
+	 */
+	private boolean CLOSING;
+
+	/**
+	 * Registers a client's channel with an event loop's selector.
+	 *
+	 * @param loop - {@link EventLoop} that owns the connection.
+	 * @param channel - Non-blocking channel to client.
+	 * @param selector - Selector of the event loop.
+	 * @throws IOException Thrown if the channel could not be registered.
+	 */
+	Connection(EventLoop loop, SocketChannel channel, Selector selector) throws IOException
+	{
+		this.LOOP = loop;
+		this.CHANNEL = channel;
+		this.INBOUND = ByteBuffer.allocate(BUFFER_SIZE);
+		this.OUTBOUND = new OutboundQueue(BufferPool.DIRECT);
+		this.BATCH = new ByteBuffer[OutboundQueue.GATHER];
+		this.LOCK = new ReentrantLock();
+		this.PARSER = new RequestParser();
+		this.CLOSING = false;
+		this.KEY = channel.register(selector, SelectionKey.OP_READ, this);
+		this.DEADLINE = deadline();
+	}
+
+	/**
+	 * Schedules the deadline of the client's next request.
+	 *
+	 * @return {@link WheelTimer.Timeout} of the deadline, null if requests never time out.
+	 */
+	private WheelTimer.Timeout deadline()
+	{
+		SessionTimeouts timeouts = LOOP.getTimeouts();
+		if(timeouts == null)
+			return null;
+
+		final int requests = REQUESTS;
+		return timeouts.handshake(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				LOOP.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						expired(requests);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Drops a client that did not send its next request in time. Called by the event loop.
+	 *
+	 * @param requests - Number of requests received when the deadline was scheduled.
+	 */
+	private void expired(int requests)
+	{
+		if(SESSION == null && requests == REQUESTS)
+			abort();
+	}
+
+	/**
+	 * Reads available data from client. Called by the event loop.
+	 *
+	 * @throws IOException Thrown if the channel is broken.
+	 */
+	void read() throws IOException
+	{
+		/*
+		 * Large payloads are read straight into their frame.
+		 */
+		ByteBuffer payload = SESSION != null ? SOCKET.pending() : null;
+		int read;
+		if(payload != null && INBOUND.position() == 0 && payload.remaining() >= INBOUND.capacity())
+			read = CHANNEL.read(payload);
+		else
+			read = CHANNEL.read(INBOUND);
+
+		if(read == -1)
+		{
+			if(SESSION != null)
+				SOCKET.discard();
+			if(SESSION != null && !SOCKET.isClosed())
+				SESSION.disconnected();
+			else
+				abort();
+			return;
+		}
+
+		received();
+	}
+
+	/**
+	 * Handles the bytes waiting in {@link #INBOUND}.
+	 *
+	 * @throws IOException Thrown if a response could not be sent.
+	 */
+	private void received() throws IOException
+	{
+		INBOUND.flip();
+		try
+		{
+			if(SESSION == null)
+				requests();
+			if(SESSION != null)
+				frames();
+		}
+		finally
+		{
+			INBOUND.compact();
+		}
+	}
+
+	/**
+	 * Parses the requests that arrived and answers them, until a request is
+	 * incomplete, a response has to wait for the channel, or a request upgraded
+	 * the connection to a WebSocket. Bytes following an upgrade request stay in
+	 * {@link #INBOUND} for the session. A malformed request is answered with the
+	 * status of its {@link BadRequestException}, closing the connection.
+	 *
+	 * @throws IOException Thrown if a response could not be sent.
+	 */
+	private void requests() throws IOException
+	{
+		while(SESSION == null && RESPONSE == null && CHANNEL.isOpen())
+		{
+			Request request;
+			try
+			{
+				request = PARSER.parse(INBOUND);
+			}
+			catch (BadRequestException e)
+			{
+				/*
+				 * Client is told why before the connection is closed.
+				 */
+				RESPONSE = Response.error(e.getStatus());
+				RESPONSE.setKeepAlive(false);
+				send();
+				return;
+			}
+			if(request == null)
+				return;
+
+			++REQUESTS;
+			if(DEADLINE != null)
+				DEADLINE.cancel();
+
+			if(request.isWebSocketUpgrade())
+				upgrade(request);
+			else
+				respond(request);
+		}
+	}
+
+	/**
+	 * Upgrades the connection to a WebSocket.
+	 *
+	 * @param request - Upgrade {@link Request} of client.
+	 */
+	private void upgrade(Request request)
+	{
+		PARSER = null;
+		SOCKET = new WebSocket(CHANNEL.socket(), this);
+		SESSION = new WebSocketSession(SOCKET, request, LOOP);
+		try
+		{
+			SESSION.open();
+		}
+		catch (WebSocketException e)
+		{
+			SESSION.getListener().WebSocketError(SESSION, e);
+			abort();
+		}
+	}
+
+	/**
+	 * Answers a request that is not an upgrade.
+	 *
+	 * @param request - {@link Request} of client.
+	 * @throws IOException Thrown if the response could not be sent.
+	 */
+	private void respond(Request request) throws IOException
+	{
+		/*
+		 * The head and the body of a response are separate writes, which
+		 * must not wait for client to acknowledge the previous response.
+		 */
+		if(REQUESTS == 1)
+			CHANNEL.socket().setTcpNoDelay(true);
+		RESPONSE = Response.respond(LOOP.getRequestHandler(), request);
+		send();
+	}
+
+	/**
+	 * Sends as much of {@link #RESPONSE} as the channel takes. Once it was sent,
+	 * the connection either waits for the next request or is closed.
+	 *
+	 * @throws IOException Thrown if the channel is broken.
+	 */
+	private void send() throws IOException
+	{
+		if(!RESPONSE.write(CHANNEL))
+		{
+			/*
+			 * No request is read until the response was sent.
+			 */
+			if(KEY.isValid())
+				KEY.interestOps(SelectionKey.OP_WRITE);
+			return;
+		}
+
+		Response response = RESPONSE;
+		RESPONSE = null;
+		response.close();
+		if(!response.isKeepAlive())
+		{
+			abort();
+			return;
+		}
+		DEADLINE = deadline();
+		if(KEY.isValid())
+			KEY.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Decodes all complete frames and hands them to the session.
+	 */
+	private void frames()
+	{
+		while(!SOCKET.isClosed())
+		{
+			try
+			{
+				Frame frame = SOCKET.decode(INBOUND);
+				if(frame == null)
+					return;
+				SESSION.handle(frame);
+			}
+			catch (InvalidFrameException e)
+			{
+				SESSION.fail(e);
+			}
+			catch (WebSocketException e)
+			{
+				SESSION.getListener().WebSocketError(SESSION, e);
+				SESSION.disconnected();
+			}
+		}
+	}
+
+	/**
+	 * Writes data to client, queueing a pooled copy of whatever the channel could not take.
+	 * Safe to call from any thread.
+	 *
+	 * @param data - Data to be sent to client.
+	 * @throws IOException Thrown if the connection is closed or broken.
+	 */
+	@Override
+	public void write(ByteBuffer... data) throws IOException
+	{
+		boolean flush;
+		boolean unwritable;
+		LOCK.lock();
+		try
+		{
+			if(CLOSING)
+				throw new IOException("Connection is closed.");
+
+			flush = OUTBOUND.isEmpty();
+			if(flush)
+				CHANNEL.write(data);
+
+			unwritable = OUTBOUND.add(data);
+			flush &= !OUTBOUND.isEmpty();
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		if(flush)
+			LOOP.flush(this);
+		if(unwritable)
+			OUTBOUND.changed();
+	}
+
+	/**
+	 * Same as {@link #write(ByteBuffer...)}, which never waits for client.
+	 */
+	@Override
+	public void enqueue(ByteBuffer... data) throws IOException
+	{
+		write(data);
+	}
+
+	/**
+	 * Flushes queued data. Called by the event loop once the channel is writable.
+	 *
+	 * @throws IOException Thrown if the channel is broken.
+	 */
+	void flush() throws IOException
+	{
+		if(RESPONSE != null)
+		{
+			send();
+			if(RESPONSE == null && CHANNEL.isOpen())
+				received();
+			return;
+		}
+
+		boolean writable = false;
+		LOCK.lock();
+		try
+		{
+			int count;
+			while((count = OUTBOUND.peek(BATCH)) > 0)
+			{
+				CHANNEL.write(BATCH, 0, count);
+				for(int i = 0; i < count && !BATCH[i].hasRemaining(); i++)
+					writable |= OUTBOUND.remove();
+				if(BATCH[count - 1].hasRemaining())
+					return;
+			}
+
+			if(CLOSING)
+				CHANNEL.close();
+			else if(KEY.isValid())
+				KEY.interestOps(SelectionKey.OP_READ);
+		}
+		finally
+		{
+			Arrays.fill(BATCH, null);
+			LOCK.unlock();
+			if(writable)
+				OUTBOUND.changed();
+		}
+	}
+
+	@Override
+	public OutboundQueue queue()
+	{
+		return OUTBOUND;
+	}
+
+	/**
+	 * Asks the selector to notify the event loop when the channel is writable.
+	 * Called by the event loop.
+	 */
+	void interestWrite()
+	{
+		if(KEY.isValid())
+			KEY.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Closes the connection once all queued data was flushed.
+	 * Safe to call from any thread.
+	 *
+	 * @throws IOException Thrown if the channel could not be closed.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		LOCK.lock();
+		try
+		{
+			CLOSING = true;
+			if(OUTBOUND.isEmpty())
+				CHANNEL.close();
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Closes the connection right away, dropping queued data.
+	 */
+	@Override
+	public void abort()
+	{
+		if(DEADLINE != null)
+			DEADLINE.cancel();
+		if(RESPONSE != null)
+			RESPONSE.close();
+
+		LOCK.lock();
+		try
+		{
+			CLOSING = true;
+			OUTBOUND.clear();
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		try
+		{
+			CHANNEL.close();
+		}
+		catch (IOException e)
+		{
+			// Channel is gone either way.
+		}
+	}
+
+	/**
+	 * Tells the client the server is going away and closes the connection.
+	 */
+	void shutdown()
+	{
+		if(SESSION != null)
+		{
+			try
+			{
+				SESSION.close(CloseFrame.GOING_AWAY);
+			}
+			catch (IOException e)
+			{
+				SESSION.getListener().WebSocketError(SESSION, e);
+			}
+		}
+		abort();
+	}
+
+	/**
+	 * Closes the connection after the event loop failed to serve it,
+	 * letting the session know the client is gone.
+	 */
+	void broken()
+	{
+		abort();
+		if(SESSION != null && !SOCKET.isClosed())
+			SESSION.disconnected();
+	}
+}
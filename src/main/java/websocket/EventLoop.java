@@ -0,0 +1,325 @@
+package websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import http.RequestHandler;
+import http.Request;
+import http.Router;
+
+/**
+ * Single thread that serves many client connections through one {@link Selector}.
+ * The event loop performs the handshake, reads and decodes frames, and flushes
+ * queued writes for every channel registered to it, so a few event loops can
+ * serve thousands of sessions without a thread per session.
+ *
+ * <p>
+ * {@link WebSocketListener} callbacks are made on the event loop's thread. A
+ * listener that blocks holds up every other session of the same event loop.
+ * Requests that are not upgrades are answered by the {@link RequestHandler},
+ * also on the event loop's thread.
+ * Deadlines of the sessions expire on the timer's thread and are handed to
+ * the event loop through {@link #execute(Runnable)}, so a session is only
+ * ever touched by its event loop.
+ *
+ * @author Ryan Mayobre
+ * @see {@link Connection}
+ */
+public class EventLoop implements Runnable, Closeable, Executor
+{
+	/**
+	 * Selector of all channels served by this event loop.
+	 */
+	private final Selector SELECTOR;
+
+	/**
+	 * Callback interface for the sessions of this event loop.
+	 */
+	private final WebSocketListener LISTENER;
+
+	/**
+	 * Registry the sessions of this event loop join once their handshake succeeded.
+	 */
+	private final SessionRegistry REGISTRY;
+
+	/**
+	 * Deadlines of the connections of this event loop, null if connections never time out.
+	 */
+	private final SessionTimeouts TIMEOUTS;
+
+	/**
+	 * Handler answering requests that are not upgrades, null to answer them with 404.
+	 */
+	private volatile RequestHandler HANDLER;
+
+	/**
+	 * Listeners of the paths upgraded to WebSocket, null to use {@link #LISTENER} for every path.
+	 */
+	private volatile Router<WebSocketListener> ROUTES;
+
+	/**
+	 * Channels waiting to be registered by the event loop's thread.
+	 */
+	private final Queue<SocketChannel> ACCEPTED;
+
+	/**
+	 * Connections with data waiting for their channel to become writable.
+	 */
+	private final Queue<Connection> WRITABLE;
+
+	/**
+	 * Tasks waiting to be run by the event loop's thread.
+	 */
+	private final Queue<Runnable> TASKS;
+
+	/**
+	 * Determines if the event loop is running.
+	 */
+	private volatile boolean RUNNING;
+
+	/**
+	 * @param listener - Callback interface for the sessions of this event loop.
+	 * @throws IOException Thrown if the selector could not be opened.
+	 */
+	public EventLoop(WebSocketListener listener) throws IOException
+	{
+		this(listener, new SessionRegistry());
+	}
+
+	/**
+	 * @param listener - Callback interface for the sessions of this event loop.
+	 * @param registry - {@link SessionRegistry} of the sessions of this event loop.
+	 * @throws IOException Thrown if the selector could not be opened.
+	 */
+	public EventLoop(WebSocketListener listener, SessionRegistry registry) throws IOException
+	{
+		this(listener, registry, null);
+	}
+
+	/**
+	 * @param listener - Callback interface for the sessions of this event loop.
+	 * @param registry - {@link SessionRegistry} of the sessions of this event loop.
+	 * @param timeouts - {@link SessionTimeouts} of the sessions of this event loop, null if they never time out.
+	 * @throws IOException Thrown if the selector could not be opened.
+	 */
+	public EventLoop(WebSocketListener listener, SessionRegistry registry, SessionTimeouts timeouts) throws IOException
+	{
+		this.SELECTOR = Selector.open();
+		this.LISTENER = listener;
+		this.REGISTRY = registry;
+		this.TIMEOUTS = timeouts;
+		this.ACCEPTED = new ConcurrentLinkedQueue<SocketChannel>();
+		this.WRITABLE = new ConcurrentLinkedQueue<Connection>();
+		this.TASKS = new ConcurrentLinkedQueue<Runnable>();
+		this.RUNNING = true;
+	}
+
+	/**
+	 * Hands a newly accepted channel to the event loop. Safe to call from any thread.
+	 *
+	 * @param channel - Channel to client.
+	 * @throws IOException Thrown if the channel could not be made non-blocking.
+	 */
+	public void register(SocketChannel channel) throws IOException
+	{
+		channel.configureBlocking(false);
+		ACCEPTED.add(channel);
+		SELECTOR.wakeup();
+	}
+
+	/**
+	 * Asks the event loop to flush a connection once it is writable.
+	 *
+	 * @param connection - {@link Connection} with queued data.
+	 */
+	void flush(Connection connection)
+	{
+		WRITABLE.add(connection);
+		SELECTOR.wakeup();
+	}
+
+	/**
+	 * Runs a task on the event loop's thread. Safe to call from any thread.
+	 *
+	 * @param task - Task to be run, which must not block.
+	 */
+	@Override
+	public void execute(Runnable task)
+	{
+		TASKS.add(task);
+		SELECTOR.wakeup();
+	}
+
+	/**
+	 * @param handler - {@link RequestHandler} answering requests that are not upgrades, null to answer them with 404.
+	 */
+	public void setRequestHandler(RequestHandler handler)
+	{
+		this.HANDLER = handler;
+	}
+
+	/**
+	 * @return {@link #HANDLER}
+	 */
+	public RequestHandler getRequestHandler()
+	{
+		return HANDLER;
+	}
+
+	/**
+	 * @param routes - {@link Router} of the listeners of upgraded paths, null to use one listener for every path.
+	 */
+	public void setRoutes(Router<WebSocketListener> routes)
+	{
+		this.ROUTES = routes;
+	}
+
+	/**
+	 * @return {@link #ROUTES}
+	 */
+	public Router<WebSocketListener> getRoutes()
+	{
+		return ROUTES;
+	}
+
+	/**
+	 * @return {@link #LISTENER}
+	 */
+	WebSocketListener getListener()
+	{
+		return LISTENER;
+	}
+
+	/**
+	 * @param request - Client's upgrade {@link Request}.
+	 * @return listener of the route the request's path matches, {@link #LISTENER} if it matches none.
+	 */
+	WebSocketListener getListener(Request request)
+	{
+		Router<WebSocketListener> routes = ROUTES;
+		WebSocketListener listener = routes == null ? null : routes.find(request);
+		return listener == null ? LISTENER : listener;
+	}
+
+	/**
+	 * @return {@link #REGISTRY}
+	 */
+	SessionRegistry getRegistry()
+	{
+		return REGISTRY;
+	}
+
+	/**
+	 * @return {@link #TIMEOUTS}
+	 */
+	SessionTimeouts getTimeouts()
+	{
+		return TIMEOUTS;
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while(RUNNING)
+			{
+				SELECTOR.select();
+
+				SocketChannel channel;
+				while((channel = ACCEPTED.poll()) != null)
+				{
+					try
+					{
+						new Connection(this, channel, SELECTOR);
+					}
+					catch (IOException e)
+					{
+						channel.close();
+					}
+				}
+
+				Connection connection;
+				while((connection = WRITABLE.poll()) != null)
+					connection.interestWrite();
+
+				Runnable task;
+				while((task = TASKS.poll()) != null)
+				{
+					try
+					{
+						task.run();
+					}
+					catch (RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+				}
+
+				Iterator<SelectionKey> keys = SELECTOR.selectedKeys().iterator();
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					connection = (Connection) key.attachment();
+					try
+					{
+						if(key.isValid() && key.isWritable())
+							connection.flush();
+						if(key.isValid() && key.isReadable())
+							connection.read();
+					}
+					catch (IOException | RuntimeException e)
+					{
+						connection.broken();
+					}
+					catch (Error e)
+					{
+						/*
+						 * An error raised while serving one connection, such as
+						 * running out of memory, only breaks that connection.
+						 */
+						e.printStackTrace();
+						connection.broken();
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			for(SelectionKey key : SELECTOR.keys())
+				((Connection) key.attachment()).shutdown();
+			try
+			{
+				SELECTOR.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops the event loop. Its own thread then closes every session it serves
+	 * with {@link CloseFrame#GOING_AWAY} and every other connection, before it
+	 * closes the selector. Safe to call from any thread.
+	 */
+	@Override
+	public void close()
+	{
+		RUNNING = false;
+		SELECTOR.wakeup();
+	}
+}
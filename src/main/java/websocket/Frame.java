@@ -1,7 +1,6 @@
 package websocket;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class structure for a WebSocket frame.
@@ -33,13 +32,13 @@ public class Frame
 	 * Binary mask to extract RSV2 bit of a WebSocket frame.
 	 * @see {@link FrameData}
 	 */
-    final int MASK_RSV2 = 0x40;
+    final int MASK_RSV2 = 0x20;
     
     /**
 	 * Binary mask to extract RSV3 bit of a WebSocket frame.
 	 * @see {@link FrameData}
 	 */
-    final int MASK_RSV3 = 0x40;
+    final int MASK_RSV3 = 0x10;
     
 	/**
      * Binary mask to extract the opcode bits of a WebSocket frame.
@@ -53,18 +52,25 @@ public class Frame
 	 */
     final int MAX_CONTROL_PAYLOAD = 0x7D;
     
+    /**
+	 * Largest payload allocated before any of it arrived. Larger payloads
+	 * grow as their bytes arrive, rather than trusting the announced length.
+	 */
+    private static final int INITIAL_PAYLOAD = 0x10000;
+    
 	/**
 	 * Final fragment.
 	 */
 	private boolean FIN;
 	
-	@SuppressWarnings("unused")
+	/**
+	 * Set on the first frame of a compressed message.
+	 * @see {@link PerMessageDeflate}
+	 */
 	private boolean RSV1;
 	
-	@SuppressWarnings("unused")
 	private boolean RSV2;
 	
-	@SuppressWarnings("unused")
 	private boolean RSV3;
 	
 	/**
@@ -84,9 +90,21 @@ public class Frame
 	int PAYLOAD_LENGTH;
 	
 	/**
-	 * Payload inside of frame.
+	 * Payload inside of frame. Allocated once the length is known, grown up to
+	 * {@link #PAYLOAD_LENGTH} while the frame is read, and flipped once it is complete.
+	 */
+	private ByteBuffer PAYLOAD;
+	
+	/**
+	 * Determines if a text message holds only ASCII. Set once the message was validated.
+	 */
+	boolean ASCII;
+	
+	/**
+	 * Determines if {@link #PAYLOAD} was acquired from {@link BufferPool#HEAP}
+	 * and is handed back by {@link #release()}.
 	 */
-	private ByteArrayOutputStream PAYLOAD;
+	boolean POOLED;
 	
 	/**
 	 * Pointer to next frame.
@@ -111,6 +129,34 @@ public class Frame
 		NEXT = null;
 	}
 	
+	/**
+	 * Constructor for a whole message whose payload was already read,
+	 * such as a decompressed message.
+	 * 
+	 * @param opcode of the message.
+	 * @param payload - Payload in read mode.
+	 */
+	Frame(OpCode opcode, ByteBuffer payload)
+	{
+		this(opcode, payload, true);
+	}
+	
+	/**
+	 * Constructor for a piece of a message handed out while it is streamed.
+	 * 
+	 * @param opcode of the message, or {@link OpCode#CONTINUATION} after its first piece.
+	 * @param payload - Payload in read mode.
+	 * @param fin - TRUE if the piece ends the message.
+	 * @see {@link WebSocketStreamListener}
+	 */
+	Frame(OpCode opcode, ByteBuffer payload, boolean fin)
+	{
+		this(opcode);
+		FIN = fin;
+		PAYLOAD = payload;
+		PAYLOAD_LENGTH = payload.remaining();
+	}
+	
 	/**
 	 * Constructor for reading a frame sent from client.
 	 * @param b0 - First byte from stream.
@@ -132,7 +178,7 @@ public class Frame
 		 */
 		MASKED = ((b1 & MASK) != 0);
 		PAYLOAD_LENGTH = b1 & 0x7F;
-		PAYLOAD = new ByteArrayOutputStream();
+		PAYLOAD = null; // Allocated once the extended length was read.
 		NEXT = null; // Last frame must always be null.
 	}
 	
@@ -169,6 +215,30 @@ public class Frame
 		return FIN;
 	}
 	
+	/**
+	 * @return {@link #RSV1}
+	 */
+	public boolean isRSV1()
+	{
+		return RSV1;
+	}
+	
+	/**
+	 * @return {@link #RSV2}
+	 */
+	public boolean isRSV2()
+	{
+		return RSV2;
+	}
+	
+	/**
+	 * @return {@link #RSV3}
+	 */
+	public boolean isRSV3()
+	{
+		return RSV3;
+	}
+	
 	/**
 	 * @return {@link #OPCODE}
 	 */
@@ -186,43 +256,156 @@ public class Frame
 	}
 	
 	/**
-	 * @return size of {@link #PAYLOAD} in int.
+	 * @return size of {@link #PAYLOAD} in int, not including continuation frames.
 	 */
 	public int size()
 	{
 		if(PAYLOAD == null)
 			return 0;
 		else
-			return PAYLOAD.toByteArray().length;
+			return PAYLOAD_LENGTH;
 	}
 	
 	/**
-	 * Add data to frame's payload
+	 * Allocates the payload once {@link #PAYLOAD_LENGTH} is known. At most
+	 * {@link #INITIAL_PAYLOAD} bytes are allocated up front. The payload is
+	 * pooled, so the frame must be released once it was handled.
 	 * 
-	 * @param data - Masked data inside of frame.
+	 * @see {@link #release()}
 	 */
-	public void addToPayload(char data)
+	void allocatePayload()
 	{
-		PAYLOAD.write(data);
+		PAYLOAD = BufferPool.HEAP.acquire(Math.min(PAYLOAD_LENGTH, INITIAL_PAYLOAD));
+		POOLED = true;
 	}
 	
 	/**
-	 * Gather payload from all frames, including continuation frames.
+	 * Makes room for more of the payload once it is full, doubling it
+	 * up to {@link #PAYLOAD_LENGTH}.
 	 * 
-	 * @return {@link Frame#PAYLOAD}
-	 * @throws IOException 
+	 * @return {@link #PAYLOAD}, with room for at least one more byte unless it is complete.
 	 */
-	public ByteArrayOutputStream getPayload() throws IOException
+	ByteBuffer growPayload()
 	{
-		if(NEXT == null)
+		if(PAYLOAD.hasRemaining() || PAYLOAD.limit() == PAYLOAD_LENGTH)
 			return PAYLOAD;
+		ByteBuffer grown = BufferPool.HEAP.acquire((int) Math.min((long) PAYLOAD.limit() << 1, PAYLOAD_LENGTH));
+		PAYLOAD.flip();
+		grown.put(PAYLOAD);
+		BufferPool.HEAP.release(PAYLOAD);
+		PAYLOAD = grown;
+		return PAYLOAD;
+	}
+	
+	/**
+	 * Payload while the frame is being read. Its position is the number of bytes
+	 * received so far, so data can be read straight into it.
+	 * 
+	 * @return {@link #PAYLOAD}
+	 */
+	ByteBuffer payload()
+	{
+		return PAYLOAD;
+	}
+	
+	/**
+	 * Add unmasked data to frame's payload.
+	 * 
+	 * @param data - Buffer holding unmasked data, its position is moved past the data.
+	 * @param length - Number of bytes to add.
+	 */
+	void addToPayload(ByteBuffer data, int length)
+	{
+		int limit = data.limit();
+		while(length > 0)
+		{
+			int room = Math.min(growPayload().remaining(), length);
+			data.limit(data.position() + room);
+			PAYLOAD.put(data);
+			length -= room;
+		}
+		data.limit(limit);
+	}
+	
+	/**
+	 * Hands the pooled payloads of this frame and its continuation frames back
+	 * to {@link BufferPool#HEAP}. The payloads must not be used afterwards.
+	 */
+	void release()
+	{
+		for(Frame frame = this; frame != null; frame = frame.NEXT)
+		{
+			if(frame.POOLED)
+			{
+				BufferPool.HEAP.release(frame.PAYLOAD);
+				frame.PAYLOAD = null;
+				frame.POOLED = false;
+			}
+		}
+	}
+	
+	/**
+	 * Marks the payload as complete, making it readable.
+	 */
+	void completePayload()
+	{
+		PAYLOAD.flip();
+	}
+	
+	/**
+	 * Payload of this frame, not including continuation frames.
+	 * 
+	 * @return read-only view of {@link #PAYLOAD}.
+	 */
+	public ByteBuffer getPayload()
+	{
+		if(PAYLOAD == null)
+			return ByteBuffer.allocate(0);
 		else
+			return PAYLOAD.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Payload of this frame and all of its continuation frames, in order.
+	 * The views share the frames' memory, so no fragment is copied.
+	 * 
+	 * @return read-only views of every fragment's {@link #PAYLOAD}.
+	 */
+	public ByteBuffer[] getPayloads()
+	{
+		int count = 0;
+		for(Frame frame = this; frame != null; frame = frame.NEXT)
+			++count;
+		
+		ByteBuffer[] payloads = new ByteBuffer[count];
+		int i = 0;
+		for(Frame frame = this; frame != null; frame = frame.NEXT)
+			payloads[i++] = frame.getPayload();
+		return payloads;
+	}
+	
+	/**
+	 * Gather payload from all frames, including continuation frames. A message of
+	 * a single frame hands out its payload's array without copying it.
+	 * 
+	 * @return payload of the whole message.
+	 */
+	public byte[] toByteArray()
+	{
+		if(NEXT == null && PAYLOAD != null && !POOLED && PAYLOAD.arrayOffset() == 0 && PAYLOAD.capacity() == PAYLOAD_LENGTH)
+			return PAYLOAD.array();
+		
+		byte[] data = new byte[getSize()];
+		int offset = 0;
+		for(Frame frame = this; frame != null; frame = frame.NEXT)
 		{
-			ByteArrayOutputStream data = new ByteArrayOutputStream();
-			data.write(PAYLOAD.toByteArray());
-			data.write(NEXT.getPayload().toByteArray());
-			return data;
+			if(frame.PAYLOAD != null)
+			{
+				frame.PAYLOAD.duplicate().get(data, offset, frame.PAYLOAD_LENGTH);
+				offset += frame.PAYLOAD_LENGTH;
+			}
 		}
+		return data;
 	}
 	
 	/**
@@ -239,10 +422,10 @@ public class Frame
 	 * @param frame {@link Frame}
 	 */
 	public void addFrame(Frame frame)
-	{	
-		Frame current = NEXT;
+	{
+		Frame current = this;
 		while(current.getNext() != null)
-			current = NEXT;
+			current = current.getNext();
 		current.setNext(frame);
 	}
 	
@@ -256,11 +439,14 @@ public class Frame
 		NEXT = frame;
 	}
 	
+	/**
+	 * @return size of the payload including continuation frames.
+	 */
 	public int getSize()
 	{
-		if(NEXT == null)
-			return PAYLOAD.size();
-		else
-			return PAYLOAD.size() + NEXT.getSize();
+		int size = 0;
+		for(Frame frame = this; frame != null; frame = frame.NEXT)
+			size += frame.size();
+		return size;
 	}
 }
@@ -0,0 +1,671 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder that builds {@link Frame}(s) from the bytes sent by a client.
+ * Unlike a blocking read, the decoder never waits for data. It consumes whatever
+ * is left inside of the buffer and remembers its place until the rest of the frame
+ * arrives, so the same decoder works for both blocking streams and non-blocking
+ * channels.
+ *
+ * <p>
+ * Fragmented messages are linked together as continuation {@link Frame}(s) and only
+ * returned once the final fragment was read. Control frames may be interleaved
+ * between fragments and are returned as soon as they are complete.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.2">RFC 6455, Section 5.2 (Base Framing Protocol)</a>
+ */
+class FrameDecoder
+{
+	/**
+	 * Number of masking bytes provided from client.
+	 */
+	private static final int MASK_BYTES = 0x4;
+
+	/**
+	 * Payload length indicating that the payload's true length is a
+	 * yet-to-be-provided unsigned 16-bit integer.
+	 */
+	private static final int PAYLOAD_LENGTH_16 = 0x7E;
+
+	/**
+	 * Payload length indicating that the payload's true length is a
+	 * yet-to-be-provided unsigned 64-bit integer (MSB = 0).
+	 */
+	private static final int PAYLOAD_LENGTH_64 = 0x7F;
+
+	/**
+	 * Waiting for the first two bytes of a frame.
+	 */
+	private static final int STATE_HEADER = 0;
+
+	/**
+	 * Waiting for the extended payload length.
+	 */
+	private static final int STATE_LENGTH = 1;
+
+	/**
+	 * Waiting for the masking key.
+	 */
+	private static final int STATE_MASK = 2;
+
+	/**
+	 * Reading the payload.
+	 */
+	private static final int STATE_PAYLOAD = 3;
+
+	/**
+	 * Size of the output a compressed message is inflated into while it is streamed.
+	 */
+	private static final int STREAM_OUT_SIZE = 0x4000;
+
+	/**
+	 * Current state of the decoder.
+	 */
+	private int STATE;
+
+	/**
+	 * Frame currently being decoded.
+	 */
+	private Frame CURRENT;
+
+	/**
+	 * First frame of a fragmented message, null if no message is in progress.
+	 */
+	private Frame MESSAGE;
+
+	/**
+	 * Number of extended payload length bytes still to be read.
+	 */
+	private int LENGTH_BYTES;
+
+	/**
+	 * Masking key of the current frame, first key byte in the most significant octet.
+	 */
+	private int MASKING_KEY;
+
+	/**
+	 * Number of masking key bytes read so far.
+	 */
+	private int MASK_INDEX;
+
+	/**
+	 * Number of payload bytes read so far.
+	 */
+	private int PAYLOAD_INDEX;
+
+	/**
+	 * Negotiated compression extension, null if messages are never compressed.
+	 */
+	private PerMessageDeflate DEFLATE;
+
+	/**
+	 * Determines if the message being decoded is text.
+	 */
+	private boolean TEXT;
+
+	/**
+	 * Determines if the message being decoded is compressed.
+	 */
+	private boolean COMPRESSED;
+
+	/**
+	 * Validator of the text message being decoded.
+	 */
+	private final Utf8 UTF8;
+
+	/**
+	 * Determines if data messages are handed out in pieces as they arrive.
+	 * @see {@link WebSocketStreamListener}
+	 */
+	private boolean STREAMING;
+
+	/**
+	 * OpCode of the message being streamed, null if no message is in progress.
+	 */
+	private OpCode STREAM;
+
+	/**
+	 * Determines if a piece of the streamed message was handed out.
+	 */
+	private boolean STREAM_STARTED;
+
+
+	/**
+	 * Output the streamed message is inflated into, reused for every piece.
+	 */
+	private ByteBuffer STREAM_OUT;
+
+	/**
+	 * Determines if the end of a compressed streamed message is still being inflated.
+	 */
+	private boolean DRAINING;
+
+	/**
+	 * Largest message gathered in memory, larger messages are refused with {@link CloseFrame#TOOBIG}.
+	 */
+	private volatile int MAX_MESSAGE_SIZE;
+
+	/**
+	 * Payload bytes of the fragments of {@link #MESSAGE} read so far.
+	 */
+	private int MESSAGE_SIZE;
+
+	FrameDecoder()
+	{
+		this.STATE = STATE_HEADER;
+		this.UTF8 = new Utf8();
+		this.MAX_MESSAGE_SIZE = WebSocket.DEFAULT_MAX_MESSAGE_SIZE;
+	}
+
+	/**
+	 * Inflates compressed messages once they are complete.
+	 *
+	 * @param deflate - Negotiated {@link PerMessageDeflate}.
+	 */
+	void compression(PerMessageDeflate deflate)
+	{
+		this.DEFLATE = deflate;
+	}
+
+	/**
+	 * Hands out data messages in pieces as they arrive, rather than gathering
+	 * them in memory. Control frames are still handed out whole.
+	 *
+	 * <p>
+	 * Each piece is a {@link Frame} carrying the message's {@link OpCode} if it is
+	 * the first piece, otherwise {@link OpCode#CONTINUATION}. The piece ending the
+	 * message has its FIN bit set. A piece's payload shares memory with the buffer
+	 * given to {@link #decode(ByteBuffer)}, so it must be used before decoding on.
+	 */
+	void streaming()
+	{
+		this.STREAMING = true;
+	}
+
+	/**
+	 * @return largest message gathered in memory.
+	 */
+	int getMaxMessageSize()
+	{
+		return MAX_MESSAGE_SIZE;
+	}
+
+	/**
+	 * Limits the size of a message gathered in memory. A frame announcing a
+	 * larger payload is refused as soon as its length was read. Streamed
+	 * messages are never gathered, so they are not limited.
+	 *
+	 * @param size - Largest message in bytes.
+	 */
+	void setMaxMessageSize(int size)
+	{
+		this.MAX_MESSAGE_SIZE = size;
+	}
+
+	/**
+	 * Decodes as much of the buffer as possible. A returned frame holds pooled
+	 * payloads and must be released once it was handled.
+	 *
+	 * @param data - buffer in read mode. Consumed bytes advance its position.
+	 * @return a complete {@link Frame}, or null if more bytes are needed.
+	 * @throws InvalidFrameException Thrown if client's frame was not properly built.
+	 * @see {@link Frame#release()}
+	 */
+	Frame decode(ByteBuffer data) throws InvalidFrameException
+	{
+		try
+		{
+			return next(data);
+		}
+		catch (InvalidFrameException e)
+		{
+			discard();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the frames that were being decoded. Called once decoding failed
+	 * or client is gone, since they are never handed out.
+	 */
+	void discard()
+	{
+		if(CURRENT != null)
+			CURRENT.release();
+		if(MESSAGE != null)
+			MESSAGE.release();
+		CURRENT = null;
+		MESSAGE = null;
+		MESSAGE_SIZE = 0;
+	}
+
+	/**
+	 * @see {@link #decode(ByteBuffer)}
+	 */
+	private Frame next(ByteBuffer data) throws InvalidFrameException
+	{
+		if(DRAINING)
+			return drain();
+		
+		/*
+		 * Unmask payload that was read straight into the frame.
+		 */
+		if(STATE == STATE_PAYLOAD && CURRENT.payload() != null)
+		{
+			ByteBuffer payload = CURRENT.payload();
+			if(payload.position() > PAYLOAD_INDEX)
+			{
+				Masking.unmask(payload, PAYLOAD_INDEX, payload.position(), MASKING_KEY, PAYLOAD_INDEX);
+				if(validating())
+					validate(payload, PAYLOAD_INDEX, payload.position());
+				PAYLOAD_INDEX = payload.position();
+				if(PAYLOAD_INDEX == CURRENT.PAYLOAD_LENGTH)
+				{
+					Frame frame = complete();
+					if(frame != null)
+						return frame;
+				}
+			}
+		}
+		
+		while(data.hasRemaining())
+		{
+			switch(STATE)
+			{
+				case STATE_HEADER:
+					if(data.remaining() < 2)
+						return null;
+					CURRENT = new Frame(data.get() & 0xFF, data.get() & 0xFF);
+					if(!CURRENT.isMasked())
+						throw new InvalidFrameException("Client did not send a masked frame.");
+					if(CURRENT.isRSV2() || CURRENT.isRSV3())
+						throw new InvalidFrameException("Client set a reserved bit without a negotiated extension.");
+					if(CURRENT.isRSV1() && (DEFLATE == null || !CURRENT.isDataFrame()))
+						throw new InvalidFrameException("Client set RSV1 on a frame that cannot be compressed.");
+					if(CURRENT.PAYLOAD_LENGTH == PAYLOAD_LENGTH_16)
+						LENGTH_BYTES = 2;
+					else if(CURRENT.PAYLOAD_LENGTH == PAYLOAD_LENGTH_64)
+						LENGTH_BYTES = 8;
+					else
+						LENGTH_BYTES = 0;
+					if(CURRENT.isControlFrame() && CURRENT.PAYLOAD_LENGTH > CURRENT.MAX_CONTROL_PAYLOAD)
+						throw new InvalidFrameException("Control frame payload is too large.");
+					if(LENGTH_BYTES > 0)
+						CURRENT.PAYLOAD_LENGTH = 0;
+					MASK_INDEX = 0;
+					if(LENGTH_BYTES > 0)
+						STATE = STATE_LENGTH;
+					else
+					{
+						limit();
+						STATE = STATE_MASK;
+					}
+					break;
+
+				case STATE_LENGTH:
+					while(LENGTH_BYTES > 0 && data.hasRemaining())
+					{
+						/*
+						 * Refused before the length overflows, a partial
+						 * length above the limit only grows.
+						 */
+						if(CURRENT.PAYLOAD_LENGTH > (limited() ? MAX_MESSAGE_SIZE : Integer.MAX_VALUE) >> 8)
+							throw new InvalidFrameException("Frame payload is too large.", CloseFrame.TOOBIG);
+						CURRENT.PAYLOAD_LENGTH = (CURRENT.PAYLOAD_LENGTH << 8) + (data.get() & 0xFF);
+						--LENGTH_BYTES;
+					}
+					if(LENGTH_BYTES == 0)
+					{
+						limit();
+						STATE = STATE_MASK;
+					}
+					break;
+
+				case STATE_MASK:
+					while(MASK_INDEX < MASK_BYTES && data.hasRemaining())
+					{
+						MASKING_KEY = (MASKING_KEY << 8) | (data.get() & 0xFF);
+						++MASK_INDEX;
+					}
+					if(MASK_INDEX == MASK_BYTES)
+					{
+						PAYLOAD_INDEX = 0;
+						STATE = STATE_PAYLOAD;
+						if(CURRENT.isDataFrame())
+						{
+							TEXT = CURRENT.getOpcode() == OpCode.TEXT;
+							COMPRESSED = CURRENT.isRSV1();
+							UTF8.reset();
+						}
+						if(STREAMING && !CURRENT.isControlFrame())
+						{
+							begin();
+							if(CURRENT.PAYLOAD_LENGTH == 0)
+							{
+								Frame piece = stream(data);
+								if(piece != null)
+									return piece;
+							}
+						}
+						else
+						{
+							CURRENT.allocatePayload();
+							if(CURRENT.PAYLOAD_LENGTH == 0)
+							{
+								Frame frame = complete();
+								if(frame != null)
+									return frame;
+							}
+						}
+					}
+					break;
+
+				case STATE_PAYLOAD:
+					if(CURRENT.payload() == null)
+					{
+						Frame piece = stream(data);
+						if(piece != null)
+							return piece;
+						break;
+					}
+					int length = Math.min(CURRENT.PAYLOAD_LENGTH - PAYLOAD_INDEX, data.remaining());
+					Masking.unmask(data, data.position(), data.position() + length, MASKING_KEY, PAYLOAD_INDEX);
+					if(validating())
+						validate(data, data.position(), data.position() + length);
+					CURRENT.addToPayload(data, length);
+					PAYLOAD_INDEX += length;
+					if(PAYLOAD_INDEX == CURRENT.PAYLOAD_LENGTH)
+					{
+						Frame frame = complete();
+						if(frame != null)
+							return frame;
+					}
+					break;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Payload of the frame being read. A reader with no buffered data left may read
+	 * the rest of the payload straight into it, sparing a copy through its own buffer.
+	 *
+	 * @return payload with room for the rest of the frame, or null if no payload is being read.
+	 */
+	ByteBuffer pending()
+	{
+		if(STATE == STATE_PAYLOAD && CURRENT.payload() != null && PAYLOAD_INDEX < CURRENT.PAYLOAD_LENGTH)
+			return CURRENT.growPayload();
+		else
+			return null;
+	}
+
+	/**
+	 * @return TRUE if the current frame is gathered into a message limited by {@link #MAX_MESSAGE_SIZE}.
+	 */
+	private boolean limited()
+	{
+		return !STREAMING && !CURRENT.isControlFrame();
+	}
+
+	/**
+	 * Refuses the current frame once its length is known if the message would
+	 * grow beyond {@link #MAX_MESSAGE_SIZE}, before any of its payload is allocated.
+	 *
+	 * @throws InvalidFrameException Thrown with {@link CloseFrame#TOOBIG} if the message is too large.
+	 */
+	private void limit() throws InvalidFrameException
+	{
+		long size = (CURRENT.getOpcode() == OpCode.CONTINUATION ? MESSAGE_SIZE : 0L) + CURRENT.PAYLOAD_LENGTH;
+		if(limited() && size > MAX_MESSAGE_SIZE)
+			throw new InvalidFrameException("Message is larger than " + MAX_MESSAGE_SIZE + " bytes.", CloseFrame.TOOBIG);
+	}
+
+	/**
+	 * Finishes the current frame and links continuation frames to their message.
+	 *
+	 * @return the completed frame or message, or null if the message is still fragmented.
+	 * @throws InvalidFrameException Thrown if fragments arrive out of order,
+	 * or a compressed message could not be inflated.
+	 */
+	private Frame complete() throws InvalidFrameException
+	{
+		Frame frame = CURRENT;
+		frame.completePayload();
+		CURRENT = null;
+		STATE = STATE_HEADER;
+
+		if(frame.isControlFrame())
+		{
+			if(!frame.isFIN())
+			{
+				frame.release();
+				throw new InvalidFrameException("Control frames must not be fragmented.");
+			}
+			/*
+			 * The reason following the status of a close frame is text.
+			 */
+			if(frame.getOpcode() == OpCode.CLOSE && frame.size() > 2)
+			{
+				ByteBuffer payload = frame.payload();
+				Utf8 reason = new Utf8();
+				if(!reason.validate(payload, payload.position() + 2, payload.limit()) || !reason.isComplete())
+				{
+					frame.release();
+					throw new InvalidFrameException("Close reason is not valid UTF-8.", CloseFrame.NO_UTF8);
+				}
+			}
+			return frame;
+		}
+		else if(frame.getOpcode() == OpCode.CONTINUATION)
+		{
+			if(MESSAGE == null)
+			{
+				frame.release();
+				throw new InvalidFrameException("Continuation frame was sent without a message.");
+			}
+			MESSAGE.addFrame(frame);
+			MESSAGE_SIZE += frame.PAYLOAD_LENGTH;
+		}
+		else if(MESSAGE != null)
+		{
+			frame.release();
+			throw new InvalidFrameException("New message was sent before the last fragment.");
+		}
+		else
+		{
+			MESSAGE = frame;
+			MESSAGE_SIZE = frame.PAYLOAD_LENGTH;
+		}
+
+		if(frame.isFIN())
+		{
+			/*
+			 * The message is only let go once it is valid,
+			 * until then a failure discards it.
+			 */
+			if(COMPRESSED)
+			{
+				Frame inflated = DEFLATE.inflate(MESSAGE, MAX_MESSAGE_SIZE);
+				MESSAGE.release();
+				MESSAGE = inflated;
+				if(TEXT)
+					validate(inflated.payload(), inflated.payload().position(), inflated.payload().limit());
+			}
+			if(TEXT)
+			{
+				validated();
+				MESSAGE.ASCII = UTF8.isAscii();
+			}
+			Frame message = MESSAGE;
+			MESSAGE = null;
+			MESSAGE_SIZE = 0;
+			return message;
+		}
+		else
+			return null;
+	}
+
+	/**
+	 * Starts streaming a data frame, checking it continues the message in progress.
+	 *
+	 * @throws InvalidFrameException Thrown if fragments arrive out of order.
+	 */
+	private void begin() throws InvalidFrameException
+	{
+		if(CURRENT.getOpcode() == OpCode.CONTINUATION)
+		{
+			if(STREAM == null)
+				throw new InvalidFrameException("Continuation frame was sent without a message.");
+		}
+		else if(STREAM != null)
+			throw new InvalidFrameException("New message was sent before the last fragment.");
+		else
+		{
+			STREAM = CURRENT.getOpcode();
+			STREAM_STARTED = false;
+			if(COMPRESSED && STREAM_OUT == null)
+				STREAM_OUT = ByteBuffer.allocate(STREAM_OUT_SIZE);
+		}
+	}
+
+	/**
+	 * Hands out the payload of the current data frame that is inside of the buffer.
+	 *
+	 * @param data - buffer in read mode. Consumed bytes advance its position.
+	 * @return piece of the message, or null if there is nothing to hand out yet.
+	 * @throws InvalidFrameException Thrown if a compressed message could not be inflated.
+	 */
+	private Frame stream(ByteBuffer data) throws InvalidFrameException
+	{
+		int position = data.position();
+		int length = Math.min(CURRENT.PAYLOAD_LENGTH - PAYLOAD_INDEX, data.remaining());
+		Masking.unmask(data, position, position + length, MASKING_KEY, PAYLOAD_INDEX);
+		ByteBuffer chunk = data.slice();
+		chunk.limit(length);
+
+		if(COMPRESSED)
+		{
+			STREAM_OUT.clear();
+			DEFLATE.inflate(chunk, STREAM_OUT);
+			if(TEXT)
+				validate(STREAM_OUT, 0, STREAM_OUT.position());
+			/*
+			 * Mask again the bytes the inflater had no room for,
+			 * they are unmasked once more when decoding goes on.
+			 */
+			if(chunk.position() < length)
+				Masking.unmask(data, position + chunk.position(), position + length, MASKING_KEY, PAYLOAD_INDEX + chunk.position());
+			length = chunk.position();
+		}
+		else if(TEXT)
+			validate(data, position, position + length);
+		data.position(position + length);
+		PAYLOAD_INDEX += length;
+
+		boolean last = false;
+		if(PAYLOAD_INDEX == CURRENT.PAYLOAD_LENGTH)
+		{
+			last = CURRENT.isFIN();
+			CURRENT = null;
+			STATE = STATE_HEADER;
+		}
+
+		if(COMPRESSED)
+		{
+			DRAINING = last;
+			if(STREAM_OUT.position() > 0)
+			{
+				STREAM_OUT.flip();
+				return piece(STREAM_OUT, false);
+			}
+			else if(last)
+				return drain();
+			else
+				return null;
+		}
+		else if(length > 0 || last)
+		{
+			if(last && TEXT)
+				validated();
+			return piece(chunk, last);
+		}
+		else
+			return null;
+	}
+
+	/**
+	 * Inflates the end of the compressed message being streamed.
+	 *
+	 * @return piece of the message, ending it once nothing is left.
+	 * @throws InvalidFrameException Thrown if the message could not be inflated.
+	 */
+	private Frame drain() throws InvalidFrameException
+	{
+		STREAM_OUT.clear();
+		boolean complete = DEFLATE.finish(STREAM_OUT);
+		if(TEXT)
+			validate(STREAM_OUT, 0, STREAM_OUT.position());
+		STREAM_OUT.flip();
+		if(complete)
+		{
+			DRAINING = false;
+			if(TEXT)
+				validated();
+		}
+		return piece(STREAM_OUT, complete);
+	}
+
+	/**
+	 * @param chunk - Payload of the piece in read mode.
+	 * @param last - TRUE if the piece ends the message.
+	 * @return piece of the message being streamed.
+	 */
+	private Frame piece(ByteBuffer chunk, boolean last)
+	{
+		OpCode opcode = STREAM_STARTED ? OpCode.CONTINUATION : STREAM;
+		STREAM_STARTED = true;
+		if(last)
+			STREAM = null;
+		return new Frame(opcode, chunk, last);
+	}
+
+	/**
+	 * @return TRUE if the payload of the current frame is text that is validated
+	 * as it is unmasked, rather than once it was inflated.
+	 */
+	private boolean validating()
+	{
+		return TEXT && !COMPRESSED && !CURRENT.isControlFrame();
+	}
+
+	/**
+	 * Validates the next bytes of the text message being decoded.
+	 *
+	 * @param data - Buffer holding the bytes.
+	 * @param from - Absolute index of the first byte.
+	 * @param to - Absolute index after the last byte.
+	 * @throws InvalidFrameException Thrown if the text is not valid UTF-8.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-8.1">RFC 6455, Section 8.1 (Handling Errors in UTF-8-Encoded Data)</a>
+	 */
+	private void validate(ByteBuffer data, int from, int to) throws InvalidFrameException
+	{
+		if(!UTF8.validate(data, from, to))
+			throw new InvalidFrameException("Text message is not valid UTF-8.", CloseFrame.NO_UTF8);
+	}
+
+	/**
+	 * Checks the text message being decoded did not end inside of a character.
+	 *
+	 * @throws InvalidFrameException Thrown if the text is not valid UTF-8.
+	 */
+	private void validated() throws InvalidFrameException
+	{
+		if(!UTF8.isComplete())
+			throw new InvalidFrameException("Text message ends inside of a character.", CloseFrame.NO_UTF8);
+	}
+}
@@ -0,0 +1,110 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the frames sent by server. Server frames are never masked, so a
+ * header is at most {@link #MAX_HEADER_SIZE} bytes long.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.2">RFC 6455, Section 5.2 (Base Framing Protocol)</a>
+ */
+final class FrameEncoder
+{
+	/**
+	 * Largest possible frame header sent by server: two bytes followed by
+	 * a 64-bit extended payload length.
+	 */
+	static final int MAX_HEADER_SIZE = 0xA;
+
+	/**
+	 * Bit of the first header byte marking the final fragment of a message.
+	 */
+	private static final int FIN = 0x80;
+
+	/**
+	 * Bit of the first header byte marking a compressed message.
+	 */
+	private static final int RSV1 = 0x40;
+
+	/**
+	 * Largest payload length that fits inside of the second header byte.
+	 */
+	private static final int PAYLOAD_LENGTH_7 = 0x7D;
+
+	/**
+	 * Payload length indicating that the payload's true length is a
+	 * yet-to-be-provided unsigned 16-bit integer.
+	 */
+	private static final int PAYLOAD_LENGTH_16 = 0x7E;
+
+	/**
+	 * Largest payload length that fits inside of the 16-bit extended length.
+	 */
+	private static final int PAYLOAD_LENGTH_16_MAX = 0xFFFF;
+
+	/**
+	 * Payload length indicating that the payload's true length is a
+	 * yet-to-be-provided unsigned 64-bit integer (MSB = 0).
+	 */
+	private static final int PAYLOAD_LENGTH_64 = 0x7F;
+
+	private FrameEncoder() {}
+
+	/**
+	 * Puts the header of a final frame into a buffer.
+	 *
+	 * @param header - Buffer with room for {@link #MAX_HEADER_SIZE} bytes.
+	 * @param opcode - {@link OpCode} of the frame.
+	 * @param length - Length of the frame's payload.
+	 */
+	static void header(ByteBuffer header, OpCode opcode, int length)
+	{
+		header(header, opcode, length, true, false);
+	}
+
+	/**
+	 * Puts the header of a frame into a buffer.
+	 *
+	 * @param header - Buffer with room for {@link #MAX_HEADER_SIZE} bytes.
+	 * @param opcode - {@link OpCode} of the frame.
+	 * @param length - Length of the frame's payload.
+	 * @param fin - TRUE if the frame is the final fragment of its message.
+	 * @param compressed - TRUE if the payload was compressed by {@link PerMessageDeflate}.
+	 */
+	static void header(ByteBuffer header, OpCode opcode, int length, boolean fin, boolean compressed)
+	{
+		header.put((byte) ((fin ? FIN : 0) | (compressed ? RSV1 : 0) | opcode.getCode()));
+
+		if(length <= PAYLOAD_LENGTH_7)
+			header.put((byte) length);
+		else if(length <= PAYLOAD_LENGTH_16_MAX)
+		{
+			header.put((byte) PAYLOAD_LENGTH_16);
+			header.putShort((short) length);
+		}
+		else
+		{
+			header.put((byte) PAYLOAD_LENGTH_64);
+			header.putLong(length);
+		}
+	}
+
+	/**
+	 * Encodes a whole frame into one direct buffer. Writing a direct buffer
+	 * spares the channel a copy, which adds up when the frame is sent to
+	 * many clients.
+	 *
+	 * @param opcode - {@link OpCode} of the frame.
+	 * @param payload - Payload of the frame.
+	 * @return read-only buffer holding the encoded frame.
+	 */
+	static ByteBuffer encode(OpCode opcode, byte[] payload)
+	{
+		ByteBuffer frame = ByteBuffer.allocateDirect(MAX_HEADER_SIZE + payload.length);
+		header(frame, opcode, payload.length);
+		frame.put(payload);
+		frame.flip();
+		return frame.asReadOnlyBuffer();
+	}
+}
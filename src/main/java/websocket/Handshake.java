@@ -0,0 +1,232 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Server's side of the opening handshake, built for bursts of handshakes such
+ * as every client reconnecting at once after a restart. A handshake borrows
+ * a SHA-1 digest and its buffers from a small shared pool rather than keeping
+ * them per thread, since a virtual thread runs a single handshake and would
+ * never reuse its own. The response is assembled from pre-encoded parts into
+ * a single buffer of its exact length, which is written at once.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc6455#section-4.2.2">RFC 6455, Section 4.2.2 (Sending the Server's Opening Handshake)</a>
+ */
+final class Handshake
+{
+	/**
+	 * Appended to client's key before it is hashed.
+	 */
+	private static final byte[] MAGIC_KEY = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Start of every response, up to the accept key.
+	 */
+	private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+			+ "Upgrade: websocket\r\n"
+			+ "Connection: Upgrade\r\n"
+			+ "Sec-WebSocket-Accept: ").getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Start of the extensions header, following the accept key.
+	 */
+	private static final byte[] EXTENSIONS = "\r\nSec-WebSocket-Extensions: ".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * End of every response.
+	 */
+	private static final byte[] END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Length of a SHA-1 digest.
+	 */
+	private static final int DIGEST_LENGTH = 20;
+
+	/**
+	 * Length of a Base64 encoded SHA-1 digest.
+	 */
+	private static final int ACCEPT_LENGTH = 28;
+
+	/**
+	 * Length of a key sent by a well-behaved client, 16 bytes in Base64.
+	 */
+	private static final int KEY_LENGTH = 24;
+
+	/**
+	 * Handshake states not in use, a slot per state. A thread starts looking
+	 * at a slot of its own, so threads rarely contend for the same state.
+	 */
+	private static final AtomicReferenceArray<Handshake> IDLE = new AtomicReferenceArray<Handshake>(
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+	/**
+	 * SHA-1 digest of the thread.
+	 */
+	private final MessageDigest SHA1;
+
+	/**
+	 * Client's key followed by {@link #MAGIC_KEY}.
+	 */
+	private byte[] KEY;
+
+	/**
+	 * Digest of {@link #KEY}.
+	 */
+	private final byte[] DIGEST;
+
+	/**
+	 * Base64 encoding of {@link #DIGEST}.
+	 */
+	private final byte[] ACCEPT;
+
+	private Handshake()
+	{
+		try
+		{
+			this.SHA1 = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			/*
+			 * Every Java platform is required to support SHA-1.
+			 */
+			throw new IllegalStateException(e);
+		}
+		this.KEY = new byte[KEY_LENGTH + MAGIC_KEY.length];
+		this.DIGEST = new byte[DIGEST_LENGTH];
+		this.ACCEPT = new byte[ACCEPT_LENGTH];
+	}
+
+	/**
+	 * Assembles the response accepting client's handshake.
+	 *
+	 * @param key - Sec-WebSocket-Key given by client.
+	 * @param extensions - Sec-WebSocket-Extensions accepted by server, null if none were.
+	 * @return buffer holding the response.
+	 * @throws WebSocketException Thrown if the key could not be hashed.
+	 */
+	static ByteBuffer response(String key, String extensions) throws WebSocketException
+	{
+		Handshake handshake = borrow();
+		try
+		{
+			return handshake.assemble(key, extensions);
+		}
+		finally
+		{
+			release(handshake);
+		}
+	}
+
+	/**
+	 * @return an idle state, or a new one if every state is in use.
+	 */
+	private static Handshake borrow()
+	{
+		int mask = IDLE.length() - 1;
+		int start = (int) Thread.currentThread().getId();
+		for(int i = 0; i <= mask; i++)
+		{
+			int slot = (start + i) & mask;
+			Handshake handshake = IDLE.get(slot);
+			if(handshake != null && IDLE.compareAndSet(slot, handshake, null))
+				return handshake;
+		}
+		return new Handshake();
+	}
+
+	/**
+	 * Hands a state back, dropping it if every slot is taken.
+	 *
+	 * @param handshake - State that was borrowed.
+	 */
+	private static void release(Handshake handshake)
+	{
+		int mask = IDLE.length() - 1;
+		int start = (int) Thread.currentThread().getId();
+		for(int i = 0; i <= mask; i++)
+		{
+			int slot = (start + i) & mask;
+			if(IDLE.get(slot) == null && IDLE.compareAndSet(slot, null, handshake))
+				return;
+		}
+	}
+
+	/**
+	 * @see #response(String, String)
+	 */
+	private ByteBuffer assemble(String key, String extensions) throws WebSocketException
+	{
+		int length = SWITCHING_PROTOCOLS.length + ACCEPT_LENGTH + END.length;
+		if(extensions != null)
+			length += EXTENSIONS.length + extensions.length();
+		byte[] response = new byte[length];
+
+		int offset = put(SWITCHING_PROTOCOLS, response, 0);
+		offset = accept(key, response, offset);
+		if(extensions != null)
+		{
+			offset = put(EXTENSIONS, response, offset);
+			for(int i = 0; i < extensions.length(); i++)
+				response[offset++] = (byte) extensions.charAt(i);
+		}
+		put(END, response, offset);
+		return ByteBuffer.wrap(response);
+	}
+
+	/**
+	 * Hashes client's key and writes the Base64 encoded digest.
+	 *
+	 * @param key - Sec-WebSocket-Key given by client.
+	 * @param out - Array receiving the accept key.
+	 * @param offset - Index of the accept key inside of out.
+	 * @return index after the accept key.
+	 * @throws WebSocketException Thrown if the key could not be hashed.
+	 */
+	private int accept(String key, byte[] out, int offset) throws WebSocketException
+	{
+		int length = key.length() + MAGIC_KEY.length;
+		if(KEY.length < length)
+			KEY = new byte[length];
+		/*
+		 * Keys are Base64, so each char is a single byte.
+		 */
+		for(int i = 0; i < key.length(); i++)
+			KEY[i] = (byte) key.charAt(i);
+		System.arraycopy(MAGIC_KEY, 0, KEY, key.length(), MAGIC_KEY.length);
+
+		SHA1.update(KEY, 0, length);
+		try
+		{
+			SHA1.digest(DIGEST, 0, DIGEST_LENGTH);
+		}
+		catch (DigestException e)
+		{
+			SHA1.reset();
+			throw new WebSocketException("Could not hash client's key.", e);
+		}
+
+		Base64.getEncoder().encode(DIGEST, ACCEPT);
+		System.arraycopy(ACCEPT, 0, out, offset, ACCEPT_LENGTH);
+		return offset + ACCEPT_LENGTH;
+	}
+
+	/**
+	 * @param part - Pre-encoded part of the response.
+	 * @param out - Array receiving the response.
+	 * @param offset - Index of the part inside of out.
+	 * @return index after the part.
+	 */
+	private static int put(byte[] part, byte[] out, int offset)
+	{
+		System.arraycopy(part, 0, out, offset, part.length);
+		return offset + part.length;
+	}
+}
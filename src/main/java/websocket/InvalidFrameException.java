@@ -13,14 +13,39 @@ public class InvalidFrameException extends Exception
 {
 	private static final long serialVersionUID = -6571826516080525468L;
 	
+	/**
+	 * Status the connection is closed with.
+	 * @see {@link CloseFrame}
+	 */
+	private final int STATUS;
+	
 	public InvalidFrameException(String message)
 	{
-		super(message);
+		this(message, CloseFrame.PROTOCOL_ERROR);
 	}
 
 	public InvalidFrameException(String message, Exception e) 
 	{
 		super(message, e);
+		STATUS = CloseFrame.PROTOCOL_ERROR;
+	}
+	
+	/**
+	 * @param message
+	 * @param status - Status the connection is closed with, see {@link CloseFrame}.
+	 */
+	public InvalidFrameException(String message, int status)
+	{
+		super(message);
+		STATUS = status;
+	}
+	
+	/**
+	 * @return {@link #STATUS}
+	 */
+	public int getStatus()
+	{
+		return STATUS;
 	}
 }
 
@@ -0,0 +1,58 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Applies a client's masking key to payload data. Since masking is a XOR with
+ * a repeating four byte key, the key is widened to 64 bits and applied eight
+ * bytes at a time, leaving at most seven bytes for the tail.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.3">RFC 6455, Section 5.3 (Client-to-Server Masking)</a>
+ */
+final class Masking
+{
+	private Masking() {}
+
+	/**
+	 * Unmasks bytes of a buffer in place. The buffer's position and limit are not changed.
+	 *
+	 * @param data - Buffer holding masked payload data.
+	 * @param from - Absolute index of the first byte to unmask.
+	 * @param to - Absolute index after the last byte to unmask.
+	 * @param key - Masking key, first key byte in the most significant octet.
+	 * @param index - Index of the first byte inside of the payload, which selects the key byte it is masked with.
+	 */
+	static void unmask(ByteBuffer data, int from, int to, int key, int index)
+	{
+		/*
+		 * Rotate the key so its most significant octet
+		 * lines up with the byte at 'from'.
+		 */
+		int rotated = Integer.rotateLeft(key, (index & 3) << 3);
+		long wide = ((long) rotated << 32) | (rotated & 0xFFFFFFFFL);
+		int narrow = rotated;
+		if(data.order() == ByteOrder.LITTLE_ENDIAN)
+		{
+			wide = Long.reverseBytes(wide);
+			narrow = Integer.reverseBytes(narrow);
+		}
+
+		int i = from;
+		for(; i + 8 <= to; i += 8)
+			data.putLong(i, data.getLong(i) ^ wide);
+
+		/*
+		 * Tail is a multiple of eight bytes past 'from',
+		 * so the key is still aligned with 'i'.
+		 */
+		if(i + 4 <= to)
+		{
+			data.putInt(i, data.getInt(i) ^ narrow);
+			i += 4;
+		}
+		for(int shift = 24; i < to; i++, shift -= 8)
+			data.put(i, (byte) (data.get(i) ^ (rotated >>> shift)));
+	}
+}
@@ -0,0 +1,158 @@
+package websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream of a data message sent to client while it is written. Written bytes
+ * are gathered until a fragment is full, which is then sent as a frame of the
+ * message. Closing the stream sends the final fragment.
+ *
+ * <p>
+ * The session is only locked while a fragment is sent. Data messages sent
+ * while the stream is open are queued and follow once it is closed, so their
+ * senders never wait for it, and control frames may go out between its
+ * fragments. Another stream only opens once this one was closed, so a stream
+ * must always be closed.
+ *
+ * @author Ryan Mayobre
+ * @see {@link WebSocketSession#openMessage(OpCode)}
+ */
+public class MessageOutputStream extends OutputStream
+{
+	/**
+	 * WebSocket the message is sent on.
+	 */
+	private final WebSocket SOCKET;
+
+	/**
+	 * Bytes of the fragment being gathered.
+	 */
+	private final byte[] BUFFER;
+
+	/**
+	 * Determines if the message is compressed.
+	 */
+	private final boolean COMPRESS;
+
+	/**
+	 * Number of bytes inside of {@link #BUFFER}.
+	 */
+	private int COUNT;
+
+	/**
+	 * OpCode of the next fragment.
+	 */
+	private OpCode OPCODE;
+
+	/**
+	 * Determines if the final fragment was sent.
+	 */
+	private boolean CLOSED;
+
+	/**
+	 * @param socket - WebSocket the message is sent on.
+	 * @param opcode - {@link OpCode} of the message.
+	 * @param fragmentSize - Largest payload of a fragment.
+	 * @param compress - TRUE if the message is compressed.
+	 */
+	MessageOutputStream(WebSocket socket, OpCode opcode, int fragmentSize, boolean compress)
+	{
+		this.SOCKET = socket;
+		this.BUFFER = new byte[fragmentSize];
+		this.COMPRESS = compress;
+		this.COUNT = 0;
+		this.OPCODE = opcode;
+		this.CLOSED = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(CLOSED)
+			throw new IOException("Message was already sent.");
+
+		BUFFER[COUNT++] = (byte) b;
+		if(COUNT == BUFFER.length)
+			flush();
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length) throws IOException
+	{
+		if(CLOSED)
+			throw new IOException("Message was already sent.");
+		if(offset < 0 || length < 0 || offset + length > data.length || offset + length < 0)
+			throw new IndexOutOfBoundsException();
+
+		while(length > 0)
+		{
+			/*
+			 * Whole fragments are sent straight from the caller's array.
+			 */
+			if(COUNT == 0 && length >= BUFFER.length)
+			{
+				send(data, offset, BUFFER.length, false);
+				offset += BUFFER.length;
+				length -= BUFFER.length;
+			}
+			else
+			{
+				int count = Math.min(BUFFER.length - COUNT, length);
+				System.arraycopy(data, offset, BUFFER, COUNT, count);
+				COUNT += count;
+				offset += count;
+				length -= count;
+				if(COUNT == BUFFER.length)
+					flush();
+			}
+		}
+	}
+
+	/**
+	 * Sends the gathered bytes as a fragment of the message.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if(!CLOSED && COUNT > 0)
+		{
+			send(BUFFER, 0, COUNT, false);
+			COUNT = 0;
+		}
+	}
+
+	/**
+	 * Sends the final fragment of the message.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(CLOSED)
+			return;
+
+		CLOSED = true;
+		try
+		{
+			send(BUFFER, 0, COUNT, true);
+			COUNT = 0;
+		}
+		finally
+		{
+			SOCKET.closeMessage();
+		}
+	}
+
+	/**
+	 * @param data - Array holding the fragment.
+	 * @param offset - Index of the fragment inside of data.
+	 * @param length - Length of the fragment.
+	 * @param fin - TRUE if the fragment ends the message.
+	 * @throws IOException Thrown if the fragment could not be sent.
+	 */
+	private void send(byte[] data, int offset, int length, boolean fin) throws IOException
+	{
+		SOCKET.sendFragment(OPCODE, data, offset, length, fin, COMPRESS);
+		OPCODE = OpCode.CONTINUATION;
+	}
+}
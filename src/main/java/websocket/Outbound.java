@@ -0,0 +1,54 @@
+package websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of the bytes a {@link WebSocket} sends to its client.
+ *
+ * @author Ryan Mayobre
+ * @see {@link SocketOutbound}
+ * @see {@link Connection}
+ */
+interface Outbound extends Closeable
+{
+	/**
+	 * Writes buffers to client as one gathering write, queueing whatever cannot
+	 * be sent right away. A blocking socket may keep the caller until it took
+	 * the data. The buffers are not kept after the call returns, so callers may
+	 * reuse them.
+	 *
+	 * @param data - Buffers to be sent to client, in order.
+	 * @throws IOException Thrown if the connection is closed or broken.
+	 */
+	void write(ByteBuffer... data) throws IOException;
+
+	/**
+	 * Queues buffers behind the data already written, never waiting for client,
+	 * even while another thread is blocked writing to it. Used by deadline
+	 * checks, which must never wait. The buffers are not kept after the call returns.
+	 *
+	 * @param data - Buffers to be sent to client, in order.
+	 * @throws IOException Thrown if the connection is closed or broken.
+	 */
+	void enqueue(ByteBuffer... data) throws IOException;
+
+	/**
+	 * @return {@link OutboundQueue} holding the data client has not taken yet.
+	 */
+	OutboundQueue queue();
+
+	/**
+	 * Closes the connection once all written data was sent.
+	 *
+	 * @throws IOException Thrown if the connection could not be closed.
+	 */
+	@Override
+	void close() throws IOException;
+
+	/**
+	 * Closes the connection right away, dropping data that was not sent yet.
+	 */
+	void abort();
+}
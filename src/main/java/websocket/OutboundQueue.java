@@ -0,0 +1,236 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Data sent to a client that the client has not taken yet. The queue counts
+ * its bytes against a high and a low watermark: once more than the high
+ * watermark is queued the session turns unwritable, and it turns writable
+ * again once the queue drained below the low watermark. Producers watch the
+ * writability to slow down instead of queueing without bound.
+ *
+ * <p>
+ * The queue is guarded by the lock of the {@link Outbound} that owns it, except
+ * for its size and writability, which may be read at any time. Writability
+ * changes are reported through {@link #changed()}, which the owner calls after
+ * letting go of its lock.
+ *
+ * @author Ryan Mayobre
+ * @see {@link WebSocketWritabilityListener}
+ */
+final class OutboundQueue
+{
+	/**
+	 * Default number of queued bytes below which a session turns writable again.
+	 */
+	static final int DEFAULT_LOW_WATERMARK = 0x8000;
+
+	/**
+	 * Default number of queued bytes above which a session turns unwritable.
+	 */
+	static final int DEFAULT_HIGH_WATERMARK = 0x10000;
+
+	/**
+	 * Most queued buffers handed to one gathering write.
+	 */
+	static final int GATHER = 0x10;
+
+	/**
+	 * Pool the copies of queued data come from.
+	 */
+	private final BufferPool POOL;
+
+	/**
+	 * Queued data, in order.
+	 */
+	private final ArrayDeque<ByteBuffer> BUFFERS;
+
+	/**
+	 * Number of bytes inside of {@link #BUFFERS}.
+	 */
+	private volatile long SIZE;
+
+	/**
+	 * Number of queued bytes below which the queue turns writable again.
+	 */
+	private volatile int LOW_WATERMARK;
+
+	/**
+	 * Number of queued bytes above which the queue turns unwritable.
+	 */
+	private volatile int HIGH_WATERMARK;
+
+	/**
+	 * Determines if producers may keep sending.
+	 */
+	private volatile boolean WRITABLE;
+
+	/**
+	 * Session told about writability changes, null until the session was created.
+	 */
+	private volatile WebSocketSession SESSION;
+
+	/**
+	 * @param pool - {@link BufferPool} the copies of queued data come from.
+	 */
+	OutboundQueue(BufferPool pool)
+	{
+		this.POOL = pool;
+		this.BUFFERS = new ArrayDeque<ByteBuffer>();
+		this.SIZE = 0L;
+		this.LOW_WATERMARK = DEFAULT_LOW_WATERMARK;
+		this.HIGH_WATERMARK = DEFAULT_HIGH_WATERMARK;
+		this.WRITABLE = true;
+	}
+
+	/**
+	 * Queues a pooled copy of the remaining bytes of each buffer.
+	 *
+	 * @param data - Buffers to be queued, they are consumed.
+	 * @return TRUE if the queue turned unwritable.
+	 */
+	boolean add(ByteBuffer... data)
+	{
+		long size = SIZE;
+		for(ByteBuffer buffer : data)
+		{
+			if(buffer.hasRemaining())
+			{
+				ByteBuffer copy = POOL.acquire(buffer.remaining());
+				copy.put(buffer);
+				copy.flip();
+				BUFFERS.add(copy);
+				size += copy.remaining();
+			}
+		}
+		SIZE = size;
+
+		if(WRITABLE && size > HIGH_WATERMARK)
+		{
+			WRITABLE = false;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Fills an array with the first queued buffers, leaving them queued. Only
+	 * the thread draining the queue removes buffers, so they stay valid after
+	 * the owner's lock was let go.
+	 *
+	 * @param batch - Array receiving the buffers.
+	 * @return number of buffers put into batch.
+	 */
+	int peek(ByteBuffer[] batch)
+	{
+		int count = 0;
+		for(Iterator<ByteBuffer> i = BUFFERS.iterator(); i.hasNext() && count < batch.length; )
+			batch[count++] = i.next();
+		return count;
+	}
+
+	/**
+	 * Removes the first queued buffer once it was written, handing it back to the pool.
+	 *
+	 * @return TRUE if the queue turned writable.
+	 */
+	boolean remove()
+	{
+		ByteBuffer buffer = BUFFERS.poll();
+		long size = SIZE - buffer.limit();
+		SIZE = size;
+		POOL.release(buffer);
+
+		if(!WRITABLE && size < LOW_WATERMARK)
+		{
+			WRITABLE = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drops all queued data. The queue stays as writable as it was, since
+	 * nothing is written to a dropped connection anymore.
+	 */
+	void clear()
+	{
+		for(ByteBuffer buffer; (buffer = BUFFERS.poll()) != null; )
+			POOL.release(buffer);
+		SIZE = 0L;
+	}
+
+	/**
+	 * @return TRUE if no data is queued.
+	 */
+	boolean isEmpty()
+	{
+		return BUFFERS.isEmpty();
+	}
+
+	/**
+	 * @return {@link #SIZE}
+	 */
+	long size()
+	{
+		return SIZE;
+	}
+
+	/**
+	 * @return {@link #WRITABLE}
+	 */
+	boolean isWritable()
+	{
+		return WRITABLE;
+	}
+
+	/**
+	 * @return {@link #LOW_WATERMARK}
+	 */
+	int getLowWatermark()
+	{
+		return LOW_WATERMARK;
+	}
+
+	/**
+	 * @return {@link #HIGH_WATERMARK}
+	 */
+	int getHighWatermark()
+	{
+		return HIGH_WATERMARK;
+	}
+
+	/**
+	 * Changes the watermarks. They are checked the next time data is queued or removed.
+	 *
+	 * @param low - Number of queued bytes below which the queue turns writable again.
+	 * @param high - Number of queued bytes above which the queue turns unwritable.
+	 */
+	void setWatermarks(int low, int high)
+	{
+		if(low < 0 || high < low)
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high.");
+		this.LOW_WATERMARK = low;
+		this.HIGH_WATERMARK = high;
+	}
+
+	/**
+	 * @param session - {@link WebSocketSession} told about writability changes.
+	 */
+	void watch(WebSocketSession session)
+	{
+		this.SESSION = session;
+	}
+
+	/**
+	 * Tells the session its writability changed. Called without holding the owner's lock.
+	 */
+	void changed()
+	{
+		WebSocketSession session = SESSION;
+		if(session != null)
+			session.writabilityChanged();
+	}
+}
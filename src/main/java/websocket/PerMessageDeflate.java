@@ -0,0 +1,618 @@
+package websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension negotiated with a client. Compresses the
+ * messages sent by server and inflates the messages sent by client with the
+ * RSV1 bit set.
+ *
+ * <p>
+ * {@link Deflater}(s) and {@link Inflater}(s) hold large native buffers, so they
+ * are pooled. A session takes an instance from the pool when it first needs one
+ * and gives it back once it closes. When a side negotiated no context takeover,
+ * its instance is given back after every message, so idle sessions hold none.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc7692">RFC 7692 (Compression Extensions for WebSocket)</a>
+ */
+final class PerMessageDeflate
+{
+	/**
+	 * Name of the extension inside of Sec-WebSocket-Extensions.
+	 */
+	static final String NAME = "permessage-deflate";
+
+	/**
+	 * Messages smaller than this are sent uncompressed, since deflating them
+	 * costs more time than the few bytes it saves.
+	 */
+	static final int MIN_SIZE = 0x100;
+
+	/**
+	 * Window size of {@link Deflater}, which cannot be made smaller.
+	 */
+	private static final int MAX_WINDOW_BITS = 0xF;
+
+	/**
+	 * Smallest window size a client may ask for.
+	 */
+	private static final int MIN_WINDOW_BITS = 0x8;
+
+	/**
+	 * Empty stored block ending every flushed message. Stripped from sent
+	 * messages and appended to received ones.
+	 *
+	 * @see <a href="https://tools.ietf.org/html/rfc7692#section-7.2.1">RFC 7692, Section 7.2.1 (Compression)</a>
+	 */
+	private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+	/**
+	 * Largest output a message is inflated into, whatever its limit.
+	 */
+	private static final int MAX_OUTPUT = Integer.MAX_VALUE >> 1;
+
+	/**
+	 * Maximum number of idle instances kept inside of each pool.
+	 */
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+	/**
+	 * Idle {@link Deflater}(s).
+	 */
+	private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<Deflater>();
+
+	/**
+	 * Idle {@link Inflater}(s).
+	 */
+	private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<Inflater>();
+
+	/**
+	 * Number of instances inside of {@link #DEFLATERS}.
+	 */
+	private static final AtomicInteger IDLE_DEFLATERS = new AtomicInteger();
+
+	/**
+	 * Number of instances inside of {@link #INFLATERS}.
+	 */
+	private static final AtomicInteger IDLE_INFLATERS = new AtomicInteger();
+
+	/**
+	 * Server resets its compression context after every message.
+	 */
+	private final boolean SERVER_NO_CONTEXT_TAKEOVER;
+
+	/**
+	 * Client resets its compression context after every message.
+	 */
+	private final boolean CLIENT_NO_CONTEXT_TAKEOVER;
+
+	/**
+	 * Value of Sec-WebSocket-Extensions sent back to client.
+	 */
+	private final String RESPONSE;
+
+	/**
+	 * Guards {@link #DEFLATER}.
+	 */
+	private final ReentrantLock DEFLATE_LOCK;
+
+	/**
+	 * Guards {@link #INFLATER}.
+	 */
+	private final ReentrantLock INFLATE_LOCK;
+
+	/**
+	 * Compressor of sent messages, null while none is held.
+	 */
+	private Deflater DEFLATER;
+
+	/**
+	 * Decompressor of received messages, null while none is held.
+	 */
+	private Inflater INFLATER;
+
+	/**
+	 * Determines if the instances were given back for good.
+	 */
+	private boolean RELEASED;
+
+	/**
+	 * Determines if {@link #TAIL} was handed to {@link #INFLATER} for the
+	 * message being streamed.
+	 */
+	private boolean TAIL_FED;
+
+	private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover, String response)
+	{
+		this.SERVER_NO_CONTEXT_TAKEOVER = serverNoContextTakeover;
+		this.CLIENT_NO_CONTEXT_TAKEOVER = clientNoContextTakeover;
+		this.RESPONSE = response;
+		this.DEFLATE_LOCK = new ReentrantLock();
+		this.INFLATE_LOCK = new ReentrantLock();
+	}
+
+	/**
+	 * Accepts the first permessage-deflate offer the server can honor.
+	 *
+	 * <p>
+	 * Since {@link Deflater} always uses a 15 bit window, offers asking for a
+	 * smaller server_max_window_bits are declined. client_max_window_bits needs
+	 * no answer, because {@link Inflater} reads any window size.
+	 *
+	 * @param offers - Sec-WebSocket-Extensions sent by client, may be null.
+	 * @return the negotiated extension, or null if no offer was accepted.
+	 * @see <a href="https://tools.ietf.org/html/rfc7692#section-7.1">RFC 7692, Section 7.1 (Extension Negotiation)</a>
+	 */
+	static PerMessageDeflate negotiate(String offers)
+	{
+		if(offers == null)
+			return null;
+
+		for(String offer : offers.split(","))
+		{
+			String[] parameters = offer.split(";");
+			if(!parameters[0].trim().equalsIgnoreCase(NAME))
+				continue;
+
+			boolean serverNoContextTakeover = false;
+			boolean clientNoContextTakeover = false;
+			boolean serverMaxWindowBits = false;
+			boolean clientMaxWindowBits = false;
+			boolean valid = true;
+
+			for(int i = 1; i < parameters.length && valid; i++)
+			{
+				String[] parameter = parameters[i].split("=", 2);
+				String name = parameter[0].trim();
+				String value = parameter.length > 1 ? parameter[1].trim().replace("\"", "") : null;
+
+				if(name.equals("server_no_context_takeover") && !serverNoContextTakeover && value == null)
+					serverNoContextTakeover = true;
+				else if(name.equals("client_no_context_takeover") && !clientNoContextTakeover && value == null)
+					clientNoContextTakeover = true;
+				else if(name.equals("server_max_window_bits") && !serverMaxWindowBits && windowBits(value) == MAX_WINDOW_BITS)
+					serverMaxWindowBits = true;
+				else if(name.equals("client_max_window_bits") && !clientMaxWindowBits && (value == null || windowBits(value) != -1))
+					clientMaxWindowBits = true;
+				else
+					valid = false;
+			}
+
+			if(valid)
+			{
+				StringBuilder response = new StringBuilder(NAME);
+				if(serverNoContextTakeover)
+					response.append("; server_no_context_takeover");
+				if(clientNoContextTakeover)
+					response.append("; client_no_context_takeover");
+				if(serverMaxWindowBits)
+					response.append("; server_max_window_bits=").append(MAX_WINDOW_BITS);
+				return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover, response.toString());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param value - Value of a max_window_bits parameter.
+	 * @return window size, or -1 if the value is not a valid window size.
+	 */
+	private static int windowBits(String value)
+	{
+		if(value == null || value.isEmpty() || value.length() > 2)
+			return -1;
+		for(int i = 0; i < value.length(); i++)
+			if(value.charAt(i) < '0' || value.charAt(i) > '9')
+				return -1;
+
+		int bits = Integer.parseInt(value);
+		return bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS ? bits : -1;
+	}
+
+	/**
+	 * @return {@link #RESPONSE}
+	 */
+	String response()
+	{
+		return RESPONSE;
+	}
+
+	/**
+	 * Compresses a message. Messages must be compressed in the order they are
+	 * sent, since client decompresses them with a shared context.
+	 *
+	 * @param data - Message to be compressed.
+	 * @return compressed payload, a pooled buffer that must be released once it was sent,
+	 * or null if the message should be sent uncompressed.
+	 * @throws IOException Thrown if the extension was released.
+	 * @see <a href="https://tools.ietf.org/html/rfc7692#section-7.2.1">RFC 7692, Section 7.2.1 (Compression)</a>
+	 */
+	ByteBuffer deflate(byte[] data) throws IOException
+	{
+		ByteBuffer compressed = deflate(data, 0, data.length, true);
+		/*
+		 * Without a shared context, a message that did
+		 * not shrink can go out as it is.
+		 */
+		if(SERVER_NO_CONTEXT_TAKEOVER && compressed.remaining() >= data.length)
+		{
+			BufferPool.HEAP.release(compressed);
+			return null;
+		}
+		return compressed;
+	}
+
+	/**
+	 * Compresses part of a message. A message may be compressed in several parts,
+	 * each ending with a flushed block, and only the last part is stripped of
+	 * {@link #TAIL}.
+	 *
+	 * @param data - Array holding the part to be compressed.
+	 * @param offset - Index of the part inside of data.
+	 * @param length - Length of the part.
+	 * @param fin - TRUE if the part ends the message.
+	 * @return compressed part, a pooled buffer that must be released once it was sent.
+	 * @throws IOException Thrown if the extension was released.
+	 * @see {@link BufferPool#release(ByteBuffer)}
+	 */
+	ByteBuffer deflate(byte[] data, int offset, int length, boolean fin) throws IOException
+	{
+		DEFLATE_LOCK.lock();
+		try
+		{
+			if(RELEASED)
+				throw new IOException("Compression context was released.");
+			if(DEFLATER == null)
+				DEFLATER = borrowDeflater();
+
+			DEFLATER.setInput(data, offset, length);
+			ByteBuffer out = BufferPool.HEAP.acquire((length >> 1) + 0x40);
+			out.limit(out.capacity());
+			while(true)
+			{
+				int size = DEFLATER.deflate(out.array(), out.arrayOffset() + out.position(), out.remaining(), Deflater.SYNC_FLUSH);
+				out.position(out.position() + size);
+				if(out.hasRemaining())
+					break;
+				out = grow(out, out.capacity() << 1);
+			}
+
+			if(fin)
+			{
+				/*
+				 * A flush without new input emits nothing. A single zero
+				 * byte then ends the message, since with the appended
+				 * tail it forms an empty stored block.
+				 */
+				if(out.position() >= TAIL.length)
+					out.position(out.position() - TAIL.length);
+				else
+					out.put((byte) 0x00);
+				if(SERVER_NO_CONTEXT_TAKEOVER)
+				{
+					giveBack(DEFLATER);
+					DEFLATER = null;
+				}
+			}
+			out.flip();
+			return out;
+		}
+		finally
+		{
+			DEFLATE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Decompresses a message sent with the RSV1 bit set.
+	 *
+	 * @param message - First {@link Frame} of the compressed message.
+	 * @param max - Largest decompressed message in bytes.
+	 * @return single {@link Frame} holding the decompressed message in a pooled payload.
+	 * @throws InvalidFrameException Thrown if the message is not valid deflate data,
+	 * or with {@link CloseFrame#TOOBIG} if it decompresses to more than max bytes.
+	 * @see <a href="https://tools.ietf.org/html/rfc7692#section-7.2.2">RFC 7692, Section 7.2.2 (Decompression)</a>
+	 */
+	Frame inflate(Frame message, int max) throws InvalidFrameException
+	{
+		INFLATE_LOCK.lock();
+		try
+		{
+			if(RELEASED)
+				throw new InvalidFrameException("Compression context was released.");
+			if(INFLATER == null)
+				INFLATER = borrowInflater();
+
+			long size = Math.max((long) message.getSize() << 2, 0x100);
+			ByteBuffer out = BufferPool.HEAP.acquire((int) Math.min(Math.min(size, max + 1L), MAX_OUTPUT));
+			out.limit(out.capacity());
+			for(Frame frame = message; frame != null; frame = frame.getNext())
+			{
+				ByteBuffer payload = frame.payload();
+				if(payload != null && payload.hasRemaining())
+				{
+					INFLATER.setInput(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+					out = inflate(out, max);
+				}
+			}
+			INFLATER.setInput(TAIL);
+			out = inflate(out, max);
+			out.flip();
+
+			if(CLIENT_NO_CONTEXT_TAKEOVER || INFLATER.finished())
+			{
+				giveBack(INFLATER);
+				INFLATER = null;
+			}
+			Frame inflated = new Frame(message.getOpcode(), out);
+			inflated.POOLED = true;
+			return inflated;
+		}
+		catch (DataFormatException e)
+		{
+			throw new InvalidFrameException("Compressed message is not valid deflate data.", e);
+		}
+		finally
+		{
+			INFLATE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Inflates part of a compressed message for a streaming session, stopping
+	 * once the output is full.
+	 *
+	 * @param input - Compressed bytes. Its position moves past the bytes that were taken.
+	 * @param out - Output in write mode.
+	 * @throws InvalidFrameException Thrown if the message is not valid deflate data.
+	 * @see {@link WebSocketStreamListener}
+	 */
+	void inflate(ByteBuffer input, ByteBuffer out) throws InvalidFrameException
+	{
+		INFLATE_LOCK.lock();
+		try
+		{
+			if(RELEASED)
+				throw new InvalidFrameException("Compression context was released.");
+			if(INFLATER == null)
+				INFLATER = borrowInflater();
+
+			INFLATER.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+			drain(out);
+			input.position(input.limit() - INFLATER.getRemaining());
+		}
+		catch (DataFormatException e)
+		{
+			throw new InvalidFrameException("Compressed message is not valid deflate data.", e);
+		}
+		finally
+		{
+			INFLATE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Inflates the end of a compressed message for a streaming session.
+	 *
+	 * @param out - Output in write mode.
+	 * @return TRUE if the message is complete, FALSE if the output filled up
+	 * first and the rest must be taken by calling again.
+	 * @throws InvalidFrameException Thrown if the message is not valid deflate data.
+	 */
+	boolean finish(ByteBuffer out) throws InvalidFrameException
+	{
+		INFLATE_LOCK.lock();
+		try
+		{
+			if(RELEASED)
+				throw new InvalidFrameException("Compression context was released.");
+			if(INFLATER == null)
+				INFLATER = borrowInflater();
+
+			if(!TAIL_FED)
+			{
+				INFLATER.setInput(TAIL);
+				TAIL_FED = true;
+			}
+			drain(out);
+			if(out.hasRemaining() || INFLATER.finished())
+			{
+				TAIL_FED = false;
+				if(CLIENT_NO_CONTEXT_TAKEOVER || INFLATER.finished())
+				{
+					giveBack(INFLATER);
+					INFLATER = null;
+				}
+				return true;
+			}
+			else
+				return false;
+		}
+		catch (DataFormatException e)
+		{
+			throw new InvalidFrameException("Compressed message is not valid deflate data.", e);
+		}
+		finally
+		{
+			INFLATE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Inflates the input of {@link #INFLATER} until it needs more or the output is full.
+	 *
+	 * @param out - Output in write mode.
+	 * @throws DataFormatException Thrown if the input is not valid deflate data.
+	 */
+	private void drain(ByteBuffer out) throws DataFormatException
+	{
+		while(out.hasRemaining())
+		{
+			int length = INFLATER.inflate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+			if(INFLATER.needsDictionary())
+				throw new DataFormatException("Preset dictionary is not supported.");
+			if(length == 0)
+				return;
+			out.position(out.position() + length);
+		}
+	}
+
+	/**
+	 * Inflates the input of {@link #INFLATER} until it needs more, growing the
+	 * output as needed. The output never grows much beyond max, so a small
+	 * message inflating to gigabytes is refused once it passes the limit.
+	 *
+	 * @param out - Output in write mode holding the message inflated so far.
+	 * @param max - Largest decompressed message in bytes.
+	 * @return output in write mode, a larger buffer if out was full. The output
+	 * is released if inflating fails.
+	 * @throws DataFormatException Thrown if the input is not valid deflate data.
+	 * @throws InvalidFrameException Thrown with {@link CloseFrame#TOOBIG} if the message grows too large.
+	 */
+	private ByteBuffer inflate(ByteBuffer out, int max) throws DataFormatException, InvalidFrameException
+	{
+		try
+		{
+			do
+			{
+				if(!out.hasRemaining())
+				{
+					if(out.position() > max || out.capacity() >= MAX_OUTPUT)
+						throw new InvalidFrameException("Decompressed message is larger than " + max + " bytes.", CloseFrame.TOOBIG);
+					out = grow(out, (int) Math.min(Math.min((long) out.capacity() << 1, max + 1L), MAX_OUTPUT));
+				}
+				int length = INFLATER.inflate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+				out.position(out.position() + length);
+				if(INFLATER.needsDictionary())
+					throw new DataFormatException("Preset dictionary is not supported.");
+			}
+			while((!out.hasRemaining() || !INFLATER.needsInput()) && !INFLATER.finished());
+			if(out.position() > max)
+				throw new InvalidFrameException("Decompressed message is larger than " + max + " bytes.", CloseFrame.TOOBIG);
+		}
+		catch (DataFormatException | InvalidFrameException e)
+		{
+			BufferPool.HEAP.release(out);
+			throw e;
+		}
+
+		return out;
+	}
+
+	/**
+	 * Moves the bytes of a full output into a larger pooled buffer,
+	 * releasing the old one.
+	 *
+	 * @param out - Full output in write mode.
+	 * @param size - Size of the larger output.
+	 * @return larger output in write mode holding the same bytes.
+	 */
+	private static ByteBuffer grow(ByteBuffer out, int size)
+	{
+		out.flip();
+		ByteBuffer larger = BufferPool.HEAP.acquire(size);
+		larger.limit(larger.capacity());
+		larger.put(out);
+		BufferPool.HEAP.release(out);
+		return larger;
+	}
+
+	/**
+	 * Gives the pooled instances back for good. Called once the session closes.
+	 */
+	void release()
+	{
+		DEFLATE_LOCK.lock();
+		try
+		{
+			if(DEFLATER != null)
+				giveBack(DEFLATER);
+			DEFLATER = null;
+			RELEASED = true;
+		}
+		finally
+		{
+			DEFLATE_LOCK.unlock();
+		}
+
+		INFLATE_LOCK.lock();
+		try
+		{
+			if(INFLATER != null)
+				giveBack(INFLATER);
+			INFLATER = null;
+			RELEASED = true;
+		}
+		finally
+		{
+			INFLATE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @return an idle {@link Deflater}, or a new one if the pool is empty.
+	 */
+	private static Deflater borrowDeflater()
+	{
+		Deflater deflater = DEFLATERS.poll();
+		if(deflater == null)
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		IDLE_DEFLATERS.decrementAndGet();
+		return deflater;
+	}
+
+	/**
+	 * @return an idle {@link Inflater}, or a new one if the pool is empty.
+	 */
+	private static Inflater borrowInflater()
+	{
+		Inflater inflater = INFLATERS.poll();
+		if(inflater == null)
+			return new Inflater(true);
+		IDLE_INFLATERS.decrementAndGet();
+		return inflater;
+	}
+
+	/**
+	 * Resets a {@link Deflater} and pools it, or frees it if the pool is full.
+	 */
+	private static void giveBack(Deflater deflater)
+	{
+		if(IDLE_DEFLATERS.incrementAndGet() <= POOL_SIZE)
+		{
+			deflater.reset();
+			DEFLATERS.add(deflater);
+		}
+		else
+		{
+			IDLE_DEFLATERS.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Resets an {@link Inflater} and pools it, or frees it if the pool is full.
+	 */
+	private static void giveBack(Inflater inflater)
+	{
+		if(IDLE_INFLATERS.incrementAndGet() <= POOL_SIZE)
+		{
+			inflater.reset();
+			INFLATERS.add(inflater);
+		}
+		else
+		{
+			IDLE_INFLATERS.decrementAndGet();
+			inflater.end();
+		}
+	}
+}
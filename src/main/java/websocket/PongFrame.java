@@ -6,4 +6,12 @@ public class PongFrame extends ControlFrame
 	{
 		super(OpCode.PONG, ping.getData());
 	}
+	
+	/**
+	 * @param data - Application data of the ping being answered.
+	 */
+	PongFrame(byte[] data)
+	{
+		super(OpCode.PONG, data);
+	}
 }
@@ -0,0 +1,350 @@
+package websocket;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Table of the live {@link WebSocketSession}(s) of a server, keyed by their
+ * session id. Sessions are added once their handshake succeeded and removed
+ * when they close.
+ *
+ * <p>
+ * The table is split into segments, each an open addressing table of primitive
+ * long keys, so ids are never boxed. Adding and removing lock a single segment.
+ * Lookups and iteration never lock; iteration is weakly consistent and may or
+ * may not see sessions added or removed while it runs.
+ *
+ * @author Ryan Mayobre
+ * @see {@link WebSocketSession#getId()}
+ */
+public class SessionRegistry implements Iterable<WebSocketSession>
+{
+	/**
+	 * Number of segments, must be a power of two.
+	 */
+	private static final int SEGMENTS = 0x10;
+
+	/**
+	 * Initial number of slots of a segment, must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 0x10;
+
+	/**
+	 * Key of a slot that was never used. Session ids start at one.
+	 */
+	private static final long EMPTY = 0L;
+
+	/**
+	 * Key of a slot whose session was removed.
+	 */
+	private static final long REMOVED = -1L;
+
+	/**
+	 * Multiplier spreading sequential ids across the table (golden ratio).
+	 */
+	private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Slots of a segment. A table is replaced, never resized in place, so a
+	 * reader holding an old table still sees consistent slots.
+	 */
+	private static final class Table
+	{
+		/**
+		 * Session ids, {@link #EMPTY} or {@link #REMOVED}.
+		 */
+		final AtomicLongArray KEYS;
+
+		/**
+		 * Sessions of the ids inside of {@link #KEYS}.
+		 */
+		final AtomicReferenceArray<WebSocketSession> VALUES;
+
+		Table(int capacity)
+		{
+			KEYS = new AtomicLongArray(capacity);
+			VALUES = new AtomicReferenceArray<WebSocketSession>(capacity);
+		}
+
+		int capacity()
+		{
+			return KEYS.length();
+		}
+	}
+
+	/**
+	 * A lock-guarded part of the registry.
+	 */
+	private static final class Segment
+	{
+		/**
+		 * Guards changes to the segment.
+		 */
+		final ReentrantLock LOCK = new ReentrantLock();
+
+		/**
+		 * Current slots, replaced when the segment grows.
+		 */
+		volatile Table TABLE = new Table(INITIAL_CAPACITY);
+
+		/**
+		 * Number of live sessions.
+		 */
+		volatile int SIZE;
+
+		/**
+		 * Number of slots holding {@link #REMOVED}.
+		 */
+		int REMOVED_SLOTS;
+	}
+
+	/**
+	 * Segments of the registry.
+	 */
+	private final Segment[] SEGMENTS_TABLE;
+
+	public SessionRegistry()
+	{
+		SEGMENTS_TABLE = new Segment[SEGMENTS];
+		for(int i = 0; i < SEGMENTS; i++)
+			SEGMENTS_TABLE[i] = new Segment();
+	}
+
+	/**
+	 * @param id - Session id.
+	 * @return well spread hash of the id.
+	 */
+	private static long hash(long id)
+	{
+		return id * SPREAD;
+	}
+
+	/**
+	 * @param hash - {@link #hash(long)} of a session id.
+	 * @return segment of the id, chosen by the top bits of its hash.
+	 */
+	private Segment segment(long hash)
+	{
+		return SEGMENTS_TABLE[(int) (hash >>> 60) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Finds a session without locking.
+	 *
+	 * @param id - Session id.
+	 * @return {@link WebSocketSession}, or null if no live session has the id.
+	 */
+	public WebSocketSession get(long id)
+	{
+		long hash = hash(id);
+		Table table = segment(hash).TABLE;
+		int mask = table.capacity() - 1;
+
+		for(int i = (int) hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++)
+		{
+			long key = table.KEYS.get(i);
+			if(key == id)
+			{
+				/*
+				 * The slot may be freed and taken by another session
+				 * between reading its key and its value.
+				 */
+				WebSocketSession session = table.VALUES.get(i);
+				if(session != null && session.getId() == id)
+					return session;
+			}
+			else if(key == EMPTY)
+				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a session to the registry.
+	 *
+	 * @param session - {@link WebSocketSession} to be added.
+	 */
+	void add(WebSocketSession session)
+	{
+		long id = session.getId();
+		long hash = hash(id);
+		Segment segment = segment(hash);
+
+		segment.LOCK.lock();
+		try
+		{
+			if((segment.SIZE + segment.REMOVED_SLOTS + 1) * 4 > segment.TABLE.capacity() * 3)
+				rehash(segment);
+
+			Table table = segment.TABLE;
+			int mask = table.capacity() - 1;
+			int free = -1;
+			for(int i = (int) hash & mask; ; i = (i + 1) & mask)
+			{
+				long key = table.KEYS.get(i);
+				if(key == id)
+				{
+					table.VALUES.set(i, session);
+					return;
+				}
+				else if(key == REMOVED && free == -1)
+					free = i;
+				else if(key == EMPTY)
+				{
+					if(free == -1)
+						free = i;
+					break;
+				}
+			}
+
+			if(table.KEYS.get(free) == REMOVED)
+				--segment.REMOVED_SLOTS;
+			/*
+			 * Publish the session before its key, so a reader
+			 * that finds the key also finds the session.
+			 */
+			table.VALUES.set(free, session);
+			table.KEYS.set(free, id);
+			++segment.SIZE;
+		}
+		finally
+		{
+			segment.LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Removes a session from the registry.
+	 *
+	 * @param session - {@link WebSocketSession} to be removed.
+	 * @return TRUE if the session was inside of the registry, otherwise FALSE.
+	 */
+	boolean remove(WebSocketSession session)
+	{
+		long id = session.getId();
+		long hash = hash(id);
+		Segment segment = segment(hash);
+
+		segment.LOCK.lock();
+		try
+		{
+			Table table = segment.TABLE;
+			int mask = table.capacity() - 1;
+			for(int i = (int) hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++)
+			{
+				long key = table.KEYS.get(i);
+				if(key == id)
+				{
+					table.KEYS.set(i, REMOVED);
+					table.VALUES.set(i, null);
+					--segment.SIZE;
+					++segment.REMOVED_SLOTS;
+					return true;
+				}
+				else if(key == EMPTY)
+					return false;
+			}
+			return false;
+		}
+		finally
+		{
+			segment.LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Moves a segment's sessions into a new table, dropping removed slots and
+	 * doubling the capacity if the segment is more than half full.
+	 * Called while holding the segment's lock.
+	 *
+	 * @param segment - {@link Segment} to be rehashed.
+	 */
+	private static void rehash(Segment segment)
+	{
+		Table old = segment.TABLE;
+		int capacity = old.capacity();
+		if((segment.SIZE + 1) * 2 > capacity)
+			capacity <<= 1;
+
+		Table table = new Table(capacity);
+		int mask = capacity - 1;
+		for(int j = 0; j < old.capacity(); j++)
+		{
+			long key = old.KEYS.get(j);
+			WebSocketSession session = old.VALUES.get(j);
+			if(key != EMPTY && key != REMOVED && session != null)
+			{
+				int i = (int) hash(key) & mask;
+				while(table.KEYS.get(i) != EMPTY)
+					i = (i + 1) & mask;
+				table.VALUES.set(i, session);
+				table.KEYS.set(i, key);
+			}
+		}
+
+		segment.REMOVED_SLOTS = 0;
+		segment.TABLE = table;
+	}
+
+	/**
+	 * @return number of live sessions.
+	 */
+	public int size()
+	{
+		int size = 0;
+		for(Segment segment : SEGMENTS_TABLE)
+			size += segment.SIZE;
+		return size;
+	}
+
+	/**
+	 * Iterates over the live sessions without locking.
+	 */
+	@Override
+	public Iterator<WebSocketSession> iterator()
+	{
+		return new Iterator<WebSocketSession>()
+		{
+			private int segment = 0;
+			private Table table = SEGMENTS_TABLE[0].TABLE;
+			private int slot = 0;
+			private WebSocketSession next = advance();
+
+			private WebSocketSession advance()
+			{
+				while(true)
+				{
+					while(slot < table.capacity())
+					{
+						WebSocketSession session = table.VALUES.get(slot++);
+						if(session != null)
+							return session;
+					}
+					if(++segment == SEGMENTS)
+						return null;
+					table = SEGMENTS_TABLE[segment].TABLE;
+					slot = 0;
+				}
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				return next != null;
+			}
+
+			@Override
+			public WebSocketSession next()
+			{
+				if(next == null)
+					throw new NoSuchElementException();
+				WebSocketSession session = next;
+				next = advance();
+				return session;
+			}
+		};
+	}
+}
@@ -0,0 +1,183 @@
+package websocket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadlines shared by the sessions of a server, all driven by one {@link WheelTimer}.
+ *
+ * <ul>
+ * <li>Ping interval - a session that heard nothing from client for this long is sent a ping.</li>
+ * <li>Pong timeout - a session whose ping is not answered within this time is dropped as dead.</li>
+ * <li>Idle timeout - a session that received no message for this long is closed with {@link CloseFrame#GOING_AWAY}.</li>
+ * <li>Handshake timeout - a connection whose upgrade request did not arrive within this time is dropped,
+ * as is a kept-alive HTTP connection waiting this long for its next request.</li>
+ * </ul>
+ *
+ * <p>
+ * Times are in milliseconds, zero turns a deadline off. Changes apply to open
+ * sessions the next time their deadline comes around. Each session holds a
+ * single timeout that is scheduled again when it expires, rather than one per
+ * received frame, so reads never touch the timer.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.5.2">RFC 6455, Section 5.5.2 (Ping)</a>
+ */
+public class SessionTimeouts
+{
+	/**
+	 * Default ping interval, in milliseconds.
+	 */
+	public static final long DEFAULT_PING_INTERVAL = 30000L;
+
+	/**
+	 * Default pong timeout, in milliseconds.
+	 */
+	public static final long DEFAULT_PONG_TIMEOUT = 10000L;
+
+	/**
+	 * Default idle timeout, in milliseconds. Idle sessions are kept by default.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 0L;
+
+	/**
+	 * Default handshake timeout, in milliseconds.
+	 */
+	public static final long DEFAULT_HANDSHAKE_TIMEOUT = 10000L;
+
+	/**
+	 * Timer running the deadlines.
+	 */
+	private final WheelTimer TIMER;
+
+	private volatile long PING_INTERVAL;
+
+	private volatile long PONG_TIMEOUT;
+
+	private volatile long IDLE_TIMEOUT;
+
+	private volatile long HANDSHAKE_TIMEOUT;
+
+	/**
+	 * Creates the default timeouts on a timer of their own.
+	 */
+	public SessionTimeouts()
+	{
+		this(new WheelTimer());
+	}
+
+	/**
+	 * @param timer - {@link WheelTimer} running the deadlines.
+	 */
+	public SessionTimeouts(WheelTimer timer)
+	{
+		this.TIMER = timer;
+		this.PING_INTERVAL = DEFAULT_PING_INTERVAL;
+		this.PONG_TIMEOUT = DEFAULT_PONG_TIMEOUT;
+		this.IDLE_TIMEOUT = DEFAULT_IDLE_TIMEOUT;
+		this.HANDSHAKE_TIMEOUT = DEFAULT_HANDSHAKE_TIMEOUT;
+	}
+
+	/**
+	 * @return {@link #TIMER}
+	 */
+	public WheelTimer getTimer()
+	{
+		return TIMER;
+	}
+
+	/**
+	 * Schedules a task once the handshake timeout passed.
+	 *
+	 * @param task - Task dropping the connection, run on the timer's thread.
+	 * @return {@link WheelTimer.Timeout} to be cancelled once the handshake is done, or null if the timeout is off.
+	 */
+	public WheelTimer.Timeout handshake(Runnable task)
+	{
+		long timeout = HANDSHAKE_TIMEOUT;
+		return timeout > 0 ? TIMER.schedule(task, timeout, TimeUnit.MILLISECONDS) : null;
+	}
+
+	/**
+	 * @return {@link #PING_INTERVAL}
+	 */
+	public long getPingInterval()
+	{
+		return PING_INTERVAL;
+	}
+
+	/**
+	 * @param millis - Time without hearing from client before it is sent a ping, zero for never.
+	 */
+	public void setPingInterval(long millis)
+	{
+		this.PING_INTERVAL = check(millis);
+	}
+
+	/**
+	 * @return {@link #PONG_TIMEOUT}
+	 */
+	public long getPongTimeout()
+	{
+		return PONG_TIMEOUT;
+	}
+
+	/**
+	 * @param millis - Time client has to answer a ping, zero to wait forever.
+	 */
+	public void setPongTimeout(long millis)
+	{
+		this.PONG_TIMEOUT = check(millis);
+	}
+
+	/**
+	 * @return {@link #IDLE_TIMEOUT}
+	 */
+	public long getIdleTimeout()
+	{
+		return IDLE_TIMEOUT;
+	}
+
+	/**
+	 * @param millis - Time without a message before the session is closed, zero to keep idle sessions.
+	 */
+	public void setIdleTimeout(long millis)
+	{
+		this.IDLE_TIMEOUT = check(millis);
+	}
+
+	/**
+	 * @return {@link #HANDSHAKE_TIMEOUT}
+	 */
+	public long getHandshakeTimeout()
+	{
+		return HANDSHAKE_TIMEOUT;
+	}
+
+	/**
+	 * @param millis - Time client has to send its upgrade request or its next HTTP request, zero to wait forever.
+	 */
+	public void setHandshakeTimeout(long millis)
+	{
+		this.HANDSHAKE_TIMEOUT = check(millis);
+	}
+
+	/**
+	 * Stops the timer. Pending deadlines never expire.
+	 */
+	public void shutdown()
+	{
+		TIMER.stop();
+	}
+
+	/**
+	 * @param millis - Time to be checked.
+	 * @return millis
+	 * @throws IllegalArgumentException Thrown if millis is negative.
+	 */
+	private static long check(long millis)
+	{
+		if(millis < 0)
+			throw new IllegalArgumentException("Timeout cannot be negative.");
+		return millis;
+	}
+}
@@ -0,0 +1,409 @@
+package websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Outbound} writing to a blocking {@link Socket}. While nothing is queued,
+ * the sending thread writes straight to the socket without copying the data, and
+ * waits until the socket took it, as with any blocking socket. Data sent while a
+ * write is in progress, and data that must not wait, is queued and written by one
+ * of a few shared writer threads. A writer only runs while the queue holds data.
+ * Sockets accepted through a channel get a real gathering write; plain sockets
+ * fall back to their stream.
+ *
+ * @author Ryan Mayobre
+ */
+class SocketOutbound implements Outbound
+{
+	/**
+	 * Number of writer threads started, used to name them.
+	 */
+	private static final AtomicInteger WRITER_THREADS = new AtomicInteger();
+
+	/**
+	 * Most writer threads running at once. A writer stuck on a client that stopped
+	 * reading is freed once the session times out and its socket is closed.
+	 */
+	private static final int MAX_WRITERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	/**
+	 * Writers draining the queues of blocking sockets, taking queues in turn once
+	 * all of them are busy. Threads are only kept while clients are being written
+	 * to, and never keep the server alive.
+	 */
+	private static final ThreadPoolExecutor WRITERS = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable writer)
+		{
+			Thread thread = new Thread(writer, "websocket-writer-" + WRITER_THREADS.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static
+	{
+		WRITERS.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Socket to client, closed once the queue was drained after {@link #close()}.
+	 */
+	private final Socket CLIENT;
+
+	/**
+	 * Channel of the socket, null if the socket was not opened through a channel.
+	 */
+	private final SocketChannel CHANNEL;
+
+	/**
+	 * Stream of the socket.
+	 */
+	private final OutputStream OUT;
+
+	/**
+	 * Data waiting to be written by a writer.
+	 */
+	private final OutboundQueue QUEUE;
+
+	/**
+	 * Guards {@link #QUEUE}, {@link #DRAINING} and {@link #CLOSING}.
+	 */
+	private final ReentrantLock LOCK;
+
+	/**
+	 * Task draining {@link #QUEUE}.
+	 */
+	private final Runnable DRAIN;
+
+	/**
+	 * Determines if a sender or a writer is writing to the socket. Nothing is
+	 * queued while it is not set.
+	 */
+	private boolean DRAINING;
+
+	/**
+	 * Determines if the socket closes once {@link #QUEUE} is drained.
+	 */
+	private boolean CLOSING;
+
+	/**
+	 * @param client - Blocking socket to client.
+	 * @throws IOException Thrown if the socket's stream could not be opened.
+	 */
+	SocketOutbound(Socket client) throws IOException
+	{
+		this.CLIENT = client;
+		this.CHANNEL = client.getChannel();
+		this.OUT = client.getOutputStream();
+		/*
+		 * A channel writes direct buffers without copying them,
+		 * a stream needs their array.
+		 */
+		this.QUEUE = new OutboundQueue(CHANNEL != null ? BufferPool.DIRECT : BufferPool.HEAP);
+		this.LOCK = new ReentrantLock();
+		this.DRAIN = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				drain();
+			}
+		};
+		this.DRAINING = false;
+		this.CLOSING = false;
+	}
+
+	@Override
+	public void write(ByteBuffer... data) throws IOException
+	{
+		boolean direct;
+		boolean unwritable = false;
+		LOCK.lock();
+		try
+		{
+			if(CLOSING)
+				throw new IOException("Connection is closed.");
+
+			direct = !DRAINING;
+			if(direct)
+				DRAINING = true;
+			else
+				unwritable = QUEUE.add(data);
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		if(direct)
+		{
+			try
+			{
+				write(data, data.length);
+			}
+			catch (IOException e)
+			{
+				broken();
+				throw e;
+			}
+			written();
+		}
+		if(unwritable)
+			QUEUE.changed();
+	}
+
+	@Override
+	public void enqueue(ByteBuffer... data) throws IOException
+	{
+		boolean start;
+		boolean unwritable;
+		LOCK.lock();
+		try
+		{
+			if(CLOSING)
+				throw new IOException("Connection is closed.");
+
+			unwritable = QUEUE.add(data);
+			start = !DRAINING && !QUEUE.isEmpty();
+			if(start)
+				DRAINING = true;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		if(start)
+			WRITERS.execute(DRAIN);
+		if(unwritable)
+			QUEUE.changed();
+	}
+
+	/**
+	 * Called once a sender wrote straight to the socket. Hands whatever was
+	 * queued meanwhile to a writer, otherwise lets the next sender write.
+	 */
+	private void written()
+	{
+		boolean start;
+		LOCK.lock();
+		try
+		{
+			start = !QUEUE.isEmpty();
+			if(!start)
+			{
+				DRAINING = false;
+				if(CLOSING)
+					close(CLIENT);
+			}
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		if(start)
+			WRITERS.execute(DRAIN);
+	}
+
+	/**
+	 * Writes queued data until the queue is empty. Runs on a writer; the lock is
+	 * only held to look at the queue, so senders are never held up by the write.
+	 */
+	private void drain()
+	{
+		ByteBuffer[] batch = new ByteBuffer[OutboundQueue.GATHER];
+		try
+		{
+			while(true)
+			{
+				int count;
+				LOCK.lock();
+				try
+				{
+					count = QUEUE.peek(batch);
+					if(count == 0)
+					{
+						DRAINING = false;
+						if(CLOSING)
+							close(CLIENT);
+						return;
+					}
+				}
+				finally
+				{
+					LOCK.unlock();
+				}
+
+				write(batch, count);
+
+				boolean writable = false;
+				LOCK.lock();
+				try
+				{
+					for(int i = 0; i < count; i++)
+						writable |= QUEUE.remove();
+				}
+				finally
+				{
+					LOCK.unlock();
+				}
+				Arrays.fill(batch, 0, count, null);
+				if(writable)
+					QUEUE.changed();
+			}
+		}
+		catch (IOException e)
+		{
+			broken();
+		}
+	}
+
+	/**
+	 * Drops the queue and closes the socket once a write failed. The client is
+	 * gone, which the session's reader finds out once the socket is closed.
+	 */
+	private void broken()
+	{
+		LOCK.lock();
+		try
+		{
+			QUEUE.clear();
+			DRAINING = false;
+			CLOSING = true;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+		close(CLIENT);
+	}
+
+	/**
+	 * Closes a socket, ignoring that it may already be broken.
+	 *
+	 * @param client - Socket to be closed.
+	 */
+	private static void close(Socket client)
+	{
+		try
+		{
+			client.close();
+		}
+		catch (IOException e)
+		{
+			// Socket is gone either way.
+		}
+	}
+
+	/**
+	 * Writes a batch of buffers, blocking until all of them were taken.
+	 *
+	 * @param batch - Buffers to be written, consumed by the write.
+	 * @param count - Number of buffers inside of batch.
+	 * @throws IOException Thrown if the socket is broken.
+	 */
+	private void write(ByteBuffer[] batch, int count) throws IOException
+	{
+		if(CHANNEL != null)
+		{
+			/*
+			 * A blocking channel writes everything in one call,
+			 * looping only guards against short writes.
+			 */
+			ByteBuffer last = batch[count - 1];
+			do
+				CHANNEL.write(batch, 0, count);
+			while(last.hasRemaining());
+		}
+		else
+		{
+			for(int i = 0; i < count; i++)
+			{
+				ByteBuffer buffer = batch[i];
+				if(buffer.hasArray())
+				{
+					OUT.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+					buffer.position(buffer.limit());
+				}
+				else
+				{
+					/*
+					 * A direct buffer written straight from a sender,
+					 * such as a broadcast, has no array to hand the stream.
+					 */
+					byte[] chunk = new byte[Math.min(buffer.remaining(), 0x2000)];
+					while(buffer.hasRemaining())
+					{
+						int length = Math.min(buffer.remaining(), chunk.length);
+						buffer.get(chunk, 0, length);
+						OUT.write(chunk, 0, length);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public OutboundQueue queue()
+	{
+		return QUEUE;
+	}
+
+	/**
+	 * Closes the socket once all queued data was written.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		boolean close;
+		LOCK.lock();
+		try
+		{
+			CLOSING = true;
+			close = !DRAINING;
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+
+		if(close)
+			CLIENT.close();
+	}
+
+	/**
+	 * Closes the socket right away. A writer that is draining the queue fails
+	 * its write and drops the queue itself, since it may still be using it.
+	 */
+	@Override
+	public void abort()
+	{
+		LOCK.lock();
+		try
+		{
+			CLOSING = true;
+			if(!DRAINING)
+				QUEUE.clear();
+		}
+		finally
+		{
+			LOCK.unlock();
+		}
+		close(CLIENT);
+	}
+}
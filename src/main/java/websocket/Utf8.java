@@ -0,0 +1,140 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental UTF-8 validator. Text is checked while it arrives, so a message
+ * split across fragments, or a character split across reads, is validated
+ * without gathering it first, and invalid text is rejected as soon as the
+ * first bad byte arrives.
+ *
+ * <p>
+ * Runs of ASCII are skipped eight bytes at a time.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="https://tools.ietf.org/html/rfc3629#section-4">RFC 3629, Section 4 (Syntax of UTF-8 Byte Sequences)</a>
+ */
+final class Utf8
+{
+	/**
+	 * High bit of every byte inside of a long.
+	 */
+	private static final long NON_ASCII = 0x8080808080808080L;
+
+	/**
+	 * Number of continuation bytes the current character still needs.
+	 */
+	private int NEEDED;
+
+	/**
+	 * Smallest valid value of the next continuation byte.
+	 */
+	private int LOWER;
+
+	/**
+	 * Largest valid value of the next continuation byte.
+	 */
+	private int UPPER;
+
+	/**
+	 * Determines if only ASCII was seen since the last reset.
+	 */
+	private boolean ASCII;
+
+	Utf8()
+	{
+		reset();
+	}
+
+	/**
+	 * Starts validating a new text.
+	 */
+	void reset()
+	{
+		NEEDED = 0;
+		LOWER = 0x80;
+		UPPER = 0xBF;
+		ASCII = true;
+	}
+
+	/**
+	 * Validates the next bytes of the text. The buffer's position and limit are not changed.
+	 *
+	 * @param data - Buffer holding the bytes.
+	 * @param from - Absolute index of the first byte.
+	 * @param to - Absolute index after the last byte.
+	 * @return FALSE if the text is not valid UTF-8, otherwise TRUE.
+	 */
+	boolean validate(ByteBuffer data, int from, int to)
+	{
+		int i = from;
+		while(i < to)
+		{
+			if(NEEDED == 0)
+			{
+				while(i + 8 <= to && (data.getLong(i) & NON_ASCII) == 0)
+					i += 8;
+				if(i == to)
+					break;
+
+				int b = data.get(i++) & 0xFF;
+				if(b < 0x80)
+					continue;
+
+				ASCII = false;
+				if(b >= 0xC2 && b <= 0xDF)
+					NEEDED = 1;
+				else if(b >= 0xE0 && b <= 0xEF)
+				{
+					/*
+					 * No overlong forms and no surrogates.
+					 */
+					if(b == 0xE0)
+						LOWER = 0xA0;
+					else if(b == 0xED)
+						UPPER = 0x9F;
+					NEEDED = 2;
+				}
+				else if(b >= 0xF0 && b <= 0xF4)
+				{
+					/*
+					 * No overlong forms and nothing past U+10FFFF.
+					 */
+					if(b == 0xF0)
+						LOWER = 0x90;
+					else if(b == 0xF4)
+						UPPER = 0x8F;
+					NEEDED = 3;
+				}
+				else
+					return false;
+			}
+			else
+			{
+				int b = data.get(i++) & 0xFF;
+				if(b < LOWER || b > UPPER)
+					return false;
+				LOWER = 0x80;
+				UPPER = 0xBF;
+				--NEEDED;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return TRUE if the text does not end inside of a character.
+	 */
+	boolean isComplete()
+	{
+		return NEEDED == 0;
+	}
+
+	/**
+	 * @return TRUE if only ASCII was seen since the last reset.
+	 */
+	boolean isAscii()
+	{
+		return ASCII;
+	}
+}
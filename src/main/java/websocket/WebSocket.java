@@ -3,11 +3,11 @@ package websocket;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class creates the WebSocket protocols presented
@@ -37,53 +37,21 @@ public class WebSocket implements Closeable
     final int MASK_HIGH_WORD_LOW_BYTE = 0x00ff0000;
 
     /**
-     * Binary mask to remove all but the bits of octet 1.
-     * @see {@link FrameData}
-     */
-    final int MASK_LOW_WORD_HIGH_BYTE = 0x0000ff00;
-
-    /**
-     * Binary mask to remove all but the lowest 8 bits (octet 0).
-     * @see {@link FrameData}
-     */
-    final int MASK_LOW_WORD_LOW_BYTE = 0x000000ff;
-
-    /**
-     * Number of bits required to shift octet 1 into the lowest 8 bits.
-     * @see {@link FrameData}
-     */
-    final int OCTET_ONE = 8;
-    
-    /**
-     * Payload length indicating that the payload's true length is a
-     * yet-to-be-provided unsigned 16-bit integer.
-     * @see {@link FrameData}
-     */
-    private final int PAYLOAD_LENGTH_16 = 0x7E;
-    
-    /**
-     * Payload length indicating that the payload's true length is a
-     * yet-to-be-provided unsigned 64-bit integer (MSB = 0).
-     * @see {@link FrameData}
-     */
-    private final int PAYLOAD_LENGTH_64 = 0x7F;
-    
-    /**
-     * Binary number for the two byte frame.
-     * @see {@link FrameData}
+     * Size of the buffer used to read from the client's stream.
      */
-    private final int TWO_BYTE_FRAME = 0x2;
-    
-    /**
-     * Binary number for the eight byte frame.
-     * @see {@link FrameData}
-     */
-    private final int EIGHT_BYTE_FRAME = 0x8;
+    private final int READ_BUFFER_SIZE = 0x2000;
     
 	/**
-	 * Required to create a magic string and shake hands with client.
+	 * Default largest payload of a frame sent to client. Larger messages
+	 * are split into continuation frames.
+	 */
+	static final int DEFAULT_FRAGMENT_SIZE = 0x10000;
+	
+	/**
+	 * Default largest message gathered from client. Larger messages
+	 * are refused with {@link CloseFrame#TOOBIG}.
 	 */
-	private final String MAGIC_KEY = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	static final int DEFAULT_MAX_MESSAGE_SIZE = 0x1000000;
 	
 	/**
 	 * Socket connection from client.
@@ -96,19 +64,82 @@ public class WebSocket implements Closeable
 	private final InputStream IN;
 	
 	/**
-	 * Outputstream sent by server.
+	 * Destination of data sent by server.
+	 */
+	private final Outbound OUT;
+	
+	/**
+	 * Reusable buffer the header of an outgoing frame is encoded into.
+	 */
+	private final ByteBuffer HEADER;
+	
+	/**
+	 * Reusable pair of header and payload handed to {@link #OUT}.
+	 */
+	private final ByteBuffer[] FRAME;
+	
+	/**
+	 * Guards {@link #HEADER} and {@link #FRAME}, and keeps frames sent
+	 * from several threads from interleaving.
+	 */
+	private final ReentrantLock SEND_LOCK;
+	
+	/**
+	 * Held while a data message, or a fragment of a streamed message, is sent,
+	 * so the fragments of two messages never interleave. Control frames only
+	 * take {@link #SEND_LOCK}, so they may be sent between the fragments of a message.
+	 */
+	private final ReentrantLock MESSAGE_LOCK;
+	
+	/**
+	 * Signalled once {@link #STREAM} closed, so the next stream may open.
+	 */
+	private final Condition STREAM_CLOSED;
+	
+	/**
+	 * Message being streamed by {@link #openMessage(OpCode)}, null if none is open.
+	 * Guarded by {@link #MESSAGE_LOCK}.
+	 */
+	private MessageOutputStream STREAM;
+	
+	/**
+	 * Data messages sent while {@link #STREAM} was open, either a {@link DataFrame}
+	 * or an encoded frame. Sent in order once the stream closes. Guarded by {@link #MESSAGE_LOCK}.
+	 */
+	private final ArrayDeque<Object> DEFERRED;
+	
+	/**
+	 * Largest payload of a frame sent to client.
+	 */
+	private volatile int FRAGMENT_SIZE;
+	
+	/**
+	 * Buffer of bytes read from {@link #IN} that have not been decoded yet.
+	 * Null when the WebSocket is driven by an {@link EventLoop}.
 	 */
-	private final OutputStream OUT;
+	private final ByteBuffer INBOUND;
 	
 	/**
-	 * Determines if handshake was performed with client.
+	 * Decoder of frames sent by client.
 	 */
-	private boolean HANDSHAKE;
+	private final FrameDecoder DECODER;
 	
 	/**
-	 * Determines if WebSocket is closed.
+	 * Compression negotiated during the handshake, null if messages are sent uncompressed.
 	 */
-	private boolean CLOSED;
+	private PerMessageDeflate DEFLATE;
+	
+	/**
+	 * Determines if handshake was performed with client. Written by the thread
+	 * serving the session, and read by any thread sending to it.
+	 */
+	private volatile boolean HANDSHAKE;
+	
+	/**
+	 * Determines if WebSocket is closed. Written by the thread serving the
+	 * session or closing it, and read by any thread sending to it.
+	 */
+	private volatile boolean CLOSED;
 	
 	/**
 	 * Default constructor.
@@ -116,10 +147,61 @@ public class WebSocket implements Closeable
 	 * @throws IOException
 	 */
 	WebSocket(final Socket client) throws IOException
+	{
+		this(client, (ByteBuffer) null);
+	}
+	
+	/**
+	 * Constructor for a blocking WebSocket whose client may have sent frames
+	 * right behind its upgrade request.
+	 * 
+	 * @param client
+	 * @param received - Bytes read from client after its request, decoded before the stream. May be null.
+	 * @throws IOException
+	 */
+	WebSocket(final Socket client, final ByteBuffer received) throws IOException
 	{
 		this.CLIENT = client;
 		this.IN = CLIENT.getInputStream();
-		this.OUT = CLIENT.getOutputStream();
+		this.OUT = new SocketOutbound(client);
+		this.HEADER = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+		this.FRAME = new ByteBuffer[2];
+		this.SEND_LOCK = new ReentrantLock();
+		this.MESSAGE_LOCK = new ReentrantLock();
+		this.STREAM_CLOSED = MESSAGE_LOCK.newCondition();
+		this.DEFERRED = new ArrayDeque<Object>();
+		this.FRAGMENT_SIZE = DEFAULT_FRAGMENT_SIZE;
+		this.INBOUND = ByteBuffer.allocate(Math.max(READ_BUFFER_SIZE, received != null ? received.remaining() : 0));
+		if(received != null)
+			this.INBOUND.put(received);
+		this.INBOUND.flip();
+		this.DECODER = new FrameDecoder();
+		this.HANDSHAKE = false;
+		this.CLOSED = false;
+	}
+	
+	/**
+	 * Constructor for a WebSocket driven by an {@link EventLoop}. Incoming
+	 * bytes are handed to {@link #decode(ByteBuffer)} by the event loop instead
+	 * of being read from the socket.
+	 * 
+	 * @param client - Socket of the client's channel.
+	 * @param out - {@link Outbound} queueing data on the client's channel.
+	 */
+	WebSocket(final Socket client, final Outbound out)
+	{
+		this.CLIENT = client;
+		this.IN = null;
+		this.OUT = out;
+		this.HEADER = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+		this.FRAME = new ByteBuffer[2];
+		this.SEND_LOCK = new ReentrantLock();
+		this.MESSAGE_LOCK = new ReentrantLock();
+		this.STREAM_CLOSED = MESSAGE_LOCK.newCondition();
+		this.DEFERRED = new ArrayDeque<Object>();
+		this.FRAGMENT_SIZE = DEFAULT_FRAGMENT_SIZE;
+		this.INBOUND = null;
+		this.DECODER = new FrameDecoder();
 		this.HANDSHAKE = false;
 		this.CLOSED = false;
 	}
@@ -128,7 +210,7 @@ public class WebSocket implements Closeable
 	 * 
 	 * @param frame - You CANNOT send a {@link Frame} class in this method.
 	 * Valid classes to place in parameters: {@link TextFrame}, 
-	 * {@link BinaryFrame}, {@link CloseFrame}, {@link PongFrame}.
+	 * {@link BinaryFrame}, {@link CloseFrame}, {@link PingFrame}, {@link PongFrame}.
 	 * 
 	 * @throws InvalidFrameException
 	 * @throws WebSocketException 
@@ -166,116 +248,311 @@ public class WebSocket implements Closeable
 	}
 	
 	/**
-	 * Sends a {@link DataFrame} to client.
+	 * Sends a {@link DataFrame} to client, split into fragments of at most
+	 * {@link #FRAGMENT_SIZE} bytes. A message sent while a streamed message
+	 * is open is queued and sent once the stream closes.
 	 * 
 	 * @param frame - data frame to be sent to client.
-	 * @throws IOException Thrown by {@link OutputStream}
+	 * @throws IOException Thrown by {@link Outbound}
 	 */
 	private void sendData(DataFrame frame) throws IOException
 	{
-		OUT.write(129);
-		
-		if(frame.getData().length <= 125)
+		MESSAGE_LOCK.lock();
+		try
 		{
-			OUT.write(frame.getData().length);
-			OUT.write(frame.getData());
+			if(STREAM != null)
+				DEFERRED.add(frame);
+			else
+				writeData(frame);
 		}
-		else if(frame.getData().length < Math.pow(2.0D, 16.0D))
+		finally
 		{
-			OUT.write(TWO_BYTE_FRAME);
-			byte[] lenBytes = this.toByteArray(Short.valueOf((short) frame.getData().length));
-			OUT.write(lenBytes);
-			OUT.write(frame.getData());
+			MESSAGE_LOCK.unlock();
 		}
-		else
+	}
+	
+	/**
+	 * Writes a whole data message. Called while holding {@link #MESSAGE_LOCK}.
+	 * 
+	 * @param frame - data frame to be sent to client.
+	 * @throws IOException Thrown by {@link Outbound}
+	 */
+	private void writeData(DataFrame frame) throws IOException
+	{
+		byte[] data = frame.getData();
+		/*
+		 * Messages are compressed in the order they are
+		 * sent, since client inflates them in that order.
+		 */
+		ByteBuffer payload = null;
+		if(DEFLATE != null && data.length >= PerMessageDeflate.MIN_SIZE)
+			payload = DEFLATE.deflate(data);
+		boolean compressed = payload != null;
+		boolean pooled = compressed;
+		if(!compressed)
+			payload = ByteBuffer.wrap(data);
+		
+		try
 		{
-			OUT.write(EIGHT_BYTE_FRAME);
-			byte[] lenBytes = this.toByteArray(Long.valueOf(frame.getData().length));
-			OUT.write(lenBytes);
-			OUT.write(frame.getData());
+			int limit = payload.limit();
+			int size = FRAGMENT_SIZE;
+			OpCode opcode = frame.getOpcode();
+			do
+			{
+				payload.limit(limit - payload.position() > size ? payload.position() + size : limit);
+				sendFrame(opcode, payload, payload.limit() == limit, compressed);
+				payload.limit(limit);
+				opcode = OpCode.CONTINUATION;
+				compressed = false;
+			}
+			while(payload.hasRemaining());
+		}
+		finally
+		{
+			if(pooled)
+				BufferPool.HEAP.release(payload);
 		}
 	}
 	
 	/**
-	 * Takes in a number (Long or short) and creates a byte array.
+	 * Starts a data message that is sent while it is written. Waits for
+	 * a message that is still being streamed to close.
 	 * 
-	 * @param data - {@link Number}
-	 * @return byte array.
+	 * @param opcode - {@link OpCode#TEXT} or {@link OpCode#BINARY}.
+	 * @return {@link MessageOutputStream} the message is written into.
+	 * @throws WebSocketException Thrown if the WebSocket is closed.
+	 * @see {@link MessageOutputStream}
 	 */
-	private byte[] toByteArray(Number data)
+	MessageOutputStream openMessage(OpCode opcode) throws WebSocketException
 	{
-		Class<? extends Number> dataType = data.getClass();
+		if(this.CLOSED)
+			throw new WebSocketException("Client side socket is closed.");
+		else if(!this.HANDSHAKE)
+			throw new WebSocketException("Handshake was never established.");
 		
-		long value;
-		int length;
-		if(Byte.class == dataType)
+		MESSAGE_LOCK.lock();
+		try
 		{
-			length = 1;
-			value = ((Byte)data).byteValue();
+			while(STREAM != null)
+				STREAM_CLOSED.awaitUninterruptibly();
+			STREAM = new MessageOutputStream(this, opcode, FRAGMENT_SIZE, DEFLATE != null);
+			return STREAM;
 		}
-		else
+		finally
 		{
-			if(Short.class == dataType)
-			{
-				length = 2;
-				value = ((Short)data).shortValue();
-			}
-			else
+			MESSAGE_LOCK.unlock();
+		}
+	}
+	
+	/**
+	 * Sends a fragment of a message opened by {@link #openMessage(OpCode)}.
+	 * 
+	 * @param opcode - {@link OpCode} of the message for its first fragment, otherwise {@link OpCode#CONTINUATION}.
+	 * @param data - Array holding the fragment.
+	 * @param offset - Index of the fragment inside of data.
+	 * @param length - Length of the fragment.
+	 * @param fin - TRUE if the fragment ends the message.
+	 * @param compress - TRUE if the message is compressed by {@link #DEFLATE}.
+	 * @throws IOException Thrown if the WebSocket is closed, or by {@link Outbound}.
+	 */
+	void sendFragment(OpCode opcode, byte[] data, int offset, int length, boolean fin, boolean compress) throws IOException
+	{
+		if(this.CLOSED)
+			throw new IOException("Client side socket is closed.");
+		
+		MESSAGE_LOCK.lock();
+		try
+		{
+			if(compress)
 			{
-				if(Integer.class == dataType)
+				ByteBuffer payload = DEFLATE.deflate(data, offset, length, fin);
+				try
 				{
-					length = 4;
-					value = ((Integer)data).intValue();
+					sendFrame(opcode, payload, fin, opcode != OpCode.CONTINUATION);
 				}
-				else
+				finally
 				{
-					if(Long.class == dataType)
-					{
-						length = 8;
-						value = ((Long)data).longValue();
-					}
-					else
-						throw new IllegalArgumentException("Parameter must be one of the following types:\n Byte, Short, Integer, Long");
+					BufferPool.HEAP.release(payload);
 				}
 			}
+			else
+				sendFrame(opcode, ByteBuffer.wrap(data, offset, length), fin, false);
 		}
+		finally
+		{
+			MESSAGE_LOCK.unlock();
+		}
+	}
+	
+	/**
+	 * Ends a message opened by {@link #openMessage(OpCode)}, sending the data
+	 * messages that were queued behind it and letting the next stream open.
+	 */
+	void closeMessage()
+	{
+		MESSAGE_LOCK.lock();
+		try
+		{
+			STREAM = null;
+			Object message;
+			while((message = DEFERRED.poll()) != null)
+			{
+				if(message instanceof DataFrame)
+					writeData((DataFrame) message);
+				else
+					writeEncoded((ByteBuffer) message);
+			}
+		}
+		catch (IOException e)
+		{
+			/*
+			 * Client is gone, which its reader finds out
+			 * once the connection is closed.
+			 */
+			DEFERRED.clear();
+		}
+		finally
+		{
+			STREAM_CLOSED.signalAll();
+			MESSAGE_LOCK.unlock();
+		}
+	}
+	
+	/**
+	 * Encodes the frame's header into {@link #HEADER} and writes it together with
+	 * the payload, so the whole frame leaves in a single write.
+	 * 
+	 * @param opcode - {@link OpCode} of the frame.
+	 * @param payload - Payload of the frame, consumed by the write.
+	 * @param fin - TRUE if the frame is the final fragment of its message.
+	 * @param compressed - TRUE if the payload was compressed by {@link #DEFLATE}.
+	 * @throws IOException Thrown by {@link Outbound}
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.2">RFC 6455, Section 5.2 (Base Framing Protocol)</a>
+	 */
+	private void sendFrame(OpCode opcode, ByteBuffer payload, boolean fin, boolean compressed) throws IOException
+	{
+		SEND_LOCK.lock();
+		try
+		{
+			HEADER.clear();
+			FrameEncoder.header(HEADER, opcode, payload.remaining(), fin, compressed);
+			HEADER.flip();
+			
+			FRAME[0] = HEADER;
+			FRAME[1] = payload;
+			OUT.write(FRAME);
+		}
+		finally
+		{
+			FRAME[1] = null;
+			SEND_LOCK.unlock();
+		}
+	}
+	
+	/**
+	 * Sends a frame that was already encoded, such as a {@link Broadcast}.
+	 * 
+	 * @param frame - Buffer holding the whole encoded frame.
+	 * @throws WebSocketException Thrown if the WebSocket is closed or the frame could not be written.
+	 */
+	void sendEncoded(ByteBuffer frame) throws WebSocketException
+	{
+		if(this.CLOSED)
+			throw new WebSocketException("Client side socket is closed.");
+		else if(!this.HANDSHAKE)
+			throw new WebSocketException("Handshake was never established.");
 		
-		byte[] byteArray = new byte[length];
-		
-		for (int i = 0; i < length; i++) 
-			byteArray[i] = ((byte)(int)(value >> 8 * (length - i - 1) & 0xFF));
-		
-		return byteArray;
+		MESSAGE_LOCK.lock();
+		try
+		{
+			if(STREAM != null)
+				DEFERRED.add(frame);
+			else
+				writeEncoded(frame);
+		}
+		catch (IOException e) 
+		{
+			throw new WebSocketException("Connection error", e);
+		}
+		finally
+		{
+			MESSAGE_LOCK.unlock();
+		}
+	}
+	
+	/**
+	 * Writes a frame that was already encoded. Called while holding {@link #MESSAGE_LOCK}.
+	 * 
+	 * @param frame - Buffer holding the whole encoded frame.
+	 * @throws IOException Thrown by {@link Outbound}
+	 */
+	private void writeEncoded(ByteBuffer frame) throws IOException
+	{
+		SEND_LOCK.lock();
+		try
+		{
+			OUT.write(frame);
+		}
+		finally
+		{
+			SEND_LOCK.unlock();
+		}
 	}
 	
 	/**
-	 * Sends a {@link ControlFrame} to client.
+	 * Sends a {@link ControlFrame} to client. Control frames only wait for the
+	 * frame being written, so they may go out between the fragments of a message.
 	 * 
 	 * @param frame {@link ControlFrame}
-	 * @throws InvalidFrameException Thrown if {@link PingFrame} because the server should never throw a ping to client.
-	 * @throws WebSocketException Thrown from {@link CloseFrame}.
+	 * @throws InvalidFrameException Thrown if the payload is larger than 125 bytes.
+	 * @throws WebSocketException Thrown if the frame could not be written.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.5">RFC 6455, Section 5.5 (Control Frames)</a>
 	 */
 	private void sendControl(ControlFrame frame) throws InvalidFrameException, WebSocketException
 	{
+		if(frame.getData().length > 125)
+			throw new InvalidFrameException("Control frame payload cannot be larger than 125 bytes.");
+		
 		if(frame instanceof CloseFrame)
 			sendClose((CloseFrame)frame);
-//		else if(frame instanceof PongFrame)
-//			sendPong((PongFrame)frame);
 		else
-			throw new InvalidFrameException("Server cannot send Ping frames to client.");
+		{
+			try 
+			{
+				sendFrame(frame.getOpcode(), ByteBuffer.wrap(frame.getData()), true, false);
+			}
+			catch (IOException e) 
+			{
+				throw new WebSocketException ("Connection error", e);
+			}
+		}
 	}
 	
 	/**
-	 * TODO implement Ping and Pong responses.
+	 * Sends a {@link ControlFrame} without waiting for client, even while another
+	 * thread is blocked writing to it. The frame is queued behind the frame being
+	 * written, so it never lands inside of one.
 	 * 
-	 * Sends a pong response to client.
-	 * @param frame {@link PongFrame}
+	 * @param frame {@link ControlFrame}
+	 * @throws WebSocketException Thrown if the WebSocket is closed or the frame could not be queued.
+	 * @see {@link Outbound#enqueue(ByteBuffer...)}
 	 */
-//	@Deprecated
-//	private void sendPong(PongFrame frame)
-//	{
-//		
-//	}
+	void sendNow(ControlFrame frame) throws WebSocketException
+	{
+		if(this.CLOSED)
+			throw new WebSocketException("Client side socket is closed.");
+		else if(!this.HANDSHAKE)
+			throw new WebSocketException("Handshake was never established.");
+		
+		try
+		{
+			OUT.enqueue(FrameEncoder.encode(frame.getOpcode(), frame.getData()));
+		}
+		catch (IOException e) 
+		{
+			throw new WebSocketException("Connection error", e);
+		}
+	}
 	
 	/**
 	 * Sends a {@link CloseFrame} to client containing a status code.
@@ -288,12 +565,7 @@ public class WebSocket implements Closeable
 	{
 		try 
 		{
-			OUT.write(new byte[]
-			{
-				(byte) OpCode.CLOSE.getCode(), (byte) 0x02,
-			    (byte) ((frame.getStatus() & MASK_LOW_WORD_HIGH_BYTE) >> OCTET_ONE),
-			    (byte) (frame.getStatus() & MASK_LOW_WORD_LOW_BYTE)
-			});
+			sendFrame(OpCode.CLOSE, ByteBuffer.wrap(frame.getData()), true, false);
 		}
 		catch (IOException e) 
 		{
@@ -302,11 +574,12 @@ public class WebSocket implements Closeable
 	}
 	
 	/**
-	 * Reads incoming stream of data from {@link Socket} connection.
+	 * Reads incoming stream of data from {@link Socket} connection. Blocks
+	 * until a whole {@link Frame} was received.
 	 * 
-	 * @return {@link Frame}
-	 * @throws InvalidFrameException Thrown from {@link #build(Frame)} or stream could not be read.
-	 * @throws WebSocketException Thrown if handshake was never established.
+	 * @return {@link Frame}, or null if client closed the stream.
+	 * @throws InvalidFrameException Thrown if client's frame was not properly built.
+	 * @throws WebSocketException Thrown if handshake was never established or stream could not be read.
 	 */
 	public Frame read() throws InvalidFrameException, WebSocketException
 	{
@@ -314,11 +587,43 @@ public class WebSocket implements Closeable
 		{
 			try 
 			{
-				return build(new Frame(IN.read(), IN.read()));
+				Frame frame = DECODER.decode(INBOUND);
+				while(frame == null)
+				{
+					/*
+					 * Large payloads are read straight into their frame.
+					 */
+					ByteBuffer payload = DECODER.pending();
+					if(payload != null && !INBOUND.hasRemaining() && payload.remaining() >= INBOUND.capacity())
+					{
+						int read = IN.read(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+						if(read == -1)
+						{
+							DECODER.discard();
+							return null;
+						}
+						payload.position(payload.position() + read);
+					}
+					else
+					{
+						INBOUND.compact();
+						int read = IN.read(INBOUND.array(), INBOUND.arrayOffset() + INBOUND.position(), INBOUND.remaining());
+						if(read == -1)
+						{
+							DECODER.discard();
+							return null;
+						}
+						INBOUND.position(INBOUND.position() + read);
+						INBOUND.flip();
+					}
+					frame = DECODER.decode(INBOUND);
+				}
+				return frame;
 			} 
 			catch (IOException e)
 			{
-				throw new InvalidFrameException("Could not read stream from client.", e);
+				DECODER.discard();
+				throw new WebSocketException("Could not read stream from client.", e);
 			}
 		}
 		else
@@ -326,56 +631,52 @@ public class WebSocket implements Closeable
 	}
 	
 	/**
-	 * Builds a {@link Frame} or a link of {@link Frame}(s), depending on size of data being streamed.
+	 * Decodes data received by an {@link EventLoop}. Never blocks.
 	 * 
-	 * @param frame - {@link Frame} being built. Uses recursion to build extending {@link Frame}(s) if needed.
-	 * @return {@link Frame}
-	 * @throws InvalidFrameException Is thrown if client's frame was not properly built.
-	 * @throws IOException Thrown if stream of data is broken or corrupted.
+	 * @param data - buffer in read mode holding bytes from client.
+	 * @return {@link Frame}, or null if more data is needed.
+	 * @throws InvalidFrameException Thrown if client's frame was not properly built.
+	 * @throws WebSocketException Thrown if handshake was never established.
 	 */
-	private Frame build(Frame frame) throws InvalidFrameException, IOException
+	Frame decode(ByteBuffer data) throws InvalidFrameException, WebSocketException
 	{
-		if(frame.PAYLOAD_LENGTH == PAYLOAD_LENGTH_16)
-		{
-			frame.PAYLOAD_LENGTH = 0;
-			byte[] payload = new byte[TWO_BYTE_FRAME];
-			IN.read(payload);
-			
-			for(int i = 0; i < payload.length; i++)
-				frame.PAYLOAD_LENGTH = (frame.PAYLOAD_LENGTH << 8) + (payload[i] & 0xFF);
-		}
-		else if (frame.PAYLOAD_LENGTH == PAYLOAD_LENGTH_64)
-		{
-			frame.PAYLOAD_LENGTH = 0;
-			byte[] payload = new byte[EIGHT_BYTE_FRAME];
-			IN.read(payload);
-			
-			for(int i = 0; i < payload.length; i++)
-				frame.PAYLOAD_LENGTH = (frame.PAYLOAD_LENGTH << 8) + (payload[i] & 0xFF);
-		}
-		
-		if(frame.isMasked())
-		{	
-			byte[] maskingKey = new byte[MASK_BYTES];
-			IN.read(maskingKey);
-			
-			byte[] payload = new byte[frame.PAYLOAD_LENGTH];
-			IN.read(payload);
-			
-			for(int i = 0; i < frame.PAYLOAD_LENGTH; i++)
-				frame.addToPayload((char)(payload[i] ^ maskingKey[(i % 4)]));
-		}
+		if(HANDSHAKE)
+			return DECODER.decode(data);
 		else
-			throw new InvalidFrameException("Client did not send a masked frame.");
-		
-		/*
-		 * Determine if this frame is the final fragment of the message.
-		 * If FALSE, recursively call this function to get next frame.
-		 */
-		if(!frame.isFIN())
-			frame.addFrame(build(new Frame(IN.read(), IN.read())));
-		
-		return frame;
+			throw new WebSocketException("Handshake has never been established.");
+	}
+	
+	/**
+	 * Releases the frame being decoded after client is gone. Called by an
+	 * {@link EventLoop}, which is the only thread decoding.
+	 * 
+	 * @see {@link FrameDecoder#discard()}
+	 */
+	void discard()
+	{
+		DECODER.discard();
+	}
+	
+	/**
+	 * Hands out data messages in pieces as they arrive.
+	 * 
+	 * @see {@link FrameDecoder#streaming()}
+	 */
+	void stream()
+	{
+		DECODER.streaming();
+	}
+	
+	/**
+	 * Payload of the frame being decoded, so an {@link EventLoop} can read
+	 * a large payload straight into it.
+	 * 
+	 * @return payload with room for the rest of the frame, or null.
+	 * @see {@link FrameDecoder#pending()}
+	 */
+	ByteBuffer pending()
+	{
+		return DECODER.pending();
 	}
 	
 	/**
@@ -386,19 +687,32 @@ public class WebSocket implements Closeable
 	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-4.2.2">RFC 6455, Section 4.2.2 (Sending the Server's Opening Handshake)</a>
 	 */
 	public void performHandshake(String key) throws WebSocketException
+	{
+		performHandshake(key, null);
+	}
+	
+	/**
+	 * Perform handshake with client connection, accepting permessage-deflate
+	 * if client offered it.
+	 * 
+	 * @param key - The key given by client upon request.
+	 * @param extensions - Sec-WebSocket-Extensions given by client, may be null.
+	 * @throws WebSocketException Thrown when handshake could not be performed.
+	 * @see <a href="https://tools.ietf.org/html/rfc7692#section-5">RFC 7692, Section 5 (Extension Negotiation)</a>
+	 */
+	public void performHandshake(String key, String extensions) throws WebSocketException
 	{
 		if(!HANDSHAKE)
 		{
 			try 
 			{
-				OUT.write(("HTTP/1.1 101 Switching Protocols\r\n").getBytes());
-				OUT.write(("Upgrade: websocket\r\n").getBytes());
-				OUT.write(("Connection: Upgrade\r\n").getBytes());
-				OUT.write(("Sec-WebSocket-Accept: " + this.getAcceptKey(key)).getBytes());
-				OUT.write(("\r\n\r\n").getBytes());
+				PerMessageDeflate deflate = PerMessageDeflate.negotiate(extensions);
+				OUT.write(Handshake.response(key, deflate == null ? null : deflate.response()));
+				this.DEFLATE = deflate;
+				this.DECODER.compression(deflate);
 				this.HANDSHAKE = true;
 			} 
-			catch (IOException | NoSuchAlgorithmException e) 
+			catch (IOException e) 
 			{
 				throw new WebSocketException("Could not perform handshake with client.", e);
 			}	
@@ -407,25 +721,6 @@ public class WebSocket implements Closeable
 			throw new WebSocketException("Handshake is already established.");
 	}
 	
-	/**
-	 * Generates acceptance key to be sent back to client when performing handshake.
-	 * 
-	 * @param key - The key given by client during request.
-	 * @return The acceptance key.
-	 * @throws NoSuchAlgorithmException Thrown when decryption of client's key can't be done.
-	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-4.2.2">RFC 6455, Section 4.2.2 (Sending the Server's Opening Handshake)</a>
-	 */
-	private String getAcceptKey(String key) throws NoSuchAlgorithmException
-	{
-		MessageDigest message = MessageDigest.getInstance("SHA-1");
-		
-		String magic_string = key + MAGIC_KEY;
-		
-		message.update(magic_string.getBytes(), 0, magic_string.length());
-		
-		return Base64.getEncoder().encodeToString(message.digest());
-	}
-	
 	/**
 	 * Determine if server performed WebSocket Handshake
 	 * 
@@ -446,11 +741,73 @@ public class WebSocket implements Closeable
     public void close() throws IOException
     {
     	this.CLOSED = true;
-		this.CLIENT.close();
-		this.IN.close();
+    	if(DEFLATE != null)
+    		DEFLATE.release();
+    	/*
+    	 * Closing the outbound closes the socket once the
+    	 * queued data, such as the close frame, was written.
+    	 */
 		this.OUT.close();
     }
     
+    /**
+     * Closes the connection right away, dropping data client has not taken yet.
+     * Used once client stopped answering, when waiting for the queue to drain is pointless.
+     */
+    void abort()
+    {
+    	this.CLOSED = true;
+    	if(DEFLATE != null)
+    		DEFLATE.release();
+    	this.OUT.abort();
+    }
+    
+    /**
+     * @return {@link OutboundQueue} of the data client has not taken yet.
+     */
+    OutboundQueue queue()
+    {
+    	return OUT.queue();
+    }
+    
+    /**
+     * @return {@link #FRAGMENT_SIZE}
+     */
+    int getFragmentSize()
+    {
+    	return FRAGMENT_SIZE;
+    }
+    
+    /**
+     * @param size - Largest payload of a frame sent to client.
+     */
+    void setFragmentSize(int size)
+    {
+    	if(size <= 0)
+    		throw new IllegalArgumentException("Fragment size must be positive.");
+    	this.FRAGMENT_SIZE = size;
+    }
+    
+    /**
+     * @return largest message gathered from client.
+     * @see {@link FrameDecoder#getMaxMessageSize()}
+     */
+    int getMaxMessageSize()
+    {
+    	return DECODER.getMaxMessageSize();
+    }
+    
+    /**
+     * @param size - Largest message gathered from client.
+     * @see {@link FrameDecoder#setMaxMessageSize(int)}
+     */
+    void setMaxMessageSize(int size)
+    {
+    	if(size < 0)
+    		throw new IllegalArgumentException("Largest message size must not be negative.");
+    	DECODER.setMaxMessageSize(size);
+    }
+    
     /**
      * Determine if WebSocket is closed.
      * 
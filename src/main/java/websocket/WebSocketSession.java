@@ -5,6 +5,14 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import http.Request;
 
 /**
  * WebSocketSession is the connection between the client and server endpoints.
@@ -14,6 +22,21 @@ import java.nio.ByteBuffer;
  */
 public class WebSocketSession implements Runnable, Closeable
 {
+	/**
+	 * Source of session ids, the first session is one.
+	 */
+	private static final AtomicLong NEXT_ID = new AtomicLong();
+	
+	/**
+	 * Application data of the pings sent to client.
+	 */
+	private static final byte[] PING = new byte[0];
+	
+	/**
+	 * Id of the session, unique within the process.
+	 */
+	private final long id;
+	
 	/**
 	 * Websocket connection to client.
 	 */
@@ -24,11 +47,72 @@ public class WebSocketSession implements Runnable, Closeable
 	 */
 	private final String key;
 	
+	/**
+	 * Extensions offered in client's request, null if none were offered.
+	 */
+	private final String extensions;
+	
 	/**
 	 * Callback interface for websocket.
 	 */
 	private final WebSocketListener listener;
 	
+	/**
+	 * Listener receiving messages as they arrive, null if messages are delivered whole.
+	 */
+	private final WebSocketStreamListener stream;
+	
+	/**
+	 * Listener told when the session's writability changes, null if the listener does not apply backpressure.
+	 */
+	private final WebSocketWritabilityListener writability;
+	
+	/**
+	 * Registry holding the session while it is open, null if the session is not tracked.
+	 */
+	private final SessionRegistry registry;
+	
+	/**
+	 * Deadlines of the session, null if the session never times out.
+	 */
+	private final SessionTimeouts timeouts;
+	
+	/**
+	 * Runs expired deadlines on the thread serving the session, null to run them on the timer's thread.
+	 */
+	private final Executor executor;
+	
+	/**
+	 * Task checking the session's deadlines, scheduled on the timer of {@link #timeouts}.
+	 */
+	private final Runnable check;
+	
+	/**
+	 * Pending check of the session's deadlines, null until the session opened.
+	 */
+	private volatile WheelTimer.Timeout deadline;
+	
+	/**
+	 * {@link System#nanoTime()} of the last frame received from client.
+	 */
+	private volatile long lastRead;
+	
+	/**
+	 * {@link System#nanoTime()} of the last message, or piece of one, received from client.
+	 */
+	private volatile long lastMessage;
+	
+	/**
+	 * {@link System#nanoTime()} of the last ping sent to client. Client owes a pong
+	 * while nothing was received since. Only touched by the check.
+	 */
+	private long lastPing;
+	
+	/**
+	 * Determines if the listener was told the session closed, which it is only told once.
+	 */
+	private final AtomicBoolean closeReported = new AtomicBoolean();
+	
 	/**
 	 * 
 	 * @param client
@@ -38,9 +122,114 @@ public class WebSocketSession implements Runnable, Closeable
 	 */
 	public WebSocketSession(Socket client, String key, WebSocketListener listener) throws IOException 
 	{
-		this.client = new WebSocket(client);
+		this(new WebSocket(client), key, null, listener, null, null, null);
+	}
+	
+	/**
+	 * 
+	 * @param client
+	 * @param request - Client's upgrade {@link Request}.
+	 * @param listener
+	 * @param registry - {@link SessionRegistry} holding the session while it is open.
+	 * @throws IOException 
+	 */
+	public WebSocketSession(Socket client, Request request, WebSocketListener listener, SessionRegistry registry) throws IOException 
+	{
+		this(client, request, listener, registry, null);
+	}
+	
+	/**
+	 * Constructor for a blocking session that times out. Its deadlines expire
+	 * on the timer's thread, so the listener is told about a session that timed
+	 * out from that thread.
+	 * 
+	 * @param client
+	 * @param request - Client's upgrade {@link Request}.
+	 * @param listener
+	 * @param registry - {@link SessionRegistry} holding the session while it is open.
+	 * @param timeouts - {@link SessionTimeouts} of the session, null if it never times out.
+	 * @throws IOException 
+	 */
+	public WebSocketSession(Socket client, Request request, WebSocketListener listener, SessionRegistry registry, SessionTimeouts timeouts) throws IOException 
+	{
+		this(client, request, null, listener, registry, timeouts);
+	}
+	
+	/**
+	 * Constructor for a blocking session whose request was read in chunks, such
+	 * as by {@link http.RequestParser#read(java.io.InputStream, ByteBuffer)}, so
+	 * frames client sent right behind its request are not lost.
+	 * 
+	 * @param client
+	 * @param request - Client's upgrade {@link Request}.
+	 * @param received - Bytes read from client after its request. May be null.
+	 * @param listener
+	 * @param registry - {@link SessionRegistry} holding the session while it is open.
+	 * @param timeouts - {@link SessionTimeouts} of the session, null if it never times out.
+	 * @throws IOException 
+	 */
+	public WebSocketSession(Socket client, Request request, ByteBuffer received, WebSocketListener listener, SessionRegistry registry, SessionTimeouts timeouts) throws IOException 
+	{
+		this(new WebSocket(client, received), request.getKey(), request.getExtensions(), listener, registry, timeouts, null);
+	}
+	
+	/**
+	 * Constructor for a session driven by an {@link EventLoop}. Its
+	 * deadlines expire on the event loop's thread, and its listener is the
+	 * one the event loop routes the request's path to.
+	 * 
+	 * @param client
+	 * @param request
+	 * @param loop - {@link EventLoop} serving the session.
+	 */
+	WebSocketSession(WebSocket client, Request request, EventLoop loop)
+	{
+		this(client, request.getKey(), request.getExtensions(), loop.getListener(request), loop.getRegistry(), loop.getTimeouts(), loop);
+	}
+	
+	private WebSocketSession(WebSocket client, String key, String extensions, WebSocketListener listener, SessionRegistry registry, SessionTimeouts timeouts, Executor executor)
+	{
+		this.id = NEXT_ID.incrementAndGet();
+		this.client = client;
 		this.key = key;
+		this.extensions = extensions;
 		this.listener = listener;
+		this.registry = registry;
+		this.timeouts = timeouts;
+		this.executor = executor;
+		this.check = timeouts == null ? null : new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				expired();
+			}
+		};
+		if(listener instanceof WebSocketStreamListener)
+		{
+			this.stream = (WebSocketStreamListener) listener;
+			client.stream();
+		}
+		else
+			this.stream = null;
+		this.writability = listener instanceof WebSocketWritabilityListener ? (WebSocketWritabilityListener) listener : null;
+		client.queue().watch(this);
+	}
+	
+	/**
+	 * @return {@link #id}
+	 */
+	public long getId()
+	{
+		return id;
+	}
+	
+	/**
+	 * @return {@link #listener}
+	 */
+	WebSocketListener getListener()
+	{
+		return listener;
 	}
 
 	@Override
@@ -48,70 +237,31 @@ public class WebSocketSession implements Runnable, Closeable
 	{
 		try 
 		{
-			client.performHandshake(key);
-			
-			listener.WebSocketOpen(this);
+			open();
 			
 			while(!client.isClosed())
 			{
 				try 
 				{ 
 					Frame frame = client.read();
-					switch(frame.getOpcode())
-					{
-						case TEXT:
-							try 
-							{
-								listener.WebSocketMessage(this, frame.getPayload().toString());
-							} 
-							catch (IOException e) 
-							{
-								listener.WebSocketError(this, e);
-							}
-							break;
-						case BINARY:
-							try 
-							{
-								listener.WebSocketBinaryMessage(this, frame.getPayload().toByteArray());
-							} 
-							catch (IOException e) 
-							{
-								listener.WebSocketError(this, e);
-							}
-							break;
-						case CLOSE:
-							try 
-							{
-								int size = frame.getSize();
-								if(size == 0)
-									listener.WebSocketClose(this, CloseFrame.NO_CODE);
-								else
-								{
-									int status = ByteBuffer.wrap(frame.getPayload().toByteArray()).getShort();
-									listener.WebSocketClose(this, status);	
-								}
-							} 
-							catch (IOException e) 
-							{
-								listener.WebSocketError(this, e);
-							}
-							break;
-							/*
-							 * Ping and pong are currently not implemented.
-							 */
-//						case PING:
-//							break;
-//						case PONG:
-//							break;
-						default:
-							listener.WebSocketError(this, new InvalidFrameException("Invalid OpCode found in frame - " + frame.getOpcode().getCode()));
-							break;
-					}
-					
+					if(frame != null)
+						handle(frame);
+					else if(!client.isClosed())
+						disconnected();
 				} 
-				catch (InvalidFrameException | WebSocketException e) 
+				catch (InvalidFrameException e) 
+				{
+					fail(e);
+				}
+				catch (WebSocketException e)
 				{
+					/*
+					 * The session was closed while reading, such as by a timeout.
+					 */
+					if(client.isClosed())
+						break;
 					listener.WebSocketError(this, e);
+					disconnected();
 				}
 			}
 		} 
@@ -121,6 +271,343 @@ public class WebSocketSession implements Runnable, Closeable
 		}
 	} 
 	
+	/**
+	 * Performs the handshake with client and notifies the listener.
+	 * 
+	 * @throws WebSocketException Thrown when handshake could not be performed.
+	 */
+	void open() throws WebSocketException
+	{
+		client.performHandshake(key, extensions);
+		
+		if(registry != null)
+			registry.add(this);
+		listener.WebSocketOpen(this);
+		
+		if(timeouts != null)
+		{
+			lastRead = lastMessage = lastPing = System.nanoTime();
+			keepAlive();
+		}
+	}
+	
+	/**
+	 * Hands a {@link Frame} received from client to the listener. The frame's
+	 * pooled payload is released once the listener returned, so the listener
+	 * is only ever given copies of it.
+	 * 
+	 * @param frame - {@link Frame} read from client.
+	 */
+	void handle(Frame frame)
+	{
+		if(timeouts != null)
+		{
+			long now = System.nanoTime();
+			lastRead = now;
+			if(!frame.isControlFrame())
+				lastMessage = now;
+		}
+		
+		if(stream != null && !frame.isControlFrame())
+		{
+			stream(frame);
+			return;
+		}
+		
+		try
+		{
+			switch(frame.getOpcode())
+			{
+				case TEXT:
+					listener.WebSocketMessage(this, text(frame));
+					break;
+				case BINARY:
+					listener.WebSocketBinaryMessage(this, frame.toByteArray());
+					break;
+				case CLOSE:
+					closing(frame);
+					break;
+				case PING:
+					pong(frame);
+					break;
+				case PONG:
+					/*
+					 * Any frame proves client is alive, the pong
+					 * was already counted as the last read.
+					 */
+					break;
+				default:
+					listener.WebSocketError(this, new InvalidFrameException("Invalid OpCode found in frame - " + frame.getOpcode().getCode()));
+					break;
+			}
+		}
+		finally
+		{
+			frame.release();
+		}
+	}
+	
+	/**
+	 * Answers client's close frame by echoing its status, closes the
+	 * connection once the echo was written and tells the listener. A status
+	 * that must not be sent, including {@link CloseFrame#NO_CODE} carried in
+	 * the payload, or a payload too short to hold one, is answered with
+	 * {@link CloseFrame#PROTOCOL_ERROR}.
+	 * 
+	 * @param frame - Close frame received from client.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.5.1">RFC 6455, Section 5.5.1 (Close)</a>
+	 */
+	private void closing(Frame frame)
+	{
+		boolean carried = frame.getSize() >= 2;
+		int status = carried ? frame.getPayload().getShort() & 0xFFFF : CloseFrame.NO_CODE;
+		int echo;
+		if(frame.getSize() == 1 || (carried && !sendable(status)))
+			echo = CloseFrame.PROTOCOL_ERROR;
+		else
+			echo = carried ? status : CloseFrame.NORMAL;
+		try
+		{
+			close(echo);
+		}
+		catch (IOException e)
+		{
+			listener.WebSocketError(this, e);
+		}
+		closed(status);
+	}
+	
+	/**
+	 * @param status - Status of a close frame.
+	 * @return TRUE if an endpoint may send the status in a close frame.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-7.4">RFC 6455, Section 7.4 (Status Codes)</a>
+	 */
+	private static boolean sendable(int status)
+	{
+		if(status >= 3000 && status <= 4999)
+			return true;
+		return status >= CloseFrame.NORMAL && status <= 1014
+				&& status != 1004 && status != CloseFrame.NO_CODE && status != CloseFrame.ABNORMAL_CLOSE;
+	}
+	
+	/**
+	 * Tells the listener the session closed, unless it was told before.
+	 * 
+	 * @param status - Status the session closed with.
+	 */
+	private void closed(int status)
+	{
+		if(closeReported.compareAndSet(false, true))
+			listener.WebSocketClose(this, status);
+	}
+	
+	/**
+	 * Answers a ping with a pong carrying the same application data.
+	 * 
+	 * @param ping - Ping received from client.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-5.5.3">RFC 6455, Section 5.5.3 (Pong)</a>
+	 */
+	private void pong(Frame ping)
+	{
+		try
+		{
+			client.send(new PongFrame(ping.toByteArray()));
+		}
+		catch (InvalidFrameException | WebSocketException e)
+		{
+			listener.WebSocketError(this, e);
+		}
+	}
+	
+	/**
+	 * Hands the check of the session's deadlines to the thread serving the
+	 * session. Called on the timer's thread.
+	 */
+	private void expired()
+	{
+		if(executor != null)
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					keepAlive();
+				}
+			});
+		else
+			keepAlive();
+	}
+	
+	/**
+	 * Checks the session's deadlines: drops client if it owes a pong for too
+	 * long, closes the session if it went idle, and pings client if it was
+	 * quiet for the ping interval. Then schedules the check for the nearest
+	 * deadline. Its frames are queued, so the check never waits for client.
+	 */
+	private void keepAlive()
+	{
+		if(client.isClosed())
+			return;
+		
+		long now = System.nanoTime();
+		long ping = TimeUnit.MILLISECONDS.toNanos(timeouts.getPingInterval());
+		long pong = TimeUnit.MILLISECONDS.toNanos(timeouts.getPongTimeout());
+		long idle = TimeUnit.MILLISECONDS.toNanos(timeouts.getIdleTimeout());
+		long read = lastRead;
+		long message = lastMessage;
+		boolean waiting = lastPing - read > 0;
+		
+		if(waiting && pong > 0 && now - lastPing >= pong)
+		{
+			timedOut();
+			return;
+		}
+		if(idle > 0 && now - message >= idle)
+		{
+			wentIdle();
+			return;
+		}
+		
+		/*
+		 * While a pong is owed, pinging again would
+		 * only push the pong deadline back.
+		 */
+		boolean owed = waiting && pong > 0;
+		long quiet = waiting ? lastPing : read;
+		if(ping > 0 && !owed && now - quiet >= ping)
+		{
+			try
+			{
+				client.sendNow(new PingFrame(PING));
+			}
+			catch (WebSocketException e)
+			{
+				listener.WebSocketError(this, e);
+				return;
+			}
+			lastPing = quiet = now;
+			owed = pong > 0;
+		}
+		
+		long next = Long.MAX_VALUE;
+		if(owed)
+			next = lastPing + pong - now;
+		else if(ping > 0)
+			next = quiet + ping - now;
+		if(idle > 0)
+			next = Math.min(next, message + idle - now);
+		if(next != Long.MAX_VALUE && !client.isClosed())
+			deadline = timeouts.getTimer().schedule(check, Math.max(next, 0L), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Drops client after it did not answer a ping in time.
+	 */
+	private void timedOut()
+	{
+		client.abort();
+		unregister();
+		closed(CloseFrame.ABNORMAL_CLOSE);
+	}
+	
+	/**
+	 * Closes the session after client sent no message for the idle timeout.
+	 */
+	private void wentIdle()
+	{
+		if(!client.isClosed())
+		{
+			try
+			{
+				client.sendNow(new CloseFrame(CloseFrame.GOING_AWAY));
+				client.close();
+			}
+			catch (IOException | WebSocketException e)
+			{
+				listener.WebSocketError(this, e);
+			}
+			finally
+			{
+				unregister();
+			}
+		}
+		closed(CloseFrame.GOING_AWAY);
+	}
+	
+	/**
+	 * Hands a piece of a message being streamed to the listener.
+	 * 
+	 * @param piece - piece of a message, see {@link FrameDecoder#streaming()}.
+	 */
+	private void stream(Frame piece)
+	{
+		if(piece.getOpcode() != OpCode.CONTINUATION)
+			stream.WebSocketMessageStart(this, piece.getOpcode());
+		ByteBuffer chunk = piece.getPayload();
+		if(chunk.hasRemaining())
+			stream.WebSocketMessageChunk(this, chunk);
+		if(piece.isFIN())
+			stream.WebSocketMessageEnd(this);
+	}
+	
+	/**
+	 * Decodes a validated text message. Text holding only ASCII is decoded
+	 * as ISO-8859-1, which maps each byte to a char without a decoder, and a
+	 * message of a single frame is decoded straight from its payload.
+	 * 
+	 * @param frame - Text message.
+	 * @return text of the message.
+	 */
+	private static String text(Frame frame)
+	{
+		Charset charset = frame.ASCII ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+		ByteBuffer payload = frame.payload();
+		if(frame.getNext() == null && payload != null && payload.hasArray())
+			return new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), charset);
+		return new String(frame.toByteArray(), charset);
+	}
+	
+	/**
+	 * Closes the session after client broke the protocol.
+	 * 
+	 * @param e - The reason the session is failing.
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-7.1.7">RFC 6455, Section 7.1.7 (Fail the WebSocket Connection)</a>
+	 */
+	void fail(Exception e)
+	{
+		listener.WebSocketError(this, e);
+		int status = e instanceof InvalidFrameException ? ((InvalidFrameException) e).getStatus() : CloseFrame.PROTOCOL_ERROR;
+		try 
+		{
+			close(status);
+		} 
+		catch (IOException ex) 
+		{
+			listener.WebSocketError(this, ex);
+		}
+		closed(status);
+	}
+	
+	/**
+	 * Closes the session after client went away without sending a {@link CloseFrame}.
+	 */
+	void disconnected()
+	{
+		try 
+		{
+			client.close();
+		} 
+		catch (IOException e) 
+		{
+			listener.WebSocketError(this, e);
+		}
+		finally
+		{
+			unregister();
+		}
+		closed(CloseFrame.ABNORMAL_CLOSE);
+	}
+	
 	/**
 	 * Send string message to client.
 	 * @param message
@@ -156,36 +643,183 @@ public class WebSocketSession implements Runnable, Closeable
 	}
 	
 	/**
-	 * @throws IOException 
-	 * 
+	 * Send a {@link Broadcast} to client.
+	 * @param broadcast
 	 */
-	public void close() throws IOException
+	public void send(Broadcast broadcast)
 	{
 		try 
 		{
-			client.send(new CloseFrame());
-			client.close();
-		} 
-		catch (InvalidFrameException | WebSocketException e) 
+			client.sendEncoded(broadcast.frame());
+		}
+		catch (WebSocketException e)
 		{
 			listener.WebSocketError(this, e);
 		}
 	}
 	
+	/**
+	 * Starts a message that is sent in fragments while it is written, so it never
+	 * has to be held in memory as a whole. The message ends once the returned
+	 * stream is closed.
+	 * 
+	 * @param opcode - {@link OpCode#TEXT} for UTF-8 text, or {@link OpCode#BINARY}.
+	 * @return {@link MessageOutputStream} the message is written into.
+	 * @throws InvalidFrameException Thrown if opcode is not a data opcode.
+	 * @throws WebSocketException Thrown if the session is closed.
+	 */
+	public MessageOutputStream openMessage(OpCode opcode) throws InvalidFrameException, WebSocketException
+	{
+		if(opcode != OpCode.TEXT && opcode != OpCode.BINARY)
+			throw new InvalidFrameException("Message must be text or binary.");
+		return client.openMessage(opcode);
+	}
+	
+	/**
+	 * @return largest payload of a frame sent to client.
+	 */
+	public int getFragmentSize()
+	{
+		return client.getFragmentSize();
+	}
+	
+	/**
+	 * Messages larger than the fragment size are sent as several frames.
+	 * 
+	 * @param size - largest payload of a frame sent to client.
+	 */
+	public void setFragmentSize(int size)
+	{
+		client.setFragmentSize(size);
+	}
+	
+	/**
+	 * @return largest message gathered from client.
+	 */
+	public int getMaxMessageSize()
+	{
+		return client.getMaxMessageSize();
+	}
+	
+	/**
+	 * Client is closed with {@link CloseFrame#TOOBIG} once it sends a message
+	 * larger than this, before the message is read into memory. Messages handed
+	 * out in pieces to a {@link WebSocketStreamListener} are not limited.
+	 * 
+	 * @param size - largest message gathered from client, 16 MiB by default.
+	 */
+	public void setMaxMessageSize(int size)
+	{
+		client.setMaxMessageSize(size);
+	}
+	
+	/**
+	 * Determines if messages may be sent without piling up. A session turns
+	 * unwritable once more than its high watermark is queued for a client that
+	 * does not keep up, and writable again once the queue drained below its low
+	 * watermark. Messages sent while unwritable are still queued.
+	 * 
+	 * @return TRUE if the session is writable, otherwise FALSE.
+	 * @see {@link WebSocketWritabilityListener}
+	 */
+	public boolean isWritable()
+	{
+		return client.queue().isWritable();
+	}
+	
+	/**
+	 * @return number of bytes sent to the session that client has not taken yet.
+	 */
+	public long getQueuedBytes()
+	{
+		return client.queue().size();
+	}
+	
+	/**
+	 * @return number of queued bytes below which the session turns writable again.
+	 */
+	public int getLowWatermark()
+	{
+		return client.queue().getLowWatermark();
+	}
+	
+	/**
+	 * @return number of queued bytes above which the session turns unwritable.
+	 */
+	public int getHighWatermark()
+	{
+		return client.queue().getHighWatermark();
+	}
+	
+	/**
+	 * Changes the watermarks of the session's queue, which are checked the
+	 * next time data is queued or written.
+	 * 
+	 * @param low - number of queued bytes below which the session turns writable again.
+	 * @param high - number of queued bytes above which the session turns unwritable.
+	 * @throws IllegalArgumentException Thrown unless 0 <= low <= high.
+	 */
+	public void setWatermarks(int low, int high)
+	{
+		client.queue().setWatermarks(low, high);
+	}
+	
+	/**
+	 * Tells the listener the session's writability changed.
+	 * 
+	 * @see {@link OutboundQueue#changed()}
+	 */
+	void writabilityChanged()
+	{
+		if(writability != null)
+			writability.WebSocketWritabilityChanged(this);
+	}
+	
+	/**
+	 * @throws IOException 
+	 * 
+	 */
+	public void close() throws IOException
+	{
+		close(CloseFrame.NORMAL);
+	}
+	
 	/**
 	 * @throws IOException 
 	 * 
 	 */
 	public void close(int status) throws IOException
 	{
+		if(client.isClosed())
+			return;
+		
 		try 
 		{
 			client.send(new CloseFrame(status));
-			client.close();
 		}
 		catch (InvalidFrameException | WebSocketException e) 
 		{
 			listener.WebSocketError(this, e);
 		}
+		try
+		{
+			client.close();
+		}
+		finally
+		{
+			unregister();
+		}
+	}
+	
+	/**
+	 * Cancels the deadline of the closed session and removes it from its {@link SessionRegistry}.
+	 */
+	private void unregister()
+	{
+		WheelTimer.Timeout timeout = deadline;
+		if(timeout != null)
+			timeout.cancel();
+		if(registry != null)
+			registry.remove(this);
 	}
 }
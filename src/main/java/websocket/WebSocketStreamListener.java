@@ -0,0 +1,42 @@
+package websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Call back interface for a websocket server that receives messages as they
+ * arrive instead of once they are complete. A session whose listener implements
+ * this interface never gathers a message in memory, so a message may be larger
+ * than the heap.
+ *
+ * <p>
+ * {@link WebSocketListener#WebSocketMessage(WebSocketSession, String)} and
+ * {@link WebSocketListener#WebSocketBinaryMessage(WebSocketSession, byte[])}
+ * are never called for a streaming session.
+ *
+ * @author Ryan Mayobre
+ * @see {@link WebSocketListener}
+ */
+public interface WebSocketStreamListener extends WebSocketListener
+{
+	/**
+	 * Callback when client starts sending a message.
+	 * @param session
+	 * @param opcode - {@link OpCode#TEXT} or {@link OpCode#BINARY}.
+	 */
+	void WebSocketMessageStart(WebSocketSession session, OpCode opcode);
+
+	/**
+	 * Callback for each part of a message received from client. The chunk shares
+	 * memory with the session's read buffer and is only valid until the callback
+	 * returns. Chunks of a text message are UTF-8 bytes and may split a character.
+	 * @param session
+	 * @param chunk - read-only part of the message.
+	 */
+	void WebSocketMessageChunk(WebSocketSession session, ByteBuffer chunk);
+
+	/**
+	 * Callback when client finished sending a message.
+	 * @param session
+	 */
+	void WebSocketMessageEnd(WebSocketSession session);
+}
@@ -0,0 +1,24 @@
+package websocket;
+
+/**
+ * Call back interface for a websocket server that applies backpressure. Data
+ * sent to a session is queued until its client takes it, and the session turns
+ * unwritable once the queue grows past its high watermark. A producer that
+ * stops sending to an unwritable session keeps a slow client from piling up
+ * memory, and picks up again once the session is writable.
+ *
+ * @author Ryan Mayobre
+ * @see {@link WebSocketSession#isWritable()}
+ * @see {@link WebSocketSession#setWatermarks(int, int)}
+ */
+public interface WebSocketWritabilityListener extends WebSocketListener
+{
+	/**
+	 * Callback when a session turned writable or unwritable. Changes may be
+	 * reported from the thread writing to client, so the callback must not
+	 * block, and should read {@link WebSocketSession#isWritable()} for the
+	 * current state since two changes may be reported out of order.
+	 * @param session
+	 */
+	void WebSocketWritabilityChanged(WebSocketSession session);
+}
@@ -0,0 +1,334 @@
+package websocket;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed wheel timer running the deadlines of many sessions on one thread.
+ * The wheel is a ring of buckets, one per tick; a task lands in the bucket of
+ * its deadline and counts the full turns it must wait. Scheduling and
+ * cancelling take constant time no matter how many tasks are pending, which
+ * suits tens of thousands of sessions each holding a deadline.
+ *
+ * <p>
+ * Deadlines are only as precise as one tick. Tasks run on the timer's thread
+ * and must not block, since they hold up every other task.
+ *
+ * @author Ryan Mayobre
+ * @see <a href="http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf">Hashed and Hierarchical Timing Wheels</a>
+ */
+public class WheelTimer
+{
+	/**
+	 * Default duration of a tick, in milliseconds.
+	 */
+	public static final long DEFAULT_TICK = 100L;
+
+	/**
+	 * Default number of buckets, must be a power of two.
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 0x200;
+
+	/**
+	 * A task scheduled on the timer.
+	 */
+	public static final class Timeout
+	{
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "STATE");
+
+		/**
+		 * Task run once the deadline passed.
+		 */
+		private final Runnable TASK;
+
+		/**
+		 * Deadline in nanoseconds since the timer started.
+		 */
+		private final long DEADLINE;
+
+		/**
+		 * Full turns of the wheel left before the task expires.
+		 */
+		private long ROUNDS;
+
+		/**
+		 * Neighbours inside of the bucket, only touched by the timer's thread.
+		 */
+		private Timeout NEXT, PREV;
+
+		private volatile int STATE;
+
+		private Timeout(Runnable task, long deadline)
+		{
+			this.TASK = task;
+			this.DEADLINE = deadline;
+			this.STATE = PENDING;
+		}
+
+		/**
+		 * Cancels the task unless it already ran. The timer drops it once its bucket comes around.
+		 *
+		 * @return TRUE if the task will never run, FALSE if it ran or is running.
+		 */
+		public boolean cancel()
+		{
+			return STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED) || STATE == CANCELLED;
+		}
+
+		/**
+		 * @return TRUE if the task was cancelled.
+		 */
+		public boolean isCancelled()
+		{
+			return STATE == CANCELLED;
+		}
+
+		/**
+		 * @return TRUE if the deadline passed and the task ran or is running.
+		 */
+		public boolean isExpired()
+		{
+			return STATE == EXPIRED;
+		}
+
+		/**
+		 * @return TRUE if the task was claimed to run.
+		 */
+		private boolean expire()
+		{
+			return STATE_UPDATER.compareAndSet(this, PENDING, EXPIRED);
+		}
+	}
+
+	/**
+	 * Duration of a tick, in nanoseconds.
+	 */
+	private final long TICK;
+
+	/**
+	 * First task of each bucket.
+	 */
+	private final Timeout[] WHEEL;
+
+	/**
+	 * Mask turning a tick into the index of its bucket.
+	 */
+	private final int MASK;
+
+	/**
+	 * Tasks scheduled since the last tick, moved into the wheel by the timer's thread.
+	 */
+	private final Queue<Timeout> SCHEDULED;
+
+	/**
+	 * Time the timer was created, deadlines are counted from it.
+	 */
+	private final long START;
+
+	/**
+	 * Determines if the timer's thread was started.
+	 */
+	private final AtomicBoolean STARTED;
+
+	/**
+	 * Thread of the timer, null until the first task is scheduled.
+	 */
+	private volatile Thread WORKER;
+
+	/**
+	 * Determines if the timer was stopped.
+	 */
+	private volatile boolean STOPPED;
+
+	/**
+	 * Creates a timer with a tick of {@link #DEFAULT_TICK} milliseconds and
+	 * {@link #DEFAULT_WHEEL_SIZE} buckets.
+	 */
+	public WheelTimer()
+	{
+		this(DEFAULT_TICK, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * @param tick - Duration of a tick, the precision of every deadline.
+	 * @param unit - {@link TimeUnit} of tick.
+	 * @param wheelSize - Number of buckets, rounded up to a power of two.
+	 */
+	public WheelTimer(long tick, TimeUnit unit, int wheelSize)
+	{
+		if(tick <= 0 || wheelSize <= 0 || wheelSize > 0x40000000)
+			throw new IllegalArgumentException("Tick and wheel size must be positive.");
+
+		int size = Integer.highestOneBit(wheelSize);
+		if(size < wheelSize)
+			size <<= 1;
+		this.TICK = unit.toNanos(tick);
+		this.WHEEL = new Timeout[size];
+		this.MASK = size - 1;
+		this.SCHEDULED = new ConcurrentLinkedQueue<Timeout>();
+		this.START = System.nanoTime();
+		this.STARTED = new AtomicBoolean();
+		this.STOPPED = false;
+	}
+
+	/**
+	 * Schedules a task. Safe to call from any thread.
+	 *
+	 * @param task - Task run on the timer's thread once the delay passed.
+	 * @param delay - Time to wait.
+	 * @param unit - {@link TimeUnit} of delay.
+	 * @return {@link Timeout} cancelling the task, already cancelled if the timer
+	 * was stopped, since a task scheduled once the timer stopped never runs like
+	 * the ones pending when it stopped.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+	{
+		if(STOPPED)
+		{
+			Timeout cancelled = new Timeout(task, 0L);
+			cancelled.cancel();
+			return cancelled;
+		}
+		if(!STARTED.get() && STARTED.compareAndSet(false, true))
+			start();
+
+		Timeout timeout = new Timeout(task, System.nanoTime() - START + Math.max(unit.toNanos(delay), 0L));
+		SCHEDULED.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the timer. Pending tasks never run.
+	 */
+	public void stop()
+	{
+		STOPPED = true;
+		Thread worker = WORKER;
+		if(worker != null)
+			worker.interrupt();
+	}
+
+	/**
+	 * Starts the timer's thread.
+	 */
+	private void start()
+	{
+		Thread worker = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				turn();
+			}
+		}, "websocket-timer");
+		worker.setDaemon(true);
+		WORKER = worker;
+		worker.start();
+	}
+
+	/**
+	 * Turns the wheel one tick at a time until the timer is stopped.
+	 */
+	private void turn()
+	{
+		long tick = (System.nanoTime() - START) / TICK;
+		while(!STOPPED)
+		{
+			long sleep = START + (tick + 1) * TICK - System.nanoTime();
+			if(sleep > 0)
+			{
+				LockSupport.parkNanos(this, sleep);
+				continue;
+			}
+
+			schedule(tick);
+			expire(tick);
+			++tick;
+		}
+	}
+
+	/**
+	 * Moves scheduled tasks into the buckets of their deadlines. Tasks whose
+	 * deadline already passed land in the current bucket.
+	 *
+	 * @param tick - Current tick.
+	 */
+	private void schedule(long tick)
+	{
+		Timeout timeout;
+		while((timeout = SCHEDULED.poll()) != null)
+		{
+			if(timeout.isCancelled())
+				continue;
+
+			long ticks = Math.max(timeout.DEADLINE / TICK, tick);
+			timeout.ROUNDS = (ticks - tick) / WHEEL.length;
+			int index = (int) ticks & MASK;
+			timeout.NEXT = WHEEL[index];
+			if(timeout.NEXT != null)
+				timeout.NEXT.PREV = timeout;
+			WHEEL[index] = timeout;
+		}
+	}
+
+	/**
+	 * Runs the tasks of the current bucket that are due, and drops cancelled ones.
+	 *
+	 * @param tick - Current tick.
+	 */
+	private void expire(long tick)
+	{
+		int index = (int) tick & MASK;
+		Timeout timeout = WHEEL[index];
+		while(timeout != null)
+		{
+			Timeout next = timeout.NEXT;
+			if(timeout.isCancelled())
+				unlink(index, timeout);
+			else if(timeout.ROUNDS > 0)
+				--timeout.ROUNDS;
+			else
+			{
+				unlink(index, timeout);
+				if(timeout.expire())
+				{
+					try
+					{
+						timeout.TASK.run();
+					}
+					catch (RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Removes a task from its bucket.
+	 *
+	 * @param index - Index of the bucket.
+	 * @param timeout - {@link Timeout} to be removed.
+	 */
+	private void unlink(int index, Timeout timeout)
+	{
+		if(timeout.PREV != null)
+			timeout.PREV.NEXT = timeout.NEXT;
+		else
+			WHEEL[index] = timeout.NEXT;
+		if(timeout.NEXT != null)
+			timeout.NEXT.PREV = timeout.PREV;
+		timeout.NEXT = null;
+		timeout.PREV = null;
+	}
+}
@@ -0,0 +1,106 @@
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Blocking tasks run by a pool of platform threads against a virtual thread
+ * per task. Benchmarks only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class AsyncExecutorBenchmark
+{
+	/**
+	 * Number of tasks of each round, as many as the blocking model has sessions at most.
+	 */
+	private static final int TASKS = 1024;
+
+	/**
+	 * Milliseconds each task blocks, as a session waiting for its client does.
+	 */
+	private static final long BLOCKED = 20L;
+
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	/**
+	 * @return tasks per second the executor finishes, each of them sleeping for {@link #BLOCKED} milliseconds.
+	 */
+	private static long rate(AsyncExecutor executor) throws InterruptedException
+	{
+		try
+		{
+			long rate = 0;
+			for(int round = 0; round < 3; round++)
+			{
+				final CountDownLatch done = new CountDownLatch(TASKS);
+				long start = System.nanoTime();
+				for(int i = 0; i < TASKS; i++)
+				{
+					executor.execute(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							try
+							{
+								Thread.sleep(BLOCKED);
+							}
+							catch (InterruptedException e)
+							{
+								Thread.currentThread().interrupt();
+							}
+							done.countDown();
+						}
+					});
+				}
+				done.await();
+				rate = TASKS * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start);
+			}
+			return rate;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void platformAgainstVirtualThreads() throws Exception
+	{
+		int processors = Runtime.getRuntime().availableProcessors();
+		long fixed = rate(new AsyncExecutor("fixed", processors, processors, TASKS, AsyncExecutor.Saturation.REJECT));
+		long pooled = rate(new AsyncExecutor("pooled", 0, TASKS, 0, AsyncExecutor.Saturation.REJECT));
+		long perTask = rate(new AsyncExecutor("per-task", new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable task)
+			{
+				return new Thread(task);
+			}
+		}));
+		System.out.printf("AsyncExecutor: %,d tasks/s on %d platform threads, %,d on up to %,d pooled platform threads, %,d on a platform thread per task%n",
+				fixed, processors, pooled, TASKS, perTask);
+
+		AsyncExecutor virtual;
+		try
+		{
+			virtual = AsyncExecutor.virtual("virtual");
+		}
+		catch (UnsupportedOperationException e)
+		{
+			assumeTrue("Virtual threads require JDK 21 or newer.", false);
+			return;
+		}
+		System.out.printf("AsyncExecutor: %,d tasks/s on a virtual thread per task%n", rate(virtual));
+	}
+}
@@ -0,0 +1,178 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Saturation policies of {@link AsyncExecutor}, and executors that give
+ * every task a thread of its own.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class AsyncExecutorTest
+{
+	@Test
+	public void shedClosesDroppedTask() throws Exception
+	{
+		AsyncExecutor executor = new AsyncExecutor("shed", 1, 1, 1, AsyncExecutor.Saturation.SHED);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger closed = new AtomicInteger();
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						release.await();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			class Task implements Runnable, Closeable
+			{
+				@Override
+				public void run()
+				{
+				}
+
+				@Override
+				public void close()
+				{
+					closed.incrementAndGet();
+				}
+			}
+			executor.execute(new Task());
+			executor.execute(new Task());
+			assertEquals(1, closed.get());
+		}
+		finally
+		{
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A plain HTTP client queued behind a busy worker has its connection
+	 * closed when a newer client sheds it, rather than left open forever.
+	 */
+	@Test
+	public void shedHttpClientIsDisconnected() throws Exception
+	{
+		int port = TestClient.freePort();
+		AsyncExecutor executor = new AsyncExecutor("http", 1, 1, 1, AsyncExecutor.Saturation.SHED);
+		WebSocketServer server = new WebSocketServer(port, executor)
+		{
+			@Override
+			public void WebSocketOpen(websocket.WebSocketSession session)
+			{
+			}
+
+			@Override
+			public void WebSocketMessage(websocket.WebSocketSession session, String message)
+			{
+			}
+
+			@Override
+			public void WebSocketBinaryMessage(websocket.WebSocketSession session, byte[] data)
+			{
+			}
+
+			@Override
+			public void WebSocketError(websocket.WebSocketSession session, Exception e)
+			{
+			}
+
+			@Override
+			public void WebSocketClose(websocket.WebSocketSession session, int status)
+			{
+			}
+		};
+		Thread thread = new Thread(server);
+		thread.setDaemon(true);
+		thread.start();
+		String get = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+		try(TestClient busy = new TestClient(port); TestClient shed = new TestClient(port); TestClient last = new TestClient(port))
+		{
+			/*
+			 * The first client keeps the only worker waiting for its next request.
+			 */
+			assertTrue(busy.request(get).startsWith("HTTP/1.1 404"));
+			shed.write(get.getBytes("US-ASCII"));
+			Thread.sleep(200);
+			last.write(get.getBytes("US-ASCII"));
+			assertTrue(shed.closedByServer());
+		}
+		finally
+		{
+			server.shutdown();
+		}
+	}
+
+	/**
+	 * Tasks run one after the other still each get a new thread, as virtual
+	 * threads must, and none is kept once its task ends.
+	 */
+	@Test
+	public void perTaskExecutorNeverReusesThread() throws Exception
+	{
+		AsyncExecutor executor = new AsyncExecutor("per-task", Executors.defaultThreadFactory());
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		for(int i = 0; i < 10; i++)
+		{
+			final CountDownLatch done = new CountDownLatch(1);
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					threads.add(Thread.currentThread());
+					done.countDown();
+				}
+			});
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+		}
+		assertEquals(10, threads.size());
+		for(Thread thread : threads)
+		{
+			thread.join(5000);
+			assertTrue(thread.getName(), thread.getName().startsWith("per-task-"));
+		}
+		assertEquals(10, executor.getCompleted());
+		assertEquals(0, executor.getActive());
+
+		executor.shutdown();
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+				}
+			});
+			fail("Executor was shut down.");
+		}
+		catch (RejectedExecutionException e)
+		{
+			assertEquals(1, executor.getRejected());
+		}
+	}
+}
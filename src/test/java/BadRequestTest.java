@@ -0,0 +1,178 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import http.RequestParser;
+
+/**
+ * Malformed requests are answered with their status before the connection
+ * is closed, and a client slow to send its request holds up no other, in
+ * both serving models.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+@RunWith(Parameterized.class)
+public class BadRequestTest
+{
+	@Parameters(name = "eventLoops={0}")
+	public static Collection<Object[]> models()
+	{
+		return Arrays.asList(new Object[][] {{0}, {2}});
+	}
+
+	private final int EVENT_LOOPS;
+
+	private TestServer SERVER;
+
+	private TestClient CLIENT;
+
+	public BadRequestTest(int eventLoops)
+	{
+		this.EVENT_LOOPS = eventLoops;
+	}
+
+	@Before
+	public void start() throws Exception
+	{
+		SERVER = new TestServer(EVENT_LOOPS);
+		CLIENT = SERVER.connect();
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		CLIENT.close();
+		SERVER.shutdown();
+	}
+
+	private void assertRejected(String status, String head) throws Exception
+	{
+		assertTrue(head, head.startsWith("HTTP/1.1 " + status + " "));
+		assertEquals("close", TestClient.header(head, "Connection"));
+		int length = Integer.parseInt(TestClient.header(head, "Content-Length"));
+		assertEquals(status, new String(CLIENT.body(length), "US-ASCII").substring(0, 3));
+		assertTrue(CLIENT.closedByServer());
+	}
+
+	@Test
+	public void answersMalformedMethod() throws Exception
+	{
+		assertRejected("400", CLIENT.request("G(T / HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+	}
+
+	@Test
+	public void answersMalformedHeader() throws Exception
+	{
+		assertRejected("400", CLIENT.request("GET / HTTP/1.1\r\nHost localhost\r\n\r\n"));
+	}
+
+	@Test
+	public void answersUnsupportedVersion() throws Exception
+	{
+		assertRejected("505", CLIENT.request("GET / HTTP/2.0\r\nHost: localhost\r\n\r\n"));
+	}
+
+	@Test
+	public void answersTooManyHeaders() throws Exception
+	{
+		StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+		for(int i = 0; i <= RequestParser.DEFAULT_MAX_HEADERS; i++)
+			request.append("X-").append(i).append(": a\r\n");
+		assertRejected("431", CLIENT.request(request.append("\r\n").toString()));
+	}
+
+	@Test
+	public void answersOversizedHead() throws Exception
+	{
+		/*
+		 * Exactly as many bytes as a head may have, all of which the server
+		 * reads, so closing the connection does not reset the answer.
+		 */
+		StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\nX-Large: ");
+		while(request.length() < RequestParser.DEFAULT_MAX_HEAD_SIZE)
+			request.append('a');
+		assertRejected("431", CLIENT.request(request.toString()));
+	}
+
+	@Test
+	public void answersMalformedRequestAfterKeptAliveOne() throws Exception
+	{
+		String head = CLIENT.request("GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		assertTrue(head, head.startsWith("HTTP/1.1 404"));
+		CLIENT.body(Integer.parseInt(TestClient.header(head, "Content-Length")));
+		assertRejected("400", CLIENT.request("GET / HTTP/1.1\r\nHost localhost\r\n\r\n"));
+	}
+
+	/**
+	 * A client that connected but sends nothing waits out the handshake
+	 * timeout on its own, rather than on the thread accepting the others.
+	 */
+	@Test
+	public void silentClientHoldsUpNoOtherClient() throws Exception
+	{
+		TestClient other = SERVER.connect();
+		try
+		{
+			long start = System.nanoTime();
+			String head = other.request("GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			assertTrue(head, head.startsWith("HTTP/1.1 404"));
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		}
+		finally
+		{
+			other.close();
+		}
+	}
+
+	private static String upgrade(String method, String key, String version)
+	{
+		return method + " / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+				+ (key != null ? "Sec-WebSocket-Key: " + key + "\r\n" : "")
+				+ (version != null ? "Sec-WebSocket-Version: " + version + "\r\n" : "") + "\r\n";
+	}
+
+	@Test
+	public void answersUpgradeWithoutKey() throws Exception
+	{
+		assertRejected("400", CLIENT.request(upgrade("GET", null, "13")));
+		assertTrue(SERVER.OPENED.isEmpty());
+	}
+
+	@Test
+	public void answersUpgradeWithMalformedKey() throws Exception
+	{
+		assertRejected("400", CLIENT.request(upgrade("GET", "dGhlIHNhbXBsZSBub25jZQ", "13")));
+	}
+
+	@Test
+	public void answersUpgradeWithKeyOutsideOfBase64() throws Exception
+	{
+		assertRejected("400", CLIENT.request(upgrade("GET", "dGhlIHNhbXBsZSBub25j*Q==", "13")));
+	}
+
+	@Test
+	public void answersUpgradeThatIsNotGet() throws Exception
+	{
+		assertRejected("400", CLIENT.request(upgrade("POST", "dGhlIHNhbXBsZSBub25jZQ==", "13")));
+	}
+
+	@Test
+	public void answersUnsupportedWebSocketVersion() throws Exception
+	{
+		String head = CLIENT.request(upgrade("GET", "dGhlIHNhbXBsZSBub25jZQ==", "8"));
+		assertEquals("13", TestClient.header(head, "Sec-WebSocket-Version"));
+		assertEquals("websocket", TestClient.header(head, "Upgrade"));
+		assertRejected("426", head);
+	}
+}
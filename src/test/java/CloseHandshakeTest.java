@@ -0,0 +1,139 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Closing handshake started by client, in both serving models.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+@RunWith(Parameterized.class)
+public class CloseHandshakeTest
+{
+	@Parameters(name = "eventLoops={0}")
+	public static Collection<Object[]> models()
+	{
+		return Arrays.asList(new Object[][] {{0}, {2}});
+	}
+
+	private final int EVENT_LOOPS;
+
+	private TestServer SERVER;
+
+	public CloseHandshakeTest(int eventLoops)
+	{
+		this.EVENT_LOOPS = eventLoops;
+	}
+
+	@Before
+	public void start() throws Exception
+	{
+		SERVER = new TestServer(EVENT_LOOPS);
+	}
+
+	@After
+	public void stop()
+	{
+		SERVER.shutdown();
+	}
+
+	@Test
+	public void echoesStatusAndClosesOnce() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			assertTrue(client.upgrade("/").startsWith("HTTP/1.1 101"));
+			SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+			client.send(TestClient.CLOSE, new byte[] {0x0F, (byte) 0xA0});
+
+			TestClient.Frame echo = client.read();
+			assertEquals(TestClient.CLOSE, echo.OPCODE);
+			assertEquals(4000, echo.status());
+			assertTrue(client.closedByServer());
+		}
+		assertEquals(Integer.valueOf(4000), SERVER.nextClose());
+		assertNull(SERVER.CLOSED.poll(300, TimeUnit.MILLISECONDS));
+		assertEquals(0, SERVER.getSessionCount());
+	}
+
+	@Test
+	public void answersEmptyCloseWithNormal() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			client.send(TestClient.CLOSE, new byte[0]);
+			assertEquals(1000, client.read().status());
+			assertTrue(client.closedByServer());
+		}
+		assertEquals(Integer.valueOf(1005), SERVER.nextClose());
+		assertNull(SERVER.CLOSED.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void answersReservedStatusWithProtocolError() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			client.send(TestClient.CLOSE, new byte[] {0x03, (byte) 0xEE});
+			assertEquals(1002, client.read().status());
+			assertTrue(client.closedByServer());
+		}
+		assertEquals(Integer.valueOf(1006), SERVER.nextClose());
+		assertNull(SERVER.CLOSED.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void answersCarriedNoStatusWithProtocolError() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			client.send(TestClient.CLOSE, new byte[] {0x03, (byte) 0xED});
+			assertEquals(1002, client.read().status());
+			assertTrue(client.closedByServer());
+		}
+		assertEquals(Integer.valueOf(1005), SERVER.nextClose());
+		assertNull(SERVER.CLOSED.poll(300, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void closesSessionsGoingAwayOnShutdown() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+			SERVER.shutdown();
+			TestClient.Frame close = client.read();
+			assertEquals(TestClient.CLOSE, close.OPCODE);
+			assertEquals(1001, close.status());
+			assertTrue(client.closedByServer());
+		}
+	}
+
+	@Test
+	public void reportsDroppedClientOnce() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+		}
+		assertEquals(Integer.valueOf(1006), SERVER.nextClose());
+		assertNull(SERVER.CLOSED.poll(300, TimeUnit.MILLISECONDS));
+	}
+}
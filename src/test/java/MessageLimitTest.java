@@ -0,0 +1,149 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import websocket.WebSocketSession;
+
+/**
+ * Messages larger than a session's limit are refused with 1009 before they
+ * are read into memory, in both serving models.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+@RunWith(Parameterized.class)
+public class MessageLimitTest
+{
+	@Parameters(name = "eventLoops={0}")
+	public static Collection<Object[]> models()
+	{
+		return Arrays.asList(new Object[][] {{0}, {2}});
+	}
+
+	private final int EVENT_LOOPS;
+
+	private TestServer SERVER;
+
+	public MessageLimitTest(int eventLoops)
+	{
+		this.EVENT_LOOPS = eventLoops;
+	}
+
+	@Before
+	public void start() throws Exception
+	{
+		SERVER = new TestServer(EVENT_LOOPS);
+	}
+
+	@After
+	public void stop()
+	{
+		SERVER.shutdown();
+	}
+
+	@Test
+	public void refusesAnnouncedLengthOverLimit() throws Exception
+	{
+		try(TestClient bystander = SERVER.connect(); TestClient client = SERVER.connect())
+		{
+			bystander.upgrade("/");
+			SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+			client.upgrade("/");
+			SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+
+			client.sendHeader(true, TestClient.BINARY, 0x7FFFFFFFL);
+			TestClient.Frame close = client.read();
+			assertEquals(TestClient.CLOSE, close.OPCODE);
+			assertEquals(1009, close.status());
+			assertTrue(client.closedByServer());
+
+			bystander.send(TestClient.TEXT, "still here".getBytes("UTF-8"));
+			assertEquals("still here", SERVER.MESSAGES.poll(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void refusesLengthBeyondIntegerRange() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			client.sendHeader(true, TestClient.BINARY, 1L << 40);
+			assertEquals(1009, client.read().status());
+			assertTrue(client.closedByServer());
+		}
+	}
+
+	@Test
+	public void refusesFragmentsAddingUpOverLimit() throws Exception
+	{
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			WebSocketSession session = SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+			session.setMaxMessageSize(1000);
+
+			client.send(false, TestClient.BINARY, new byte[600]);
+			client.send(true, TestClient.CONTINUATION, new byte[400]);
+			assertEquals(1000, SERVER.BINARY.poll(5, TimeUnit.SECONDS).length);
+
+			client.send(false, TestClient.BINARY, new byte[600]);
+			client.send(true, TestClient.CONTINUATION, new byte[401]);
+			assertEquals(1009, client.read().status());
+			assertTrue(client.closedByServer());
+		}
+	}
+
+	@Test
+	public void refusesCompressedMessageInflatingOverLimit() throws Exception
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(new byte[100000]);
+		byte[] compressed = new byte[1024];
+		int length = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH) - 4;
+		deflater.end();
+
+		try(TestClient client = SERVER.connect())
+		{
+			String head = client.request("GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+					+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n"
+					+ "Sec-WebSocket-Extensions: permessage-deflate\r\n\r\n");
+			assertTrue(TestClient.header(head, "Sec-WebSocket-Extensions").startsWith("permessage-deflate"));
+			WebSocketSession session = SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+			session.setMaxMessageSize(50000);
+
+			client.write(client.frame(true, TestClient.BINARY, 0x40, Arrays.copyOf(compressed, length), length));
+			assertEquals(1009, client.read().status());
+			assertTrue(client.closedByServer());
+		}
+	}
+
+	@Test
+	public void growsPayloadAsBytesArrive() throws Exception
+	{
+		byte[] data = new byte[300000];
+		new Random(3).nextBytes(data);
+		try(TestClient client = SERVER.connect())
+		{
+			client.upgrade("/");
+			SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+			byte[] frame = client.frame(true, TestClient.BINARY, 0, data, data.length);
+			for(int at = 0; at < frame.length; at += 7000)
+				client.write(Arrays.copyOfRange(frame, at, Math.min(at + 7000, frame.length)));
+			assertArrayEquals(data, SERVER.BINARY.poll(5, TimeUnit.SECONDS));
+		}
+	}
+}
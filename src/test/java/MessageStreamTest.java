@@ -0,0 +1,192 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import websocket.OpCode;
+import websocket.WebSocketSession;
+
+/**
+ * Fragments of a streamed message, and what may be sent while it is open,
+ * in both serving models.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+@RunWith(Parameterized.class)
+public class MessageStreamTest
+{
+	@Parameters(name = "eventLoops={0}")
+	public static Collection<Object[]> models()
+	{
+		return Arrays.asList(new Object[][] {{0}, {2}});
+	}
+
+	private final int EVENT_LOOPS;
+
+	private TestServer SERVER;
+
+	private TestClient CLIENT;
+
+	private WebSocketSession SESSION;
+
+	public MessageStreamTest(int eventLoops)
+	{
+		this.EVENT_LOOPS = eventLoops;
+	}
+
+	@Before
+	public void start() throws Exception
+	{
+		SERVER = new TestServer(EVENT_LOOPS);
+		CLIENT = SERVER.connect();
+		CLIENT.upgrade("/");
+		SESSION = SERVER.OPENED.poll(5, TimeUnit.SECONDS);
+		SESSION.setFragmentSize(4);
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		CLIENT.close();
+		SERVER.shutdown();
+	}
+
+	private void assertFrame(boolean fin, int opcode, String payload, TestClient.Frame frame)
+	{
+		assertEquals(fin, frame.FIN);
+		assertEquals(opcode, frame.OPCODE);
+		assertEquals(payload, frame.text());
+	}
+
+	@Test
+	public void splitsAtFragmentSize() throws Exception
+	{
+		OutputStream out = SESSION.openMessage(OpCode.TEXT);
+		out.write("abcdefghij".getBytes("UTF-8"));
+		out.close();
+
+		assertFrame(false, TestClient.TEXT, "abcd", CLIENT.read());
+		assertFrame(false, TestClient.CONTINUATION, "efgh", CLIENT.read());
+		assertFrame(true, TestClient.CONTINUATION, "ij", CLIENT.read());
+	}
+
+	@Test
+	public void endsFullFragmentWithEmptyFinal() throws Exception
+	{
+		OutputStream out = SESSION.openMessage(OpCode.BINARY);
+		out.write(new byte[] {1, 2});
+		out.write(new byte[] {3, 4});
+		out.close();
+
+		TestClient.Frame first = CLIENT.read();
+		assertFalse(first.FIN);
+		assertEquals(TestClient.BINARY, first.OPCODE);
+		assertArrayEquals(new byte[] {1, 2, 3, 4}, first.PAYLOAD);
+		assertFrame(true, TestClient.CONTINUATION, "", CLIENT.read());
+	}
+
+	@Test
+	public void flushSendsPartialFragment() throws Exception
+	{
+		OutputStream out = SESSION.openMessage(OpCode.TEXT);
+		out.write('a');
+		out.flush();
+		assertFrame(false, TestClient.TEXT, "a", CLIENT.read());
+		out.write("bcdef".getBytes("UTF-8"));
+		out.close();
+
+		assertFrame(false, TestClient.CONTINUATION, "bcde", CLIENT.read());
+		assertFrame(true, TestClient.CONTINUATION, "f", CLIENT.read());
+	}
+
+	@Test
+	public void queuesMessagesSentWhileOpen() throws Exception
+	{
+		final OutputStream out = SESSION.openMessage(OpCode.TEXT);
+		out.write("abcd".getBytes("UTF-8"));
+		assertFrame(false, TestClient.TEXT, "abcd", CLIENT.read());
+
+		/*
+		 * Another thread's message must not wait for the stream.
+		 */
+		final CountDownLatch sent = new CountDownLatch(1);
+		new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				SESSION.send("othr");
+				sent.countDown();
+			}
+		}).start();
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+		SESSION.send("mine");
+
+		out.write("ef".getBytes("UTF-8"));
+		out.close();
+		assertFrame(true, TestClient.CONTINUATION, "ef", CLIENT.read());
+		assertFrame(true, TestClient.TEXT, "othr", CLIENT.read());
+		assertFrame(true, TestClient.TEXT, "mine", CLIENT.read());
+	}
+
+	@Test
+	public void sendsPongBetweenFragments() throws Exception
+	{
+		OutputStream out = SESSION.openMessage(OpCode.TEXT);
+		out.write("abcd".getBytes("UTF-8"));
+		assertFrame(false, TestClient.TEXT, "abcd", CLIENT.read());
+
+		CLIENT.send(TestClient.PING, "hi".getBytes("UTF-8"));
+		assertFrame(true, TestClient.PONG, "hi", CLIENT.read());
+
+		out.close();
+		assertFrame(true, TestClient.CONTINUATION, "", CLIENT.read());
+	}
+
+	@Test
+	public void nextStreamWaitsForClose() throws Exception
+	{
+		final OutputStream first = SESSION.openMessage(OpCode.TEXT);
+		first.write('a');
+		first.flush();
+
+		final CountDownLatch opened = new CountDownLatch(1);
+		new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try(OutputStream second = SESSION.openMessage(OpCode.TEXT))
+				{
+					opened.countDown();
+					second.write('b');
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}).start();
+		assertFalse(opened.await(300, TimeUnit.MILLISECONDS));
+
+		first.close();
+		assertTrue(opened.await(5, TimeUnit.SECONDS));
+		assertFrame(false, TestClient.TEXT, "a", CLIENT.read());
+		assertFrame(true, TestClient.CONTINUATION, "", CLIENT.read());
+		assertFrame(true, TestClient.TEXT, "b", CLIENT.read());
+	}
+}
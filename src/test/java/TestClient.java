@@ -0,0 +1,277 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Bare client for tests, which writes requests and frames byte for byte so
+ * tests can send what a well-behaved client would not.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class TestClient implements Closeable
+{
+	public static final int CONTINUATION = 0x0, TEXT = 0x1, BINARY = 0x2, CLOSE = 0x8, PING = 0x9, PONG = 0xA;
+
+	private final Socket SOCKET;
+
+	private final InputStream IN;
+
+	private final OutputStream OUT;
+
+	private final Random RANDOM = new Random(7);
+
+	/**
+	 * Frame read from the server.
+	 */
+	public static final class Frame
+	{
+		public final boolean FIN;
+		public final int OPCODE;
+		public final byte[] PAYLOAD;
+
+		Frame(boolean fin, int opcode, byte[] payload)
+		{
+			this.FIN = fin;
+			this.OPCODE = opcode;
+			this.PAYLOAD = payload;
+		}
+
+		/**
+		 * @return status of a close frame, 1005 if it has none.
+		 */
+		public int status()
+		{
+			return PAYLOAD.length < 2 ? 1005 : ((PAYLOAD[0] & 0xFF) << 8) | (PAYLOAD[1] & 0xFF);
+		}
+
+		public String text()
+		{
+			return new String(PAYLOAD, StandardCharsets.UTF_8);
+		}
+	}
+
+	public TestClient(int port) throws IOException
+	{
+		SOCKET = new Socket("localhost", port);
+		SOCKET.setSoTimeout(10000);
+		SOCKET.setTcpNoDelay(true);
+		IN = SOCKET.getInputStream();
+		OUT = SOCKET.getOutputStream();
+	}
+
+	/**
+	 * @return a port nothing listens on right now.
+	 */
+	public static int freePort() throws IOException
+	{
+		try(ServerSocket socket = new ServerSocket(0))
+		{
+			return socket.getLocalPort();
+		}
+	}
+
+	/**
+	 * Sends an upgrade request.
+	 *
+	 * @param path - Path of the request.
+	 * @return head of the server's answer.
+	 */
+	public String upgrade(String path) throws IOException
+	{
+		return request("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+				+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n");
+	}
+
+	/**
+	 * Sends raw request bytes.
+	 *
+	 * @return head of the server's answer.
+	 */
+	public String request(String request) throws IOException
+	{
+		OUT.write(request.getBytes(StandardCharsets.ISO_8859_1));
+		OUT.flush();
+		return head();
+	}
+
+	/**
+	 * @return head of the server's next answer, up to the empty line.
+	 */
+	public String head() throws IOException
+	{
+		StringBuilder head = new StringBuilder();
+		int b;
+		while((b = IN.read()) != -1)
+		{
+			head.append((char) b);
+			if(head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4)
+				break;
+		}
+		return head.toString();
+	}
+
+	/**
+	 * @param head - Head of an answer.
+	 * @param name - Name of a header.
+	 * @return value of the header, or null.
+	 */
+	public static String header(String head, String name)
+	{
+		for(String line : head.split("\r\n"))
+			if(line.regionMatches(true, 0, name + ":", 0, name.length() + 1))
+				return line.substring(name.length() + 1).trim();
+		return null;
+	}
+
+	/**
+	 * Reads a body of a known length.
+	 */
+	public byte[] body(int length) throws IOException
+	{
+		byte[] body = new byte[length];
+		readFully(body);
+		return body;
+	}
+
+	/**
+	 * Sends a masked frame.
+	 */
+	public void send(boolean fin, int opcode, byte[] payload) throws IOException
+	{
+		OUT.write(frame(fin, opcode, 0, payload, payload.length));
+		OUT.flush();
+	}
+
+	public void send(int opcode, byte[] payload) throws IOException
+	{
+		send(true, opcode, payload);
+	}
+
+	/**
+	 * Sends only the header of a frame, announcing a payload of any length.
+	 */
+	public void sendHeader(boolean fin, int opcode, long length) throws IOException
+	{
+		OUT.write(frame(fin, opcode, 0, null, length));
+		OUT.flush();
+	}
+
+	/**
+	 * Sends raw bytes.
+	 */
+	public void write(byte[] data) throws IOException
+	{
+		OUT.write(data);
+		OUT.flush();
+	}
+
+	/**
+	 * Builds a masked frame.
+	 *
+	 * @param rsv - Reserved bits, shifted into place.
+	 * @param payload - Payload, null to build only the header.
+	 * @param length - Announced length of the payload.
+	 */
+	public byte[] frame(boolean fin, int opcode, int rsv, byte[] payload, long length)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((fin ? 0x80 : 0) | rsv | opcode);
+		if(length < 126)
+			out.write(0x80 | (int) length);
+		else if(length <= 0xFFFF)
+		{
+			out.write(0x80 | 126);
+			out.write((int) (length >>> 8));
+			out.write((int) length);
+		}
+		else
+		{
+			out.write(0x80 | 127);
+			for(int shift = 56; shift >= 0; shift -= 8)
+				out.write((int) (length >>> shift));
+		}
+		byte[] mask = new byte[4];
+		RANDOM.nextBytes(mask);
+		out.write(mask, 0, 4);
+		if(payload != null)
+			for(int i = 0; i < payload.length; i++)
+				out.write(payload[i] ^ mask[i & 3]);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return next frame sent by the server.
+	 * @throws EOFException Thrown if the server closed the connection.
+	 */
+	public Frame read() throws IOException
+	{
+		int b0 = readByte(), b1 = readByte();
+		long length = b1 & 0x7F;
+		if(length == 126)
+			length = (readByte() << 8) | readByte();
+		else if(length == 127)
+		{
+			length = 0;
+			for(int i = 0; i < 8; i++)
+				length = (length << 8) | readByte();
+		}
+		byte[] payload = new byte[(int) length];
+		readFully(payload);
+		return new Frame((b0 & 0x80) != 0, b0 & 0x0F, payload);
+	}
+
+	/**
+	 * @return TRUE if the server closed the connection, reading and dropping anything it still sent.
+	 */
+	public boolean closedByServer() throws IOException
+	{
+		try
+		{
+			byte[] skip = new byte[4096];
+			while(IN.read(skip) != -1);
+			return true;
+		}
+		catch (java.net.SocketTimeoutException e)
+		{
+			return false;
+		}
+		catch (java.net.SocketException e)
+		{
+			return true;
+		}
+	}
+
+	private int readByte() throws IOException
+	{
+		int b = IN.read();
+		if(b == -1)
+			throw new EOFException();
+		return b;
+	}
+
+	private void readFully(byte[] data) throws IOException
+	{
+		int at = 0;
+		while(at < data.length)
+		{
+			int read = IN.read(data, at, data.length - at);
+			if(read == -1)
+				throw new EOFException();
+			at += read;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		SOCKET.close();
+	}
+}
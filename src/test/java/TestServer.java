@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import websocket.WebSocketSession;
+
+/**
+ * Server for tests, recording what its listener is told.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class TestServer extends WebSocketServer
+{
+	public final int PORT;
+
+	public final BlockingQueue<WebSocketSession> OPENED = new LinkedBlockingQueue<WebSocketSession>();
+
+	public final BlockingQueue<String> MESSAGES = new LinkedBlockingQueue<String>();
+
+	public final BlockingQueue<byte[]> BINARY = new LinkedBlockingQueue<byte[]>();
+
+	public final BlockingQueue<Integer> CLOSED = new LinkedBlockingQueue<Integer>();
+
+	public final List<Exception> ERRORS = new CopyOnWriteArrayList<Exception>();
+
+	/**
+	 * Starts a server on a free port.
+	 *
+	 * @param eventLoops - Number of event loops, zero for the blocking model.
+	 */
+	public TestServer(int eventLoops) throws IOException
+	{
+		this(TestClient.freePort(), eventLoops);
+	}
+
+	private TestServer(int port, int eventLoops) throws IOException
+	{
+		super(port, eventLoops);
+		this.PORT = port;
+		Thread thread = new Thread(this, "test-server-" + port);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public TestClient connect() throws IOException
+	{
+		return new TestClient(PORT);
+	}
+
+	/**
+	 * @return next close status the listener was told, null if it was told none within 5 seconds.
+	 */
+	public Integer nextClose() throws InterruptedException
+	{
+		return CLOSED.poll(5, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void WebSocketOpen(WebSocketSession session)
+	{
+		OPENED.add(session);
+	}
+
+	@Override
+	public void WebSocketMessage(WebSocketSession session, String message)
+	{
+		MESSAGES.add(message);
+	}
+
+	@Override
+	public void WebSocketBinaryMessage(WebSocketSession session, byte[] data)
+	{
+		BINARY.add(data);
+	}
+
+	@Override
+	public void WebSocketError(WebSocketSession session, Exception e)
+	{
+		ERRORS.add(e);
+	}
+
+	@Override
+	public void WebSocketClose(WebSocketSession session, int status)
+	{
+		CLOSED.add(status);
+	}
+}
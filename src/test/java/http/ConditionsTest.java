@@ -0,0 +1,183 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Conditional requests answered with 304, and the entity tags they compare.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class ConditionsTest
+{
+	private static final FileTime MODIFIED = FileTime.fromMillis(1500000000000L);
+
+	private static final String TAG = "\"abc\"";
+
+	private static boolean notModified(String... headers) throws Exception
+	{
+		return notModifiedFor("GET", headers);
+	}
+
+	private static boolean notModifiedFor(String method, String... headers) throws Exception
+	{
+		StringBuilder head = new StringBuilder(method).append(" /file HTTP/1.1\r\nHost: localhost\r\n");
+		for(String header : headers)
+			head.append(header).append("\r\n");
+		Response full = Response.file(Content.TXT, null, 1000, MODIFIED, TAG);
+		return Conditions.notModified(FileCacheTest.request(head.append("\r\n").toString()), full);
+	}
+
+	@Test
+	public void matchesTagAmongList() throws Exception
+	{
+		assertTrue(notModified("If-None-Match: " + TAG));
+		assertTrue(notModified("If-None-Match: \"x\", " + TAG + ",\"y\""));
+		assertTrue(notModified("If-None-Match: \"x\",\t" + TAG));
+		assertFalse(notModified("If-None-Match: \"x\", \"y\""));
+		assertFalse(notModified("If-None-Match: \"ab\", \"abcd\""));
+	}
+
+	/**
+	 * If-None-Match compares weakly, so a weak tag of the same contents matches.
+	 */
+	@Test
+	public void matchesWeakTag() throws Exception
+	{
+		assertTrue(notModified("If-None-Match: W/" + TAG));
+		assertTrue(notModified("If-None-Match: \"x\", W/" + TAG));
+	}
+
+	@Test
+	public void matchesAnyTag() throws Exception
+	{
+		assertTrue(notModified("If-None-Match: *"));
+		assertTrue(notModified("If-None-Match:  * "));
+	}
+
+	@Test
+	public void ignoresMalformedTagList() throws Exception
+	{
+		assertFalse(notModified("If-None-Match: abc"));
+		assertFalse(notModified("If-None-Match: \"abc"));
+		assertFalse(notModified("If-None-Match: \"x\", abc, " + TAG));
+	}
+
+	/**
+	 * If-Modified-Since is ignored once client sent If-None-Match.
+	 */
+	@Test
+	public void prefersTagsOverDate() throws Exception
+	{
+		String date = "If-Modified-Since: " + HttpDate.format(MODIFIED.toMillis());
+		assertTrue(notModified(date));
+		assertFalse(notModified("If-None-Match: \"other\"", date));
+	}
+
+	@Test
+	public void comparesModificationDate() throws Exception
+	{
+		assertTrue(notModified("If-Modified-Since: " + HttpDate.format(MODIFIED.toMillis())));
+		assertTrue(notModified("If-Modified-Since: " + HttpDate.format(MODIFIED.toMillis() + 60000)));
+		assertFalse(notModified("If-Modified-Since: " + HttpDate.format(MODIFIED.toMillis() - 1000)));
+	}
+
+	/**
+	 * A date later than the server's clock proves nothing about client's copy.
+	 */
+	@Test
+	public void ignoresFutureDate() throws Exception
+	{
+		assertFalse(notModified("If-Modified-Since: " + HttpDate.format(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))));
+	}
+
+	@Test
+	public void ignoresMalformedDate() throws Exception
+	{
+		for(String date : new String[] {"yesterday", "Sat, 32 Jul 2017 02:40:00 GMT", "2017-07-14T02:40:00Z", ""})
+			assertFalse(date, notModified("If-Modified-Since: " + date));
+	}
+
+	@Test
+	public void onlyAppliesToGetAndHead() throws Exception
+	{
+		assertTrue(notModifiedFor("HEAD", "If-None-Match: " + TAG));
+		assertFalse(notModifiedFor("DELETE", "If-None-Match: " + TAG));
+	}
+
+	/**
+	 * A content tag only depends on the contents, which it leaves unread, and
+	 * a compressed variant's tag differs from the file's.
+	 */
+	@Test
+	public void tagsContentsByHash() throws Exception
+	{
+		ByteBuffer contents = ByteBuffer.wrap("body { color: red; }".getBytes(StandardCharsets.US_ASCII));
+		String tag = Conditions.tag(contents);
+		assertEquals(0, contents.position());
+		assertTrue(tag, tag.startsWith("\"") && tag.endsWith("\""));
+		assertEquals(tag, Conditions.tag(ByteBuffer.wrap("body { color: red; }".getBytes(StandardCharsets.US_ASCII))));
+		assertNotEquals(tag, Conditions.tag(ByteBuffer.wrap("body { color: blue; }".getBytes(StandardCharsets.US_ASCII))));
+		assertNotEquals(tag, Conditions.tag(tag, Encoding.GZIP));
+	}
+
+	/**
+	 * A cached file tagged by its contents answers a revalidation with the
+	 * 304 fields it serialized as it was loaded.
+	 */
+	@Test
+	public void answersCachedFileWithNotModified() throws Exception
+	{
+		Path root = Files.createTempDirectory("conditions");
+		Path file = FileCacheTest.file(root, "app.css", 0x1000);
+		FileCache cache = new FileCache();
+		try
+		{
+			cache.setContentHash(true);
+			StaticFiles files = new StaticFiles(root, cache);
+			String get = "GET /app.css HTTP/1.1\r\nHost: localhost\r\n";
+			files.handle(FileCacheTest.request(get + "\r\n")).close();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while(cache.getLoads() < 1 && System.nanoTime() < deadline)
+				Thread.sleep(5);
+			assertEquals(1, cache.getLoads());
+
+			Response cached = files.handle(FileCacheTest.request(get + "\r\n"));
+			String tag = cached.getTag();
+			assertEquals(Conditions.tag(ByteBuffer.wrap(Files.readAllBytes(file))), tag);
+			cached.close();
+
+			Response response = files.handle(FileCacheTest.request(get + "If-None-Match: W/\"x\", " + tag + "\r\n\r\n"));
+			assertEquals(Status.NOT_MODIFIED, response.getStatus());
+			assertEquals(2, cache.getHits());
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			while(!response.write(Channels.newChannel(bytes)));
+			String sent = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+			assertTrue(sent, sent.startsWith("HTTP/1.1 304 "));
+			assertTrue(sent, sent.contains("\r\nETag: " + tag + "\r\n"));
+			assertTrue(sent, sent.contains("\r\nLast-Modified: "));
+			assertFalse(sent, sent.contains("Content-Length"));
+			assertTrue(sent, sent.endsWith("\r\n\r\n"));
+		}
+		finally
+		{
+			cache.clear();
+			Files.delete(file);
+			Files.delete(root);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package http;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Requests answered from the cache against reading the file from disk, and
+ * the CPU a cached gzip variant costs against compressing every request.
+ * Benchmarks only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class FileCacheBenchmark
+{
+	private Path ROOT;
+
+	private FileCache CACHE;
+
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	@Before
+	public void start() throws Exception
+	{
+		ROOT = Files.createTempDirectory("file-cache");
+		CACHE = new FileCache();
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		CACHE.clear();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(ROOT))
+		{
+			for(Path file : files)
+				Files.delete(file);
+		}
+		Files.delete(ROOT);
+	}
+
+	/**
+	 * Waits until the cache loaded the file a request missed.
+	 */
+	private void awaitLoad() throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(CACHE.getLoads() < 1 && System.nanoTime() < deadline)
+			Thread.sleep(5);
+	}
+
+	/**
+	 * @return requests per second a handler answers, writing each response to {@link FileCacheTest#SINK}.
+	 */
+	private static long rate(RequestHandler handler, Request request) throws IOException
+	{
+		long requests = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			for(int i = 0; i < 100; i++)
+			{
+				Response response = handler.handle(request);
+				while(!response.write(FileCacheTest.SINK));
+				response.close();
+			}
+			requests += 100;
+		}
+		while((now = System.nanoTime()) < end);
+		return requests * TimeUnit.SECONDS.toNanos(1) / (now - start);
+	}
+
+	@Test
+	public void hitsAgainstColdReads() throws Exception
+	{
+		FileCacheTest.file(ROOT, "index.html", 0x10000);
+		Request request = FileCacheTest.request("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		StaticFiles cold = new StaticFiles(ROOT);
+		StaticFiles cached = new StaticFiles(ROOT, CACHE);
+		cached.handle(request).close();
+		awaitLoad();
+
+		long coldRate = 0, hitRate = 0;
+		for(int round = 0; round < 3; round++)
+		{
+			coldRate = rate(cold, request);
+			hitRate = rate(cached, request);
+		}
+		System.out.printf("FileCache: 64 KiB file, %,d hits/s, %,d cold reads/s%n", hitRate, coldRate);
+	}
+
+	@Test
+	public void cachedGzipAgainstCompressingPerRequest() throws Exception
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue("Thread CPU time is not supported.", threads.isCurrentThreadCpuTimeSupported());
+
+		byte[] contents = FileCacheTest.text(0x40000);
+		Files.write(ROOT.resolve("app.js"), contents);
+		Request request = FileCacheTest.request("GET /app.js HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n");
+		StaticFiles files = new StaticFiles(ROOT, CACHE);
+		files.handle(request).close();
+		awaitLoad();
+
+		int hits = 2000;
+		long saved = CACHE.getSavedBytes();
+		long cpu = threads.getCurrentThreadCpuTime();
+		for(int i = 0; i < hits; i++)
+		{
+			Response response = files.handle(request);
+			while(!response.write(FileCacheTest.SINK));
+			response.close();
+		}
+		long hitCpu = (threads.getCurrentThreadCpuTime() - cpu) / hits;
+		saved = (CACHE.getSavedBytes() - saved) / hits;
+
+		int compressions = 20;
+		cpu = threads.getCurrentThreadCpuTime();
+		for(int i = 0; i < compressions; i++)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length >> 2);
+			try(GZIPOutputStream out = new GZIPOutputStream(bytes, 0x10000))
+			{
+				out.write(contents);
+			}
+			FileCacheTest.SINK.write(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+		long onTheFlyCpu = (threads.getCurrentThreadCpuTime() - cpu) / compressions;
+
+		System.out.printf("FileCache: gzip saves %,d of %,d bytes per request, %,d ns of CPU per cached hit, %,d ns compressing on the fly%n",
+				saved, contents.length, hitCpu, onTheFlyCpu);
+	}
+}
@@ -0,0 +1,245 @@
+package http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Files loaded into the cache off the request path, and the bytes a cached
+ * gzip variant saves.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class FileCacheTest
+{
+	private static final Encoding[] IDENTITY = new Encoding[0];
+
+	private Path ROOT;
+
+	private FileCache CACHE;
+
+	@Before
+	public void start() throws Exception
+	{
+		ROOT = Files.createTempDirectory("file-cache");
+		CACHE = new FileCache();
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		CACHE.clear();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(ROOT))
+		{
+			for(Path file : files)
+				Files.delete(file);
+		}
+		Files.delete(ROOT);
+	}
+
+	/**
+	 * Channel throwing away what is written to it, as a fast client would.
+	 */
+	static final WritableByteChannel SINK = new WritableByteChannel()
+	{
+		@Override
+		public int write(ByteBuffer src)
+		{
+			int length = src.remaining();
+			src.position(src.limit());
+			return length;
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+		@Override
+		public void close() {}
+	};
+
+	static Request request(String head) throws BadRequestException
+	{
+		return new RequestParser().parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	static Path file(Path root, String name, int size) throws IOException
+	{
+		byte[] contents = new byte[size];
+		for(int i = 0; i < size; i++)
+			contents[i] = (byte) ('a' + i % 7);
+		return Files.write(root.resolve(name), contents);
+	}
+
+	/**
+	 * @return random words of at least size bytes, which compress as source files do.
+	 */
+	static byte[] text(int size)
+	{
+		String[] words = {"static", "file", "cache", "response", "header", "gzip", "request", "buffer", "socket", "event"};
+		Random random = new Random(7);
+		StringBuilder text = new StringBuilder();
+		while(text.length() < size)
+			text.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+		return text.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private void awaitLoads(long loads) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(CACHE.getLoads() < loads && System.nanoTime() < deadline)
+			Thread.sleep(5);
+		assertEquals(loads, CACHE.getLoads());
+	}
+
+	/**
+	 * @return body the response sends, read through a channel that copies it to the heap.
+	 */
+	private static byte[] body(Response response) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		while(!response.write(Channels.newChannel(bytes)));
+		response.close();
+		byte[] sent = bytes.toByteArray();
+		return Arrays.copyOfRange(sent, sent.length - (int) response.getLength(), sent.length);
+	}
+
+	@Test
+	public void missIsSentFromDiskWhileFileLoads() throws Exception
+	{
+		Path file = file(ROOT, "app.js", 0x100000);
+		StaticFiles files = new StaticFiles(ROOT, CACHE);
+
+		Response response = files.handle(request("GET /app.js HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+		assertArrayEquals(Files.readAllBytes(file), body(response));
+
+		awaitLoads(1);
+		Response cached = files.handle(request("GET /app.js HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+		assertArrayEquals(Files.readAllBytes(file), body(cached));
+		assertEquals(1, CACHE.getHits());
+	}
+
+	@Test
+	public void concurrentMissesShareOneLoad() throws Exception
+	{
+		final Path file = file(ROOT, "large.css", (int) FileCache.DEFAULT_MAX_FILE_SIZE);
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[16];
+		for(int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						CACHE.put(file, attributes, Content.CSS);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+
+		awaitLoads(1);
+		Thread.sleep(200);
+		assertEquals(1, CACHE.getLoads());
+		assertEquals(1, CACHE.getCount());
+	}
+
+	/**
+	 * A file truncated before its next check is sent as it was loaded,
+	 * through a channel that copies the cached body to the heap.
+	 */
+	@Test
+	public void sendsCachedCopyOfTruncatedFile() throws Exception
+	{
+		Path file = file(ROOT, "video.bin", 0x200000);
+		byte[] contents = Files.readAllBytes(file);
+		CACHE.setCheckInterval(TimeUnit.MINUTES.toMillis(1));
+		CACHE.put(file, Files.readAttributes(file, BasicFileAttributes.class), Content.find("video.bin"));
+		awaitLoads(1);
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			channel.truncate(0x10);
+		}
+		Response response = CACHE.get(file, IDENTITY);
+		assertNotNull(response);
+		assertArrayEquals(contents, body(response));
+	}
+
+	@Test
+	public void neverLoadsFileLargerThanLimit() throws Exception
+	{
+		Path file = file(ROOT, "huge.js", (int) FileCache.DEFAULT_MAX_FILE_SIZE + 1);
+		CACHE.put(file, Files.readAttributes(file, BasicFileAttributes.class), Content.find("huge.js"));
+		Thread.sleep(200);
+		assertEquals(0, CACHE.getLoads());
+		assertNull(CACHE.get(file, IDENTITY));
+	}
+
+	/**
+	 * Bytes a gzip variant saves on each request. What a cached variant costs
+	 * against compressing every request is measured by {@link FileCacheBenchmark}.
+	 */
+	@Test
+	public void cachedGzipSavesBytes() throws Exception
+	{
+		byte[] contents = text(0x40000);
+		Files.write(ROOT.resolve("app.js"), contents);
+
+		Request request = request("GET /app.js HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n");
+		StaticFiles files = new StaticFiles(ROOT, CACHE);
+		files.handle(request).close();
+		awaitLoads(1);
+
+		int hits = 20;
+		long saved = CACHE.getSavedBytes();
+		for(int i = 0; i < hits; i++)
+		{
+			Response response = files.handle(request);
+			assertEquals(Encoding.GZIP, response.getEncoding());
+			while(!response.write(SINK));
+			response.close();
+		}
+		saved = (CACHE.getSavedBytes() - saved) / hits;
+		assertTrue(saved + " bytes saved", saved > contents.length / 2);
+		assertEquals(1, CACHE.getLoads());
+	}
+}
@@ -0,0 +1,123 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Headers of requests parsed by {@link RequestParser}, found without regard
+ * to case and combined when repeated.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class HeadersTest
+{
+	private static Headers headers(String... fields) throws Exception
+	{
+		StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+		for(String field : fields)
+			head.append(field).append("\r\n");
+		return FileCacheTest.request(head.append("\r\n").toString()).getHeaders();
+	}
+
+	@Test
+	public void findsNamesRegardlessOfCase() throws Exception
+	{
+		Headers headers = headers("hOST: localhost", "X-Request-Id: 42", "accept-encoding: gzip");
+		assertEquals("localhost", headers.get(Header.HOST));
+		assertEquals("localhost", headers.get("Host"));
+		assertEquals("localhost", headers.get("HOST"));
+		assertEquals("42", headers.get("x-request-id"));
+		assertEquals("42", headers.get("X-REQUEST-ID"));
+		assertEquals("gzip", headers.get(Header.ACCEPT_ENCODING));
+		assertTrue(headers.contains(Header.ACCEPT_ENCODING));
+		assertFalse(headers.contains(Header.RANGE));
+		assertNull(headers.get(Header.RANGE));
+		assertNull(headers.get("X-Missing"));
+	}
+
+	@Test
+	public void keepsNamesAsSentAndTrimsValues() throws Exception
+	{
+		Headers headers = headers("hOST:   localhost \t", "X-Empty:", "X-Inner: a  b");
+		assertEquals(3, headers.size());
+		assertEquals("hOST", headers.getName(0));
+		assertEquals("localhost", headers.getValue(0));
+		assertEquals("", headers.get("X-Empty"));
+		assertEquals("a  b", headers.get("X-Inner"));
+	}
+
+	@Test
+	public void combinesRepeatedHeadersInOrder() throws Exception
+	{
+		Headers headers = headers("Accept-Encoding: gzip", "X-Tag: a", "accept-encoding: br", "x-tag: b, c", "X-TAG: d");
+		assertEquals(5, headers.size());
+		assertEquals("gzip, br", headers.get(Header.ACCEPT_ENCODING));
+		assertEquals("gzip, br", headers.get("Accept-Encoding"));
+		assertEquals("a, b, c, d", headers.get("X-Tag"));
+	}
+
+	@Test
+	public void findsTokenInCommaList() throws Exception
+	{
+		Headers headers = headers("Connection: keep-alive, Upgrade");
+		assertTrue(headers.containsToken(Header.CONNECTION, "upgrade"));
+		assertTrue(headers.containsToken(Header.CONNECTION, "Keep-Alive"));
+		assertFalse(headers.containsToken(Header.CONNECTION, "close"));
+		assertFalse(headers.containsToken(Header.CONNECTION, "keep"));
+		assertFalse(headers.containsToken(Header.CONNECTION, "alive, Upgrade"));
+		assertFalse(headers.containsToken(Header.UPGRADE, "websocket"));
+
+		Headers spaced = headers("Connection: \tfoo ,bar,, UPGRADE\t", "Connection: close");
+		assertTrue(spaced.containsToken(Header.CONNECTION, "foo"));
+		assertTrue(spaced.containsToken(Header.CONNECTION, "bar"));
+		assertTrue(spaced.containsToken(Header.CONNECTION, "upgrade"));
+		assertTrue(spaced.containsToken(Header.CONNECTION, "close"));
+	}
+
+	@Test
+	public void comparesValueOfSingleHeader() throws Exception
+	{
+		Headers headers = headers("Upgrade: WebSocket", "Sec-WebSocket-Version: 13", "Sec-WebSocket-Version: 8");
+		assertTrue(headers.valueEquals(Header.UPGRADE, "websocket"));
+		assertFalse(headers.valueEquals(Header.UPGRADE, "websocket2"));
+		assertFalse(headers.valueEquals(Header.UPGRADE, "web"));
+		assertFalse(headers.valueEquals(Header.CONNECTION, "upgrade"));
+
+		/*
+		 * A repeated header is a list, which never equals a single value.
+		 */
+		assertFalse(headers.valueEquals(Header.SEC_WEBSOCKET_VERSION, "13"));
+	}
+
+	/**
+	 * A head arriving a byte at a time is parsed into the same headers.
+	 */
+	@Test
+	public void parsesHeadArrivingInPieces() throws Exception
+	{
+		byte[] head = "GET / HTTP/1.1\r\nHost: localhost\r\nX-Tag: a\r\nx-tag: b\r\nConnection: Upgrade, keep-alive\r\n\r\n"
+				.getBytes(StandardCharsets.US_ASCII);
+		RequestParser parser = new RequestParser();
+		ByteBuffer data = ByteBuffer.allocate(head.length);
+		Request request = null;
+		for(int i = 0; i < head.length; i++)
+		{
+			assertNull(request);
+			data.put(head[i]).flip();
+			request = parser.parse(data);
+			data.compact();
+		}
+		Headers headers = request.getHeaders();
+		assertEquals("localhost", headers.get(Header.HOST));
+		assertEquals("a, b", headers.get("X-TAG"));
+		assertTrue(headers.containsToken(Header.CONNECTION, "upgrade"));
+	}
+}
@@ -0,0 +1,273 @@
+package http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Byte ranges answered from a file on disk and from a cached body.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class RangesTest
+{
+	private static final int LENGTH = 1000;
+
+	private static final FileTime MODIFIED = FileTime.fromMillis(1500000000000L);
+
+	private static final String TAG = "\"abc\"";
+
+	private byte[] CONTENTS;
+
+	private Path FILE;
+
+	@Before
+	public void start() throws Exception
+	{
+		CONTENTS = new byte[LENGTH];
+		for(int i = 0; i < LENGTH; i++)
+			CONTENTS[i] = (byte) i;
+		FILE = Files.createTempFile("ranges", ".bin");
+		Files.write(FILE, CONTENTS);
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		Files.delete(FILE);
+	}
+
+	/**
+	 * @return {@link Response} sending the whole file from disk.
+	 */
+	private Response file() throws IOException
+	{
+		Response response = Response.file(Content.TXT, null, LENGTH, MODIFIED, TAG);
+		response.body(FileChannel.open(FILE, StandardOpenOption.READ), 0);
+		return response;
+	}
+
+	/**
+	 * @return {@link Response} sending the whole file from memory, as a cache hit does.
+	 */
+	private Response cached()
+	{
+		Response response = Response.file(Content.TXT, null, LENGTH, MODIFIED, TAG);
+		response.body(ByteBuffer.wrap(CONTENTS).asReadOnlyBuffer());
+		return response;
+	}
+
+	private static Response apply(Response full, String... headers) throws Exception
+	{
+		StringBuilder head = new StringBuilder("GET /file HTTP/1.1\r\nHost: localhost\r\n");
+		for(String header : headers)
+			head.append(header).append("\r\n");
+		return Ranges.apply(FileCacheTest.request(head.append("\r\n").toString()), full);
+	}
+
+	/**
+	 * Sent response, split into its head and body.
+	 */
+	private static final class Sent
+	{
+		final String HEAD;
+		final byte[] BODY;
+
+		Sent(Response response) throws IOException
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			while(!response.write(Channels.newChannel(bytes)));
+			response.close();
+			byte[] sent = bytes.toByteArray();
+			String text = new String(sent, StandardCharsets.ISO_8859_1);
+			int end = text.indexOf("\r\n\r\n") + 4;
+			HEAD = text.substring(0, end);
+			BODY = Arrays.copyOfRange(sent, end, sent.length);
+		}
+
+		String header(String name)
+		{
+			for(String line : HEAD.split("\r\n"))
+				if(line.regionMatches(true, 0, name + ":", 0, name.length() + 1))
+					return line.substring(name.length() + 1).trim();
+			return null;
+		}
+
+		String status()
+		{
+			return HEAD.substring("HTTP/1.1 ".length(), "HTTP/1.1 ".length() + 3);
+		}
+	}
+
+	private void assertRange(Sent sent, int start, int end)
+	{
+		assertEquals("206", sent.status());
+		assertEquals("bytes " + start + "-" + (end - 1) + "/" + LENGTH, sent.header("Content-Range"));
+		assertEquals(String.valueOf(end - start), sent.header("Content-Length"));
+		assertArrayEquals(Arrays.copyOfRange(CONTENTS, start, end), sent.BODY);
+	}
+
+	@Test
+	public void sendsSingleRange() throws Exception
+	{
+		assertRange(new Sent(apply(file(), "Range: bytes=10-19")), 10, 20);
+		assertRange(new Sent(apply(cached(), "Range: bytes=10-19")), 10, 20);
+	}
+
+	@Test
+	public void sendsOpenEndedRange() throws Exception
+	{
+		assertRange(new Sent(apply(file(), "Range: bytes=990-")), 990, LENGTH);
+	}
+
+	@Test
+	public void clampsRangePastEnd() throws Exception
+	{
+		assertRange(new Sent(apply(file(), "Range: bytes=900-5000")), 900, LENGTH);
+	}
+
+	@Test
+	public void sendsSuffixRange() throws Exception
+	{
+		assertRange(new Sent(apply(file(), "Range: bytes=-100")), 900, LENGTH);
+		assertRange(new Sent(apply(cached(), "Range: bytes=-100")), 900, LENGTH);
+	}
+
+	@Test
+	public void sendsWholeFileForSuffixLongerThanFile() throws Exception
+	{
+		assertRange(new Sent(apply(file(), "Range: bytes=-5000")), 0, LENGTH);
+	}
+
+	@Test
+	public void refusesEmptySuffix() throws Exception
+	{
+		Sent sent = new Sent(apply(file(), "Range: bytes=-0"));
+		assertEquals("416", sent.status());
+		assertEquals("bytes */" + LENGTH, sent.header("Content-Range"));
+	}
+
+	@Test
+	public void refusesRangesPastEnd() throws Exception
+	{
+		Sent sent = new Sent(apply(cached(), "Range: bytes=1000-,2000-3000"));
+		assertEquals("416", sent.status());
+		assertEquals("bytes */" + LENGTH, sent.header("Content-Range"));
+	}
+
+	@Test
+	public void ignoresMalformedRange() throws Exception
+	{
+		for(String range : new String[] {"bytes=20-10", "bytes=abc", "bytes=1-2-3", "items=0-10", "bytes=", "bytes=-", "bytes=--5"})
+		{
+			Response full = file();
+			assertSame(range, full, apply(full, "Range: " + range));
+			full.close();
+		}
+	}
+
+	@Test
+	public void ignoresRangeOfHeadRequest() throws Exception
+	{
+		Response full = file();
+		Request head = FileCacheTest.request("HEAD /file HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-9\r\n\r\n");
+		assertSame(full, Ranges.apply(head, full));
+		full.close();
+	}
+
+	@Test
+	public void ignoresTooManyRanges() throws Exception
+	{
+		StringBuilder range = new StringBuilder("Range: bytes=0-0");
+		for(int i = 1; i <= 16; i++)
+			range.append(',').append(i * 10).append('-').append(i * 10);
+		Response full = file();
+		assertSame(full, apply(full, range.toString()));
+		full.close();
+	}
+
+	@Test
+	public void sendsRangeWithMatchingIfRange() throws Exception
+	{
+		assertRange(new Sent(apply(file(), "Range: bytes=0-9", "If-Range: " + TAG)), 0, 10);
+		assertRange(new Sent(apply(file(), "Range: bytes=0-9", "If-Range: " + HttpDate.format(MODIFIED.toMillis()))), 0, 10);
+	}
+
+	@Test
+	public void sendsWholeFileForWeakOrStaleIfRange() throws Exception
+	{
+		for(String condition : new String[] {"W/" + TAG, "\"other\"", HttpDate.format(MODIFIED.toMillis() + 1000), "not a date"})
+		{
+			Response full = file();
+			assertSame(condition, full, apply(full, "Range: bytes=0-9", "If-Range: " + condition));
+			full.close();
+		}
+	}
+
+	@Test
+	public void sendsMultipartRanges() throws Exception
+	{
+		int[][] ranges = {{0, 10}, {500, 600}, {990, 1000}};
+		for(Response full : new Response[] {file(), cached()})
+		{
+			Sent sent = new Sent(apply(full, "Range: bytes=0-9, 500-599, -10"));
+			assertEquals("206", sent.status());
+			String type = sent.header("Content-Type");
+			assertTrue(type, type.startsWith("multipart/byteranges; boundary="));
+			String boundary = type.substring(type.indexOf('=') + 1);
+			assertNull(sent.header("Content-Range"));
+
+			/*
+			 * Content-Length counts the part heads and the closing boundary.
+			 */
+			assertEquals(String.valueOf(sent.BODY.length), sent.header("Content-Length"));
+
+			String body = new String(sent.BODY, StandardCharsets.ISO_8859_1);
+			int at = 0;
+			for(int[] range : ranges)
+			{
+				String head = (at > 0 ? "\r\n" : "") + "--" + boundary + "\r\nContent-Type: " + Content.TXT.getMime()
+						+ "\r\nContent-Range: bytes " + range[0] + "-" + (range[1] - 1) + "/" + LENGTH + "\r\n\r\n";
+				assertTrue(body.startsWith(head, at));
+				at += head.length();
+				assertArrayEquals(Arrays.copyOfRange(CONTENTS, range[0], range[1]), Arrays.copyOfRange(sent.BODY, at, at + range[1] - range[0]));
+				at += range[1] - range[0];
+			}
+			assertEquals("\r\n--" + boundary + "--\r\n", body.substring(at));
+		}
+	}
+
+	/**
+	 * Overlapping ranges are not merged, so each part is exactly the region
+	 * client asked for.
+	 */
+	@Test
+	public void sendsOverlappingRangesAsAskedFor() throws Exception
+	{
+		Sent sent = new Sent(apply(file(), "Range: bytes=0-99, 50-149"));
+		assertEquals("206", sent.status());
+		assertEquals(String.valueOf(sent.BODY.length), sent.header("Content-Length"));
+		String body = new String(sent.BODY, StandardCharsets.ISO_8859_1);
+		assertTrue(body.contains("Content-Range: bytes 0-99/" + LENGTH));
+		assertTrue(body.contains("Content-Range: bytes 50-149/" + LENGTH));
+	}
+}
@@ -0,0 +1,129 @@
+package http;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Heads serialized as bytes, against building them as a string and encoding
+ * it. Benchmarks only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class ResponseBenchmark
+{
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	/**
+	 * Way of sending a head to a channel that discards it.
+	 */
+	private interface Serializer
+	{
+		void write() throws IOException;
+	}
+
+	/**
+	 * Head serialized the way the server does.
+	 */
+	private static final Serializer BYTES = new Serializer()
+	{
+		@Override
+		public void write() throws IOException
+		{
+			Response response = head();
+			while(!response.write(FileCacheTest.SINK));
+		}
+	};
+
+	/**
+	 * Same head built as a string and encoded for every response.
+	 */
+	private static final Serializer STRING = new Serializer()
+	{
+		@Override
+		public void write() throws IOException
+		{
+			StringBuilder head = new StringBuilder(256);
+			head.append("HTTP/1.1 ").append(Status.OK.toString()).append("\r\n");
+			head.append("Content-Type: ").append(Content.JS.getMime()).append("\r\n");
+			head.append("Content-Length: ").append(0x10000).append("\r\n");
+			head.append("Accept-Ranges: bytes\r\n");
+			head.append("Cache-Control: max-age=3600\r\n");
+			head.append("Vary: Accept-Encoding\r\n");
+			head.append("Server: HTTPDroid_0.1\r\n");
+			head.append("Date: ").append(HttpDate.format(System.currentTimeMillis())).append("\r\n\r\n");
+			FileCacheTest.SINK.write(ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.US_ASCII)));
+		}
+	};
+
+	private static Response head()
+	{
+		Response response = new Response(Status.OK, Content.JS, 0x10000);
+		response.addHeader("Accept-Ranges", "bytes");
+		response.addHeader("Cache-Control", "max-age=3600");
+		response.addHeader("Vary", "Accept-Encoding");
+		return response;
+	}
+
+	/**
+	 * @return heads per second, and bytes allocated per head if the runtime measures them.
+	 */
+	private static long[] measure(Serializer serializer) throws IOException
+	{
+		for(int i = 0; i < 200000; i++)
+			serializer.write();
+
+		com.sun.management.ThreadMXBean threads = allocations();
+		long id = Thread.currentThread().getId();
+		long allocated = threads != null ? threads.getThreadAllocatedBytes(id) : 0;
+		long heads = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			for(int i = 0; i < 1000; i++)
+				serializer.write();
+			heads += 1000;
+		}
+		while((now = System.nanoTime()) < end);
+		long rate = heads * TimeUnit.SECONDS.toNanos(1) / (now - start);
+		return new long[] {rate, threads != null ? (threads.getThreadAllocatedBytes(id) - allocated) / heads : -1};
+	}
+
+	@Test
+	public void serializesHeads() throws Exception
+	{
+		long[] bytes = measure(BYTES);
+		long[] string = measure(STRING);
+		System.out.printf("Response: %,d heads/s allocating %,d bytes each as bytes, %,d heads/s allocating %,d bytes each as a string%n",
+				bytes[0], bytes[1], string[0], string[1]);
+	}
+
+	/**
+	 * @return bean measuring the bytes threads allocate, or null if the runtime has none.
+	 */
+	private static com.sun.management.ThreadMXBean allocations()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		if(!allocations.isThreadAllocatedMemorySupported())
+			return null;
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		return allocations;
+	}
+}
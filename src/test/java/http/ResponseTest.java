@@ -0,0 +1,156 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Bytes of the heads responses write, field by field.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class ResponseTest
+{
+	private static final String SERVER = "Server: HTTPDroid_0.1\r\n";
+
+	/**
+	 * @return everything the response sends, one char per byte.
+	 */
+	private static String sent(Response response) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		while(!response.write(Channels.newChannel(bytes)));
+		response.close();
+		return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Asserts the exact bytes sent, whose Date field must be the current time.
+	 *
+	 * @param fields - Status line and fields expected before Date.
+	 * @param tail - Connection field, if any, and the empty line ending the head.
+	 * @param body - Expected body.
+	 * @param sent - Bytes sent.
+	 */
+	private static void assertSent(String fields, String tail, String body, String sent)
+	{
+		assertTrue(sent, sent.startsWith(fields + "Date: "));
+		int end = sent.indexOf("\r\n", fields.length());
+		long date = HttpDate.parse(sent.substring(fields.length() + "Date: ".length(), end));
+		assertTrue(sent, Math.abs(System.currentTimeMillis() / 1000 - date) <= 2);
+		assertEquals(fields + sent.substring(fields.length(), end + 2) + tail + body, sent);
+	}
+
+	@Test
+	public void writesHeadOfError() throws Exception
+	{
+		assertSent("HTTP/1.1 404 Not Found\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: 13\r\n" + SERVER,
+				"\r\n", "404 Not Found", sent(Response.error(Status.NOT_FOUND)));
+	}
+
+	@Test
+	public void writesAddedFieldsInOrder() throws Exception
+	{
+		Response response = new Response(Status.OK, Content.HTML, 5);
+		response.addHeader("Cache-Control", "no-cache");
+		response.addHeader("X-Frame-Options", "DENY");
+		response.body(ByteBuffer.wrap("hello".getBytes(StandardCharsets.US_ASCII)));
+		response.setKeepAlive(false);
+		assertSent("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\nContent-Length: 5\r\n"
+				+ "Cache-Control: no-cache\r\nX-Frame-Options: DENY\r\n" + SERVER, "Connection: close\r\n\r\n", "hello", sent(response));
+	}
+
+	@Test
+	public void writesNoLengthWithoutContent() throws Exception
+	{
+		assertSent("HTTP/1.1 204 No Content\r\n" + SERVER, "\r\n", "", sent(new Response(Status.NO_CONTENT)));
+		assertSent("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n" + SERVER, "\r\n", "", sent(new Response(Status.OK)));
+	}
+
+	/**
+	 * A HEAD request is told the length of the body it does not get, and an
+	 * HTTP/1.0 client asking to keep the connection open is told it is kept.
+	 */
+	@Test
+	public void writesLengthOfOmittedBodyAndAnnouncedKeepAlive() throws Exception
+	{
+		RequestHandler handler = new RequestHandler()
+		{
+			@Override
+			public Response handle(Request request)
+			{
+				Response response = new Response(Status.OK, Content.TXT, 3);
+				response.body(ByteBuffer.wrap(new byte[] {'a', 'b', 'c'}));
+				return response;
+			}
+		};
+		Response response = Response.respond(handler, FileCacheTest.request("HEAD / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"));
+		assertSent("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: 3\r\n" + SERVER,
+				"Connection: keep-alive\r\n\r\n", "", sent(response));
+	}
+
+	/**
+	 * Fields larger than the space a thread assembles them in are assembled
+	 * again in a larger one.
+	 */
+	@Test
+	public void writesFieldsLargerThanScratch() throws Exception
+	{
+		StringBuilder value = new StringBuilder();
+		while(value.length() < 2000)
+			value.append("abcdefghij");
+		Response response = new Response(Status.OK);
+		response.addHeader("X-Large", value.toString());
+		assertSent("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nX-Large: " + value + "\r\n" + SERVER, "\r\n", "", sent(response));
+
+		Response small = new Response(Status.OK);
+		small.addHeader("X-Small", "1");
+		assertSent("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nX-Small: 1\r\n" + SERVER, "\r\n", "", sent(small));
+	}
+
+	/**
+	 * A channel taking a few bytes at a time receives the same bytes over
+	 * several calls.
+	 */
+	@Test
+	public void resumesAfterPartialWrites() throws Exception
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel trickle = new WritableByteChannel()
+		{
+			@Override
+			public int write(ByteBuffer src)
+			{
+				int length = Math.min(7, src.remaining());
+				for(int i = 0; i < length; i++)
+					bytes.write(src.get());
+				return length;
+			}
+
+			@Override
+			public boolean isOpen()
+			{
+				return true;
+			}
+
+			@Override
+			public void close() {}
+		};
+		Response response = Response.error(Status.BAD_REQUEST);
+		int writes = 1;
+		while(!response.write(trickle))
+			writes++;
+		assertTrue(writes > 1);
+		assertSent("HTTP/1.1 400 Bad Request\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: 15\r\n" + SERVER,
+				"\r\n", "400 Bad Request", new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1));
+	}
+}
@@ -0,0 +1,49 @@
+package http;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Lookups among a thousand routes, static and with parameters. Benchmarks
+ * only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class RouterBenchmark
+{
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	@Test
+	public void looksUpAmongThousandRoutes()
+	{
+		Router<String> router = new Router<String>();
+		String[] paths = RouterTest.thousandRoutes(router);
+		int[] offsets = new int[router.getMaxParameters() << 1];
+		for(int round = 0; round < 200; round++)
+			for(String path : paths)
+				router.find(path, 0, path.length(), offsets);
+
+		long lookups = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			for(String path : paths)
+				if(router.find(path, 0, path.length(), offsets) == null)
+					throw new AssertionError("No route for " + path);
+			lookups += paths.length;
+		}
+		while((now = System.nanoTime()) < end);
+		System.out.printf("Router: %,d lookups/s among %,d routes%n", lookups * TimeUnit.SECONDS.toNanos(1) / (now - start), router.size());
+	}
+}
@@ -0,0 +1,163 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Routes matched by the trie, and lookups among a thousand routes.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class RouterTest
+{
+	private static String find(Router<String> router, String path, int[] offsets)
+	{
+		return router.find(path, 0, path.length(), offsets);
+	}
+
+	private static String parameter(String path, int[] offsets, int index)
+	{
+		return path.substring(offsets[index << 1], offsets[(index << 1) + 1]);
+	}
+
+	@Test
+	public void prefersStaticOverParameterOverWildcard()
+	{
+		Router<String> router = new Router<String>();
+		router.add("/users/me", "me");
+		router.add("/users/{id}", "user");
+		router.add("/users/*", "rest");
+		int[] offsets = new int[2];
+
+		assertEquals("me", find(router, "/users/me", offsets));
+		assertEquals("user", find(router, "/users/42", offsets));
+		assertEquals("42", parameter("/users/42", offsets, 0));
+		assertEquals("rest", find(router, "/users/42/posts", offsets));
+		assertEquals("rest", find(router, "/users/", offsets));
+	}
+
+	@Test
+	public void backsUpWhenPreferredChoiceLeadsNowhere()
+	{
+		Router<String> router = new Router<String>();
+		router.add("/files/static/index", "index");
+		router.add("/files/{name}/raw", "raw");
+		int[] offsets = new int[2];
+
+		assertEquals("raw", find(router, "/files/static/raw", offsets));
+		assertEquals("static", parameter("/files/static/raw", offsets, 0));
+		assertNull(find(router, "/files/static/other", offsets));
+	}
+
+	@Test
+	public void capturesParametersOfRequest() throws Exception
+	{
+		Router<String> router = new Router<String>();
+		router.add("/users/{user}/posts/{post}", "post");
+		Request request = FileCacheTest.request("GET /users/ada/posts/7?full=1 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+		assertEquals("post", router.find(request));
+		assertEquals("ada", request.getParameter("user"));
+		assertEquals("7", request.getParameter("post"));
+		assertEquals(2, router.getMaxParameters());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesSamePatternTwice()
+	{
+		Router<String> router = new Router<String>();
+		router.add("/users/{id}", "a");
+		router.add("/users/{name}", "b");
+	}
+
+	@Test
+	public void parameterNeverMatchesEmptySegment()
+	{
+		Router<String> router = new Router<String>();
+		router.add("/users/{id}", "user");
+		assertNull(find(router, "/users/", new int[2]));
+	}
+
+	/**
+	 * Adds a thousand routes, static and with parameters.
+	 *
+	 * @return a path matching each of the routes.
+	 */
+	static String[] thousandRoutes(Router<String> router)
+	{
+		String[] paths = new String[1000];
+		for(int i = 0; i < 250; i++)
+		{
+			router.add("/api/v1/service" + i + "/status", "status" + i);
+			router.add("/api/v1/service" + i + "/items/{id}", "item" + i);
+			router.add("/api/v2/service" + i + "/{group}/items/{id}", "grouped" + i);
+			router.add("/assets/bundle" + i + "/*", "asset" + i);
+			paths[i << 2] = "/api/v1/service" + i + "/status";
+			paths[(i << 2) + 1] = "/api/v1/service" + i + "/items/" + (i * 31);
+			paths[(i << 2) + 2] = "/api/v2/service" + i + "/north/items/" + i;
+			paths[(i << 2) + 3] = "/assets/bundle" + i + "/js/app.js";
+		}
+		return paths;
+	}
+
+	/**
+	 * Lookups among a thousand routes, which allocate nothing however many
+	 * there are. How fast they are is measured by {@link RouterBenchmark}.
+	 */
+	@Test
+	public void looksUpAmongThousandRoutes()
+	{
+		Router<String> router = new Router<String>();
+		String[] paths = thousandRoutes(router);
+		assertEquals(1000, router.size());
+		int[] offsets = new int[router.getMaxParameters() << 1];
+		String[] kinds = {"status", "item", "grouped", "asset"};
+		for(int i = 0; i < paths.length; i++)
+			assertEquals(paths[i], kinds[i & 3] + (i >> 2), find(router, paths[i], offsets));
+		assertEquals("grouped17", find(router, paths[(17 << 2) + 2], offsets));
+		assertEquals("north", parameter(paths[(17 << 2) + 2], offsets, 0));
+		assertEquals("17", parameter(paths[(17 << 2) + 2], offsets, 1));
+		assertNull(find(router, "/api/v1/service250/status", offsets));
+
+		/*
+		 * Warm up before measuring, so the compiler had its chance to
+		 * remove what escape analysis can.
+		 */
+		for(int round = 0; round < 200; round++)
+			for(String path : paths)
+				find(router, path, offsets);
+
+		com.sun.management.ThreadMXBean threads = allocations();
+		long id = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(id);
+		int lookups = 0;
+		for(int round = 0; round < 200; round++)
+		{
+			for(String path : paths)
+				find(router, path, offsets);
+			lookups += paths.length;
+		}
+		allocated = threads.getThreadAllocatedBytes(id) - allocated;
+		assertTrue(allocated + " bytes allocated by " + lookups + " lookups", allocated < lookups / 100);
+	}
+
+	/**
+	 * @return bean measuring the bytes threads allocate, skipping the test if the runtime has none.
+	 */
+	private static com.sun.management.ThreadMXBean allocations()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue("Allocated bytes are not measured.", threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		assumeTrue("Allocated bytes are not measured.", allocations.isThreadAllocatedMemorySupported());
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		return allocations;
+	}
+}
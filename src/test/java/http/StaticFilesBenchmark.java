@@ -0,0 +1,145 @@
+package http;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Files of 1 KB to 100 MB sent to a loopback socket, from disk and from the
+ * cache. Benchmarks only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class StaticFilesBenchmark
+{
+	private static final int[] SIZES = {0x400, 0x10000, 0x100000, 0xA00000, 0x6400000};
+
+	private Path ROOT;
+
+	private FileCache CACHE;
+
+	private SocketChannel CLIENT;
+
+	private SocketChannel SERVER;
+
+	private Thread DRAIN;
+
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	@Before
+	public void start() throws Exception
+	{
+		ROOT = Files.createTempDirectory("static-files");
+		CACHE = new FileCache();
+		try(ServerSocketChannel listener = ServerSocketChannel.open())
+		{
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			CLIENT = SocketChannel.open(listener.getLocalAddress());
+			SERVER = listener.accept();
+		}
+
+		/*
+		 * Client reads everything as fast as it arrives.
+		 */
+		DRAIN = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ByteBuffer buffer = ByteBuffer.allocateDirect(0x40000);
+				try
+				{
+					while(CLIENT.read(buffer) >= 0)
+						buffer.clear();
+				}
+				catch (IOException e)
+				{
+					// Closed once the benchmark ends.
+				}
+			}
+		});
+		DRAIN.setDaemon(true);
+		DRAIN.start();
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		CACHE.clear();
+		SERVER.close();
+		CLIENT.close();
+		DRAIN.join(5000);
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(ROOT))
+		{
+			for(Path file : files)
+				Files.delete(file);
+		}
+		Files.delete(ROOT);
+	}
+
+	/**
+	 * @return bytes per second of bodies the handler sends for the request to the loopback socket.
+	 */
+	private long throughput(RequestHandler handler, Request request, long size) throws IOException
+	{
+		long requests = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			Response response = handler.handle(request);
+			while(!response.write(SERVER));
+			response.close();
+			requests++;
+		}
+		while((now = System.nanoTime()) < end);
+		return requests * size * TimeUnit.SECONDS.toNanos(1) / (now - start);
+	}
+
+	@Test
+	public void servesOneKilobyteToHundredMegabytes() throws Exception
+	{
+		StaticFiles cold = new StaticFiles(ROOT);
+		StaticFiles cached = new StaticFiles(ROOT, CACHE);
+		for(int size : SIZES)
+		{
+			String name = "file-" + size + ".bin";
+			FileCacheTest.file(ROOT, name, size);
+			Request request = FileCacheTest.request("GET /" + name + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			long loads = CACHE.getLoads();
+			cached.handle(request).close();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while(size <= FileCache.DEFAULT_MAX_FILE_SIZE && CACHE.getLoads() == loads && System.nanoTime() < deadline)
+				Thread.sleep(5);
+
+			long disk = 0, memory = 0;
+			for(int round = 0; round < 3; round++)
+			{
+				disk = throughput(cold, request, size);
+				memory = throughput(cached, request, size);
+			}
+			System.out.printf("StaticFiles: %,11d bytes, %,6d MB/s from disk, %,6d MB/s %s%n",
+					size, disk >> 20, memory >> 20, CACHE.getLoads() > loads ? "from the cache" : "past the cache's limit");
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Paths mapped to the files below the root, and how their responses end.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class StaticFilesTest
+{
+	private Path PARENT;
+
+	private Path ROOT;
+
+	private StaticFiles FILES;
+
+	@Before
+	public void start() throws Exception
+	{
+		PARENT = Files.createTempDirectory("static-files");
+		ROOT = Files.createDirectory(PARENT.resolve("root"));
+		Files.createDirectory(ROOT.resolve("docs"));
+		Files.write(ROOT.resolve("index.html"), "<h1>root</h1>".getBytes(StandardCharsets.US_ASCII));
+		Files.write(ROOT.resolve("docs").resolve("index.html"), "<h1>docs</h1>".getBytes(StandardCharsets.US_ASCII));
+		FileCacheTest.file(ROOT, "app.js", 100);
+		Files.write(PARENT.resolve("secret.txt"), "secret".getBytes(StandardCharsets.US_ASCII));
+		FILES = new StaticFiles(ROOT);
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		Files.delete(ROOT.resolve("docs").resolve("index.html"));
+		Files.delete(ROOT.resolve("docs"));
+		Files.delete(ROOT.resolve("index.html"));
+		Files.delete(ROOT.resolve("app.js"));
+		Files.delete(ROOT);
+		Files.delete(PARENT.resolve("secret.txt"));
+		Files.delete(PARENT);
+	}
+
+	/**
+	 * @return everything the response sends, one char per byte.
+	 */
+	private static String sent(Response response) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		while(!response.write(Channels.newChannel(bytes)));
+		response.close();
+		return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return response a server sends for the request.
+	 */
+	private String respond(String method, String path, String... headers) throws Exception
+	{
+		StringBuilder head = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+		for(String header : headers)
+			head.append(header).append("\r\n");
+		return sent(Response.respond(FILES, FileCacheTest.request(head.append("\r\n").toString())));
+	}
+
+	private static String header(String sent, String name)
+	{
+		for(String line : sent.substring(0, sent.indexOf("\r\n\r\n")).split("\r\n"))
+			if(line.regionMatches(true, 0, name + ":", 0, name.length() + 1))
+				return line.substring(name.length() + 1).trim();
+		return null;
+	}
+
+	private static String body(String sent)
+	{
+		return sent.substring(sent.indexOf("\r\n\r\n") + 4);
+	}
+
+	@Test
+	public void servesIndexOfDirectory() throws Exception
+	{
+		String root = respond("GET", "/");
+		assertTrue(root, root.startsWith("HTTP/1.1 200 "));
+		assertEquals("text/html", header(root, "Content-Type").split(";")[0]);
+		assertEquals("<h1>root</h1>", body(root));
+		assertEquals("<h1>docs</h1>", body(respond("GET", "/docs/")));
+	}
+
+	@Test
+	public void redirectsDirectoryWithoutSlash() throws Exception
+	{
+		String sent = respond("GET", "/docs?page=2");
+		assertTrue(sent, sent.startsWith("HTTP/1.1 301 "));
+		assertEquals("/docs/", header(sent, "Location"));
+	}
+
+	@Test
+	public void neverServesOutsideOfRoot() throws Exception
+	{
+		for(String path : new String[] {"/../secret.txt", "/docs/../../secret.txt", "/%2e%2e/secret.txt", "/docs/%2E%2E/%2e%2e/secret.txt"})
+		{
+			assertNull(path, FILES.handle(FileCacheTest.request("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")));
+			assertTrue(path, respond("GET", path).startsWith("HTTP/1.1 404 "));
+		}
+	}
+
+	@Test
+	public void refusesOtherMethods() throws Exception
+	{
+		for(String method : new String[] {"POST", "PUT", "DELETE", "OPTIONS"})
+		{
+			String sent = respond(method, "/app.js", "Content-Length: 0");
+			assertTrue(sent, sent.startsWith("HTTP/1.1 405 "));
+			assertEquals("GET, HEAD", header(sent, "Allow"));
+		}
+	}
+
+	@Test
+	public void answersHeadWithoutBody() throws Exception
+	{
+		String sent = respond("HEAD", "/app.js");
+		assertTrue(sent, sent.startsWith("HTTP/1.1 200 "));
+		assertEquals("100", header(sent, "Content-Length"));
+		assertEquals(header(respond("GET", "/app.js"), "ETag"), header(sent, "ETag"));
+		assertEquals("", body(sent));
+	}
+
+	/**
+	 * HTTP/1.1 connections stay open without saying so, HTTP/1.0 ones only
+	 * when client asked, and a client asking to close is told it is closed.
+	 */
+	@Test
+	public void keepsConnectionAliveAsClientAsks() throws Exception
+	{
+		Response kept = Response.respond(FILES, FileCacheTest.request("GET /app.js HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+		assertTrue(kept.isKeepAlive());
+		assertNull(header(sent(kept), "Connection"));
+
+		Response announced = Response.respond(FILES, FileCacheTest.request("GET /app.js HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"));
+		assertTrue(announced.isKeepAlive());
+		assertEquals("keep-alive", header(sent(announced), "Connection"));
+
+		Response closed = Response.respond(FILES, FileCacheTest.request("GET /app.js HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+		assertFalse(closed.isKeepAlive());
+		assertEquals("close", header(sent(closed), "Connection"));
+
+		Response old = Response.respond(FILES, FileCacheTest.request("GET /app.js HTTP/1.0\r\n\r\n"));
+		assertFalse(old.isKeepAlive());
+		assertEquals("close", header(sent(old), "Connection"));
+	}
+}
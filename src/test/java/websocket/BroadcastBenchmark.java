@@ -0,0 +1,198 @@
+package websocket;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Messages broadcast to many sessions, encoded once into a shared frame,
+ * against encoding the message and its header again for every session.
+ * Benchmarks only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class BroadcastBenchmark
+{
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	/**
+	 * Way of sending a message to every session.
+	 */
+	private interface Sender
+	{
+		void send(String message, List<SocketOutbound> sessions) throws IOException;
+	}
+
+	private static final Sender BROADCAST = new Sender()
+	{
+		@Override
+		public void send(String message, List<SocketOutbound> sessions) throws IOException
+		{
+			Broadcast broadcast = new Broadcast(message);
+			for(SocketOutbound session : sessions)
+				session.write(broadcast.frame());
+		}
+	};
+
+	/**
+	 * Message sent the way a single send is, once per session.
+	 */
+	private static final Sender PER_SESSION = new Sender()
+	{
+		private final ByteBuffer HEADER = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+
+		@Override
+		public void send(String message, List<SocketOutbound> sessions) throws IOException
+		{
+			for(SocketOutbound session : sessions)
+			{
+				ByteBuffer payload = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+				HEADER.clear();
+				FrameEncoder.header(HEADER, OpCode.TEXT, payload.remaining());
+				HEADER.flip();
+				session.write(HEADER, payload);
+			}
+		}
+	};
+
+	/**
+	 * Clients reading everything sent to them on one thread.
+	 */
+	private static final class Clients implements Runnable
+	{
+		private final Selector SELECTOR;
+
+		private final AtomicLong RECEIVED = new AtomicLong();
+
+		Clients() throws IOException
+		{
+			this.SELECTOR = Selector.open();
+		}
+
+		@Override
+		public void run()
+		{
+			ByteBuffer data = ByteBuffer.allocateDirect(0x10000);
+			try
+			{
+				while(SELECTOR.isOpen())
+				{
+					SELECTOR.select();
+					Iterator<SelectionKey> keys = SELECTOR.selectedKeys().iterator();
+					while(keys.hasNext())
+					{
+						SocketChannel client = (SocketChannel) keys.next().channel();
+						keys.remove();
+						int read;
+						while((read = client.read(data)) > 0)
+						{
+							RECEIVED.addAndGet(read);
+							data.clear();
+						}
+					}
+				}
+			}
+			catch (Exception e)
+			{
+				// Selector was closed.
+			}
+		}
+	}
+
+	/**
+	 * @return broadcasts per second, counted once the clients received all of them.
+	 */
+	private static long rate(Sender sender, String message, List<SocketOutbound> sessions, Clients clients) throws Exception
+	{
+		int frame = new Broadcast(message).size();
+		for(int i = 0; i < 20; i++)
+			sender.send(message, sessions);
+
+		long sent = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(1);
+		do
+		{
+			sender.send(message, sessions);
+			++sent;
+		}
+		while(System.nanoTime() < end);
+		long expected = (sent + 20) * frame * sessions.size();
+		while(clients.RECEIVED.get() < expected)
+			Thread.sleep(1);
+		long rate = sent * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start);
+		clients.RECEIVED.addAndGet(-expected);
+		return rate;
+	}
+
+	private static String message(int length)
+	{
+		StringBuilder message = new StringBuilder(length);
+		while(message.length() < length)
+			message.append("{\"tick\":42,\"price\":\"12.50\"}");
+		return message.substring(0, length);
+	}
+
+	@Test
+	public void broadcastsToManySessions() throws Exception
+	{
+		Clients clients = new Clients();
+		Thread reader = new Thread(clients, "broadcast-clients");
+		reader.setDaemon(true);
+		reader.start();
+
+		List<SocketChannel> channels = new ArrayList<SocketChannel>();
+		List<SocketOutbound> sessions = new ArrayList<SocketOutbound>();
+		try(ServerSocketChannel server = ServerSocketChannel.open())
+		{
+			server.bind(new InetSocketAddress("localhost", 0), 1024);
+			for(int count : new int[] {100, 1000, 5000})
+			{
+				while(sessions.size() < count)
+				{
+					SocketChannel client = SocketChannel.open(server.getLocalAddress());
+					client.configureBlocking(false);
+					clients.SELECTOR.wakeup();
+					client.register(clients.SELECTOR, SelectionKey.OP_READ);
+					SocketChannel accepted = server.accept();
+					channels.add(client);
+					channels.add(accepted);
+					sessions.add(new SocketOutbound(accepted.socket()));
+				}
+
+				for(int length : new int[] {64, 4096})
+				{
+					String message = message(length);
+					System.out.printf("Broadcast: %,d sessions, %,d byte message, %,d broadcasts/s encoded once, %,d broadcasts/s encoded per session%n",
+							count, length, rate(BROADCAST, message, sessions, clients), rate(PER_SESSION, message, sessions, clients));
+				}
+			}
+		}
+		finally
+		{
+			clients.SELECTOR.close();
+			for(SocketChannel channel : channels)
+				channel.close();
+		}
+	}
+}
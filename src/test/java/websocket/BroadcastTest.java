@@ -0,0 +1,183 @@
+package websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Broadcasts encoded once and written to many sockets at the same time.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class BroadcastTest
+{
+	private final List<Socket> SOCKETS = new ArrayList<Socket>();
+
+	@After
+	public void stop() throws Exception
+	{
+		for(Socket socket : SOCKETS)
+			socket.close();
+	}
+
+	/**
+	 * @return connected pairs of sockets, the server's end first, half of
+	 * them accepted through a channel.
+	 */
+	private List<Socket[]> pairs(int count) throws Exception
+	{
+		List<Socket[]> pairs = new ArrayList<Socket[]>();
+		try(ServerSocketChannel channels = ServerSocketChannel.open(); ServerSocket plain = new ServerSocket(0))
+		{
+			channels.bind(new InetSocketAddress("localhost", 0));
+			for(int i = 0; i < count; i++)
+			{
+				boolean channel = (i & 1) == 0;
+				Socket client = new Socket("localhost", channel ? channels.socket().getLocalPort() : plain.getLocalPort());
+				client.setSoTimeout(10000);
+				Socket accepted = channel ? channels.accept().socket() : plain.accept();
+				SOCKETS.add(client);
+				SOCKETS.add(accepted);
+				pairs.add(new Socket[] {accepted, client});
+			}
+		}
+		return pairs;
+	}
+
+	@Test
+	public void encodesTextAndBinaryFrames()
+	{
+		Broadcast text = new Broadcast("caf\u00e9");
+		byte[] frame = new byte[text.size()];
+		text.frame().get(frame);
+		assertArrayEquals(new byte[] {(byte) 0x81, 5, 'c', 'a', 'f', (byte) 0xC3, (byte) 0xA9}, frame);
+
+		byte[] data = new byte[300];
+		Broadcast binary = new Broadcast(data);
+		assertEquals(4 + data.length, binary.size());
+		ByteBuffer encoded = binary.frame();
+		assertEquals((byte) 0x82, encoded.get());
+		assertEquals(126, encoded.get());
+		assertEquals(data.length, encoded.getShort());
+	}
+
+	/**
+	 * Every session gets its own view of the frame, so one session writing
+	 * its view leaves the frame whole for the others.
+	 */
+	@Test
+	public void givesEachSessionItsOwnView()
+	{
+		Broadcast broadcast = new Broadcast("hello");
+		ByteBuffer first = broadcast.frame();
+		ByteBuffer second = broadcast.frame();
+		assertTrue(first.isReadOnly());
+		assertTrue(first.isDirect());
+		first.position(first.limit());
+		assertEquals(broadcast.size(), second.remaining());
+		assertEquals(broadcast.size(), broadcast.frame().remaining());
+	}
+
+	/**
+	 * One broadcast written to many sockets by several threads at once
+	 * arrives whole at every client.
+	 */
+	@Test
+	public void reachesManySessionsAtOnce() throws Exception
+	{
+		byte[] data = new byte[70000];
+		for(int i = 0; i < data.length; i++)
+			data[i] = (byte) i;
+		final Broadcast broadcast = new Broadcast(data);
+		List<Socket[]> pairs = pairs(64);
+		final List<SocketOutbound> outbounds = new ArrayList<SocketOutbound>();
+		for(Socket[] pair : pairs)
+			outbounds.add(new SocketOutbound(pair[0]));
+
+		int threads = 4;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		for(int t = 0; t < threads; t++)
+		{
+			final int first = t;
+			final int step = threads;
+			new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						for(int i = first; i < outbounds.size(); i += step)
+							outbounds.get(i).enqueue(broadcast.frame());
+					}
+					catch (Exception e)
+					{
+						error.set(e);
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}, "broadcaster-" + t).start();
+		}
+		start.countDown();
+
+		byte[] expected = new byte[broadcast.size()];
+		broadcast.frame().get(expected);
+		for(Socket[] pair : pairs)
+		{
+			byte[] read = new byte[expected.length];
+			new DataInputStream(pair[1].getInputStream()).readFully(read);
+			assertArrayEquals(expected, read);
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertNull(error.get());
+		assertEquals(expected.length, broadcast.size());
+	}
+
+	/**
+	 * A broadcast may be written straight from the sending thread to a
+	 * socket that already has frames of its own, and lands between them.
+	 */
+	@Test
+	public void landsBetweenFramesOfSession() throws Exception
+	{
+		Broadcast broadcast = new Broadcast("news");
+		for(Socket[] pair : pairs(2))
+		{
+			SocketOutbound out = new SocketOutbound(pair[0]);
+			ByteBuffer header = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+			FrameEncoder.header(header, OpCode.TEXT, 1);
+			header.flip();
+			out.write(header.duplicate(), ByteBuffer.wrap(new byte[] {'a'}));
+			out.write(broadcast.frame());
+			out.write(header.duplicate(), ByteBuffer.wrap(new byte[] {'b'}));
+
+			byte[] read = new byte[3 + broadcast.size() + 3];
+			new DataInputStream(pair[1].getInputStream()).readFully(read);
+			assertEquals("\u0081\u0001a\u0081\u0004news\u0081\u0001b", new String(read, StandardCharsets.ISO_8859_1));
+		}
+	}
+}
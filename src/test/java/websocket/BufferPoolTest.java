@@ -0,0 +1,184 @@
+package websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Buffers handed back are handed out again, whichever kind of thread
+ * released them.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class BufferPoolTest
+{
+	@Test
+	public void handsOutLimitedBuffer()
+	{
+		ByteBuffer buffer = BufferPool.HEAP.acquire(100);
+		assertEquals(0, buffer.position());
+		assertEquals(100, buffer.limit());
+		assertEquals(128, buffer.capacity());
+		BufferPool.HEAP.release(buffer);
+	}
+
+	/**
+	 * @return what the task returned, run on a new platform thread whose cache is empty.
+	 */
+	private static <T> T onNewThread(Callable<T> task) throws Exception
+	{
+		FutureTask<T> future = new FutureTask<T>(task);
+		Thread thread = new Thread(future);
+		thread.start();
+		return future.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void platformThreadReusesItsBuffer() throws Exception
+	{
+		assertTrue(onNewThread(new Callable<Boolean>()
+		{
+			@Override
+			public Boolean call()
+			{
+				assertFalse(BufferPool.isVirtual(Thread.currentThread()));
+				ByteBuffer buffer = BufferPool.HEAP.acquire(0x1000);
+				BufferPool.HEAP.release(buffer);
+				boolean reused = buffer == BufferPool.HEAP.acquire(0x1000);
+				BufferPool.HEAP.release(buffer);
+				return reused;
+			}
+		}));
+	}
+
+	/**
+	 * Once a thread caches its budget of bytes, whatever it releases goes
+	 * to the shared cache, where another thread finds it.
+	 */
+	@Test
+	public void threadCachesAtMostItsBudget() throws Exception
+	{
+		final ByteBuffer[] large = new ByteBuffer[BufferPool.THREAD_CACHE_BYTES / BufferPool.THREAD_MAX_SIZE];
+		final ByteBuffer small = onNewThread(new Callable<ByteBuffer>()
+		{
+			@Override
+			public ByteBuffer call()
+			{
+				for(int i = 0; i < large.length; i++)
+					large[i] = BufferPool.HEAP.acquire(BufferPool.THREAD_MAX_SIZE);
+				ByteBuffer small = BufferPool.HEAP.acquire(0x400);
+				for(ByteBuffer buffer : large)
+					BufferPool.HEAP.release(buffer);
+				BufferPool.HEAP.release(small);
+
+				ByteBuffer cached = BufferPool.HEAP.acquire(BufferPool.THREAD_MAX_SIZE);
+				assertSame(large[large.length - 1], cached);
+				BufferPool.HEAP.release(cached);
+				return small;
+			}
+		});
+		assertSame(small, onNewThread(new Callable<ByteBuffer>()
+		{
+			@Override
+			public ByteBuffer call()
+			{
+				return BufferPool.HEAP.acquire(0x400);
+			}
+		}));
+		BufferPool.HEAP.release(small);
+	}
+
+	/**
+	 * Size classes larger than a thread caches are only cached once, inside
+	 * of the shared cache.
+	 */
+	@Test
+	public void largestClassesSkipThreadCache() throws Exception
+	{
+		final int size = BufferPool.THREAD_MAX_SIZE << 1;
+		final ByteBuffer released = onNewThread(new Callable<ByteBuffer>()
+		{
+			@Override
+			public ByteBuffer call()
+			{
+				ByteBuffer buffer = BufferPool.DIRECT.acquire(size);
+				BufferPool.DIRECT.release(buffer);
+				return buffer;
+			}
+		});
+		ByteBuffer acquired = onNewThread(new Callable<ByteBuffer>()
+		{
+			@Override
+			public ByteBuffer call()
+			{
+				return BufferPool.DIRECT.acquire(size);
+			}
+		});
+		assertSame(released, acquired);
+		BufferPool.DIRECT.release(acquired);
+	}
+
+	/**
+	 * A buffer released by a virtual thread that then ends is still handed out
+	 * to the next virtual thread, since it went to the shared cache.
+	 */
+	@Test
+	public void virtualThreadReleasesToSharedCache() throws Exception
+	{
+		Method ofVirtual;
+		try
+		{
+			ofVirtual = Thread.class.getMethod("startVirtualThread", Runnable.class);
+		}
+		catch (NoSuchMethodException e)
+		{
+			ofVirtual = null;
+		}
+		assumeTrue("Runtime has no virtual threads.", ofVirtual != null);
+
+		final AtomicReference<ByteBuffer> released = new AtomicReference<ByteBuffer>();
+		final AtomicReference<Boolean> virtual = new AtomicReference<Boolean>();
+		Thread first = (Thread) ofVirtual.invoke(null, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				virtual.set(BufferPool.isVirtual(Thread.currentThread()));
+				/*
+				 * A size class platform threads of this test do not use,
+				 * so only this buffer is inside of the shared cache.
+				 */
+				ByteBuffer buffer = BufferPool.HEAP.acquire(0x80000);
+				released.set(buffer);
+				BufferPool.HEAP.release(buffer);
+			}
+		});
+		first.join();
+		assertTrue(virtual.get());
+
+		final AtomicReference<ByteBuffer> acquired = new AtomicReference<ByteBuffer>();
+		Thread second = (Thread) ofVirtual.invoke(null, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				acquired.set(BufferPool.HEAP.acquire(0x80000));
+			}
+		});
+		second.join();
+		assertSame(released.get(), acquired.get());
+		BufferPool.HEAP.release(acquired.get());
+	}
+}
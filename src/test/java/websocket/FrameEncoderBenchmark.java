@@ -0,0 +1,204 @@
+package websocket;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Headers encoded at each boundary of the payload length, and frames written
+ * to a socket as one gathering write, against copying header and payload into
+ * one buffer and against writing them one after the other. Benchmarks only
+ * run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class FrameEncoderBenchmark
+{
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	/**
+	 * Payload length headers are encoded for, read on every encoding so the
+	 * compiler can not fold the header into a constant.
+	 */
+	private static volatile int LENGTH;
+
+	@Test
+	public void encodesHeaders()
+	{
+		ByteBuffer header = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+		for(int length : new int[] {125, 126, 65535, 65536})
+		{
+			LENGTH = length;
+			long bytes = 0;
+			for(int i = 0; i < 1000000; i++)
+			{
+				header.clear();
+				FrameEncoder.header(header, OpCode.BINARY, LENGTH);
+				bytes += header.position();
+			}
+
+			long headers = 0;
+			long start = System.nanoTime();
+			long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+			long now;
+			do
+			{
+				for(int i = 0; i < 10000; i++)
+				{
+					header.clear();
+					FrameEncoder.header(header, OpCode.BINARY, LENGTH);
+					bytes += header.position();
+				}
+				headers += 10000;
+			}
+			while((now = System.nanoTime()) < end);
+			System.out.printf("FrameEncoder: %,d byte payload, %,d headers/s of %d bytes%n",
+					length, headers * TimeUnit.SECONDS.toNanos(1) / (now - start), bytes / (headers + 1000000));
+		}
+	}
+
+	/**
+	 * Way of writing a frame to a channel.
+	 */
+	private interface Writer
+	{
+		void write(SocketChannel channel, ByteBuffer payload) throws IOException;
+	}
+
+	private static final Writer GATHERING = new Writer()
+	{
+		private final ByteBuffer HEADER = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+
+		private final ByteBuffer[] FRAME = new ByteBuffer[2];
+
+		@Override
+		public void write(SocketChannel channel, ByteBuffer payload) throws IOException
+		{
+			HEADER.clear();
+			FrameEncoder.header(HEADER, OpCode.BINARY, payload.remaining());
+			HEADER.flip();
+			FRAME[0] = HEADER;
+			FRAME[1] = payload;
+			while(payload.hasRemaining())
+				channel.write(FRAME);
+		}
+	};
+
+	private static final Writer COPYING = new Writer()
+	{
+		@Override
+		public void write(SocketChannel channel, ByteBuffer payload) throws IOException
+		{
+			ByteBuffer frame = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE + payload.remaining());
+			FrameEncoder.header(frame, OpCode.BINARY, payload.remaining());
+			frame.put(payload);
+			frame.flip();
+			while(frame.hasRemaining())
+				channel.write(frame);
+		}
+	};
+
+	private static final Writer SEPARATE = new Writer()
+	{
+		private final ByteBuffer HEADER = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+
+		@Override
+		public void write(SocketChannel channel, ByteBuffer payload) throws IOException
+		{
+			HEADER.clear();
+			FrameEncoder.header(HEADER, OpCode.BINARY, payload.remaining());
+			HEADER.flip();
+			while(HEADER.hasRemaining())
+				channel.write(HEADER);
+			while(payload.hasRemaining())
+				channel.write(payload);
+		}
+	};
+
+	/**
+	 * @return frames per second the writer sends to a client draining the socket.
+	 */
+	private static long rate(Writer writer, SocketChannel channel, byte[] payload) throws IOException
+	{
+		ByteBuffer data = ByteBuffer.wrap(payload);
+		for(int i = 0; i < 2000; i++)
+		{
+			data.clear();
+			writer.write(channel, data);
+		}
+
+		long frames = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			for(int i = 0; i < 100; i++)
+			{
+				data.clear();
+				writer.write(channel, data);
+			}
+			frames += 100;
+		}
+		while((now = System.nanoTime()) < end);
+		return frames * TimeUnit.SECONDS.toNanos(1) / (now - start);
+	}
+
+	@Test
+	public void writesFrames() throws Exception
+	{
+		try(ServerSocketChannel server = ServerSocketChannel.open())
+		{
+			server.bind(new InetSocketAddress("localhost", 0));
+			final Socket client = new Socket("localhost", server.socket().getLocalPort());
+			try(SocketChannel channel = server.accept())
+			{
+				channel.socket().setTcpNoDelay(true);
+				Thread drain = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						byte[] data = new byte[0x10000];
+						try(InputStream in = client.getInputStream())
+						{
+							while(in.read(data) != -1);
+						}
+						catch (IOException e)
+						{
+							// Socket was closed.
+						}
+					}
+				}, "frame-drain");
+				drain.setDaemon(true);
+				drain.start();
+
+				for(int length : new int[] {125, 126, 65535, 65536})
+				{
+					byte[] payload = new byte[length];
+					System.out.printf("FrameEncoder: %,d byte payload, %,d frames/s gathered, %,d frames/s copied, %,d frames/s in two writes%n",
+							length, rate(GATHERING, channel, payload), rate(COPYING, channel, payload), rate(SEPARATE, channel, payload));
+				}
+			}
+			finally
+			{
+				client.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Headers of server frames at each boundary of the payload length, and
+ * frames leaving as one gathering write.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class FrameEncoderTest
+{
+	private static byte[] bytes(int... values)
+	{
+		byte[] bytes = new byte[values.length];
+		for(int i = 0; i < values.length; i++)
+			bytes[i] = (byte) values[i];
+		return bytes;
+	}
+
+	/**
+	 * @return header encoded for the payload length.
+	 */
+	private static byte[] header(OpCode opcode, int length, boolean fin, boolean compressed)
+	{
+		ByteBuffer header = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+		FrameEncoder.header(header, opcode, length, fin, compressed);
+		header.flip();
+		byte[] bytes = new byte[header.remaining()];
+		header.get(bytes);
+		return bytes;
+	}
+
+	private static byte[] payload(int length)
+	{
+		byte[] payload = new byte[length];
+		for(int i = 0; i < length; i++)
+			payload[i] = (byte) (i * 31);
+		return payload;
+	}
+
+	@Test
+	public void encodesLengthInSmallestForm()
+	{
+		assertArrayEquals(bytes(0x81, 0), header(OpCode.TEXT, 0, true, false));
+		assertArrayEquals(bytes(0x82, 125), header(OpCode.BINARY, 125, true, false));
+		assertArrayEquals(bytes(0x82, 126, 0x00, 0x7E), header(OpCode.BINARY, 126, true, false));
+		assertArrayEquals(bytes(0x82, 126, 0xFF, 0xFF), header(OpCode.BINARY, 65535, true, false));
+		assertArrayEquals(bytes(0x82, 127, 0, 0, 0, 0, 0x00, 0x01, 0x00, 0x00), header(OpCode.BINARY, 65536, true, false));
+		assertArrayEquals(bytes(0x82, 127, 0, 0, 0, 0, 0x7F, 0xFF, 0xFF, 0xFF), header(OpCode.BINARY, Integer.MAX_VALUE, true, false));
+		assertEquals(FrameEncoder.MAX_HEADER_SIZE, header(OpCode.BINARY, Integer.MAX_VALUE, true, false).length);
+	}
+
+	@Test
+	public void setsFinalAndCompressedBits()
+	{
+		assertArrayEquals(bytes(0x01, 3), header(OpCode.TEXT, 3, false, false));
+		assertArrayEquals(bytes(0x00, 3), header(OpCode.CONTINUATION, 3, false, false));
+		assertArrayEquals(bytes(0xC1, 3), header(OpCode.TEXT, 3, true, true));
+		assertArrayEquals(bytes(0x41, 3), header(OpCode.TEXT, 3, false, true));
+		assertArrayEquals(bytes(0x89, 0), header(OpCode.PING, 0, true, false));
+		assertArrayEquals(bytes(0x8A, 125), header(OpCode.PONG, 125, true, false));
+		assertArrayEquals(bytes(0x88, 2), header(OpCode.CLOSE, 2, true, false));
+	}
+
+	@Test
+	public void encodesWholeFrameIntoReadOnlyDirectBuffer()
+	{
+		for(int length : new int[] {0, 125, 126, 65535, 65536})
+		{
+			byte[] payload = payload(length);
+			ByteBuffer frame = FrameEncoder.encode(OpCode.BINARY, payload);
+			assertTrue(frame.isDirect());
+			assertTrue(frame.isReadOnly());
+
+			byte[] header = header(OpCode.BINARY, length, true, false);
+			assertEquals(header.length + length, frame.remaining());
+			byte[] encoded = new byte[frame.remaining()];
+			frame.get(encoded);
+			assertArrayEquals("length=" + length, header, Arrays.copyOf(encoded, header.length));
+			assertArrayEquals("length=" + length, payload, Arrays.copyOfRange(encoded, header.length, encoded.length));
+		}
+	}
+
+	/**
+	 * @return pair of connected sockets, the server's end first, which was
+	 * accepted through a channel if asked for.
+	 */
+	private static Socket[] pair(boolean channel) throws Exception
+	{
+		if(channel)
+		{
+			try(ServerSocketChannel server = ServerSocketChannel.open())
+			{
+				server.bind(new InetSocketAddress("localhost", 0));
+				Socket client = new Socket("localhost", server.socket().getLocalPort());
+				return new Socket[] {server.accept().socket(), client};
+			}
+		}
+		try(ServerSocket server = new ServerSocket(0))
+		{
+			Socket client = new Socket("localhost", server.getLocalPort());
+			return new Socket[] {server.accept(), client};
+		}
+	}
+
+	/**
+	 * Header and payload written as two buffers of one gathering write
+	 * arrive as one frame, through a channel and through a plain socket.
+	 */
+	@Test
+	public void writesHeaderAndPayloadTogether() throws Exception
+	{
+		for(boolean channel : new boolean[] {true, false})
+		{
+			Socket[] pair = pair(channel);
+			try
+			{
+				assertEquals(channel, pair[0].getChannel() != null);
+				pair[1].setSoTimeout(10000);
+				SocketOutbound out = new SocketOutbound(pair[0]);
+				DataInputStream in = new DataInputStream(pair[1].getInputStream());
+				for(int length : new int[] {125, 126, 65535, 65536})
+				{
+					byte[] payload = payload(length);
+					ByteBuffer header = ByteBuffer.allocate(FrameEncoder.MAX_HEADER_SIZE);
+					FrameEncoder.header(header, OpCode.BINARY, length);
+					header.flip();
+					ByteBuffer data = ByteBuffer.wrap(payload);
+					out.write(header, data);
+					assertFalse(header.hasRemaining());
+					assertFalse(data.hasRemaining());
+
+					byte[] expected = header(OpCode.BINARY, length, true, false);
+					byte[] read = new byte[expected.length + length];
+					in.readFully(read);
+					assertArrayEquals(expected, Arrays.copyOf(read, expected.length));
+					assertArrayEquals(payload, Arrays.copyOfRange(read, expected.length, read.length));
+				}
+				out.close();
+				assertEquals(-1, in.read());
+			}
+			finally
+			{
+				pair[0].close();
+				pair[1].close();
+			}
+		}
+	}
+}
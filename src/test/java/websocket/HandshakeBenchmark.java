@@ -0,0 +1,119 @@
+package websocket;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Handshakes answered with a pooled digest, against looking up a digest and
+ * building the response as a string for every handshake. Benchmarks only run
+ * with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class HandshakeBenchmark
+{
+	private static final String[] KEYS = new String[1024];
+
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+		byte[] nonce = new byte[16];
+		for(int i = 0; i < KEYS.length; i++)
+		{
+			nonce[0] = (byte) i;
+			nonce[1] = (byte) (i >> 8);
+			KEYS[i] = Base64.getEncoder().encodeToString(nonce);
+		}
+	}
+
+	/**
+	 * Way of answering a handshake.
+	 */
+	private interface Answer
+	{
+		ByteBuffer response(String key) throws Exception;
+	}
+
+	private static final Answer POOLED = new Answer()
+	{
+		@Override
+		public ByteBuffer response(String key) throws Exception
+		{
+			return Handshake.response(key, null);
+		}
+	};
+
+	private static final Answer PLAIN = new Answer()
+	{
+		@Override
+		public ByteBuffer response(String key) throws Exception
+		{
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			String accept = Base64.getEncoder().encodeToString(sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII)));
+			return ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: "
+					+ accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		}
+	};
+
+	/**
+	 * @return handshakes per second, and bytes allocated per handshake if the runtime measures them.
+	 */
+	private static long[] measure(Answer answer) throws Exception
+	{
+		for(int round = 0; round < 100; round++)
+			for(String key : KEYS)
+				answer.response(key);
+
+		com.sun.management.ThreadMXBean threads = allocations();
+		long id = Thread.currentThread().getId();
+		long allocated = threads != null ? threads.getThreadAllocatedBytes(id) : 0;
+		long handshakes = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			for(String key : KEYS)
+				answer.response(key);
+			handshakes += KEYS.length;
+		}
+		while((now = System.nanoTime()) < end);
+		long rate = handshakes * TimeUnit.SECONDS.toNanos(1) / (now - start);
+		return new long[] {rate, threads != null ? (threads.getThreadAllocatedBytes(id) - allocated) / handshakes : -1};
+	}
+
+	@Test
+	public void answersHandshakes() throws Exception
+	{
+		long[] pooled = measure(POOLED);
+		long[] plain = measure(PLAIN);
+		System.out.printf("Handshake: %,d handshakes/s allocating %,d bytes each pooled, %,d handshakes/s allocating %,d bytes each plain%n",
+				pooled[0], pooled[1], plain[0], plain[1]);
+	}
+
+	/**
+	 * @return bean measuring the bytes threads allocate, or null if the runtime has none.
+	 */
+	private static com.sun.management.ThreadMXBean allocations()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		if(!allocations.isThreadAllocatedMemorySupported())
+			return null;
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		return allocations;
+	}
+}
@@ -0,0 +1,122 @@
+package websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Responses of {@link Handshake}, against the sample of RFC 6455 and the
+ * accept key computed the plain way.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class HandshakeTest
+{
+	private static String text(ByteBuffer response)
+	{
+		byte[] bytes = new byte[response.remaining()];
+		response.duplicate().get(bytes);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return accept key of the key, computed the way RFC 6455 defines it.
+	 */
+	static String accept(String key) throws Exception
+	{
+		byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII));
+		return Base64.getEncoder().encodeToString(digest);
+	}
+
+	/**
+	 * @see <a href="https://tools.ietf.org/html/rfc6455#section-1.3">RFC 6455, Section 1.3 (Opening Handshake)</a>
+	 */
+	@Test
+	public void answersSampleOfRfc() throws Exception
+	{
+		assertEquals("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+				+ "Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n\r\n", text(Handshake.response("dGhlIHNhbXBsZSBub25jZQ==", null)));
+	}
+
+	@Test
+	public void namesAcceptedExtensions() throws Exception
+	{
+		assertEquals("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+				+ "Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\nSec-WebSocket-Extensions: permessage-deflate; server_no_context_takeover\r\n\r\n",
+				text(Handshake.response("dGhlIHNhbXBsZSBub25jZQ==", "permessage-deflate; server_no_context_takeover")));
+	}
+
+	/**
+	 * Each response has a buffer of its own, which a later handshake never
+	 * overwrites, and a key longer than usual is hashed whole.
+	 */
+	@Test
+	public void keepsEachResponse() throws Exception
+	{
+		ByteBuffer first = Handshake.response("dGhlIHNhbXBsZSBub25jZQ==", null);
+		String sent = text(first);
+		ByteBuffer second = Handshake.response("AAAAAAAAAAAAAAAAAAAAAA==", "permessage-deflate");
+		assertNotSame(first.array(), second.array());
+		assertEquals(sent, text(first));
+
+		String key = "bG9uZ2VyIGtleSB0aGFuIGEgd2VsbC1iZWhhdmVkIGNsaWVudCBzZW5kcw==";
+		assertTrue(text(Handshake.response(key, null)).contains("Sec-WebSocket-Accept: " + accept(key) + "\r\n"));
+	}
+
+	/**
+	 * Threads handshaking at once, more than there are pooled states, each
+	 * get the accept key of their own client.
+	 */
+	@Test
+	public void answersConcurrentHandshakes() throws Exception
+	{
+		final List<String> failures = new CopyOnWriteArrayList<String>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[32];
+		for(int t = 0; t < threads.length; t++)
+		{
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						byte[] nonce = new byte[16];
+						for(int i = 0; i < 500; i++)
+						{
+							random.nextBytes(nonce);
+							String key = Base64.getEncoder().encodeToString(nonce);
+							String expected = "Sec-WebSocket-Accept: " + accept(key) + "\r\n";
+							if(!text(Handshake.response(key, null)).contains(expected))
+								failures.add(key);
+						}
+					}
+					catch (Exception e)
+					{
+						failures.add(e.toString());
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+}
@@ -0,0 +1,40 @@
+package websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link Masking} against the byte at a time definition of RFC 6455.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class MaskingTest
+{
+	@Test
+	public void matchesBytewiseMasking()
+	{
+		Random random = new Random(3);
+		int key = random.nextInt();
+		byte[] mask = {(byte) (key >>> 24), (byte) (key >>> 16), (byte) (key >>> 8), (byte) key};
+		for(ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN})
+			for(int offset = 0; offset < 4; offset++)
+				for(int length = 0; length <= 21; length++)
+				{
+					byte[] payload = new byte[length + 3];
+					random.nextBytes(payload);
+					byte[] expected = payload.clone();
+					for(int i = 0; i < length; i++)
+						expected[1 + i] ^= mask[(offset + i) & 3];
+
+					ByteBuffer data = ByteBuffer.wrap(payload.clone()).order(order);
+					Masking.unmask(data, 1, 1 + length, key, offset);
+					assertArrayEquals("order=" + order + " offset=" + offset + " length=" + length, expected, data.array());
+				}
+	}
+}
@@ -0,0 +1,78 @@
+package websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+/**
+ * Inflating whole messages stops at the message limit.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class PerMessageDeflateTest
+{
+	/**
+	 * @return data compressed the way a client sends it, without the trailing empty block.
+	 */
+	static byte[] compress(byte[] data)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data);
+		byte[] out = new byte[data.length + 64];
+		int length = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+		deflater.end();
+		return Arrays.copyOf(out, length - 4);
+	}
+
+	private static Frame message(byte[] compressed)
+	{
+		return new Frame(OpCode.BINARY, ByteBuffer.wrap(compressed));
+	}
+
+	@Test
+	public void inflatesUpToLimit() throws Exception
+	{
+		byte[] data = new byte[1 << 20];
+		Arrays.fill(data, (byte) 'a');
+		Frame inflated = PerMessageDeflate.negotiate("permessage-deflate").inflate(message(compress(data)), data.length);
+		assertArrayEquals(data, inflated.toByteArray());
+		inflated.release();
+	}
+
+	@Test
+	public void refusesMessageInflatingPastLimit() throws Exception
+	{
+		byte[] data = new byte[1 << 20];
+		byte[] compressed = compress(data);
+		try
+		{
+			PerMessageDeflate.negotiate("permessage-deflate").inflate(message(compressed), data.length - 1);
+			fail("Inflated past the limit.");
+		}
+		catch (InvalidFrameException e)
+		{
+			assertEquals(CloseFrame.TOOBIG, e.getStatus());
+		}
+	}
+
+	@Test
+	public void refusesSmallMessageInflatingPastSmallLimit() throws Exception
+	{
+		try
+		{
+			PerMessageDeflate.negotiate("permessage-deflate").inflate(message(compress(new byte[1001])), 1000);
+			fail("Inflated past the limit.");
+		}
+		catch (InvalidFrameException e)
+		{
+			assertEquals(CloseFrame.TOOBIG, e.getStatus());
+		}
+	}
+}
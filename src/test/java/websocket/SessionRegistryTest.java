@@ -0,0 +1,280 @@
+package websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Sessions connecting and disconnecting while others are looked up.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class SessionRegistryTest
+{
+	private static final WebSocketListener LISTENER = new WebSocketListener()
+	{
+		@Override
+		public void WebSocketOpen(WebSocketSession session) {}
+
+		@Override
+		public void WebSocketMessage(WebSocketSession session, String message) {}
+
+		@Override
+		public void WebSocketBinaryMessage(WebSocketSession session, byte[] data) {}
+
+		@Override
+		public void WebSocketError(WebSocketSession session, Exception e) {}
+
+		@Override
+		public void WebSocketClose(WebSocketSession session, int status) {}
+	};
+
+	/**
+	 * @return session on a socket that is never connected.
+	 */
+	static WebSocketSession session() throws Exception
+	{
+		Socket socket = new Socket()
+		{
+			@Override
+			public InputStream getInputStream()
+			{
+				return new ByteArrayInputStream(new byte[0]);
+			}
+
+			@Override
+			public OutputStream getOutputStream()
+			{
+				return new ByteArrayOutputStream();
+			}
+		};
+		return new WebSocketSession(socket, "dGhlIHNhbXBsZSBub25jZQ==", LISTENER);
+	}
+
+	@Test
+	public void addsFindsAndRemoves() throws Exception
+	{
+		SessionRegistry registry = new SessionRegistry();
+		WebSocketSession[] sessions = new WebSocketSession[1000];
+		for(int i = 0; i < sessions.length; i++)
+		{
+			sessions[i] = session();
+			registry.add(sessions[i]);
+		}
+		assertEquals(sessions.length, registry.size());
+		for(WebSocketSession session : sessions)
+			assertSame(session, registry.get(session.getId()));
+
+		for(int i = 0; i < sessions.length; i += 2)
+			assertTrue(registry.remove(sessions[i]));
+		assertFalse(registry.remove(sessions[0]));
+		for(int i = 0; i < sessions.length; i++)
+			assertEquals(i % 2 == 0 ? null : sessions[i], registry.get(sessions[i].getId()));
+
+		int seen = 0;
+		for(WebSocketSession session : registry)
+		{
+			assertSame(session, registry.get(session.getId()));
+			++seen;
+		}
+		assertEquals(sessions.length / 2, seen);
+	}
+
+	/**
+	 * A session taking over the slot another session just freed, while the
+	 * freed session is looked up, must never be returned for the freed id.
+	 */
+	@Test
+	public void lookupNeverSeesSessionTakingSlotOver() throws Exception
+	{
+		final SessionRegistry registry = new SessionRegistry();
+		/*
+		 * Two sessions of the same segment and home slot,
+		 * so the second always takes the slot of the first.
+		 */
+		Map<Long, WebSocketSession> homes = new HashMap<Long, WebSocketSession>();
+		WebSocketSession first = null, second = null;
+		while(second == null)
+		{
+			WebSocketSession session = session();
+			long hash = session.getId() * 0x9E3779B97F4A7C15L;
+			long home = (hash >>> 60) << 8 | (hash & 0xF);
+			first = homes.put(home, session);
+			if(first != null)
+				second = session;
+		}
+		final WebSocketSession a = first, b = second;
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		final CountDownLatch done = new CountDownLatch(3);
+		Runnable churn = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					while(running.get())
+					{
+						registry.add(a);
+						registry.remove(a);
+						registry.add(b);
+						registry.remove(b);
+					}
+				}
+				finally
+				{
+					done.countDown();
+				}
+			}
+		};
+		Runnable lookup = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					while(running.get())
+					{
+						WebSocketSession session = registry.get(a.getId());
+						if(session != null && session != a)
+							throw new AssertionError("Looked up " + a.getId() + " but found " + session.getId() + ".");
+					}
+				}
+				catch (Throwable t)
+				{
+					failures.add(t);
+				}
+				finally
+				{
+					done.countDown();
+				}
+			}
+		};
+		new Thread(churn).start();
+		new Thread(lookup).start();
+		new Thread(lookup).start();
+
+		Thread.sleep(2000);
+		running.set(false);
+		done.await();
+		if(!failures.isEmpty())
+			throw new AssertionError(failures.get(0));
+	}
+
+	/**
+	 * Connecting threads keep adding and removing sessions, reusing freed slots,
+	 * while readers look up ids. A lookup must return the session with the id or
+	 * null, never a session that took the slot over.
+	 */
+	@Test
+	public void lookupsNeverSeeAnotherSession() throws Exception
+	{
+		final SessionRegistry registry = new SessionRegistry();
+		final int writers = 4, readers = 4, perWriter = 64;
+		final WebSocketSession[] sessions = new WebSocketSession[writers * perWriter];
+		for(int i = 0; i < sessions.length; i++)
+			sessions[i] = session();
+		final long firstId = sessions[0].getId(), lastId = sessions[sessions.length - 1].getId();
+
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		final CountDownLatch done = new CountDownLatch(writers + readers);
+
+		for(int w = 0; w < writers; w++)
+		{
+			final int from = w * perWriter;
+			new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						while(running.get())
+						{
+							for(int i = from; i < from + perWriter; i++)
+								registry.add(sessions[i]);
+							for(int i = from; i < from + perWriter; i++)
+								if(registry.get(sessions[i].getId()) != sessions[i])
+									throw new AssertionError("Added session was not found.");
+							for(int i = from; i < from + perWriter; i++)
+								if(!registry.remove(sessions[i]))
+									throw new AssertionError("Added session was not removed.");
+						}
+					}
+					catch (Throwable t)
+					{
+						failures.add(t);
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+
+		for(int r = 0; r < readers; r++)
+		{
+			new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						while(running.get())
+						{
+							long id = random.nextLong(firstId, lastId + 1);
+							WebSocketSession session = registry.get(id);
+							if(session != null && session.getId() != id)
+								throw new AssertionError("Looked up " + id + " but found " + session.getId() + ".");
+							for(WebSocketSession live : registry)
+								if(live == null)
+									throw new AssertionError("Iterated over a removed slot.");
+						}
+					}
+					catch (Throwable t)
+					{
+						failures.add(t);
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+
+		Thread.sleep(2000);
+		running.set(false);
+		done.await();
+		if(!failures.isEmpty())
+			throw new AssertionError(failures.get(0));
+		assertEquals(0, registry.size());
+		for(WebSocketSession session : sessions)
+			assertNull(registry.get(session.getId()));
+	}
+}
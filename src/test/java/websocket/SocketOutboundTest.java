@@ -0,0 +1,160 @@
+package websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes to blocking sockets, including clients that stopped reading.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class SocketOutboundTest
+{
+	private ServerSocket SERVER;
+
+	private final List<Socket> SOCKETS = new ArrayList<Socket>();
+
+	@Before
+	public void start() throws Exception
+	{
+		SERVER = new ServerSocket(0);
+	}
+
+	@After
+	public void stop() throws Exception
+	{
+		for(Socket socket : SOCKETS)
+			socket.close();
+		SERVER.close();
+	}
+
+	/**
+	 * @return pair of connected sockets, the server's end first.
+	 */
+	private Socket[] pair() throws Exception
+	{
+		Socket client = new Socket("localhost", SERVER.getLocalPort());
+		client.setSoTimeout(10000);
+		Socket accepted = SERVER.accept();
+		SOCKETS.add(client);
+		SOCKETS.add(accepted);
+		return new Socket[] {accepted, client};
+	}
+
+	private static int writerThreads()
+	{
+		int count = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+			if(thread.getName().startsWith("websocket-writer-") && thread.isAlive())
+				++count;
+		return count;
+	}
+
+	@Test
+	public void writesDirectBufferWithoutChannel() throws Exception
+	{
+		Socket[] pair = pair();
+		SocketOutbound out = new SocketOutbound(pair[0]);
+		ByteBuffer frame = ByteBuffer.allocateDirect(20000);
+		for(int i = 0; i < frame.capacity(); i++)
+			frame.put((byte) i);
+		frame.flip();
+
+		out.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), frame.duplicate());
+		assertTrue(out.queue().isEmpty());
+
+		byte[] read = new byte[20003];
+		new DataInputStream(pair[1].getInputStream()).readFully(read);
+		assertEquals(3, read[2]);
+		for(int i = 0; i < frame.capacity(); i++)
+			assertEquals((byte) i, read[3 + i]);
+	}
+
+	/**
+	 * A frame queued while a sender is blocked on a client that stopped
+	 * reading is neither held up nor written inside of the blocked data.
+	 */
+	@Test
+	public void enqueueNeverWaitsForBlockedWrite() throws Exception
+	{
+		Socket[] pair = pair();
+		final SocketOutbound out = new SocketOutbound(pair[0]);
+		final byte[] large = new byte[16 << 20];
+		final CountDownLatch writing = new CountDownLatch(1);
+		Thread sender = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					writing.countDown();
+					out.write(ByteBuffer.wrap(large));
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+		});
+		sender.start();
+		writing.await();
+		Thread.sleep(200);
+		assertTrue(sender.isAlive());
+
+		long start = System.nanoTime();
+		out.enqueue(ByteBuffer.wrap(new byte[] {42}));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+		byte[] read = new byte[large.length + 1];
+		new DataInputStream(pair[1].getInputStream()).readFully(read);
+		assertEquals(42, read[large.length]);
+		sender.join(5000);
+	}
+
+	/**
+	 * Clients that stopped reading hold up at most the bounded number of writers.
+	 */
+	@Test
+	public void stalledClientsShareBoundedWriters() throws Exception
+	{
+		int clients = 40;
+		List<Socket[]> pairs = new ArrayList<Socket[]>();
+		for(int i = 0; i < clients; i++)
+		{
+			Socket[] pair = pair();
+			pairs.add(pair);
+			new SocketOutbound(pair[0]).enqueue(ByteBuffer.wrap(new byte[8 << 20]));
+		}
+		Thread.sleep(500);
+		int writers = writerThreads();
+		assertTrue(writers + " writers", writers <= Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+		/*
+		 * Writers stuck on a client are freed once its socket is closed.
+		 */
+		for(Socket[] pair : pairs)
+			pair[0].close();
+		final byte[] data = {7, 8, 9};
+		Socket[] pair = pair();
+		new SocketOutbound(pair[0]).enqueue(ByteBuffer.wrap(data));
+		byte[] read = new byte[3];
+		new DataInputStream(pair[1].getInputStream()).readFully(read);
+		assertArrayEquals(data, read);
+	}
+}
@@ -0,0 +1,120 @@
+package websocket;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Text validated by {@link Utf8} against decoding it with the decoder of the
+ * JDK, for ASCII and for mixed text. Benchmarks only run with
+ * {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class Utf8Benchmark
+{
+	private static final int LENGTH = 0x10000;
+
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	/**
+	 * @param run - Text repeated up to {@link #LENGTH} bytes.
+	 * @return the text, without a character cut at its end.
+	 */
+	private static ByteBuffer text(String run)
+	{
+		byte[] bytes = run.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer text = ByteBuffer.allocate(LENGTH);
+		while(text.remaining() >= bytes.length)
+			text.put(bytes);
+		text.flip();
+		return text;
+	}
+
+	/**
+	 * Way of checking a text.
+	 */
+	private interface Check
+	{
+		boolean valid(ByteBuffer text);
+	}
+
+	private static final Check VALIDATOR = new Check()
+	{
+		private final Utf8 UTF8 = new Utf8();
+
+		@Override
+		public boolean valid(ByteBuffer text)
+		{
+			UTF8.reset();
+			return UTF8.validate(text, text.position(), text.limit()) && UTF8.isComplete();
+		}
+	};
+
+	private static final Check DECODER = new Check()
+	{
+		private final CharsetDecoder DECODER = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+
+		private final CharBuffer OUT = CharBuffer.allocate(LENGTH);
+
+		@Override
+		public boolean valid(ByteBuffer text)
+		{
+			DECODER.reset();
+			OUT.clear();
+			return !DECODER.decode(text.duplicate(), OUT, true).isError() && !DECODER.flush(OUT).isError();
+		}
+	};
+
+	/**
+	 * @return megabytes per second the check goes through.
+	 */
+	private static long rate(Check check, ByteBuffer text)
+	{
+		for(int i = 0; i < 2000; i++)
+			if(!check.valid(text))
+				throw new AssertionError("Text is valid.");
+
+		long checks = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(500);
+		long now;
+		do
+		{
+			for(int i = 0; i < 100; i++)
+				check.valid(text);
+			checks += 100;
+		}
+		while((now = System.nanoTime()) < end);
+		return checks * text.remaining() * TimeUnit.SECONDS.toNanos(1) / (now - start) >> 20;
+	}
+
+	@Test
+	public void validatesAgainstDecoding()
+	{
+		String[][] texts = {
+				{"ASCII", "{\"type\":\"update\",\"id\":42,\"value\":\"plain ascii text\"}"},
+				{"mixed", "{\"name\":\"Fran\u00e7ois\",\"city\":\"K\u00f8benhavn\",\"price\":\"\u20ac12\"}"},
+				{"CJK", "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8"}};
+		for(String[] text : texts)
+		{
+			ByteBuffer bytes = text(text[1]);
+			System.out.printf("Utf8: %s text, %,d MB/s validated, %,d MB/s decoded by the JDK%n",
+					text[0], rate(VALIDATOR, bytes), rate(DECODER, bytes));
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package websocket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link Utf8} against the decoder of the JDK, and text messages refused with
+ * 1007 by {@link FrameDecoder}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class Utf8Test
+{
+	private static byte[] bytes(int... values)
+	{
+		byte[] bytes = new byte[values.length];
+		for(int i = 0; i < values.length; i++)
+			bytes[i] = (byte) values[i];
+		return bytes;
+	}
+
+	/**
+	 * @return TRUE if the JDK decodes the bytes without an error.
+	 */
+	private static boolean decodes(byte[] text)
+	{
+		try
+		{
+			StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(text));
+			return true;
+		}
+		catch (CharacterCodingException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * @return TRUE if the text is valid and complete when validated in one piece.
+	 */
+	private static boolean valid(byte[] text)
+	{
+		Utf8 utf8 = new Utf8();
+		return utf8.validate(ByteBuffer.wrap(text), 0, text.length) && utf8.isComplete();
+	}
+
+	/**
+	 * @return TRUE if the text is valid and complete when validated in two pieces split at the index.
+	 */
+	private static boolean valid(byte[] text, int split)
+	{
+		Utf8 utf8 = new Utf8();
+		ByteBuffer data = ByteBuffer.wrap(text);
+		return utf8.validate(data, 0, split) && utf8.validate(data, split, text.length) && utf8.isComplete();
+	}
+
+	@Test
+	public void acceptsBoundariesOfEachLength()
+	{
+		int[][] characters = {
+				{0x7F}, {0xC2, 0x80}, {0xDF, 0xBF}, {0xE0, 0xA0, 0x80}, {0xED, 0x9F, 0xBF}, {0xEE, 0x80, 0x80},
+				{0xEF, 0xBF, 0xBF}, {0xF0, 0x90, 0x80, 0x80}, {0xF4, 0x8F, 0xBF, 0xBF}};
+		for(int[] character : characters)
+			assertTrue(Arrays.toString(character), valid(bytes(character)));
+	}
+
+	@Test
+	public void refusesOverlongForms()
+	{
+		int[][] overlong = {
+				{0xC0, 0x80}, {0xC1, 0xBF}, {0xE0, 0x80, 0x80}, {0xE0, 0x9F, 0xBF}, {0xF0, 0x80, 0x80, 0x80}, {0xF0, 0x8F, 0xBF, 0xBF}};
+		for(int[] character : overlong)
+			assertFalse(Arrays.toString(character), valid(bytes(character)));
+	}
+
+	@Test
+	public void refusesSurrogates()
+	{
+		for(int[] character : new int[][] {{0xED, 0xA0, 0x80}, {0xED, 0xAF, 0xBF}, {0xED, 0xB0, 0x80}, {0xED, 0xBF, 0xBF}})
+			assertFalse(Arrays.toString(character), valid(bytes(character)));
+	}
+
+	@Test
+	public void refusesCodePointsPastLastOne()
+	{
+		for(int[] character : new int[][] {{0xF4, 0x90, 0x80, 0x80}, {0xF5, 0x80, 0x80, 0x80}, {0xF7, 0xBF, 0xBF, 0xBF}, {0xF8}, {0xFE}, {0xFF}})
+			assertFalse(Arrays.toString(character), valid(bytes(character)));
+	}
+
+	@Test
+	public void refusesStrayAndMissingContinuations()
+	{
+		assertFalse(valid(bytes(0x80)));
+		assertFalse(valid(bytes('a', 0xBF, 'b')));
+		assertFalse(valid(bytes(0xE2, 0x82, 'a')));
+		assertFalse(valid(bytes(0xC3, 0xA9, 0xA9)));
+	}
+
+	/**
+	 * A character split across fragments or reads is valid at any split, and
+	 * a text ending inside of a character is not complete.
+	 */
+	@Test
+	public void validatesCharactersSplitAnywhere()
+	{
+		byte[] text = "a\u00e9\u20ac\ud834\udd1e ascii run of more than eight bytes \u2713".getBytes(StandardCharsets.UTF_8);
+		for(int split = 0; split <= text.length; split++)
+			assertTrue("split=" + split, valid(text, split));
+
+		Utf8 utf8 = new Utf8();
+		byte[] euro = "\u20ac".getBytes(StandardCharsets.UTF_8);
+		assertTrue(utf8.validate(ByteBuffer.wrap(euro), 0, 2));
+		assertFalse(utf8.isComplete());
+		assertTrue(utf8.validate(ByteBuffer.wrap(euro), 2, 3));
+		assertTrue(utf8.isComplete());
+		assertFalse(utf8.isAscii());
+
+		utf8.reset();
+		assertTrue(utf8.validate(ByteBuffer.wrap(euro), 0, 1));
+		assertFalse(utf8.validate(ByteBuffer.wrap(bytes(0x28)), 0, 1));
+	}
+
+	/**
+	 * Random sequences, mostly ASCII so that the eight byte skip is taken,
+	 * are judged as the JDK judges them, however they are split.
+	 */
+	@Test
+	public void agreesWithDecoderOfJdk()
+	{
+		Random random = new Random(11);
+		for(int round = 0; round < 20000; round++)
+		{
+			byte[] text = new byte[random.nextInt(40)];
+			for(int i = 0; i < text.length; i++)
+				text[i] = (byte) (random.nextInt(4) == 0 ? 0x80 + random.nextInt(0x80) : random.nextInt(0x80));
+			boolean expected = decodes(text);
+			assertEquals(Arrays.toString(text), expected, valid(text));
+			assertEquals(Arrays.toString(text), expected, valid(text, random.nextInt(text.length + 1)));
+		}
+	}
+
+	/**
+	 * @return frame as client sends it, masked with an empty key.
+	 */
+	private static byte[] frame(boolean fin, int opcode, byte[] payload)
+	{
+		byte[] frame = new byte[6 + payload.length];
+		frame[0] = (byte) ((fin ? 0x80 : 0) | opcode);
+		frame[1] = (byte) (0x80 | payload.length);
+		System.arraycopy(payload, 0, frame, 6, payload.length);
+		return frame;
+	}
+
+	private static void assertRefused(FrameDecoder decoder, byte[] frame)
+	{
+		try
+		{
+			Frame decoded = decoder.decode(ByteBuffer.wrap(frame));
+			if(decoded != null)
+				decoded.release();
+			fail("Decoded invalid text.");
+		}
+		catch (InvalidFrameException e)
+		{
+			assertEquals(CloseFrame.NO_UTF8, e.getStatus());
+		}
+	}
+
+	@Test
+	public void decodesCharacterSplitAcrossFragments() throws Exception
+	{
+		FrameDecoder decoder = new FrameDecoder();
+		assertNull(decoder.decode(ByteBuffer.wrap(frame(false, 0x1, bytes('c', 'a', 'f', 0xC3)))));
+		Frame message = decoder.decode(ByteBuffer.wrap(frame(true, 0x0, bytes(0xA9))));
+		assertArrayEquals("caf\u00e9".getBytes(StandardCharsets.UTF_8), message.toByteArray());
+		message.release();
+	}
+
+	@Test
+	public void refusesInvalidFinalFragment() throws Exception
+	{
+		FrameDecoder decoder = new FrameDecoder();
+		assertNull(decoder.decode(ByteBuffer.wrap(frame(false, 0x1, bytes('c', 'a', 'f', 0xC3)))));
+		assertRefused(decoder, frame(true, 0x0, bytes(0x28)));
+	}
+
+	@Test
+	public void refusesFinalFragmentEndingInsideCharacter() throws Exception
+	{
+		FrameDecoder decoder = new FrameDecoder();
+		assertNull(decoder.decode(ByteBuffer.wrap(frame(false, 0x1, bytes('a', 'b')))));
+		assertRefused(decoder, frame(true, 0x0, bytes('c', 0xE2, 0x82)));
+		assertRefused(new FrameDecoder(), frame(true, 0x1, bytes(0xED, 0xA0, 0x80)));
+	}
+}
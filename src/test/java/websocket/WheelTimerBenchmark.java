@@ -0,0 +1,95 @@
+package websocket;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * CPU the timer's thread uses while idle sessions wait for their ping
+ * deadline. Benchmarks only run with {@code -Dbenchmark=true}.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class WheelTimerBenchmark
+{
+	private WheelTimer TIMER;
+
+	@BeforeClass
+	public static void enabled()
+	{
+		assumeTrue("Benchmarks run with -Dbenchmark=true.", Boolean.getBoolean("benchmark"));
+	}
+
+	@Before
+	public void start()
+	{
+		TIMER = new WheelTimer(10, TimeUnit.MILLISECONDS, 0x200);
+	}
+
+	@After
+	public void stop()
+	{
+		TIMER.stop();
+	}
+
+	/**
+	 * Idle sessions each wait for their ping deadline. Each tick only visits
+	 * one bucket, so the timer's thread should stay all but idle however
+	 * many sessions wait.
+	 */
+	@Test
+	public void idleSessions() throws Exception
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue("Thread CPU time is not supported.", threads.isThreadCpuTimeSupported());
+		threads.setThreadCpuTimeEnabled(true);
+
+		final AtomicReference<Thread> worker = new AtomicReference<Thread>();
+		final CountDownLatch started = new CountDownLatch(1);
+		TIMER.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				worker.set(Thread.currentThread());
+				started.countDown();
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+		started.await(5, TimeUnit.SECONDS);
+		long id = worker.get().getId();
+
+		Runnable ping = new Runnable()
+		{
+			@Override
+			public void run() {}
+		};
+		int sessions = 0;
+		for(int count : new int[] {1000, 10000, 50000})
+		{
+			for(; sessions < count; sessions++)
+				TIMER.schedule(ping, SessionTimeouts.DEFAULT_PING_INTERVAL + sessions % 1000, TimeUnit.MILLISECONDS);
+
+			/*
+			 * Let the tasks settle into their buckets first.
+			 */
+			Thread.sleep(200);
+			long cpu = threads.getThreadCpuTime(id);
+			long wall = System.nanoTime();
+			Thread.sleep(2000);
+			cpu = threads.getThreadCpuTime(id) - cpu;
+			wall = System.nanoTime() - wall;
+			System.out.printf("WheelTimer: %,d idle sessions, %,d ms of CPU in %,d ms (%.2f%%)%n",
+					count, TimeUnit.NANOSECONDS.toMillis(cpu), TimeUnit.NANOSECONDS.toMillis(wall), cpu * 100.0 / wall);
+		}
+	}
+}
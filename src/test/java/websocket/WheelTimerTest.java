@@ -0,0 +1,127 @@
+package websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Deadlines of the timer, including ones scheduled once it stopped.
+ *
+ * @author Ryan Mayobre
+ *
+ */
+public class WheelTimerTest
+{
+	private WheelTimer TIMER;
+
+	@Before
+	public void start()
+	{
+		TIMER = new WheelTimer(10, TimeUnit.MILLISECONDS, 0x200);
+	}
+
+	@After
+	public void stop()
+	{
+		TIMER.stop();
+	}
+
+	@Test
+	public void runsAfterDeadline() throws Exception
+	{
+		final CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+		WheelTimer.Timeout timeout = TIMER.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ran.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void runsDeadlineBeyondOneTurn() throws Exception
+	{
+		/*
+		 * 0x200 buckets of 10 ms turn once every 5.12 seconds,
+		 * so a short wheel makes a deadline take rounds.
+		 */
+		WheelTimer timer = new WheelTimer(10, TimeUnit.MILLISECONDS, 4);
+		try
+		{
+			final CountDownLatch ran = new CountDownLatch(1);
+			long start = System.nanoTime();
+			timer.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ran.countDown();
+				}
+			}, 150, TimeUnit.MILLISECONDS);
+			assertTrue(ran.await(5, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+		}
+		finally
+		{
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void neverRunsCancelled() throws Exception
+	{
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runs.incrementAndGet();
+			}
+		};
+		WheelTimer.Timeout cancelled = TIMER.schedule(task, 50, TimeUnit.MILLISECONDS);
+		TIMER.schedule(task, 50, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		Thread.sleep(300);
+		assertEquals(1, runs.get());
+		assertTrue(cancelled.isCancelled());
+	}
+
+	/**
+	 * A session opening while the server shuts down still schedules its
+	 * deadlines, which never run rather than failing the session.
+	 */
+	@Test
+	public void neverRunsTaskScheduledOnceStopped() throws Exception
+	{
+		final AtomicInteger runs = new AtomicInteger();
+		TIMER.stop();
+		WheelTimer.Timeout timeout = TIMER.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				runs.incrementAndGet();
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.isCancelled());
+		Thread.sleep(100);
+		assertEquals(0, runs.get());
+	}
+}